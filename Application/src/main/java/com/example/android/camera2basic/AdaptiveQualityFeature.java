@@ -0,0 +1,305 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.camera2.CameraCharacteristics;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.util.Log;
+
+import com.example.android.camera2basic.core.AdaptiveQualityController;
+import com.example.android.camera2basic.core.CameraStreams;
+import com.example.android.camera2basic.core.CaptureController;
+import com.example.android.camera2basic.core.DeviceConditions;
+import com.example.android.camera2basic.core.FrameStream;
+import com.example.android.camera2basic.core.PreviewResult;
+import com.example.android.camera2basic.core.QualityTier;
+import com.example.android.camera2basic.core.Resolution;
+import com.example.android.camera2basic.core.ThermalZones;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+/**
+ * Steps the preview size, frame rate, analysis rate and burst depth down through
+ * {@link QualityTier#DEFAULT_TIERS} when the device heats up, runs low on battery or drops frames,
+ * and back up when it recovers. The burst depth, analysis rate and frame rate change in place; a
+ * different preview size is left to the {@link Listener}, as it needs the camera to be restarted.
+ * The time spent in each tier is logged when the feature is stopped.
+ */
+class AdaptiveQualityFeature extends CameraFeature {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "AdaptiveQualityFeature";
+
+    /**
+     * How often the device conditions are sampled.
+     */
+    private static final long SAMPLE_MS = 5000;
+
+    /**
+     * Receives the tier changes that need the camera to be restarted.
+     */
+    interface Listener {
+
+        /**
+         * Called on the background thread once {@code tier} has been applied. The camera needs to
+         * be restarted if the preview size no longer fits the tier.
+         */
+        void onTierApplied(QualityTier tier);
+
+    }
+
+    private final Context mContext;
+
+    private final Handler mBackgroundHandler;
+
+    private final Executor mCameraExecutor;
+
+    private final CameraStreams mStreams;
+
+    private final Listener mListener;
+
+    /**
+     * Picks the tier; only used on the background thread once started.
+     */
+    private final AdaptiveQualityController mController;
+
+    /**
+     * The thermal zones sampled on the background thread.
+     */
+    private final ThermalZones mThermalZones = new ThermalZones(new File("/sys/class/thermal"));
+
+    private FrameStream.Subscription mFrameSubscription;
+
+    private volatile boolean mStarted;
+
+    /**
+     * The controller of the open camera, otherwise null.
+     */
+    private volatile CaptureController mCaptureController;
+
+    /**
+     * The backend of the open camera, otherwise null.
+     */
+    private volatile Camera2Backend mBackend;
+
+    /**
+     * Whether the frame rate of the current tier has yet to be applied, because a still capture
+     * was under way when the tier changed.
+     */
+    private volatile boolean mFpsCapPending;
+
+    private volatile int mAnalysisStride = 1;
+
+    private volatile Resolution mMaxPreviewSize;
+
+    /**
+     * Samples the device conditions every {@link #SAMPLE_MS}. Runs on the background thread.
+     */
+    private final Runnable mSample = new Runnable() {
+        @Override
+        public void run() {
+            if (!mStarted) {
+                return;
+            }
+            mController.sample(readDeviceConditions(), System.nanoTime());
+            if (mFpsCapPending) {
+                applyMaxFps(mController.getTier());
+            }
+            mBackgroundHandler.postDelayed(this, SAMPLE_MS);
+        }
+    };
+
+    /**
+     * Feeds the preview frames to {@link #mController}, on the background thread.
+     */
+    private final FrameStream.Subscriber<PreviewResult> mFrameSubscriber
+            = new FrameStream.Subscriber<PreviewResult>() {
+
+        @Override
+        public void onSubscribe(FrameStream.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(PreviewResult result) {
+            mController.onFrame(result.getTimestamp());
+        }
+
+        @Override
+        public void onError(Exception e) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+    };
+
+    /**
+     * @param context           Reads the battery and power saving state.
+     * @param backgroundHandler The handler of the background thread.
+     * @param cameraExecutor    Runs tasks on the background thread.
+     * @param streams           The streams whose preview results are watched for dropped frames.
+     * @param listener          Receives the tier changes.
+     */
+    AdaptiveQualityFeature(Context context, Handler backgroundHandler, Executor cameraExecutor,
+            CameraStreams streams, Listener listener) {
+        mContext = context;
+        mBackgroundHandler = backgroundHandler;
+        mCameraExecutor = cameraExecutor;
+        mStreams = streams;
+        mListener = listener;
+        mController = new AdaptiveQualityController(QualityTier.DEFAULT_TIERS,
+                new AdaptiveQualityController.Listener() {
+            @Override
+            public void onTierChanged(QualityTier from, QualityTier to, String reason) {
+                Log.i(TAG, "Quality tier " + from.getName() + " -> " + to + ", " + reason + "; "
+                        + mController);
+                applyTier(to);
+            }
+        });
+        mMaxPreviewSize = mController.getTier().getMaxPreviewSize();
+    }
+
+    /**
+     * @return The current tier.
+     */
+    QualityTier getTier() {
+        return mController.getTier();
+    }
+
+    /**
+     * @return Only every this many analysis frames are to be published.
+     */
+    int getAnalysisStride() {
+        return mAnalysisStride;
+    }
+
+    /**
+     * @return The largest preview size of the current tier, in sensor orientation.
+     */
+    Resolution getMaxPreviewSize() {
+        return mMaxPreviewSize;
+    }
+
+    @Override
+    void start() {
+        mStarted = true;
+        mFrameSubscription = mStreams.getPreviewResults().subscribe(mFrameSubscriber,
+                mCameraExecutor, 8, FrameStream.Overflow.DROP_OLDEST);
+        mBackgroundHandler.post(mSample);
+    }
+
+    @Override
+    void stop() {
+        mStarted = false;
+        mBackgroundHandler.removeCallbacks(mSample);
+        mFrameSubscription.cancel();
+        mFrameSubscription = null;
+        Log.i(TAG, "Quality tiers: " + mController);
+    }
+
+    @Override
+    void onCameraOpening(CameraCharacteristics characteristics, Camera2Backend backend,
+            CaptureController controller) {
+        QualityTier tier = mController.getTier();
+        backend.setMaxFps(tier.getMaxFps());
+        controller.setMaxQueuedPresses(tier.getBurstDepth());
+        mBackend = backend;
+        mCaptureController = controller;
+    }
+
+    @Override
+    void onCameraClosing(Camera2Backend backend) {
+        mCaptureController = null;
+        mBackend = null;
+    }
+
+    /**
+     * Applies {@code tier} to the open camera and tells {@link #mListener}. Runs on the background
+     * thread.
+     */
+    private void applyTier(QualityTier tier) {
+        CaptureController controller = mCaptureController;
+        if (null != controller) {
+            controller.setMaxQueuedPresses(tier.getBurstDepth());
+        }
+        mAnalysisStride = tier.getAnalysisStride();
+        mMaxPreviewSize = tier.getMaxPreviewSize();
+        applyMaxFps(tier);
+        mListener.onTierApplied(tier);
+    }
+
+    /**
+     * Caps the preview frame rate at that of {@code tier}, or leaves it for a later sample if a
+     * still capture is under way. Runs on the background thread.
+     */
+    private void applyMaxFps(QualityTier tier) {
+        CaptureController controller = mCaptureController;
+        Camera2Backend backend = mBackend;
+        if (null == controller || null == backend) {
+            // Applied when the camera is opened.
+            mFpsCapPending = false;
+            return;
+        }
+        mFpsCapPending = controller.getState() != CaptureController.STATE_PREVIEW;
+        if (!mFpsCapPending) {
+            backend.setMaxFps(tier.getMaxFps());
+        }
+    }
+
+    /**
+     * @return The battery temperature and level, and a thermal status derived from the case
+     * temperature where the kernel exposes it.
+     */
+    private DeviceConditions readDeviceConditions() {
+        // ACTION_BATTERY_CHANGED is sticky, so this returns the latest state right away.
+        Intent battery = mContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        float temperature = Float.NaN;
+        int percent = 100;
+        boolean charging = true;
+        if (null != battery) {
+            int tenths = battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, Integer.MIN_VALUE);
+            if (tenths != Integer.MIN_VALUE) {
+                temperature = tenths / 10f;
+            }
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                percent = level * 100 / scale;
+            }
+            charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        }
+        PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        // PowerManager.getCurrentThermalStatus() needs API 29, so the case zones of the kernel
+        // stand in for it.
+        int thermalStatus = ThermalZones.toThermalStatus(
+                mThermalZones.readCaseTemperatureCelsius());
+        return new DeviceConditions(temperature, thermalStatus, percent, charging,
+                powerManager.isPowerSaveMode());
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.content.Context;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.util.Size;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import com.example.android.camera2basic.core.MetricsRegistry;
+
+/**
+ * A {@link SurfaceView} that can be adjusted to a specified aspect ratio. Its buffers go to the
+ * system compositor directly, which also applies the rotation the camera sets on them, so the
+ * transformation that {@link AutoFitTextureView} needs is not used here.
+ */
+public class AutoFitSurfaceView extends SurfaceView implements PreviewView {
+
+    private static final MetricsRegistry.Histogram MEASURE_PASSES = MetricsRegistry.getDefault()
+            .histogram("preview_view_measure_seconds", "Measure passes of the preview view");
+
+    private static final MetricsRegistry.Histogram LAYOUT_PASSES = MetricsRegistry.getDefault()
+            .histogram("preview_view_layout_seconds", "Layout passes of the preview view");
+
+    private int mRatioWidth = 0;
+    private int mRatioHeight = 0;
+
+    private Callback mCallback;
+
+    /**
+     * Whether the surface exists.
+     */
+    private boolean mAvailable;
+
+    /**
+     * The size of a pending {@link #requestSurface(Size, SurfaceCallback)}, or null.
+     */
+    private Size mRequestedSize;
+
+    private SurfaceCallback mSurfaceCallback;
+
+    private final SurfaceHolder.Callback mHolderCallback = new SurfaceHolder.Callback() {
+
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+            mAvailable = true;
+            if (null != mCallback) {
+                mCallback.onPreviewViewAvailable(getWidth(), getHeight());
+            }
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            // The camera only accepts a surface of one of its output sizes, so wait for the one
+            // that was requested.
+            if (null != mRequestedSize && mRequestedSize.getWidth() == width
+                    && mRequestedSize.getHeight() == height) {
+                deliverSurface();
+            }
+        }
+
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            mAvailable = false;
+            mRequestedSize = null;
+            mSurfaceCallback = null;
+        }
+
+    };
+
+    public AutoFitSurfaceView(Context context) {
+        this(context, null);
+    }
+
+    public AutoFitSurfaceView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public AutoFitSurfaceView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        getHolder().addCallback(mHolderCallback);
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return mAvailable;
+    }
+
+    /**
+     * Sets the aspect ratio for this view. The size of the view will be measured based on the ratio
+     * calculated from the parameters. Note that the actual sizes of parameters don't matter, that
+     * is, calling setAspectRatio(2, 3) and setAspectRatio(4, 6) make the same result.
+     *
+     * @param width  Relative horizontal size
+     * @param height Relative vertical size
+     */
+    @Override
+    public void setAspectRatio(int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Size cannot be negative.");
+        }
+        mRatioWidth = width;
+        mRatioHeight = height;
+        requestLayout();
+    }
+
+    @Override
+    public void setTransform(Matrix matrix) {
+        // The compositor scales and rotates the buffers itself.
+    }
+
+    @Override
+    public void requestSurface(Size size, SurfaceCallback callback) {
+        mRequestedSize = size;
+        mSurfaceCallback = callback;
+        SurfaceHolder holder = getHolder();
+        Rect frame = holder.getSurfaceFrame();
+        if (mAvailable && frame.width() == size.getWidth()
+                && frame.height() == size.getHeight()) {
+            deliverSurface();
+        } else {
+            // Triggers surfaceChanged() with the new size.
+            holder.setFixedSize(size.getWidth(), size.getHeight());
+        }
+    }
+
+    @Override
+    public boolean reportsFrames() {
+        return false;
+    }
+
+    /**
+     * Assumes that the compositor picks the frame up at one vsync and scans it out at the next.
+     */
+    @Override
+    public int getCompositionVsyncs() {
+        return 1;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        long start = System.nanoTime();
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        int height = MeasureSpec.getSize(heightMeasureSpec);
+        if (0 == mRatioWidth || 0 == mRatioHeight) {
+            setMeasuredDimension(width, height);
+        } else {
+            if (width < height * mRatioWidth / mRatioHeight) {
+                setMeasuredDimension(width, width * mRatioHeight / mRatioWidth);
+            } else {
+                setMeasuredDimension(height * mRatioWidth / mRatioHeight, height);
+            }
+        }
+        MEASURE_PASSES.recordSince(start);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        long start = System.nanoTime();
+        super.onLayout(changed, left, top, right, bottom);
+        LAYOUT_PASSES.recordSince(start);
+    }
+
+    private void deliverSurface() {
+        SurfaceCallback callback = mSurfaceCallback;
+        mRequestedSize = null;
+        mSurfaceCallback = null;
+        callback.onSurfaceReady(getHolder().getSurface());
+    }
+
+}
@@ -17,17 +17,64 @@
 package com.example.android.camera2basic;
 
 import android.content.Context;
+import android.graphics.SurfaceTexture;
 import android.util.AttributeSet;
+import android.util.Size;
+import android.view.Surface;
 import android.view.TextureView;
 
+import com.example.android.camera2basic.core.MetricsRegistry;
+
 /**
  * A {@link TextureView} that can be adjusted to a specified aspect ratio.
  */
-public class AutoFitTextureView extends TextureView {
+public class AutoFitTextureView extends TextureView implements PreviewView {
+
+    private static final MetricsRegistry.Histogram MEASURE_PASSES = MetricsRegistry.getDefault()
+            .histogram("preview_view_measure_seconds", "Measure passes of the preview view");
+
+    private static final MetricsRegistry.Histogram LAYOUT_PASSES = MetricsRegistry.getDefault()
+            .histogram("preview_view_layout_seconds", "Layout passes of the preview view");
 
     private int mRatioWidth = 0;
     private int mRatioHeight = 0;
 
+    private Callback mCallback;
+
+    /**
+     * {@link TextureView.SurfaceTextureListener} handles several lifecycle events on a
+     * {@link TextureView}.
+     */
+    private final SurfaceTextureListener mSurfaceTextureListener = new SurfaceTextureListener() {
+
+        @Override
+        public void onSurfaceTextureAvailable(SurfaceTexture texture, int width, int height) {
+            if (null != mCallback) {
+                mCallback.onPreviewViewAvailable(width, height);
+            }
+        }
+
+        @Override
+        public void onSurfaceTextureSizeChanged(SurfaceTexture texture, int width, int height) {
+            if (null != mCallback) {
+                mCallback.onPreviewViewSizeChanged(width, height);
+            }
+        }
+
+        @Override
+        public boolean onSurfaceTextureDestroyed(SurfaceTexture texture) {
+            return true;
+        }
+
+        @Override
+        public void onSurfaceTextureUpdated(SurfaceTexture texture) {
+            if (null != mCallback) {
+                mCallback.onPreviewFrameAvailable(texture.getTimestamp());
+            }
+        }
+
+    };
+
     public AutoFitTextureView(Context context) {
         this(context, null);
     }
@@ -38,6 +85,12 @@ public class AutoFitTextureView extends TextureView {
 
     public AutoFitTextureView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
+        setSurfaceTextureListener(mSurfaceTextureListener);
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        mCallback = callback;
     }
 
     /**
@@ -48,6 +101,7 @@ public class AutoFitTextureView extends TextureView {
      * @param width  Relative horizontal size
      * @param height Relative vertical size
      */
+    @Override
     public void setAspectRatio(int width, int height) {
         if (width < 0 || height < 0) {
             throw new IllegalArgumentException("Size cannot be negative.");
@@ -59,6 +113,7 @@ public class AutoFitTextureView extends TextureView {
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        long start = System.nanoTime();
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
         int width = MeasureSpec.getSize(widthMeasureSpec);
         int height = MeasureSpec.getSize(heightMeasureSpec);
@@ -71,6 +126,36 @@ public class AutoFitTextureView extends TextureView {
                 setMeasuredDimension(height * mRatioWidth / mRatioHeight, height);
             }
         }
+        MEASURE_PASSES.recordSince(start);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        long start = System.nanoTime();
+        super.onLayout(changed, left, top, right, bottom);
+        LAYOUT_PASSES.recordSince(start);
+    }
+
+    @Override
+    public void requestSurface(Size size, SurfaceCallback callback) {
+        SurfaceTexture texture = getSurfaceTexture();
+        // We configure the size of default buffer to be the size of camera preview we want.
+        texture.setDefaultBufferSize(size.getWidth(), size.getHeight());
+        callback.onSurfaceReady(new Surface(texture));
+    }
+
+    @Override
+    public boolean reportsFrames() {
+        return true;
+    }
+
+    /**
+     * Assumes that the render thread of the app picks the frame up at one vsync, and that the
+     * compositor scans out the result at the next.
+     */
+    @Override
+    public int getCompositionVsyncs() {
+        return 2;
     }
 
 }
@@ -0,0 +1,927 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import com.example.android.camera2basic.core.CameraBackend;
+import com.example.android.camera2basic.core.FrameStream;
+import com.example.android.camera2basic.core.IntervalCaptureBackend;
+import com.example.android.camera2basic.core.MetricsRegistry;
+import com.example.android.camera2basic.core.PreviewResult;
+import com.example.android.camera2basic.core.StillImage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link CameraBackend} on top of the camera2 API. It captures into a preview
+ * {@link SurfaceTexture} or {@link Surface}, a JPEG {@link ImageReader}, optionally a YUV
+ * {@link ImageReader} for analysis and optionally a {@link RawDngWriter}, and delivers all its
+ * callbacks on the {@link Handler} it was created with.
+ */
+class Camera2Backend implements CameraBackend, IntervalCaptureBackend {
+
+    /**
+     * Receives the completion of preview frames.
+     */
+    interface PreviewFrameListener {
+
+        /**
+         * @param sensorTimestampNanos The {@code SENSOR_TIMESTAMP} of the frame.
+         */
+        void onPreviewFrameCompleted(long sensorTimestampNanos);
+
+    }
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "Camera2Backend";
+
+    private static final MetricsRegistry.Histogram FRAME_INTERVAL = MetricsRegistry.getDefault()
+            .histogram("camera_frame_interval_seconds", "Time between the sensor timestamps of"
+                    + " consecutive preview results");
+
+    private static final MetricsRegistry.Counter CAPTURE_FAILURES = MetricsRegistry.getDefault()
+            .counter("camera_capture_failures_total", "Preview and 3A requests that failed");
+
+    private static final MetricsRegistry.Counter STILL_IMAGES_DROPPED = MetricsRegistry
+            .getDefault().counter("camera_still_images_dropped_total", "Still images skipped"
+                    + " because the app held all the reader allows");
+
+    private static final MetricsRegistry.Histogram CLOSE_LATENCY = MetricsRegistry.getDefault()
+            .histogram("camera_close_seconds", "Time to close the session and the device");
+
+    private final CameraManager mCameraManager;
+
+    /**
+     * ID of the {@link CameraDevice}.
+     */
+    private final String mCameraId;
+
+    /**
+     * The {@link Handler} camera callbacks run on.
+     */
+    private final Handler mHandler;
+
+    /**
+     * Whether the camera device supports Flash or not.
+     */
+    private final boolean mFlashSupported;
+
+    /**
+     * An {@link ImageReader} that handles still image capture. It outlives the camera device, so
+     * that images being saved stay valid when the device is reopened.
+     */
+    private final ImageReader mImageReader;
+
+    /**
+     * An optional {@link ImageReader} that receives every preview frame for analysis.
+     */
+    private ImageReader mAnalysisReader;
+
+    /**
+     * An optional RAW output that receives every still capture along with the JPEG.
+     */
+    private RawDngWriter mRawWriter;
+
+    /**
+     * The optional input surface of a video encoder, which receives every preview frame.
+     */
+    private Surface mRecordingSurface;
+
+    /**
+     * A {@link Semaphore} to prevent the app from exiting before closing the camera.
+     */
+    private final Semaphore mCameraOpenCloseLock = new Semaphore(1);
+
+    /**
+     * Whether {@link #open} holds {@link #mCameraOpenCloseLock} for a pending open. Only the first
+     * state callback after an open may release it; later ones must not add permits.
+     */
+    private final AtomicBoolean mOpenPending = new AtomicBoolean();
+
+    /**
+     * The {@link SurfaceTexture} the preview is drawn into.
+     */
+    private SurfaceTexture mPreviewTexture;
+
+    /**
+     * The preview {@link Surface}, used instead of {@link #mPreviewTexture} if set.
+     */
+    private Surface mPreviewSurface;
+
+    /**
+     * The {@link android.util.Size} of camera preview.
+     */
+    private Size mPreviewSize;
+
+    private Callback mCallback;
+
+    /**
+     * Receives the sensor timestamps of the preview frames, or null.
+     */
+    private IntervalCaptureBackend.FrameCallback mFrameCallback;
+
+    private PreviewFrameListener mPreviewFrameListener;
+
+    /**
+     * The stream the preview results are published on, or null.
+     */
+    private FrameStream<PreviewResult> mPreviewResults;
+
+    /**
+     * The frame rate range of the preview before {@link #setLowPowerRepeating(boolean)}.
+     */
+    private Range<Integer> mNormalFpsRange;
+
+    /**
+     * The cap set with {@link #setMaxFps(int)}, or 0 to leave the frame rate to the defaults.
+     */
+    private int mMaxFps;
+
+    /**
+     * A reference to the opened {@link CameraDevice}.
+     */
+    private CameraDevice mCameraDevice;
+
+    /**
+     * A {@link CameraCaptureSession } for camera preview.
+     */
+    private CameraCaptureSession mCaptureSession;
+
+    /**
+     * {@link CaptureRequest.Builder} for the camera preview. The one-shot triggers are only set
+     * for the single request that carries them, see {@link #captureTrigger}, so the builder never
+     * holds one when a repeating request is built.
+     */
+    private CaptureRequest.Builder mPreviewRequestBuilder;
+
+    /**
+     * {@link CaptureRequest} generated by {@link #mPreviewRequestBuilder}, with the 3A unlocked
+     */
+    private CaptureRequest mPreviewRequest;
+
+    /**
+     * Whether {@link #lock3A()} is in effect, so the repeating request keeps the exposure locked.
+     */
+    private boolean m3ALocked;
+
+    /**
+     * Whether the first result of the preview has been seen.
+     */
+    private boolean mFirstResultReported;
+
+    /**
+     * The sensor timestamp of the latest preview result, or 0.
+     */
+    private long mLastResultTimestamp;
+
+    /**
+     * {@link CameraDevice.StateCallback} is called when {@link CameraDevice} changes its state.
+     */
+    private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
+
+        @Override
+        public void onOpened(@NonNull CameraDevice cameraDevice) {
+            StartupTimeline.mark(StartupTimeline.CAMERA_OPENED);
+            releaseOpenLock();
+            mCameraDevice = cameraDevice;
+            mCallback.onOpened();
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice cameraDevice) {
+            releaseOpenLock();
+            cameraDevice.close();
+            mCameraDevice = null;
+            mCaptureSession = null;
+            mCallback.onCameraLost(ERROR_DISCONNECTED);
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice cameraDevice, int error) {
+            releaseOpenLock();
+            cameraDevice.close();
+            mCameraDevice = null;
+            mCaptureSession = null;
+            mCallback.onCameraLost(error);
+        }
+
+        private void releaseOpenLock() {
+            if (mOpenPending.compareAndSet(true, false)) {
+                mCameraOpenCloseLock.release();
+            }
+        }
+
+    };
+
+    /**
+     * This a callback object for the {@link ImageReader}. "onImageAvailable" will be called when a
+     * still image is ready to be saved.
+     */
+    private final ImageReader.OnImageAvailableListener mOnImageAvailableListener
+            = new ImageReader.OnImageAvailableListener() {
+
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image;
+            try {
+                image = reader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                // The images still being saved are all the reader allows; this one is skipped.
+                STILL_IMAGES_DROPPED.increment();
+                Log.w(TAG, "Dropped a still image, " + reader.getMaxImages() + " already held");
+                return;
+            }
+            if (null != image) {
+                mCallback.onStillImageAvailable(new JpegImage(image));
+            }
+        }
+
+    };
+
+    /**
+     * A {@link CameraCaptureSession.CaptureCallback} that reports the 3A state of the preview and
+     * of the 3A trigger requests.
+     */
+    private final CameraCaptureSession.CaptureCallback mCaptureCallback
+            = new CameraCaptureSession.CaptureCallback() {
+
+        private void process(CaptureResult result) {
+            Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+            Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+            mCallback.onCaptureResult(afState == null ? STATE_UNKNOWN : afState,
+                    aeState == null ? STATE_UNKNOWN : aeState);
+        }
+
+        @Override
+        public void onCaptureProgressed(@NonNull CameraCaptureSession session,
+                                        @NonNull CaptureRequest request,
+                                        @NonNull CaptureResult partialResult) {
+            process(partialResult);
+        }
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                       @NonNull CaptureRequest request,
+                                       @NonNull TotalCaptureResult result) {
+            if (!mFirstResultReported) {
+                mFirstResultReported = true;
+                StartupTimeline.mark(StartupTimeline.FIRST_RESULT);
+            }
+            process(result);
+            Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+            if (null != timestamp) {
+                if (0 != mLastResultTimestamp && timestamp > mLastResultTimestamp) {
+                    FRAME_INTERVAL.record(
+                            TimeUnit.NANOSECONDS.toMicros(timestamp - mLastResultTimestamp));
+                }
+                mLastResultTimestamp = timestamp;
+            }
+            if (null != mPreviewFrameListener && null != timestamp) {
+                mPreviewFrameListener.onPreviewFrameCompleted(timestamp);
+            }
+            if (null != mPreviewResults && null != timestamp && mPreviewResults.hasSubscribers()) {
+                Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+                Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+                mPreviewResults.publish(new PreviewResult(timestamp, result.getFrameNumber(),
+                        afState == null ? STATE_UNKNOWN : afState,
+                        aeState == null ? STATE_UNKNOWN : aeState));
+            }
+            if (null != mFrameCallback && null != timestamp) {
+                Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+                Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+                mFrameCallback.onFrameResult(timestamp,
+                        afState == null ? STATE_UNKNOWN : afState,
+                        aeState == null ? STATE_UNKNOWN : aeState);
+            }
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                    @NonNull CaptureRequest request,
+                                    @NonNull CaptureFailure failure) {
+            CAPTURE_FAILURES.increment();
+        }
+
+    };
+
+    /**
+     * @param cameraManager  The system {@link CameraManager}.
+     * @param cameraId       The camera to open.
+     * @param stillSize      The size of still image captures.
+     * @param flashSupported Whether the camera has a flash unit.
+     * @param handler        The {@link Handler} all callbacks run on.
+     */
+    Camera2Backend(CameraManager cameraManager, String cameraId, Size stillSize,
+                   boolean flashSupported, Handler handler) {
+        this(cameraManager, cameraId, stillSize, /*maxStillImages*/2, flashSupported, handler);
+    }
+
+    /**
+     * @param cameraManager  The system {@link CameraManager}.
+     * @param cameraId       The camera to open.
+     * @param stillSize      The size of still image captures.
+     * @param maxStillImages The number of still images that can be held at the same time.
+     * @param flashSupported Whether the camera has a flash unit.
+     * @param handler        The {@link Handler} all callbacks run on.
+     */
+    Camera2Backend(CameraManager cameraManager, String cameraId, Size stillSize,
+                   int maxStillImages, boolean flashSupported, Handler handler) {
+        mCameraManager = cameraManager;
+        mCameraId = cameraId;
+        mFlashSupported = flashSupported;
+        mHandler = handler;
+        mImageReader = ImageReader.newInstance(stillSize.getWidth(), stillSize.getHeight(),
+                ImageFormat.JPEG, maxStillImages);
+        mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, handler);
+    }
+
+    /**
+     * @return The number of still images the app can hold at once, e.g. while they are saved.
+     */
+    int getMaxStillImages() {
+        return mImageReader.getMaxImages();
+    }
+
+    /**
+     * Adds a YUV output that receives every preview frame. Must be called before
+     * {@link #createSession()}.
+     *
+     * @param size      The size of the analysis frames.
+     * @param maxImages The number of frames that can be held at the same time; at least 2 for
+     *                  {@link ImageReader#acquireLatestImage()}.
+     * @param listener  Called on the {@link Handler} of this backend for every frame.
+     */
+    void setAnalysisOutput(Size size, int maxImages,
+                           ImageReader.OnImageAvailableListener listener) {
+        mAnalysisReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+                ImageFormat.YUV_420_888, maxImages);
+        mAnalysisReader.setOnImageAvailableListener(listener, mHandler);
+    }
+
+    /**
+     * Adds a RAW output that receives every still capture. Must be called before
+     * {@link #createSession()}; the writer is closed along with this backend.
+     */
+    void setRawOutput(RawDngWriter writer) {
+        mRawWriter = writer;
+    }
+
+    /**
+     * Adds the input surface of a video encoder, which then receives every preview frame. Must
+     * be called before {@link #createSession()}. While recording, still captures don't stop the
+     * repeating request, so the video goes on around them.
+     */
+    void setRecordingOutput(Surface surface) {
+        mRecordingSurface = surface;
+    }
+
+    /**
+     * Sets the preview output. Must be called before {@link #createSession()}.
+     *
+     * @param texture The {@link SurfaceTexture} of the preview.
+     * @param size    The size of the camera preview.
+     */
+    void setPreviewSurface(SurfaceTexture texture, Size size) {
+        mPreviewTexture = texture;
+        mPreviewSurface = null;
+        mPreviewSize = size;
+    }
+
+    /**
+     * Sets the preview output. Must be called before {@link #createSession()}.
+     *
+     * @param surface The preview {@link Surface}, already sized to the preview.
+     * @param size    The size of the camera preview.
+     */
+    void setPreviewSurface(Surface surface, Size size) {
+        mPreviewTexture = null;
+        mPreviewSurface = surface;
+        mPreviewSize = size;
+    }
+
+    /**
+     * Sets the stream the results of the preview frames are published on, or null.
+     */
+    void setPreviewResultStream(FrameStream<PreviewResult> previewResults) {
+        mPreviewResults = previewResults;
+    }
+
+    /**
+     * Sets the listener that is called on the {@link Handler} of this backend when a preview
+     * frame has completed, or null.
+     */
+    void setPreviewFrameListener(PreviewFrameListener listener) {
+        mPreviewFrameListener = listener;
+    }
+
+    /**
+     * Caps the preview frame rate, using the supported target range with the highest maximum
+     * that is not above {@code maxFps}. Takes effect right away if the preview is running, so it
+     * must be called on the {@link Handler} of this backend, and not while a still capture is
+     * under way.
+     */
+    void setMaxFps(int maxFps) {
+        mMaxFps = maxFps;
+        if (null == mCaptureSession || null == mPreviewRequest) {
+            // Applied by startPreview().
+            return;
+        }
+        try {
+            applyMaxFps();
+            buildPreviewRequest();
+            mCaptureSession.setRepeatingRequest(buildRepeatingRequest(), mCaptureCallback,
+                    mHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean open(Callback callback) {
+        mCallback = callback;
+        try {
+            if (!mCameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "Time out waiting to lock camera opening.");
+                return false;
+            }
+            StartupTimeline.mark(StartupTimeline.CAMERA_OPEN_REQUESTED);
+            mOpenPending.set(true);
+            mCameraManager.openCamera(mCameraId, mStateCallback, mHandler);
+            return true;
+        } catch (CameraAccessException e) {
+            Log.w(TAG, "Opening camera failed: " + e.getReason());
+            mOpenPending.set(false);
+            mCameraOpenCloseLock.release();
+            return false;
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while trying to lock camera opening.", e);
+        }
+    }
+
+    @Override
+    public void createSession() {
+        StartupTimeline.beginSection("Camera2Backend.createSession");
+        try {
+            // This is the output Surface we need to start preview.
+            Surface surface = mPreviewSurface;
+            if (null == surface) {
+                SurfaceTexture texture = mPreviewTexture;
+                assert texture != null;
+
+                // We configure the size of default buffer to be the size of camera preview we
+                // want.
+                texture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+                surface = new Surface(texture);
+            }
+
+            // We set up a CaptureRequest.Builder with the output Surface.
+            mPreviewRequestBuilder = mCameraDevice.createCaptureRequest(null == mRecordingSurface
+                    ? CameraDevice.TEMPLATE_PREVIEW : CameraDevice.TEMPLATE_RECORD);
+            mPreviewRequestBuilder.addTarget(surface);
+            List<Surface> outputs = new ArrayList<>();
+            outputs.add(surface);
+            outputs.add(mImageReader.getSurface());
+            if (null != mRecordingSurface) {
+                mPreviewRequestBuilder.addTarget(mRecordingSurface);
+                outputs.add(mRecordingSurface);
+            }
+            if (null != mAnalysisReader) {
+                mPreviewRequestBuilder.addTarget(mAnalysisReader.getSurface());
+                outputs.add(mAnalysisReader.getSurface());
+            }
+            if (null != mRawWriter) {
+                outputs.add(mRawWriter.getSurface());
+            }
+
+            // Here, we create a CameraCaptureSession for camera preview.
+            mCameraDevice.createCaptureSession(outputs,
+                    new CameraCaptureSession.StateCallback() {
+
+                        @Override
+                        public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
+                            // The camera is already closed
+                            if (null == mCameraDevice) {
+                                return;
+                            }
+                            StartupTimeline.mark(StartupTimeline.SESSION_CONFIGURED);
+                            mCaptureSession = cameraCaptureSession;
+                            mCallback.onSessionConfigured();
+                        }
+
+                        @Override
+                        public void onConfigureFailed(
+                                @NonNull CameraCaptureSession cameraCaptureSession) {
+                            mCallback.onSessionConfigureFailed();
+                        }
+                    }, mHandler
+            );
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        } finally {
+            StartupTimeline.endSection();
+        }
+    }
+
+    @Override
+    public void startPreview() {
+        try {
+            // Auto focus should be continuous for camera preview.
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, getContinuousAfMode());
+            // Flash is automatically enabled when necessary.
+            setAutoFlash(mPreviewRequestBuilder);
+            if (0 != mMaxFps) {
+                applyMaxFps();
+            }
+
+            // Finally, we start displaying the camera preview.
+            m3ALocked = false;
+            buildPreviewRequest();
+            mCaptureSession.setRepeatingRequest(mPreviewRequest,
+                    mCaptureCallback, mHandler);
+            StartupTimeline.mark(StartupTimeline.PREVIEW_REQUESTED);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void lockFocus() {
+        try {
+            // This is how to tell the camera to lock focus.
+            captureTrigger(CaptureRequest.CONTROL_AF_TRIGGER,
+                    CameraMetadata.CONTROL_AF_TRIGGER_START);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void runPrecaptureSequence() {
+        try {
+            // This is how to tell the camera to trigger.
+            captureTrigger(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
+                    CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void captureStillPicture(int jpegOrientation) {
+        try {
+            if (null == mCameraDevice || null == mCaptureSession) {
+                return;
+            }
+            // This is the CaptureRequest.Builder that we use to take a picture.
+            final CaptureRequest.Builder captureBuilder =
+                    mCameraDevice.createCaptureRequest(getStillTemplate());
+            captureBuilder.addTarget(mImageReader.getSurface());
+            if (null != mRawWriter) {
+                captureBuilder.addTarget(mRawWriter.getSurface());
+            }
+
+            // Use the same AE and AF modes as the preview.
+            captureBuilder.set(CaptureRequest.CONTROL_AF_MODE, getContinuousAfMode());
+            setAutoFlash(captureBuilder);
+
+            // Orientation
+            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, jpegOrientation);
+
+            CameraCaptureSession.CaptureCallback CaptureCallback
+                    = new CameraCaptureSession.CaptureCallback() {
+
+                @Override
+                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                               @NonNull CaptureRequest request,
+                                               @NonNull TotalCaptureResult result) {
+                    if (null != mRawWriter) {
+                        mRawWriter.onCaptureCompleted(result);
+                    }
+                    mCallback.onStillCaptureCompleted();
+                }
+            };
+
+            if (null == mRecordingSurface) {
+                mCaptureSession.stopRepeating();
+            }
+            mCaptureSession.capture(captureBuilder.build(), CaptureCallback, mHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void unlockFocus() {
+        try {
+            // Reset the auto-focus trigger
+            setAutoFlash(mPreviewRequestBuilder);
+            captureTrigger(CaptureRequest.CONTROL_AF_TRIGGER,
+                    CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
+            // After this, the camera will go back to the normal state of preview.
+            mCaptureSession.setRepeatingRequest(mPreviewRequest, mCaptureCallback,
+                    mHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        long start = System.nanoTime();
+        mLastResultTimestamp = 0;
+        try {
+            mCameraOpenCloseLock.acquire();
+            if (null != mCaptureSession) {
+                mCaptureSession.close();
+                mCaptureSession = null;
+            }
+            if (null != mCameraDevice) {
+                mCameraDevice.close();
+                mCameraDevice = null;
+            }
+            mImageReader.close();
+            if (null != mAnalysisReader) {
+                mAnalysisReader.close();
+            }
+            if (null != mRawWriter) {
+                mRawWriter.close();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
+        } finally {
+            mCameraOpenCloseLock.release();
+            CLOSE_LATENCY.recordSince(start);
+        }
+    }
+
+    @Override
+    public void setFrameCallback(IntervalCaptureBackend.FrameCallback callback) {
+        mFrameCallback = callback;
+    }
+
+    @Override
+    public void lock3A() {
+        try {
+            m3ALocked = true;
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_LOCK, true);
+            // Only this request triggers; the focus stays locked until it is cancelled.
+            captureTrigger(CaptureRequest.CONTROL_AF_TRIGGER,
+                    CameraMetadata.CONTROL_AF_TRIGGER_START);
+            mCaptureSession.setRepeatingRequest(buildRepeatingRequest(), mCaptureCallback,
+                    mHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void setLowPowerRepeating(boolean lowPower) {
+        try {
+            if (lowPower) {
+                Range<Integer> lowest = getLowestFpsRange();
+                if (null == lowest) {
+                    return;
+                }
+                mNormalFpsRange = mPreviewRequestBuilder.get(
+                        CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE);
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, lowest);
+            } else {
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                        mNormalFpsRange);
+            }
+            mCaptureSession.setRepeatingRequest(buildRepeatingRequest(), mCaptureCallback,
+                    mHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void captureLockedStill(int jpegOrientation) {
+        try {
+            if (null == mCameraDevice || null == mCaptureSession) {
+                return;
+            }
+            CaptureRequest.Builder captureBuilder =
+                    mCameraDevice.createCaptureRequest(getStillTemplate());
+            captureBuilder.addTarget(mImageReader.getSurface());
+            if (null != mRawWriter) {
+                captureBuilder.addTarget(mRawWriter.getSurface());
+            }
+            // Same AF mode and no trigger, so the focus stays where it was locked. The flash
+            // would need a precapture sequence, so it stays off.
+            captureBuilder.set(CaptureRequest.CONTROL_AF_MODE, getContinuousAfMode());
+            captureBuilder.set(CaptureRequest.CONTROL_AE_MODE,
+                    CaptureRequest.CONTROL_AE_MODE_ON);
+            captureBuilder.set(CaptureRequest.CONTROL_AE_LOCK, true);
+            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, jpegOrientation);
+            mCaptureSession.capture(captureBuilder.build(),
+                    new CameraCaptureSession.CaptureCallback() {
+                        @Override
+                        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                                       @NonNull CaptureRequest request,
+                                                       @NonNull TotalCaptureResult result) {
+                            if (null != mRawWriter) {
+                                mRawWriter.onCaptureCompleted(result);
+                            }
+                            Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                            if (null != mFrameCallback && null != timestamp) {
+                                mFrameCallback.onLockedStillCompleted(timestamp);
+                            }
+                        }
+                    }, mHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void unlock3A() {
+        try {
+            m3ALocked = false;
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_LOCK, false);
+            captureTrigger(CaptureRequest.CONTROL_AF_TRIGGER,
+                    CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
+            // After this, the camera will go back to the normal state of preview.
+            mCaptureSession.setRepeatingRequest(mPreviewRequest, mCaptureCallback,
+                    mHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Submits a single request with {@code trigger} set on top of the current preview settings.
+     * The trigger is cleared from {@link #mPreviewRequestBuilder} right after, so that it can't
+     * end up in a repeating request and fire on every frame.
+     */
+    private void captureTrigger(CaptureRequest.Key<Integer> trigger, int value)
+            throws CameraAccessException {
+        mPreviewRequestBuilder.set(trigger, value);
+        try {
+            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, mHandler);
+        } finally {
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+                    CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
+                    CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
+        }
+    }
+
+    /**
+     * Rebuilds {@link #mPreviewRequest} from the current settings, with the exposure unlocked.
+     */
+    private void buildPreviewRequest() {
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_LOCK, false);
+        mPreviewRequest = mPreviewRequestBuilder.build();
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_LOCK, m3ALocked);
+    }
+
+    /**
+     * @return The repeating request for the current settings, with the exposure locked while
+     * {@link #lock3A()} is in effect.
+     */
+    private CaptureRequest buildRepeatingRequest() {
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_LOCK, m3ALocked);
+        return mPreviewRequestBuilder.build();
+    }
+
+    /**
+     * @return The template of still captures; a video snapshot while recording, so that the
+     * capture doesn't disturb the video.
+     */
+    private int getStillTemplate() {
+        return null == mRecordingSurface ? CameraDevice.TEMPLATE_STILL_CAPTURE
+                : CameraDevice.TEMPLATE_VIDEO_SNAPSHOT;
+    }
+
+    /**
+     * @return The continuous auto-focus mode; the video one moves the lens more smoothly.
+     */
+    private int getContinuousAfMode() {
+        return null == mRecordingSurface ? CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE
+                : CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO;
+    }
+
+    /**
+     * @return The supported frame rate range with the lowest maximum, or null if unknown.
+     */
+    private Range<Integer> getLowestFpsRange() throws CameraAccessException {
+        Range<Integer>[] ranges = mCameraManager.getCameraCharacteristics(mCameraId)
+                .get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        Range<Integer> lowest = null;
+        if (null != ranges) {
+            for (Range<Integer> range : ranges) {
+                if (null == lowest || range.getUpper() < lowest.getUpper()) {
+                    lowest = range;
+                }
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * Sets the target frame rate range of the preview for {@link #mMaxFps}.
+     */
+    private void applyMaxFps() throws CameraAccessException {
+        Range<Integer>[] ranges = mCameraManager.getCameraCharacteristics(mCameraId)
+                .get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        Range<Integer> best = null;
+        if (null != ranges) {
+            for (Range<Integer> range : ranges) {
+                if (range.getUpper() > mMaxFps) {
+                    continue;
+                }
+                // The widest of the fastest, so that auto-exposure can still slow down.
+                if (null == best || range.getUpper() > best.getUpper()
+                        || (range.getUpper().equals(best.getUpper())
+                        && range.getLower() < best.getLower())) {
+                    best = range;
+                }
+            }
+        }
+        if (null == best) {
+            best = getLowestFpsRange();
+        }
+        if (null != best) {
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, best);
+        }
+    }
+
+    private void setAutoFlash(CaptureRequest.Builder requestBuilder) {
+        if (mFlashSupported) {
+            requestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
+                    CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+        }
+    }
+
+    /**
+     * A {@link StillImage} backed by a JPEG {@link Image}.
+     */
+    private static class JpegImage implements StillImage {
+
+        private final Image mImage;
+
+        JpegImage(Image image) {
+            mImage = image;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mImage.getPlanes()[0].getBuffer();
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mImage.getTimestamp();
+        }
+
+        @Override
+        public void close() {
+            mImage.close();
+        }
+
+    }
+
+}
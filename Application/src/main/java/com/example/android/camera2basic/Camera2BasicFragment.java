@@ -18,12 +18,14 @@ package com.example.android.camera2basic;
 
 import android.Manifest;
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
 import android.app.Fragment;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.graphics.ImageFormat;
@@ -32,322 +34,742 @@ import android.graphics.Point;
 import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
-import android.hardware.camera2.CaptureRequest;
-import android.hardware.camera2.CaptureResult;
-import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.v13.app.FragmentCompat;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
 import android.util.Size;
-import android.util.SparseIntArray;
 import android.view.LayoutInflater;
 import android.view.Surface;
-import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Toast;
 
+import com.example.android.camera2basic.core.BufferPool;
+import com.example.android.camera2basic.core.CameraBackend;
+import com.example.android.camera2basic.core.CameraRecoverySupervisor;
+import com.example.android.camera2basic.core.CameraSizes;
+import com.example.android.camera2basic.core.CameraStreams;
+import com.example.android.camera2basic.core.CaptureController;
+import com.example.android.camera2basic.core.ImageSaver;
+import com.example.android.camera2basic.core.FrameStream;
+import com.example.android.camera2basic.core.LumaFrame;
+import com.example.android.camera2basic.core.MemoryGovernor;
+import com.example.android.camera2basic.core.MetricsRegistry;
+import com.example.android.camera2basic.core.PackStore;
+import com.example.android.camera2basic.core.Orientations;
+import com.example.android.camera2basic.core.QualityTier;
+import com.example.android.camera2basic.core.Resolution;
+import com.example.android.camera2basic.core.ShutterPattern;
+import com.example.android.camera2basic.core.SoakConfig;
+import com.example.android.camera2basic.core.SoakReport;
+import com.example.android.camera2basic.core.SoakRunner;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class Camera2BasicFragment extends Fragment
         implements View.OnClickListener, FragmentCompat.OnRequestPermissionsResultCallback {
 
-    /**
-     * Conversion from screen rotation to JPEG orientation.
-     */
-    private static final SparseIntArray ORIENTATIONS = new SparseIntArray();
     private static final int REQUEST_CAMERA_PERMISSION = 1;
     private static final String FRAGMENT_DIALOG = "dialog";
 
-    static {
-        ORIENTATIONS.append(Surface.ROTATION_0, 90);
-        ORIENTATIONS.append(Surface.ROTATION_90, 0);
-        ORIENTATIONS.append(Surface.ROTATION_180, 270);
-        ORIENTATIONS.append(Surface.ROTATION_270, 180);
-    }
-
     /**
      * Tag for the {@link Log}.
      */
     private static final String TAG = "Camera2BasicFragment";
 
     /**
-     * Camera state: Showing camera preview.
+     * Max preview width that is guaranteed by Camera2 API
      */
-    private static final int STATE_PREVIEW = 0;
+    private static final int MAX_PREVIEW_WIDTH = 1920;
 
     /**
-     * Camera state: Waiting for the focus to be locked.
+     * Max preview height that is guaranteed by Camera2 API
      */
-    private static final int STATE_WAITING_LOCK = 1;
+    private static final int MAX_PREVIEW_HEIGHT = 1080;
 
     /**
-     * Camera state: Waiting for the exposure to be precapture state.
+     * Buffers of the preview {@link SurfaceTexture}; the consumer side of a BufferQueue usually
+     * holds up to three.
      */
-    private static final int STATE_WAITING_PRECAPTURE = 2;
+    private static final int PREVIEW_BUFFERS = 3;
 
     /**
-     * Camera state: Waiting for the exposure state to be something other than precapture.
+     * Still images held by the {@link android.media.ImageReader} when memory allows.
      */
-    private static final int STATE_WAITING_NON_PRECAPTURE = 3;
+    private static final int MAX_STILL_IMAGES = 2;
+
+    private static final String STREAM_PREVIEW = "preview";
+
+    private static final String STREAM_STILL = "still";
+
+    private static final String STREAM_RAW = "raw";
+
+    private static final String STREAM_ANALYSIS = "analysis";
+
+    private static final String STREAM_VIDEO = "video";
 
     /**
-     * Camera state: Picture was taken.
+     * Buffers of the input surface of the video encoder.
      */
-    private static final int STATE_PICTURE_TAKEN = 4;
+    private static final int VIDEO_BUFFERS = 4;
 
     /**
-     * Max preview width that is guaranteed by Camera2 API
+     * Max width of the analysis frames.
      */
-    private static final int MAX_PREVIEW_WIDTH = 1920;
+    private static final int MAX_ANALYSIS_WIDTH = 640;
 
     /**
-     * Max preview height that is guaranteed by Camera2 API
+     * Max height of the analysis frames.
      */
-    private static final int MAX_PREVIEW_HEIGHT = 1080;
+    private static final int MAX_ANALYSIS_HEIGHT = 480;
+
+    /**
+     * Analysis frames held by the {@link ImageReader}; the subscribers of
+     * {@link CameraStreams#getAnalysisFrames()} can hold all but one of them.
+     */
+    private static final int ANALYSIS_IMAGES = 4;
+
+    /**
+     * RAW frames held by the {@link android.media.ImageReader} of {@link RawDngWriter} when memory
+     * allows; all but one of them can wait for the writer.
+     */
+    private static final int MAX_RAW_IMAGES = 3;
+
+    /**
+     * Name of the file the startup timeline is exported to, inside the app's external files dir.
+     */
+    private static final String STARTUP_TRACE_FILE = "startup-trace.json";
+
+    /**
+     * Intent extra that starts a soak run with the given {@link ShutterPattern}, e.g.
+     * {@code adb shell am start -n com.example.android.camera2basic/.CameraActivity
+     * --es soak bursty:5:200:3000 --ei soak_minutes 60}.
+     */
+    private static final String EXTRA_SOAK_PATTERN = "soak";
+
+    /**
+     * Intent extra with the duration of a soak run in minutes; 10 by default.
+     */
+    private static final String EXTRA_SOAK_MINUTES = "soak_minutes";
+
+    /**
+     * Intent extra that takes a still picture at the given interval in milliseconds, with the 3A
+     * locked, e.g. {@code --ei interval_ms 500}.
+     */
+    private static final String EXTRA_INTERVAL_MS = "interval_ms";
+
+    /**
+     * Intent extra that lowers the preview frame rate between the pictures of
+     * {@link #EXTRA_INTERVAL_MS}, e.g. {@code --ez interval_low_power true}.
+     */
+    private static final String EXTRA_INTERVAL_LOW_POWER = "interval_low_power";
+
+    /**
+     * Intent extra that rotates the pixels of saved pictures upright without re-encoding them,
+     * for viewers that ignore the EXIF orientation, e.g. {@code --ez lossless_rotation true}.
+     */
+    private static final String EXTRA_LOSSLESS_ROTATION = "lossless_rotation";
+
+    /**
+     * Intent extra that also saves every still capture as a DNG file, if the camera supports RAW
+     * capture, e.g. {@code --ez raw true}.
+     */
+    private static final String EXTRA_RAW = "raw";
+
+    /**
+     * Intent extra that selects the preview view, {@link #PREVIEW_TEXTURE_VIEW} by default or
+     * {@link #PREVIEW_SURFACE_VIEW}, e.g. {@code --es preview surface_view}. The measured delivery
+     * latency of the preview, and its modeled display latency, are logged when the fragment is
+     * paused.
+     */
+    private static final String EXTRA_PREVIEW = "preview";
+
+    /**
+     * Value of {@link #EXTRA_PREVIEW} for {@link AutoFitTextureView}.
+     */
+    private static final String PREVIEW_TEXTURE_VIEW = "texture_view";
+
+    /**
+     * Value of {@link #EXTRA_PREVIEW} for {@link AutoFitSurfaceView}.
+     */
+    private static final String PREVIEW_SURFACE_VIEW = "surface_view";
+
+    /**
+     * Intent extra that adds a low-resolution YUV output, whose frames are published on
+     * {@link CameraStreams#getAnalysisFrames()}, e.g. {@code --ez analysis true}.
+     */
+    private static final String EXTRA_ANALYSIS = "analysis";
+
+    /**
+     * Intent extra that serves the analysis frames as MJPEG on 127.0.0.1 at the given port, and
+     * the latest picture at /still.jpg, e.g. {@code --ei mjpeg_port 8080}. Forward the port with
+     * {@code adb forward tcp:8080 tcp:8080} and open http://localhost:8080/ on the workstation.
+     */
+    private static final String EXTRA_MJPEG_PORT = "mjpeg_port";
+
+    /**
+     * Intent extra that steps the preview size, frame rate, analysis rate and burst depth down
+     * through {@link QualityTier#DEFAULT_TIERS} when the device heats up, runs low on battery or
+     * drops frames, e.g. {@code --ez adaptive true}.
+     */
+    private static final String EXTRA_ADAPTIVE = "adaptive";
+
+    /**
+     * How long memory must go untrimmed before the memory budget is restored.
+     */
+    private static final long TRIM_RESTORE_DELAY_MS = 60000;
+
+    /**
+     * Intent extra that appends a snapshot of {@link MetricsRegistry#getDefault()} to
+     * {@link MetricsExportFeature#FILE} at the given interval in seconds, e.g.
+     * {@code --ei metrics_interval_s 10}. Collect the files with {@code adb pull}.
+     */
+    private static final String EXTRA_METRICS_INTERVAL_S = "metrics_interval_s";
+
+    /**
+     * Intent extra that appends the pictures to segment files in the {@link #PACK_DIRECTORY}
+     * instead of writing {@code pic.jpg}, for sessions of thousands of shots, e.g.
+     * {@code --ez pack true}. Pull the directory with {@code adb pull} and turn it into JPEG
+     * files with {@code ./gradlew :CameraCore:exportPack}.
+     */
+    private static final String EXTRA_PACK = "pack";
+
+    /**
+     * Name of the directory of {@link #mPackStore}, inside the app's external files dir.
+     */
+    private static final String PACK_DIRECTORY = "pack";
+
+    /**
+     * Size from which a segment of {@link #mPackStore} is sealed and a new one started.
+     */
+    private static final long PACK_SEGMENT_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Intent extra that records the preview as H.264 into an MP4 file in the app's external
+     * files dir until the fragment is paused, e.g. {@code --ez record true}. Pictures can still be
+     * taken while recording; {@link #EXTRA_RAW} is ignored, as few cameras can record and capture
+     * RAW at the same time. The encoder throughput and dropped frames are logged at the end.
+     */
+    private static final String EXTRA_RECORD = "record";
+
+    /**
+     * Intent extra that takes a picture whenever the analysis frames show motion, with the 3A
+     * locked, e.g. {@code --ez motion true}. Implies {@link #EXTRA_ANALYSIS}; ignored together with
+     * {@link #EXTRA_INTERVAL_MS}. The detection cost and the event-to-exposure latency are logged
+     * when the fragment is paused.
+     */
+    private static final String EXTRA_MOTION = "motion";
+
+    /**
+     * Intent extra with the time after a motion picture during which no other is taken, in
+     * milliseconds; 2000 by default, e.g. {@code --ei motion_cooldown_ms 500}.
+     */
+    private static final String EXTRA_MOTION_COOLDOWN_MS = "motion_cooldown_ms";
 
     /**
-     * {@link TextureView.SurfaceTextureListener} handles several lifecycle events on a
-     * {@link TextureView}.
+     * Name of the file the soak report is written to, inside the app's external files dir.
      */
-    private final TextureView.SurfaceTextureListener mSurfaceTextureListener
-            = new TextureView.SurfaceTextureListener() {
+    private static final String SOAK_REPORT_FILE = "soak-report.txt";
+
+    /**
+     * {@link PreviewView.Callback} handles several lifecycle events on {@link #mPreviewView}.
+     */
+    private final PreviewView.Callback mPreviewCallback = new PreviewView.Callback() {
 
         @Override
-        public void onSurfaceTextureAvailable(SurfaceTexture texture, int width, int height) {
-            openCamera(width, height);
+        public void onPreviewViewAvailable(int width, int height) {
+            StartupTimeline.mark(StartupTimeline.SURFACE_AVAILABLE);
+            onPreviewSurfaceAvailable(width, height);
         }
 
         @Override
-        public void onSurfaceTextureSizeChanged(SurfaceTexture texture, int width, int height) {
+        public void onPreviewViewSizeChanged(int width, int height) {
             configureTransform(width, height);
         }
 
         @Override
-        public boolean onSurfaceTextureDestroyed(SurfaceTexture texture) {
-            return true;
+        public void onPreviewFrameAvailable(long timestampNanos) {
+            DisplayLatencyFeature displayLatency = mDisplayLatency;
+            if (null != displayLatency) {
+                displayLatency.onFrameAvailable(timestampNanos);
+            }
+            if (!mFirstFrameReported) {
+                mFirstFrameReported = true;
+                onFirstPreviewFrame();
+            }
         }
 
+    };
+
+    /**
+     * Stands in for {@link PreviewView.Callback#onPreviewFrameAvailable(long)} for preview views
+     * that don't report their frames: the completion of a preview result is used in place of the
+     * arrival of its buffer, which isn't observable. Runs on the background thread.
+     */
+    private final Camera2Backend.PreviewFrameListener mPreviewFrameListener
+            = new Camera2Backend.PreviewFrameListener() {
+
         @Override
-        public void onSurfaceTextureUpdated(SurfaceTexture texture) {
+        public void onPreviewFrameCompleted(long sensorTimestampNanos) {
+            DisplayLatencyFeature displayLatency = mDisplayLatency;
+            if (null != displayLatency) {
+                displayLatency.onFrameAvailable(sensorTimestampNanos);
+            }
+            if (!mFirstResultSeen) {
+                mFirstResultSeen = true;
+                Activity activity = getActivity();
+                if (null != activity) {
+                    activity.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!mFirstFrameReported) {
+                                mFirstFrameReported = true;
+                                onFirstPreviewFrame();
+                            }
+                        }
+                    });
+                }
+            }
         }
 
     };
 
+    /**
+     * Whether the first preview frame since the last {@link #onResume()} has been seen.
+     */
+    private boolean mFirstFrameReported;
+
+    /**
+     * Whether {@link #mPreviewFrameListener} has seen a frame of the current camera. Only
+     * accessed on the background thread.
+     */
+    private boolean mFirstResultSeen;
+
+    /**
+     * Measures the delivery latency of {@link #mPreviewView}, and models its display latency,
+     * while the fragment is resumed, otherwise null.
+     */
+    private volatile DisplayLatencyFeature mDisplayLatency;
+
     /**
      * ID of the current {@link CameraDevice}.
      */
     private String mCameraId;
 
     /**
-     * An {@link AutoFitTextureView} for camera preview.
+     * The view for camera preview, selected with {@link #EXTRA_PREVIEW}.
      */
-    private AutoFitTextureView mTextureView;
+    private PreviewView mPreviewView;
 
     /**
-     * A {@link CameraCaptureSession } for camera preview.
+     * The {@link CameraCharacteristics} of the camera selected in {@link #setUpCameraOutputs()}.
      */
-    private CameraCaptureSession mCaptureSession;
+    private CameraCharacteristics mCameraCharacteristics;
 
     /**
-     * A reference to the opened {@link CameraDevice}.
+     * The {@link android.util.Size} of still image captures.
      */
-    private CameraDevice mCameraDevice;
+    private Size mStillCaptureSize;
 
     /**
-     * The {@link android.util.Size} of camera preview.
+     * The JPEG sizes with the aspect ratio of the largest one, from which
+     * {@link #mMemoryGovernor} picks {@link #mStillCaptureSize}.
      */
-    private Size mPreviewSize;
+    private Resolution[] mStillCaptureSizes;
 
     /**
-     * {@link CameraDevice.StateCallback} is called when {@link CameraDevice} changes its state.
+     * The number of still images the {@link android.media.ImageReader} can hold.
      */
-    private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
+    private int mMaxStillImages = MAX_STILL_IMAGES;
 
-        @Override
-        public void onOpened(@NonNull CameraDevice cameraDevice) {
-            // This method is called when the camera is opened.  We start camera preview here.
-            mCameraOpenCloseLock.release();
-            mCameraDevice = cameraDevice;
-            createCameraPreviewSession();
-        }
+    /**
+     * The size of RAW captures, or null if they were not requested with {@link #EXTRA_RAW} or the
+     * camera doesn't support them.
+     */
+    private Size mRawCaptureSize;
 
-        @Override
-        public void onDisconnected(@NonNull CameraDevice cameraDevice) {
-            mCameraOpenCloseLock.release();
-            cameraDevice.close();
-            mCameraDevice = null;
-        }
+    /**
+     * The number of RAW frames the {@link RawDngWriter} can hold.
+     */
+    private int mMaxRawImages = MAX_RAW_IMAGES;
+
+    /**
+     * The size of the analysis frames, or null if they were not requested.
+     */
+    private Size mAnalysisSize;
+
+    /**
+     * The camera output consumers can subscribe to. Outlives the camera, so that subscriptions
+     * carry over when it is reopened.
+     */
+    private final CameraStreams mStreams = new CameraStreams();
+
+    /**
+     * Publishes the luma plane of every analysis frame on {@link #mStreams}. The image is closed
+     * once the last subscriber is done with it.
+     */
+    private final ImageReader.OnImageAvailableListener mOnAnalysisImageAvailableListener
+            = new ImageReader.OnImageAvailableListener() {
+
+        /**
+         * The analysis frames seen so far, to apply the stride of {@link #mAdaptiveQuality}.
+         */
+        private long mFrameCount;
 
         @Override
-        public void onError(@NonNull CameraDevice cameraDevice, int error) {
-            mCameraOpenCloseLock.release();
-            cameraDevice.close();
-            mCameraDevice = null;
-            Activity activity = getActivity();
-            if (null != activity) {
-                activity.finish();
+        public void onImageAvailable(ImageReader reader) {
+            final Image image;
+            try {
+                image = reader.acquireLatestImage();
+            } catch (IllegalStateException e) {
+                // The subscribers hold all the images; this frame is skipped.
+                return;
             }
+            if (null == image) {
+                return;
+            }
+            FrameStream<LumaFrame> frames = mStreams.getAnalysisFrames();
+            AdaptiveQualityFeature adaptiveQuality = mAdaptiveQuality;
+            int stride = null == adaptiveQuality ? 1 : adaptiveQuality.getAnalysisStride();
+            if (!frames.hasSubscribers() || mFrameCount++ % stride != 0) {
+                image.close();
+                return;
+            }
+            Image.Plane luma = image.getPlanes()[0];
+            LumaFrame frame = new LumaFrame(luma.getBuffer(), image.getWidth(), image.getHeight(),
+                    luma.getRowStride(), image.getTimestamp(), new Runnable() {
+                @Override
+                public void run() {
+                    image.close();
+                }
+            });
+            frames.publish(frame);
+            frame.release();
         }
 
     };
 
     /**
-     * An additional thread for running tasks that shouldn't block the UI.
+     * Keeps the stream buffers within a budget derived from the memory class of the app.
      */
-    private HandlerThread mBackgroundThread;
+    private MemoryGovernor mMemoryGovernor;
 
     /**
-     * A {@link Handler} for running tasks in the background.
+     * The buffers captured images are copied into before they are saved.
      */
-    private Handler mBackgroundHandler;
+    private BufferPool mBufferPool;
 
     /**
-     * An {@link ImageReader} that handles still image capture.
+     * The features the activity was started with while the fragment is resumed, in the order
+     * they were started. Replaced rather than changed, as the background thread reads it.
      */
-    private ImageReader mImageReader;
+    private volatile List<CameraFeature> mFeatures = Collections.emptyList();
 
     /**
-     * This is the output file for our picture.
+     * Processes and saves the captured images, off the background thread, while the fragment is
+     * resumed.
      */
-    private File mFile;
+    private PipelineFeature mPipeline;
 
     /**
-     * This a callback object for the {@link ImageReader}. "onImageAvailable" will be called when a
-     * still image is ready to be saved.
+     * Where {@link #mPipeline} stores the pictures if {@link #EXTRA_PACK} is set, otherwise null.
+     * The pipeline is drained when the fragment is paused; the store is kept open until the
+     * fragment is destroyed, so that an append still running after the drain timed out can end.
      */
-    private final ImageReader.OnImageAvailableListener mOnImageAvailableListener
-            = new ImageReader.OnImageAvailableListener() {
+    private PackStore mPackStore;
+
+    /**
+     * Adapts the session to the device conditions if {@link #EXTRA_ADAPTIVE} is set and the
+     * fragment is resumed, otherwise null.
+     */
+    private volatile AdaptiveQualityFeature mAdaptiveQuality;
+
+    /**
+     * The budget of {@link #mMemoryGovernor} when memory isn't being trimmed.
+     */
+    private long mUntrimmedBudgetBytes;
+
+    /**
+     * Runs {@link #mRestoreMemoryBudget}.
+     */
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
 
+    /**
+     * Gives {@link #mMemoryGovernor} its untrimmed budget back once memory pressure has cleared.
+     * Runs on the UI thread.
+     */
+    private final Runnable mRestoreMemoryBudget = new Runnable() {
         @Override
-        public void onImageAvailable(ImageReader reader) {
-            mBackgroundHandler.post(new ImageSaver(reader.acquireNextImage(), mFile));
+        public void run() {
+            restoreMemoryBudget();
+        }
+    };
+
+    /**
+     * The stream sizes and depths the open camera was configured with.
+     */
+    private MemoryGovernor.Plan mStreamPlan;
+
+    /**
+     * The {@link android.util.Size} of camera preview.
+     */
+    private Size mPreviewSize;
+
+    /**
+     * Reopens the camera after it has been lost, reusing {@link #mPreviewView} and the still
+     * capture {@link android.media.ImageReader}, so that images already queued for saving stay
+     * valid.
+     */
+    private final CameraRecoverySupervisor mRecoverySupervisor = new CameraRecoverySupervisor(
+            new CameraRecoverySupervisor.Callback() {
+
+                @Override
+                public void onReopen() {
+                    reopenCamera();
+                }
+
+                @Override
+                public void onGiveUp(int error) {
+                    final Activity activity = getActivity();
+                    if (null != activity) {
+                        // Called on the background thread.
+                        activity.runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                activity.finish();
+                            }
+                        });
+                    }
+                }
+
+            });
+
+    /**
+     * Runs the reopen attempts of {@link #mRecoverySupervisor} on the background thread.
+     */
+    private final CameraRecoverySupervisor.Scheduler mRecoveryScheduler
+            = new CameraRecoverySupervisor.Scheduler() {
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            Handler handler = mBackgroundHandler;
+            if (null != handler) {
+                handler.postDelayed(task, delayMillis);
+            }
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            Handler handler = mBackgroundHandler;
+            if (null != handler) {
+                handler.removeCallbacks(task);
+            }
         }
 
     };
 
     /**
-     * {@link CaptureRequest.Builder} for the camera preview
+     * {@link CameraManager.AvailabilityCallback} that lets {@link #mRecoverySupervisor} retry as
+     * soon as another app releases our camera.
      */
-    private CaptureRequest.Builder mPreviewRequestBuilder;
+    private final CameraManager.AvailabilityCallback mAvailabilityCallback
+            = new CameraManager.AvailabilityCallback() {
+
+        @Override
+        public void onCameraAvailable(@NonNull String cameraId) {
+            if (cameraId.equals(mCameraId)) {
+                mRecoverySupervisor.onCameraAvailable();
+            }
+        }
+
+    };
 
     /**
-     * {@link CaptureRequest} generated by {@link #mPreviewRequestBuilder}
+     * An additional thread for running tasks that shouldn't block the UI.
      */
-    private CaptureRequest mPreviewRequest;
+    private HandlerThread mBackgroundThread;
 
     /**
-     * The current state of camera state for taking pictures.
-     *
-     * @see #mCaptureCallback
+     * A {@link Handler} for running tasks in the background. It keeps track of how long camera
+     * callbacks and saves wait for the background thread.
      */
-    private int mState = STATE_PREVIEW;
+    private MonitoredHandler mBackgroundHandler;
 
     /**
-     * A {@link Semaphore} to prevent the app from exiting before closing the camera.
+     * This is the output file for our picture.
      */
-    private Semaphore mCameraOpenCloseLock = new Semaphore(1);
+    private File mFile;
 
     /**
-     * Whether the current camera device supports Flash or not.
+     * The {@link Camera2Backend} of the open camera.
      */
-    private boolean mFlashSupported;
+    private Camera2Backend mBackend;
 
     /**
-     * Orientation of the camera sensor
+     * Runs the preview and still capture sequence on {@link #mBackend}.
      */
-    private int mSensorOrientation;
+    private CaptureController mCaptureController;
 
     /**
-     * A {@link CameraCaptureSession.CaptureCallback} that handles events related to JPEG capture.
+     * Presses the shutter of {@link #mCaptureController} when the activity was started in soak
+     * mode, otherwise null.
      */
-    private CameraCaptureSession.CaptureCallback mCaptureCallback
-            = new CameraCaptureSession.CaptureCallback() {
+    private SoakRunner mSoakRunner;
 
-        private void process(CaptureResult result) {
-            switch (mState) {
-                case STATE_PREVIEW: {
-                    // We have nothing to do when the camera preview is working normally.
-                    break;
-                }
-                case STATE_WAITING_LOCK: {
-                    Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
-                    if (afState == null) {
-                        captureStillPicture();
-                    } else if (CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED == afState ||
-                            CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED == afState) {
-                        // CONTROL_AE_STATE can be null on some devices
-                        Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
-                        if (aeState == null ||
-                                aeState == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
-                            mState = STATE_PICTURE_TAKEN;
-                            captureStillPicture();
-                        } else {
-                            runPrecaptureSequence();
-                        }
-                    }
-                    break;
-                }
-                case STATE_WAITING_PRECAPTURE: {
-                    // CONTROL_AE_STATE can be null on some devices
-                    Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
-                    if (aeState == null ||
-                            aeState == CaptureResult.CONTROL_AE_STATE_PRECAPTURE ||
-                            aeState == CaptureRequest.CONTROL_AE_STATE_FLASH_REQUIRED) {
-                        mState = STATE_WAITING_NON_PRECAPTURE;
-                    }
-                    break;
-                }
-                case STATE_WAITING_NON_PRECAPTURE: {
-                    // CONTROL_AE_STATE can be null on some devices
-                    Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
-                    if (aeState == null || aeState != CaptureResult.CONTROL_AE_STATE_PRECAPTURE) {
-                        mState = STATE_PICTURE_TAKEN;
-                        captureStillPicture();
-                    }
-                    break;
-                }
+    /**
+     * The thread {@link #mSoakRunner} presses the shutter on.
+     */
+    private ScheduledExecutorService mSoakDriver;
+
+    /**
+     * Runs the {@link ImageSaver}s of {@link #mCaptureController} on the background thread. Saves
+     * are rejected once the thread has been stopped, and the controller drops them.
+     */
+    private final Executor mSaveExecutor = new Executor() {
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            Handler handler = mBackgroundHandler;
+            if (null == handler || !handler.post(command)) {
+                throw new RejectedExecutionException("The background thread has stopped");
+            }
+        }
+
+    };
+
+    /**
+     * Hands the shutter presses of {@link #mCaptureController} over to the background thread.
+     */
+    private final Executor mCameraExecutor = new Executor() {
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            Handler handler = mBackgroundHandler;
+            if (null != handler) {
+                handler.post(command);
             }
         }
 
+    };
+
+    /**
+     * Receives the events of {@link #mCaptureController} on the background thread.
+     */
+    private final CaptureController.Listener mCaptureListener = new CaptureController.Listener() {
+
         @Override
-        public void onCaptureProgressed(@NonNull CameraCaptureSession session,
-                                        @NonNull CaptureRequest request,
-                                        @NonNull CaptureResult partialResult) {
-            process(partialResult);
+        public int getJpegOrientation() {
+            Activity activity = getActivity();
+            int rotation = null == activity ? Surface.ROTATION_0
+                    : activity.getWindowManager().getDefaultDisplay().getRotation();
+            return getOrientation(rotation);
+        }
+
+        @Override
+        public void onPreviewStarted() {
+            mRecoverySupervisor.onRecovered();
+            Camera2Backend backend = mBackend;
+            for (CameraFeature feature : mFeatures) {
+                feature.onPreviewStarted(backend);
+            }
         }
 
         @Override
-        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
-                                       @NonNull CaptureRequest request,
-                                       @NonNull TotalCaptureResult result) {
-            process(result);
+        public void onOpenFailed() {
+            // Retried only while recovering from the loss of the camera.
+            mRecoverySupervisor.onReopenFailed();
+        }
+
+        @Override
+        public void onSessionConfigureFailed() {
+            showToast("Failed");
+        }
+
+        @Override
+        public void onCameraLost(int error) {
+            mRecoverySupervisor.onCameraLost(error);
+        }
+
+        @Override
+        public void onPictureTaken(File file) {
+            if (!isSoakMode()) {
+                showToast("Saved: " + file);
+            }
+            Log.d(TAG, file.toString());
         }
 
     };
 
+    /**
+     * Restarts the camera when a tier of {@link #mAdaptiveQuality} changes the preview size.
+     * Called on the background thread.
+     */
+    private final AdaptiveQualityFeature.Listener mTierListener
+            = new AdaptiveQualityFeature.Listener() {
+
+        @Override
+        public void onTierApplied(QualityTier tier) {
+            Activity activity = getActivity();
+            if (null == activity) {
+                return;
+            }
+            activity.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (null == mPreviewSize || null == mCameraCharacteristics
+                            || !mPreviewView.isAvailable()) {
+                        // Picked up when the preview is next set up.
+                        return;
+                    }
+                    Size size = choosePreviewSize(mPreviewView.getWidth(),
+                            mPreviewView.getHeight());
+                    if (!size.equals(mPreviewSize)) {
+                        Log.i(TAG, "Restarting the camera for preview size " + size);
+                        restartCamera();
+                    }
+                }
+            });
+        }
+
+    };
+
+    /**
+     * Whether the current camera device supports Flash or not.
+     */
+    private boolean mFlashSupported;
+
+    /**
+     * Orientation of the camera sensor
+     */
+    private int mSensorOrientation;
+
     /**
      * Shows a {@link Toast} on the UI thread.
      *
@@ -366,58 +788,41 @@ public class Camera2BasicFragment extends Fragment
     }
 
     /**
-     * Given {@code choices} of {@code Size}s supported by a camera, choose the smallest one that
-     * is at least as large as the respective texture view size, and that is at most as large as the
-     * respective max size, and whose aspect ratio matches with the specified value. If such size
-     * doesn't exist, choose the largest one that is at most as large as the respective max size,
-     * and whose aspect ratio matches with the specified value.
-     *
-     * @param choices           The list of sizes that the camera supports for the intended output
-     *                          class
-     * @param textureViewWidth  The width of the texture view relative to sensor coordinate
-     * @param textureViewHeight The height of the texture view relative to sensor coordinate
-     * @param maxWidth          The maximum width that can be chosen
-     * @param maxHeight         The maximum height that can be chosen
-     * @param aspectRatio       The aspect ratio
-     * @return The optimal {@code Size}, or an arbitrary one if none were big enough
-     */
-    private static Size chooseOptimalSize(Size[] choices, int textureViewWidth,
-            int textureViewHeight, int maxWidth, int maxHeight, Size aspectRatio) {
-
-        // Collect the supported resolutions that are at least as big as the preview Surface
-        List<Size> bigEnough = new ArrayList<>();
-        // Collect the supported resolutions that are smaller than the preview Surface
-        List<Size> notBigEnough = new ArrayList<>();
-        int w = aspectRatio.getWidth();
-        int h = aspectRatio.getHeight();
-        for (Size option : choices) {
-            if (option.getWidth() <= maxWidth && option.getHeight() <= maxHeight &&
-                    option.getHeight() == option.getWidth() * h / w) {
-                if (option.getWidth() >= textureViewWidth &&
-                    option.getHeight() >= textureViewHeight) {
-                    bigEnough.add(option);
-                } else {
-                    notBigEnough.add(option);
-                }
-            }
+     * Converts the sizes reported by {@link StreamConfigurationMap} to {@link Resolution}s.
+     */
+    private static Resolution[] toResolutions(Size[] sizes) {
+        Resolution[] resolutions = new Resolution[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            resolutions[i] = new Resolution(sizes[i].getWidth(), sizes[i].getHeight());
         }
+        return resolutions;
+    }
 
-        // Pick the smallest of those big enough. If there is no one big enough, pick the
-        // largest of those not big enough.
-        if (bigEnough.size() > 0) {
-            return Collections.min(bigEnough, new CompareSizesByArea());
-        } else if (notBigEnough.size() > 0) {
-            return Collections.max(notBigEnough, new CompareSizesByArea());
-        } else {
-            Log.e(TAG, "Couldn't find any suitable preview size");
-            return choices[0];
+    /**
+     * @return The sizes among {@code sizes} with the same aspect ratio as {@code aspectRatio}.
+     */
+    private static Resolution[] sameAspectRatio(Size[] sizes, Resolution aspectRatio) {
+        List<Resolution> matching = new ArrayList<>();
+        for (Size size : sizes) {
+            if ((long) size.getWidth() * aspectRatio.getHeight()
+                    == (long) size.getHeight() * aspectRatio.getWidth()) {
+                matching.add(new Resolution(size.getWidth(), size.getHeight()));
+            }
         }
+        return matching.toArray(new Resolution[matching.size()]);
     }
 
     public static Camera2BasicFragment newInstance() {
         return new Camera2BasicFragment();
     }
 
+    /**
+     * @return The camera output that can be subscribed to.
+     */
+    public CameraStreams getStreams() {
+        return mStreams;
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -426,9 +831,26 @@ public class Camera2BasicFragment extends Fragment
 
     @Override
     public void onViewCreated(final View view, Bundle savedInstanceState) {
-        view.findViewById(R.id.picture).setOnClickListener(this);
+        StartupTimeline.mark(StartupTimeline.FRAGMENT_VIEW_CREATED);
+        View picture = view.findViewById(R.id.picture);
+        picture.setOnClickListener(this);
+        picture.setEnabled(!isShutterLocked());
         view.findViewById(R.id.info).setOnClickListener(this);
-        mTextureView = (AutoFitTextureView) view.findViewById(R.id.texture);
+        View textureView = view.findViewById(R.id.texture);
+        if (PREVIEW_SURFACE_VIEW.equals(getPreviewName())) {
+            // Takes the place of the TextureView of the layout, so that the other views stay
+            // where they are.
+            AutoFitSurfaceView surfaceView = new AutoFitSurfaceView(getActivity());
+            ViewGroup parent = (ViewGroup) textureView.getParent();
+            int index = parent.indexOfChild(textureView);
+            parent.removeView(textureView);
+            surfaceView.setId(R.id.texture);
+            parent.addView(surfaceView, index, textureView.getLayoutParams());
+            mPreviewView = surfaceView;
+        } else {
+            mPreviewView = (AutoFitTextureView) textureView;
+        }
+        mPreviewView.setCallback(mPreviewCallback);
     }
 
     @Override
@@ -440,26 +862,171 @@ public class Camera2BasicFragment extends Fragment
     @Override
     public void onResume() {
         super.onResume();
+        StartupTimeline.mark(StartupTimeline.FRAGMENT_RESUMED);
+        mFirstFrameReported = false;
+        ActivityManager activityManager
+                = (ActivityManager) getActivity().getSystemService(Context.ACTIVITY_SERVICE);
+        mUntrimmedBudgetBytes = MemoryGovernor.budgetForMemoryClass(
+                activityManager.getMemoryClass(), activityManager.isLowRamDevice());
+        mMemoryGovernor = new MemoryGovernor(mUntrimmedBudgetBytes);
+        if (null == mBufferPool) {
+            // The pool only needs to cover the pictures being written at the same time.
+            mBufferPool = new BufferPool(mUntrimmedBudgetBytes / 4);
+        }
         startBackgroundThread();
+        mFeatures = createFeatures();
+        for (CameraFeature feature : mFeatures) {
+            feature.start();
+        }
+        mRecoverySupervisor.setScheduler(mRecoveryScheduler);
+        getCameraManager().registerAvailabilityCallback(mAvailabilityCallback, mBackgroundHandler);
+
+        // Opening the camera device is slow, so we start it right away and let it run in parallel
+        // with the layout of the preview view. The preview session is created once both the
+        // device and the preview surface are ready.
+        openCamera();
+
+        // When the screen is turned off and turned back on, the preview view may already be
+        // available, and "onPreviewViewAvailable" will not be called. In that case, we can set up
+        // the preview from here (otherwise, we wait until the surface is ready in the
+        // PreviewView.Callback).
+        if (mPreviewView.isAvailable()) {
+            onPreviewSurfaceAvailable(mPreviewView.getWidth(), mPreviewView.getHeight());
+        }
+    }
 
-        // When the screen is turned off and turned back on, the SurfaceTexture is already
-        // available, and "onSurfaceTextureAvailable" will not be called. In that case, we can open
-        // a camera and start preview from here (otherwise, we wait until the surface is ready in
-        // the SurfaceTextureListener).
-        if (mTextureView.isAvailable()) {
-            openCamera(mTextureView.getWidth(), mTextureView.getHeight());
-        } else {
-            mTextureView.setSurfaceTextureListener(mSurfaceTextureListener);
+    @Override
+    public void onDestroy() {
+        if (null != mPackStore) {
+            try {
+                mPackStore.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't close the pack store", e);
+            }
+            Log.d(TAG, "Pack store: " + mPackStore);
+        }
+        mStreams.complete();
+        super.onDestroy();
+    }
+
+    /**
+     * Lowers the memory budget while the system reports memory pressure, and reconfigures the
+     * streams if they no longer fit. The budget goes back up once no {@code TRIM_MEMORY_RUNNING_*}
+     * level has been reported for {@link #TRIM_RESTORE_DELAY_MS}, when the UI is hidden, and on
+     * the next resume. Raising the budget doesn't restart the camera; the streams grow again the
+     * next time they are configured.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (null != mBufferPool) {
+            mBufferPool.trim();
+        }
+        if (null == mMemoryGovernor) {
+            return;
+        }
+        if (MemoryGovernor.TRIM_MEMORY_UI_HIDDEN == level) {
+            mUiHandler.removeCallbacks(mRestoreMemoryBudget);
+            restoreMemoryBudget();
+            return;
+        }
+        long budget = MemoryGovernor.budgetForTrimLevel(mUntrimmedBudgetBytes, level);
+        if (budget >= mUntrimmedBudgetBytes) {
+            // Not the level of a running app.
+            return;
+        }
+        // The pressure is still there, so the restore waits for it to clear.
+        mUiHandler.removeCallbacks(mRestoreMemoryBudget);
+        mUiHandler.postDelayed(mRestoreMemoryBudget, TRIM_RESTORE_DELAY_MS);
+        if (null == mStreamPlan || null == mCaptureController
+                || budget >= mMemoryGovernor.getBudgetBytes()) {
+            return;
+        }
+        mMemoryGovernor.setBudgetBytes(budget);
+        if (!mStreamPlan.fits(budget)) {
+            Log.w(TAG, "Memory trim level " + level + ", reconfiguring streams: " + mStreamPlan);
+            restartCamera();
+        }
+    }
+
+    /**
+     * Gives {@link #mMemoryGovernor} its untrimmed budget back. Called on the UI thread.
+     */
+    private void restoreMemoryBudget() {
+        if (null != mMemoryGovernor && mMemoryGovernor.getBudgetBytes() < mUntrimmedBudgetBytes) {
+            Log.i(TAG, "Memory pressure cleared, budget back to " + mUntrimmedBudgetBytes
+                    + " bytes");
+            mMemoryGovernor.setBudgetBytes(mUntrimmedBudgetBytes);
         }
     }
 
     @Override
     public void onPause() {
+        mUiHandler.removeCallbacks(mRestoreMemoryBudget);
+        mRecoverySupervisor.setScheduler(null);
+        getCameraManager().unregisterAvailabilityCallback(mAvailabilityCallback);
         closeCamera();
+        List<CameraFeature> features = mFeatures;
+        mFeatures = Collections.emptyList();
+        for (int i = features.size() - 1; i >= 0; i--) {
+            features.get(i).stop();
+        }
+        mDisplayLatency = null;
+        mPipeline = null;
+        mAdaptiveQuality = null;
+        Log.d(TAG, "Streams: " + mStreams);
         stopBackgroundThread();
         super.onPause();
     }
 
+    /**
+     * Creates the features the activity was started with, in the order they are started. Called
+     * on the UI thread once the background thread runs.
+     */
+    private List<CameraFeature> createFeatures() {
+        Activity activity = getActivity();
+        Intent intent = activity.getIntent();
+        File directory = activity.getExternalFilesDir(null);
+        List<CameraFeature> features = new ArrayList<>();
+        mDisplayLatency = new DisplayLatencyFeature(mPreviewView, getPreviewName(),
+                activity.getWindowManager().getDefaultDisplay().getRefreshRate());
+        features.add(mDisplayLatency);
+        if (intent.getBooleanExtra(EXTRA_PACK, false) && null == mPackStore) {
+            mPackStore = new PackStore(new File(directory, PACK_DIRECTORY), PACK_SEGMENT_BYTES);
+        }
+        mPipeline = new PipelineFeature(mBufferPool, mStreams,
+                intent.getBooleanExtra(EXTRA_LOSSLESS_ROTATION, false),
+                intent.getBooleanExtra(EXTRA_PACK, false) ? mPackStore : null);
+        features.add(mPipeline);
+        if (intent.hasExtra(EXTRA_MJPEG_PORT)) {
+            features.add(new MjpegFeature(intent.getIntExtra(EXTRA_MJPEG_PORT, 8080), mStreams,
+                    mBufferPool));
+        }
+        if (isIntervalMode()) {
+            features.add(new IntervalCaptureFeature(intent.getIntExtra(EXTRA_INTERVAL_MS, 1000),
+                    intent.getBooleanExtra(EXTRA_INTERVAL_LOW_POWER, false), mCaptureListener,
+                    mCameraExecutor));
+        } else if (isMotionMode()) {
+            features.add(new MotionCaptureFeature(mStreams,
+                    intent.getIntExtra(EXTRA_MOTION_COOLDOWN_MS, 2000), mCaptureListener,
+                    mCameraExecutor));
+        }
+        if (intent.getBooleanExtra(EXTRA_ADAPTIVE, false)) {
+            mAdaptiveQuality = new AdaptiveQualityFeature(activity, mBackgroundHandler,
+                    mCameraExecutor, mStreams, mTierListener);
+            features.add(mAdaptiveQuality);
+        }
+        if (isRecordingRequested()) {
+            features.add(new RecordingFeature(directory, mStreams, mCameraExecutor,
+                    mAdaptiveQuality));
+        }
+        int metricsInterval = intent.getIntExtra(EXTRA_METRICS_INTERVAL_S, 0);
+        if (metricsInterval > 0) {
+            features.add(new MetricsExportFeature(directory, metricsInterval));
+        }
+        return features;
+    }
+
     private void requestCameraPermission() {
         if (FragmentCompat.shouldShowRequestPermissionRationale(this, Manifest.permission.CAMERA)) {
             new ConfirmationDialog().show(getChildFragmentManager(), FRAGMENT_DIALOG);
@@ -483,12 +1050,10 @@ public class Camera2BasicFragment extends Fragment
     }
 
     /**
-     * Sets up member variables related to camera.
-     *
-     * @param width  The width of available size for camera preview
-     * @param height The height of available size for camera preview
+     * Sets up member variables related to camera. This does not depend on the preview surface, so
+     * that the camera device can be opened before the {@link PreviewView} has been laid out.
      */
-    private void setUpCameraOutputs(int width, int height) {
+    private void setUpCameraOutputs() {
         Activity activity = getActivity();
         CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
         try {
@@ -509,80 +1074,30 @@ public class Camera2BasicFragment extends Fragment
                 }
 
                 // For still image captures, we use the largest available size.
-                Size largest = Collections.max(
-                        Arrays.asList(map.getOutputSizes(ImageFormat.JPEG)),
-                        new CompareSizesByArea());
-                mImageReader = ImageReader.newInstance(largest.getWidth(), largest.getHeight(),
-                        ImageFormat.JPEG, /*maxImages*/2);
-                mImageReader.setOnImageAvailableListener(
-                        mOnImageAvailableListener, mBackgroundHandler);
-
-                // Find out if we need to swap dimension to get the preview size relative to sensor
-                // coordinate.
-                int displayRotation = activity.getWindowManager().getDefaultDisplay().getRotation();
+                Resolution largest = Collections.max(
+                        Arrays.asList(toResolutions(map.getOutputSizes(ImageFormat.JPEG))),
+                        new CameraSizes.CompareSizesByArea());
                 //noinspection ConstantConditions
                 mSensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-                boolean swappedDimensions = false;
-                switch (displayRotation) {
-                    case Surface.ROTATION_0:
-                    case Surface.ROTATION_180:
-                        if (mSensorOrientation == 90 || mSensorOrientation == 270) {
-                            swappedDimensions = true;
-                        }
-                        break;
-                    case Surface.ROTATION_90:
-                    case Surface.ROTATION_270:
-                        if (mSensorOrientation == 0 || mSensorOrientation == 180) {
-                            swappedDimensions = true;
-                        }
-                        break;
-                    default:
-                        Log.e(TAG, "Display rotation is invalid: " + displayRotation);
-                }
-
-                Point displaySize = new Point();
-                activity.getWindowManager().getDefaultDisplay().getSize(displaySize);
-                int rotatedPreviewWidth = width;
-                int rotatedPreviewHeight = height;
-                int maxPreviewWidth = displaySize.x;
-                int maxPreviewHeight = displaySize.y;
-
-                if (swappedDimensions) {
-                    rotatedPreviewWidth = height;
-                    rotatedPreviewHeight = width;
-                    maxPreviewWidth = displaySize.y;
-                    maxPreviewHeight = displaySize.x;
-                }
-
-                if (maxPreviewWidth > MAX_PREVIEW_WIDTH) {
-                    maxPreviewWidth = MAX_PREVIEW_WIDTH;
-                }
-
-                if (maxPreviewHeight > MAX_PREVIEW_HEIGHT) {
-                    maxPreviewHeight = MAX_PREVIEW_HEIGHT;
-                }
-
-                // Danger, W.R.! Attempting to use too large a preview size could  exceed the camera
-                // bus' bandwidth limitation, resulting in gorgeous previews but the storage of
-                // garbage capture data.
-                mPreviewSize = chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class),
-                        rotatedPreviewWidth, rotatedPreviewHeight, maxPreviewWidth,
-                        maxPreviewHeight, largest);
-
-                // We fit the aspect ratio of TextureView to the size of preview we picked.
-                int orientation = getResources().getConfiguration().orientation;
-                if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
-                    mTextureView.setAspectRatio(
-                            mPreviewSize.getWidth(), mPreviewSize.getHeight());
-                } else {
-                    mTextureView.setAspectRatio(
-                            mPreviewSize.getHeight(), mPreviewSize.getWidth());
-                }
 
                 // Check if the flash is supported.
                 Boolean available = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
                 mFlashSupported = available == null ? false : available;
 
+                mCameraCharacteristics = characteristics;
+                mStillCaptureSizes = sameAspectRatio(map.getOutputSizes(ImageFormat.JPEG),
+                        largest);
+                mStillCaptureSize = new Size(largest.getWidth(), largest.getHeight());
+                mRawCaptureSize = isRawRequested() ? getLargestRawSize(characteristics) : null;
+                if (isAnalysisRequested()) {
+                    Resolution analysisSize = CameraSizes.chooseOptimalSize(
+                            toResolutions(map.getOutputSizes(ImageFormat.YUV_420_888)),
+                            MAX_ANALYSIS_WIDTH, MAX_ANALYSIS_HEIGHT, MAX_ANALYSIS_WIDTH,
+                            MAX_ANALYSIS_HEIGHT, largest);
+                    mAnalysisSize = new Size(analysisSize.getWidth(), analysisSize.getHeight());
+                } else {
+                    mAnalysisSize = null;
+                }
                 mCameraId = cameraId;
                 return;
             }
@@ -597,53 +1112,415 @@ public class Camera2BasicFragment extends Fragment
     }
 
     /**
-     * Opens the camera specified by {@link Camera2BasicFragment#mCameraId}.
+     * Chooses the preview size for the camera selected in {@link #setUpCameraOutputs()} and fits
+     * the aspect ratio of {@link #mPreviewView} to it.
+     *
+     * @param width  The width of available size for camera preview
+     * @param height The height of available size for camera preview
+     */
+    private void setUpPreviewSize(int width, int height) {
+        mPreviewSize = choosePreviewSize(width, height);
+
+        // We fit the aspect ratio of the preview view to the size of preview we picked.
+        int orientation = getResources().getConfiguration().orientation;
+        if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
+            mPreviewView.setAspectRatio(
+                    mPreviewSize.getWidth(), mPreviewSize.getHeight());
+        } else {
+            mPreviewView.setAspectRatio(
+                    mPreviewSize.getHeight(), mPreviewSize.getWidth());
+        }
+    }
+
+    /**
+     * @return The largest preview size, in sensor orientation; lowered by
+     * {@link #mAdaptiveQuality}.
+     */
+    private Resolution getMaxPreviewSize() {
+        AdaptiveQualityFeature adaptiveQuality = mAdaptiveQuality;
+        return null == adaptiveQuality ? new Resolution(MAX_PREVIEW_WIDTH, MAX_PREVIEW_HEIGHT)
+                : adaptiveQuality.getMaxPreviewSize();
+    }
+
+    /**
+     * @param width  The width of available size for camera preview
+     * @param height The height of available size for camera preview
+     * @return The preview size for a view of that size, within {@link #getMaxPreviewSize()}.
+     */
+    private Size choosePreviewSize(int width, int height) {
+        Activity activity = getActivity();
+        StreamConfigurationMap map = mCameraCharacteristics.get(
+                CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+
+        // Find out if we need to swap dimension to get the preview size relative to sensor
+        // coordinate.
+        int displayRotation = activity.getWindowManager().getDefaultDisplay().getRotation();
+        boolean swappedDimensions = false;
+        try {
+            swappedDimensions = Orientations.isSwappedDimensions(displayRotation,
+                    mSensorOrientation);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, e.getMessage());
+        }
+
+        Point displaySize = new Point();
+        activity.getWindowManager().getDefaultDisplay().getSize(displaySize);
+        int rotatedPreviewWidth = width;
+        int rotatedPreviewHeight = height;
+        int maxPreviewWidth = displaySize.x;
+        int maxPreviewHeight = displaySize.y;
+
+        if (swappedDimensions) {
+            rotatedPreviewWidth = height;
+            rotatedPreviewHeight = width;
+            maxPreviewWidth = displaySize.y;
+            maxPreviewHeight = displaySize.x;
+        }
+
+        Resolution maxPreviewSize = getMaxPreviewSize();
+        if (maxPreviewWidth > maxPreviewSize.getWidth()) {
+            maxPreviewWidth = maxPreviewSize.getWidth();
+        }
+
+        if (maxPreviewHeight > maxPreviewSize.getHeight()) {
+            maxPreviewHeight = maxPreviewSize.getHeight();
+        }
+
+        // Danger, W.R.! Attempting to use too large a preview size could  exceed the camera
+        // bus' bandwidth limitation, resulting in gorgeous previews but the storage of
+        // garbage capture data.
+        Resolution previewSize = CameraSizes.chooseOptimalSize(
+                toResolutions(map.getOutputSizes(SurfaceTexture.class)),
+                rotatedPreviewWidth, rotatedPreviewHeight, maxPreviewWidth, maxPreviewHeight,
+                new Resolution(mStillCaptureSize.getWidth(), mStillCaptureSize.getHeight()));
+        return new Size(previewSize.getWidth(), previewSize.getHeight());
+    }
+
+    /**
+     * Opens the camera specified by {@link Camera2BasicFragment#mCameraId}. The preview session is
+     * created by {@link #mCaptureController} once the preview surface is ready as well; the
+     * controller opens the device on the background thread.
      */
-    private void openCamera(int width, int height) {
+    private void openCamera() {
         if (ContextCompat.checkSelfPermission(getActivity(), Manifest.permission.CAMERA)
                 != PackageManager.PERMISSION_GRANTED) {
             requestCameraPermission();
             return;
         }
-        setUpCameraOutputs(width, height);
+        StartupTimeline.beginSection("Camera2BasicFragment.openCamera");
+        setUpCameraOutputs();
+        if (null == mCameraId) {
+            StartupTimeline.endSection();
+            return;
+        }
+        negotiateStreams();
+        mBackend = new Camera2Backend(getCameraManager(), mCameraId, mStillCaptureSize,
+                mMaxStillImages, mFlashSupported, mBackgroundHandler);
+        if (null != mRawCaptureSize) {
+            mBackend.setRawOutput(new RawDngWriter(mCameraCharacteristics, mRawCaptureSize,
+                    mMaxRawImages, new File(getActivity().getExternalFilesDir(null), "pic.dng"),
+                    mBackgroundHandler));
+        }
+        mBackend.setPreviewResultStream(mStreams.getPreviewResults());
+        if (null != mAnalysisSize) {
+            mBackend.setAnalysisOutput(mAnalysisSize, ANALYSIS_IMAGES,
+                    mOnAnalysisImageAvailableListener);
+        }
+        if (!mPreviewView.reportsFrames()) {
+            mFirstResultSeen = false;
+            mBackend.setPreviewFrameListener(mPreviewFrameListener);
+        }
+        CameraBackend backend = mBackend;
+        Executor saveExecutor = mSaveExecutor;
+        if (isSoakMode()) {
+            mSoakRunner = createSoakRunner();
+            backend = mSoakRunner.instrument(backend);
+            saveExecutor = mSoakRunner.instrument(saveExecutor);
+        }
+        mCaptureController = new CaptureController(backend, saveExecutor, mCaptureListener);
+        mCaptureController.setCameraExecutor(mCameraExecutor);
+        mCaptureController.setOutputFile(mFile);
+        mCaptureController.setBufferPool(mBufferPool);
+        if (!isSoakMode()) {
+            // The soak measures the saves through the executor it instruments.
+            mCaptureController.setPipeline(mPipeline.getPipeline());
+        }
+        for (CameraFeature feature : mFeatures) {
+            feature.onCameraOpening(mCameraCharacteristics, mBackend, mCaptureController);
+        }
+        mCaptureController.open();
+        if (null != mSoakRunner) {
+            mSoakRunner.start(mCaptureController, createSoakListener());
+        }
+        StartupTimeline.endSection();
+    }
+
+    /**
+     * Reopens {@link #mCameraId} after it was lost, keeping the preview surface and the outputs
+     * chosen by the initial open. Runs on the background thread.
+     */
+    private void reopenCamera() {
+        if (null == getActivity() || null == mCaptureController) {
+            return;
+        }
+        mCaptureController.open();
+    }
+
+    private CameraManager getCameraManager() {
+        return (CameraManager) getActivity().getSystemService(Context.CAMERA_SERVICE);
+    }
+
+    /**
+     * Called on the UI thread once {@link #mPreviewView} is available. Sizes the preview, and
+     * once the view has a surface of that size hands over to the background thread, where
+     * {@link #mCaptureController} joins it with the camera device.
+     *
+     * @param width  The width of `mPreviewView`
+     * @param height The height of `mPreviewView`
+     */
+    private void onPreviewSurfaceAvailable(int width, int height) {
+        if (null == mCaptureController || null == mBackgroundHandler) {
+            // The camera could not be set up, e.g. because the permission is still missing.
+            return;
+        }
+        setUpPreviewSize(width, height);
         configureTransform(width, height);
-        Activity activity = getActivity();
-        CameraManager manager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
-        try {
-            if (!mCameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
-                throw new RuntimeException("Time out waiting to lock camera opening.");
+        final Size previewSize = mPreviewSize;
+        final Camera2Backend backend = mBackend;
+        // Before the preview surface is handed over, which lets the session be created.
+        for (CameraFeature feature : mFeatures) {
+            feature.onPreviewSizeChosen(backend, previewSize);
+        }
+        final CaptureController controller = mCaptureController;
+        mPreviewView.requestSurface(previewSize, new PreviewView.SurfaceCallback() {
+            @Override
+            public void onSurfaceReady(Surface surface) {
+                if (controller != mCaptureController || null == mBackgroundHandler) {
+                    // The camera was closed in the meantime.
+                    return;
+                }
+                backend.setPreviewSurface(surface, previewSize);
+                mBackgroundHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        controller.onPreviewSurfaceReady();
+                    }
+                });
             }
-            manager.openCamera(mCameraId, mStateCallback, mBackgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Interrupted while trying to lock camera opening.", e);
+        });
+    }
+
+    /**
+     * Picks the size and depth of the still capture stream that fit into the memory budget along
+     * with the preview. Must be called before the capture session is created.
+     */
+    private void negotiateStreams() {
+        // The preview size isn't known before the surface is, so assume the largest.
+        MemoryGovernor.Stream preview = MemoryGovernor.Stream.fixed(STREAM_PREVIEW,
+                MemoryGovernor.FORMAT_PRIVATE, getMaxPreviewSize(), PREVIEW_BUFFERS);
+        MemoryGovernor.Stream still = new MemoryGovernor.Stream(STREAM_STILL,
+                MemoryGovernor.FORMAT_JPEG, mStillCaptureSizes, MAX_STILL_IMAGES, 1);
+        List<MemoryGovernor.Stream> streams = new ArrayList<>();
+        streams.add(preview);
+        streams.add(still);
+        if (null != mRawCaptureSize) {
+            streams.add(new MemoryGovernor.Stream(STREAM_RAW,
+                    MemoryGovernor.FORMAT_RAW_SENSOR, new Resolution[]{new Resolution(
+                    mRawCaptureSize.getWidth(), mRawCaptureSize.getHeight())},
+                    MAX_RAW_IMAGES, 2));
+        }
+        if (isRecordingRequested()) {
+            streams.add(MemoryGovernor.Stream.fixed(STREAM_VIDEO,
+                    MemoryGovernor.FORMAT_PRIVATE, getMaxPreviewSize(), VIDEO_BUFFERS));
+        }
+        if (null != mAnalysisSize) {
+            streams.add(MemoryGovernor.Stream.fixed(STREAM_ANALYSIS,
+                    MemoryGovernor.FORMAT_YUV_420_888, new Resolution(mAnalysisSize.getWidth(),
+                            mAnalysisSize.getHeight()), ANALYSIS_IMAGES));
+        }
+        mStreamPlan = mMemoryGovernor.negotiate(
+                streams.toArray(new MemoryGovernor.Stream[streams.size()]));
+        if (null != mRawCaptureSize) {
+            mMaxRawImages = mStreamPlan.getDepth(STREAM_RAW);
+        }
+        if (mStreamPlan.isWithinBudget()) {
+            Log.d(TAG, "Streams: " + mStreamPlan);
+        } else {
+            Log.w(TAG, "Streams exceed the memory budget: " + mStreamPlan);
+        }
+        Resolution size = mStreamPlan.getSize(STREAM_STILL);
+        mStillCaptureSize = new Size(size.getWidth(), size.getHeight());
+        mMaxStillImages = mStreamPlan.getDepth(STREAM_STILL);
+    }
+
+    /**
+     * Closes and reopens the camera, e.g. to configure its streams again.
+     */
+    private void restartCamera() {
+        closeCamera();
+        openCamera();
+        if (mPreviewView.isAvailable()) {
+            onPreviewSurfaceAvailable(mPreviewView.getWidth(), mPreviewView.getHeight());
         }
     }
 
+    /**
+     * @return Whether the activity was started with {@link #EXTRA_SOAK_PATTERN}.
+     */
+    private boolean isSoakMode() {
+        Activity activity = getActivity();
+        return null != activity && activity.getIntent().hasExtra(EXTRA_SOAK_PATTERN);
+    }
+
+    private SoakRunner createSoakRunner() {
+        Intent intent = getActivity().getIntent();
+        SoakConfig config = new SoakConfig()
+                .setPattern(ShutterPattern.parse(intent.getStringExtra(EXTRA_SOAK_PATTERN)))
+                .setDurationMillis(TimeUnit.MINUTES.toMillis(
+                        intent.getIntExtra(EXTRA_SOAK_MINUTES, 10)))
+                .setSampleIntervalMillis(TimeUnit.SECONDS.toMillis(30));
+        Log.i(TAG, "Starting soak run: " + config);
+        mSoakDriver = Executors.newSingleThreadScheduledExecutor();
+        return new SoakRunner(config, mSoakDriver);
+    }
+
+    /**
+     * Writes the report of a soak run into {@link #SOAK_REPORT_FILE}.
+     */
+    private SoakRunner.Listener createSoakListener() {
+        final File file = new File(getActivity().getExternalFilesDir(null), SOAK_REPORT_FILE);
+        return new SoakRunner.Listener() {
+            @Override
+            public void onSoakFinished(SoakReport report) {
+                Log.i(TAG, "Soak run finished: " + report);
+                Writer writer = null;
+                try {
+                    writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+                    report.writeTo(writer);
+                    Log.i(TAG, "Soak report written to " + file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    if (null != writer) {
+                        try {
+                            writer.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        };
+    }
+
     /**
      * Closes the current {@link CameraDevice}.
      */
     private void closeCamera() {
-        try {
-            mCameraOpenCloseLock.acquire();
-            if (null != mCaptureSession) {
-                mCaptureSession.close();
-                mCaptureSession = null;
+        if (null != mSoakRunner) {
+            // Ends the run early; the report is still written.
+            mSoakRunner.stop();
+            mSoakDriver.shutdown();
+            mSoakRunner = null;
+            mSoakDriver = null;
+        }
+        if (null != mCaptureController) {
+            for (CameraFeature feature : mFeatures) {
+                feature.onCameraClosing(mBackend);
+            }
+            Log.i(TAG, "Shutter: " + mCaptureController.getShutterStats());
+            mCaptureController.close();
+            mCaptureController = null;
+            mBackend = null;
+            for (CameraFeature feature : mFeatures) {
+                feature.onCameraClosed();
             }
-            if (null != mCameraDevice) {
-                mCameraDevice.close();
-                mCameraDevice = null;
+            logBufferPool();
+        }
+        mPreviewSize = null;
+    }
+
+    /**
+     * @return Whether the camera needs an analysis output.
+     */
+    private boolean isAnalysisRequested() {
+        Activity activity = getActivity();
+        return null != activity && (activity.getIntent().getBooleanExtra(EXTRA_ANALYSIS, false)
+                || activity.getIntent().hasExtra(EXTRA_MJPEG_PORT) || isMotionMode());
+    }
+
+    /**
+     * @return Whether the activity was started with {@link #EXTRA_RAW}.
+     */
+    private boolean isRawRequested() {
+        Activity activity = getActivity();
+        return null != activity && activity.getIntent().getBooleanExtra(EXTRA_RAW, false)
+                && !isRecordingRequested();
+    }
+
+    /**
+     * @return Whether the activity was started with {@link #EXTRA_RECORD}.
+     */
+    private boolean isRecordingRequested() {
+        Activity activity = getActivity();
+        return null != activity && activity.getIntent().getBooleanExtra(EXTRA_RECORD, false);
+    }
+
+    /**
+     * @return The largest RAW_SENSOR size of the camera, or null if it can't capture RAW.
+     */
+    private static Size getLargestRawSize(CameraCharacteristics characteristics) {
+        int[] capabilities = characteristics.get(
+                CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        boolean raw = false;
+        if (null != capabilities) {
+            for (int capability : capabilities) {
+                raw |= capability == CameraMetadata.REQUEST_AVAILABLE_CAPABILITIES_RAW;
             }
-            if (null != mImageReader) {
-                mImageReader.close();
-                mImageReader = null;
+        }
+        StreamConfigurationMap map = characteristics.get(
+                CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] sizes = null == map ? null : map.getOutputSizes(ImageFormat.RAW_SENSOR);
+        if (!raw || null == sizes || 0 == sizes.length) {
+            Log.w(TAG, "RAW capture is not supported");
+            return null;
+        }
+        Size largest = sizes[0];
+        for (Size size : sizes) {
+            if ((long) size.getWidth() * size.getHeight()
+                    > (long) largest.getWidth() * largest.getHeight()) {
+                largest = size;
             }
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
-        } finally {
-            mCameraOpenCloseLock.release();
         }
+        return largest;
+    }
+
+    /**
+     * @return Whether the activity was started with {@link #EXTRA_INTERVAL_MS}.
+     */
+    private boolean isIntervalMode() {
+        Activity activity = getActivity();
+        return null != activity && activity.getIntent().hasExtra(EXTRA_INTERVAL_MS);
+    }
+
+    /**
+     * @return Whether the activity was started with {@link #EXTRA_MOTION}, and not with
+     * {@link #EXTRA_INTERVAL_MS}, which would compete for the same locked 3A.
+     */
+    private boolean isMotionMode() {
+        Activity activity = getActivity();
+        return null != activity && activity.getIntent().getBooleanExtra(EXTRA_MOTION, false)
+                && !isIntervalMode();
+    }
+
+    /**
+     * Logs the statistics of {@link #mBufferPool}, along with the number of garbage collections so
+     * far where the runtime reports it.
+     */
+    private void logBufferPool() {
+        String gcCount = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                ? Debug.getRuntimeStat("art.gc.gc-count") : null;
+        Log.d(TAG, "Buffer pool: " + mBufferPool + " gcCount=" + gcCount);
     }
 
     /**
@@ -652,13 +1529,20 @@ public class Camera2BasicFragment extends Fragment
     private void startBackgroundThread() {
         mBackgroundThread = new HandlerThread("CameraBackground");
         mBackgroundThread.start();
-        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+        mBackgroundHandler = new MonitoredHandler(mBackgroundThread.getLooper());
     }
 
     /**
      * Stops the background thread and its {@link Handler}.
      */
     private void stopBackgroundThread() {
+        final MonitoredHandler handler = mBackgroundHandler;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                handler.logReport();
+            }
+        });
         mBackgroundThread.quitSafely();
         try {
             mBackgroundThread.join();
@@ -670,76 +1554,41 @@ public class Camera2BasicFragment extends Fragment
     }
 
     /**
-     * Creates a new {@link CameraCaptureSession} for camera preview.
+     * Called on the UI thread when the first preview frame has been drawn. Ends the startup
+     * timeline and exports it on the background thread.
      */
-    private void createCameraPreviewSession() {
-        try {
-            SurfaceTexture texture = mTextureView.getSurfaceTexture();
-            assert texture != null;
-
-            // We configure the size of default buffer to be the size of camera preview we want.
-            texture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
-
-            // This is the output Surface we need to start preview.
-            Surface surface = new Surface(texture);
-
-            // We set up a CaptureRequest.Builder with the output Surface.
-            mPreviewRequestBuilder
-                    = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            mPreviewRequestBuilder.addTarget(surface);
-
-            // Here, we create a CameraCaptureSession for camera preview.
-            mCameraDevice.createCaptureSession(Arrays.asList(surface, mImageReader.getSurface()),
-                    new CameraCaptureSession.StateCallback() {
-
-                        @Override
-                        public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
-                            // The camera is already closed
-                            if (null == mCameraDevice) {
-                                return;
-                            }
-
-                            // When the session is ready, we start displaying the preview.
-                            mCaptureSession = cameraCaptureSession;
-                            try {
-                                // Auto focus should be continuous for camera preview.
-                                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-                                        CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-                                // Flash is automatically enabled when necessary.
-                                setAutoFlash(mPreviewRequestBuilder);
-
-                                // Finally, we start displaying the camera preview.
-                                mPreviewRequest = mPreviewRequestBuilder.build();
-                                mCaptureSession.setRepeatingRequest(mPreviewRequest,
-                                        mCaptureCallback, mBackgroundHandler);
-                            } catch (CameraAccessException e) {
-                                e.printStackTrace();
-                            }
-                        }
-
-                        @Override
-                        public void onConfigureFailed(
-                                @NonNull CameraCaptureSession cameraCaptureSession) {
-                            showToast("Failed");
-                        }
-                    }, null
-            );
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+    private void onFirstPreviewFrame() {
+        StartupTimeline.mark(StartupTimeline.FIRST_FRAME);
+        if (!StartupTimeline.finish()) {
+            return;
+        }
+        Activity activity = getActivity();
+        if (null == activity || null == mBackgroundHandler) {
+            return;
         }
+        activity.reportFullyDrawn();
+        final File traceFile = new File(activity.getExternalFilesDir(null), STARTUP_TRACE_FILE);
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (StartupTimeline.writeTo(traceFile)) {
+                    Log.d(TAG, "Startup trace written to " + traceFile);
+                }
+            }
+        });
     }
 
     /**
-     * Configures the necessary {@link android.graphics.Matrix} transformation to `mTextureView`.
+     * Configures the necessary {@link android.graphics.Matrix} transformation to `mPreviewView`.
      * This method should be called after the camera preview size is determined in
-     * setUpCameraOutputs and also the size of `mTextureView` is fixed.
+     * setUpPreviewSize and also the size of `mPreviewView` is fixed.
      *
-     * @param viewWidth  The width of `mTextureView`
-     * @param viewHeight The height of `mTextureView`
+     * @param viewWidth  The width of `mPreviewView`
+     * @param viewHeight The height of `mPreviewView`
      */
     private void configureTransform(int viewWidth, int viewHeight) {
         Activity activity = getActivity();
-        if (null == mTextureView || null == mPreviewSize || null == activity) {
+        if (null == mPreviewView || null == mPreviewSize || null == activity) {
             return;
         }
         int rotation = activity.getWindowManager().getDefaultDisplay().getRotation();
@@ -759,93 +1608,35 @@ public class Camera2BasicFragment extends Fragment
         } else if (Surface.ROTATION_180 == rotation) {
             matrix.postRotate(180, centerX, centerY);
         }
-        mTextureView.setTransform(matrix);
-    }
-
-    /**
-     * Initiate a still image capture.
-     */
-    private void takePicture() {
-        lockFocus();
+        mPreviewView.setTransform(matrix);
     }
 
     /**
-     * Lock the focus as the first step for a still image capture.
+     * @return The value of {@link #EXTRA_PREVIEW}, {@link #PREVIEW_TEXTURE_VIEW} by default.
      */
-    private void lockFocus() {
-        try {
-            // This is how to tell the camera to lock focus.
-            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
-                    CameraMetadata.CONTROL_AF_TRIGGER_START);
-            // Tell #mCaptureCallback to wait for the lock.
-            mState = STATE_WAITING_LOCK;
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback,
-                    mBackgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
+    private String getPreviewName() {
+        Activity activity = getActivity();
+        String preview = null == activity ? null
+                : activity.getIntent().getStringExtra(EXTRA_PREVIEW);
+        return null == preview ? PREVIEW_TEXTURE_VIEW : preview;
     }
 
     /**
-     * Run the precapture sequence for capturing a still image. This method should be called when
-     * we get a response in {@link #mCaptureCallback} from {@link #lockFocus()}.
+     * Initiate a still image capture.
      */
-    private void runPrecaptureSequence() {
-        try {
-            // This is how to tell the camera to trigger.
-            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
-                    CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
-            // Tell #mCaptureCallback to wait for the precapture sequence to be set.
-            mState = STATE_WAITING_PRECAPTURE;
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback,
-                    mBackgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+    private void takePicture() {
+        if (null != mCaptureController && !isShutterLocked()) {
+            mCaptureController.takePicture();
         }
     }
 
     /**
-     * Capture a still picture. This method should be called when we get a response in
-     * {@link #mCaptureCallback} from both {@link #lockFocus()}.
+     * @return Whether the shutter button is disabled because the pictures are taken with the 3A
+     * locked: the focus and precapture sequence of a manual picture would unlock it, and its
+     * {@code stopRepeating()} would break the frame timing the schedule depends on.
      */
-    private void captureStillPicture() {
-        try {
-            final Activity activity = getActivity();
-            if (null == activity || null == mCameraDevice) {
-                return;
-            }
-            // This is the CaptureRequest.Builder that we use to take a picture.
-            final CaptureRequest.Builder captureBuilder =
-                    mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-            captureBuilder.addTarget(mImageReader.getSurface());
-
-            // Use the same AE and AF modes as the preview.
-            captureBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-                    CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-            setAutoFlash(captureBuilder);
-
-            // Orientation
-            int rotation = activity.getWindowManager().getDefaultDisplay().getRotation();
-            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, getOrientation(rotation));
-
-            CameraCaptureSession.CaptureCallback CaptureCallback
-                    = new CameraCaptureSession.CaptureCallback() {
-
-                @Override
-                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
-                                               @NonNull CaptureRequest request,
-                                               @NonNull TotalCaptureResult result) {
-                    showToast("Saved: " + mFile);
-                    Log.d(TAG, mFile.toString());
-                    unlockFocus();
-                }
-            };
-
-            mCaptureSession.stopRepeating();
-            mCaptureSession.capture(captureBuilder.build(), CaptureCallback, null);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
+    private boolean isShutterLocked() {
+        return isIntervalMode() || isMotionMode();
     }
 
     /**
@@ -855,32 +1646,7 @@ public class Camera2BasicFragment extends Fragment
      * @return The JPEG orientation (one of 0, 90, 270, and 360)
      */
     private int getOrientation(int rotation) {
-        // Sensor orientation is 90 for most devices, or 270 for some devices (eg. Nexus 5X)
-        // We have to take that into account and rotate JPEG properly.
-        // For devices with orientation of 90, we simply return our mapping from ORIENTATIONS.
-        // For devices with orientation of 270, we need to rotate the JPEG 180 degrees.
-        return (ORIENTATIONS.get(rotation) + mSensorOrientation + 270) % 360;
-    }
-
-    /**
-     * Unlock the focus. This method should be called when still image capture sequence is
-     * finished.
-     */
-    private void unlockFocus() {
-        try {
-            // Reset the auto-focus trigger
-            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
-                    CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
-            setAutoFlash(mPreviewRequestBuilder);
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback,
-                    mBackgroundHandler);
-            // After this, the camera will go back to the normal state of preview.
-            mState = STATE_PREVIEW;
-            mCaptureSession.setRepeatingRequest(mPreviewRequest, mCaptureCallback,
-                    mBackgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
+        return Orientations.getJpegOrientation(rotation, mSensorOrientation);
     }
 
     @Override
@@ -903,71 +1669,6 @@ public class Camera2BasicFragment extends Fragment
         }
     }
 
-    private void setAutoFlash(CaptureRequest.Builder requestBuilder) {
-        if (mFlashSupported) {
-            requestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                    CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
-        }
-    }
-
-    /**
-     * Saves a JPEG {@link Image} into the specified {@link File}.
-     */
-    private static class ImageSaver implements Runnable {
-
-        /**
-         * The JPEG image
-         */
-        private final Image mImage;
-        /**
-         * The file we save the image into.
-         */
-        private final File mFile;
-
-        public ImageSaver(Image image, File file) {
-            mImage = image;
-            mFile = file;
-        }
-
-        @Override
-        public void run() {
-            ByteBuffer buffer = mImage.getPlanes()[0].getBuffer();
-            byte[] bytes = new byte[buffer.remaining()];
-            buffer.get(bytes);
-            FileOutputStream output = null;
-            try {
-                output = new FileOutputStream(mFile);
-                output.write(bytes);
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                mImage.close();
-                if (null != output) {
-                    try {
-                        output.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        }
-
-    }
-
-    /**
-     * Compares two {@code Size}s based on their areas.
-     */
-    static class CompareSizesByArea implements Comparator<Size> {
-
-        @Override
-        public int compare(Size lhs, Size rhs) {
-            // We cast here to ensure the multiplications won't overflow
-            return Long.signum((long) lhs.getWidth() * lhs.getHeight() -
-                    (long) rhs.getWidth() * rhs.getHeight());
-        }
-
-    }
-
     /**
      * Shows an error message dialog.
      */
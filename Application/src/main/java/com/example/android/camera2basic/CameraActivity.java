@@ -16,13 +16,35 @@
 
 package com.example.android.camera2basic;
 
+import android.Manifest;
 import android.app.Activity;
+import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.support.v4.content.ContextCompat;
 
 public class CameraActivity extends Activity {
 
+    /**
+     * Intent extra that opens {@link MultiCameraActivity} instead, e.g. {@code adb shell am start
+     * -n com.example.android.camera2basic/.CameraActivity --ez multi_camera true}. Until the camera
+     * permission has been granted, the single camera screen opens to request it.
+     */
+    static final String EXTRA_MULTI_CAMERA = "multi_camera";
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        if (getIntent().getBooleanExtra(EXTRA_MULTI_CAMERA, false)
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                == PackageManager.PERMISSION_GRANTED) {
+            super.onCreate(savedInstanceState);
+            startActivity(new Intent(this, MultiCameraActivity.class));
+            finish();
+            return;
+        }
+        StartupTimeline.start();
+        StartupTimeline.mark(StartupTimeline.ACTIVITY_CREATE);
+        StartupTimeline.beginSection("CameraActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_camera);
         if (null == savedInstanceState) {
@@ -30,6 +52,7 @@ public class CameraActivity extends Activity {
                     .replace(R.id.container, Camera2BasicFragment.newInstance())
                     .commit();
         }
+        StartupTimeline.endSection();
     }
 
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.hardware.camera2.CameraCharacteristics;
+import android.util.Size;
+
+import com.example.android.camera2basic.core.CaptureController;
+
+/**
+ * A feature of {@link Camera2BasicFragment} that the activity was started with, e.g. the MJPEG
+ * server or the interval capture. The fragment creates its features when it resumes, starts them
+ * in order, tells them about every camera it opens and closes, and stops them in reverse order
+ * when it pauses. All callbacks are no-ops unless overridden.
+ */
+abstract class CameraFeature {
+
+    /**
+     * Called on the UI thread when the fragment resumes, once the background thread runs and
+     * before the camera is opened.
+     */
+    void start() {
+    }
+
+    /**
+     * Called on the UI thread when the fragment pauses, once the camera is closed and before the
+     * background thread ends.
+     */
+    void stop() {
+    }
+
+    /**
+     * Called on the UI thread when a camera is about to be opened, before its capture session is
+     * created.
+     *
+     * @param characteristics The characteristics of the camera.
+     * @param backend         The backend of the camera.
+     * @param controller      The controller that is about to open the camera.
+     */
+    void onCameraOpening(CameraCharacteristics characteristics, Camera2Backend backend,
+            CaptureController controller) {
+    }
+
+    /**
+     * Called on the UI thread once the preview size is known, before the preview surface is handed
+     * to {@code backend}; the last chance to add an output to the session.
+     *
+     * @param backend     The backend of the open camera.
+     * @param previewSize The size of the preview.
+     */
+    void onPreviewSizeChosen(Camera2Backend backend, Size previewSize) {
+    }
+
+    /**
+     * Called on the background thread whenever the preview has started, including after the
+     * camera was lost and reopened.
+     *
+     * @param backend The backend of the open camera.
+     */
+    void onPreviewStarted(Camera2Backend backend) {
+    }
+
+    /**
+     * Called on the UI thread before the camera is closed.
+     *
+     * @param backend The backend of the camera.
+     */
+    void onCameraClosing(Camera2Backend backend) {
+    }
+
+    /**
+     * Called on the UI thread once the camera is closed.
+     */
+    void onCameraClosed() {
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraMetadata;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.example.android.camera2basic.core.CaptureController;
+import com.example.android.camera2basic.core.DisplayLatencyEstimator;
+
+/**
+ * Measures the delivery latency of the preview frames while started, and models their display
+ * latency, with a {@link DisplayLatencyEstimator}. Both are logged when the feature is stopped.
+ */
+class DisplayLatencyFeature extends CameraFeature {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "DisplayLatencyFeature";
+
+    private final PreviewView mPreviewView;
+
+    private final String mPreviewName;
+
+    private final float mRefreshRate;
+
+    /**
+     * Measures while started, otherwise null.
+     */
+    private volatile DisplayLatencyEstimator mEstimator;
+
+    /**
+     * The offset from {@link System#nanoTime()} to the clock of the sensor timestamps of the
+     * camera being opened.
+     */
+    private volatile long mSensorClockOffsetNanos;
+
+    /**
+     * Reports every vsync to {@link #mEstimator} while started.
+     */
+    private final Choreographer.FrameCallback mVsyncCallback = new Choreographer.FrameCallback() {
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            DisplayLatencyEstimator estimator = mEstimator;
+            if (null == estimator) {
+                return;
+            }
+            estimator.onVsync(frameTimeNanos + mSensorClockOffsetNanos);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+    };
+
+    /**
+     * @param previewView The view the preview is shown in.
+     * @param previewName Names the view in the log.
+     * @param refreshRate The refresh rate of the display, in Hz.
+     */
+    DisplayLatencyFeature(PreviewView previewView, String previewName, float refreshRate) {
+        mPreviewView = previewView;
+        mPreviewName = previewName;
+        mRefreshRate = refreshRate;
+    }
+
+    /**
+     * Called on any thread when a preview frame has been delivered to the view, or its capture
+     * result has completed for views that don't report their frames.
+     *
+     * @param timestampNanos The sensor timestamp of the frame.
+     */
+    void onFrameAvailable(long timestampNanos) {
+        DisplayLatencyEstimator estimator = mEstimator;
+        if (null != estimator) {
+            estimator.onFrameAvailable(timestampNanos, System.nanoTime() + mSensorClockOffsetNanos);
+        }
+    }
+
+    @Override
+    void start() {
+        mEstimator = new DisplayLatencyEstimator(mPreviewView.getCompositionVsyncs(),
+                (long) (1000000000L / mRefreshRate));
+        Choreographer.getInstance().postFrameCallback(mVsyncCallback);
+    }
+
+    /**
+     * Stops measuring and logs the delivery latency next to the modeled display latency.
+     */
+    @Override
+    void stop() {
+        Choreographer.getInstance().removeFrameCallback(mVsyncCallback);
+        DisplayLatencyEstimator estimator = mEstimator;
+        mEstimator = null;
+        // Views that don't report their frames are measured up to the capture result instead.
+        Log.i(TAG, "Preview latency (" + mPreviewName + ", delivery to the "
+                + (mPreviewView.reportsFrames() ? "view" : "capture result") + "): " + estimator);
+    }
+
+    @Override
+    void onCameraOpening(CameraCharacteristics characteristics, Camera2Backend backend,
+            CaptureController controller) {
+        Integer timestampSource = characteristics.get(
+                CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        mSensorClockOffsetNanos = null != timestampSource
+                && timestampSource == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME
+                ? SystemClock.elapsedRealtimeNanos() - System.nanoTime() : 0;
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.util.Log;
+
+import com.example.android.camera2basic.core.CaptureController;
+import com.example.android.camera2basic.core.IntervalScheduler;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes a picture at a fixed interval with the 3A locked, on every camera the fragment opens. The
+ * actual against the requested intervals are logged when the camera is closed.
+ */
+class IntervalCaptureFeature extends CameraFeature {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "IntervalCaptureFeature";
+
+    private final long mIntervalNanos;
+
+    private final boolean mLowPowerBetweenShots;
+
+    private final CaptureController.Listener mOrientation;
+
+    private final Executor mCameraExecutor;
+
+    /**
+     * Takes the pictures of the open camera, otherwise null. Only accessed on the background
+     * thread.
+     */
+    private IntervalScheduler mScheduler;
+
+    /**
+     * @param intervalMillis       The interval between two pictures.
+     * @param lowPowerBetweenShots Whether to lower the preview frame rate between the pictures.
+     * @param orientation          Provides the JPEG orientation of the pictures.
+     * @param cameraExecutor       Runs tasks on the background thread.
+     */
+    IntervalCaptureFeature(long intervalMillis, boolean lowPowerBetweenShots,
+            CaptureController.Listener orientation, Executor cameraExecutor) {
+        mIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        mLowPowerBetweenShots = lowPowerBetweenShots;
+        mOrientation = orientation;
+        mCameraExecutor = cameraExecutor;
+    }
+
+    /**
+     * Starts taking pictures, or starts over on the current device after it has been reopened.
+     */
+    @Override
+    void onPreviewStarted(Camera2Backend backend) {
+        if (null != mScheduler) {
+            // The camera was lost and has been reopened.
+            Log.i(TAG, "Interval capture: " + mScheduler);
+        }
+        mScheduler = new IntervalScheduler(backend, mIntervalNanos,
+                new IntervalScheduler.Listener() {
+            @Override
+            public int getJpegOrientation() {
+                return mOrientation.getJpegOrientation();
+            }
+
+            @Override
+            public void onIntervalShot(int shot, long intervalNanos, long errorNanos) {
+                Log.d(TAG, "Interval shot " + shot + ": " + intervalNanos / 1000 + "us since the"
+                        + " previous one, " + errorNanos / 1000 + "us from the target");
+            }
+        }).setLowPowerBetweenShots(mLowPowerBetweenShots);
+        mScheduler.start();
+    }
+
+    /**
+     * Stops taking pictures and logs actual against requested intervals. The capture session is
+     * closed with the camera, so the 3A doesn't need to be unlocked.
+     */
+    @Override
+    void onCameraClosing(final Camera2Backend backend) {
+        mCameraExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (null == mScheduler) {
+                    return;
+                }
+                backend.setFrameCallback(null);
+                Log.i(TAG, "Interval capture: " + mScheduler);
+                mScheduler = null;
+            }
+        });
+    }
+
+}
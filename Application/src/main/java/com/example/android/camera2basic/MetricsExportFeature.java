@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.util.Log;
+
+import com.example.android.camera2basic.core.MetricsExporter;
+import com.example.android.camera2basic.core.MetricsRegistry;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends a snapshot of {@link MetricsRegistry#getDefault()} to {@link #FILE} at a fixed interval
+ * while started, and a last one when stopped, which covers the camera close.
+ */
+class MetricsExportFeature extends CameraFeature {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "MetricsExportFeature";
+
+    /**
+     * Name of the file the metrics are exported to.
+     */
+    static final String FILE = "metrics.prom";
+
+    /**
+     * Size from which {@link #FILE} is rotated.
+     */
+    private static final long FILE_MAX_BYTES = 1024 * 1024;
+
+    /**
+     * Number of metrics files kept, including the current one.
+     */
+    private static final int FILES = 3;
+
+    private final File mDirectory;
+
+    private final int mIntervalSeconds;
+
+    /**
+     * Exports the metrics while started, otherwise null.
+     */
+    private MetricsExporter mExporter;
+
+    /**
+     * The thread {@link #mExporter} runs on.
+     */
+    private ScheduledExecutorService mExecutor;
+
+    /**
+     * @param directory       The directory {@link #FILE} is written into.
+     * @param intervalSeconds The interval between two snapshots.
+     */
+    MetricsExportFeature(File directory, int intervalSeconds) {
+        mDirectory = directory;
+        mIntervalSeconds = intervalSeconds;
+    }
+
+    @Override
+    void start() {
+        mExporter = new MetricsExporter(MetricsRegistry.getDefault(), new File(mDirectory, FILE),
+                FILE_MAX_BYTES, FILES);
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+        mExecutor.scheduleAtFixedRate(mExporter, mIntervalSeconds, mIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    @Override
+    void stop() {
+        // The last snapshot runs after any export still under way, on the same thread.
+        mExecutor.execute(mExporter);
+        mExecutor.shutdown();
+        Log.d(TAG, "Metrics: " + mExporter);
+        mExporter = null;
+        mExecutor = null;
+    }
+
+}
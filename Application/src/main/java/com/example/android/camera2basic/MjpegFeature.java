@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.hardware.camera2.CameraCharacteristics;
+import android.util.Log;
+
+import com.example.android.camera2basic.core.BufferPool;
+import com.example.android.camera2basic.core.CameraStreams;
+import com.example.android.camera2basic.core.CaptureController;
+import com.example.android.camera2basic.core.MjpegServer;
+import com.example.android.camera2basic.core.MjpegStreamer;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the analysis frames as MJPEG on 127.0.0.1, and the latest picture at /still.jpg, while
+ * started. The stats of the clients are logged when it is stopped.
+ */
+class MjpegFeature extends CameraFeature {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "MjpegFeature";
+
+    /**
+     * JPEG quality of the frames served.
+     */
+    private static final int QUALITY = 70;
+
+    private final int mPort;
+
+    private final CameraStreams mStreams;
+
+    private final BufferPool mBufferPool;
+
+    /**
+     * Serves the frames while started, otherwise null.
+     */
+    private MjpegServer mServer;
+
+    /**
+     * Encodes the analysis frames for {@link #mServer}.
+     */
+    private MjpegStreamer mStreamer;
+
+    /**
+     * The thread {@link #mStreamer} encodes on.
+     */
+    private ExecutorService mEncoderExecutor;
+
+    /**
+     * @param port       The port to listen on.
+     * @param streams    The streams whose analysis frames and captures are served.
+     * @param bufferPool The buffers the frames are encoded into.
+     */
+    MjpegFeature(int port, CameraStreams streams, BufferPool bufferPool) {
+        mPort = port;
+        mStreams = streams;
+        mBufferPool = bufferPool;
+    }
+
+    @Override
+    void start() {
+        mServer = new MjpegServer();
+        try {
+            mServer.start(mPort);
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't start the MJPEG server", e);
+            mServer = null;
+            return;
+        }
+        mEncoderExecutor = Executors.newSingleThreadExecutor();
+        mStreamer = new MjpegStreamer(mServer, mBufferPool, QUALITY);
+        mStreamer.start(mStreams, mEncoderExecutor);
+    }
+
+    /**
+     * Starts a new encoder if the current one gave up after its subscriptions kept failing, so
+     * that reopening the camera brings the stream back.
+     */
+    @Override
+    void onCameraOpening(CameraCharacteristics characteristics, Camera2Backend backend,
+            CaptureController controller) {
+        if (null == mStreamer || null == mStreamer.getFailure()) {
+            return;
+        }
+        Log.w(TAG, "Restarting the MJPEG encoder: " + mStreamer);
+        mStreamer.stop();
+        mStreamer = new MjpegStreamer(mServer, mBufferPool, QUALITY);
+        mStreamer.start(mStreams, mEncoderExecutor);
+    }
+
+    @Override
+    void stop() {
+        if (null == mServer) {
+            return;
+        }
+        mStreamer.stop();
+        mEncoderExecutor.shutdown();
+        mServer.stop();
+        Log.d(TAG, "MJPEG: " + mServer + "; encoder " + mStreamer);
+        mServer = null;
+        mStreamer = null;
+        mEncoderExecutor = null;
+    }
+
+}
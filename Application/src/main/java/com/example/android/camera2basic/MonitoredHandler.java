@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.camera2basic.core.LatencyHistogram;
+
+/**
+ * A {@link Handler} that measures, for every message it dispatches, how long the message waited
+ * in the queue past its due time (the dispatch lag) and how long it ran. Both are kept in
+ * {@link LatencyHistogram}s per message type, and a warning listing the most recent work is logged
+ * whenever the dispatch lag crosses a threshold, so that the work which backed up the queue can be
+ * found.
+ *
+ * <p>Only messages sent through this handler are measured. The camera framework posts the device
+ * state, session state and capture callbacks through the handler we pass it; {@link
+ * android.media.ImageReader} uses its own handler on the same looper, so its listener calls are not
+ * attributed, but they still show up as dispatch lag of the messages queued behind them.</p>
+ */
+class MonitoredHandler extends Handler {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "MonitoredHandler";
+
+    /**
+     * Dispatch lag above which a warning is logged.
+     */
+    private static final long LAG_WARNING_MS = 50;
+
+    /**
+     * Maximum number of distinct message types. Further types are counted as "other".
+     */
+    private static final int MAX_TYPES = 16;
+
+    /**
+     * Number of recently dispatched messages listed in a warning.
+     */
+    private static final int RECENT_COUNT = 8;
+
+    private final String[] mTypes = new String[MAX_TYPES];
+
+    private final LatencyHistogram[] mLag = new LatencyHistogram[MAX_TYPES];
+
+    private final LatencyHistogram[] mRun = new LatencyHistogram[MAX_TYPES];
+
+    private int mTypeCount;
+
+    /**
+     * Ring buffer of the types and run times of the most recently dispatched messages.
+     */
+    private final int[] mRecentTypes = new int[RECENT_COUNT];
+
+    private final long[] mRecentRunMicros = new long[RECENT_COUNT];
+
+    private int mRecentCount;
+
+    MonitoredHandler(Looper looper) {
+        super(looper);
+    }
+
+    @Override
+    public void dispatchMessage(Message msg) {
+        long when = msg.getWhen();
+        long startMillis = SystemClock.uptimeMillis();
+        // Messages posted at the front of the queue have no due time.
+        long lagMillis = when == 0 ? 0 : startMillis - when;
+        int type = typeOf(msg);
+        long startNanos = System.nanoTime();
+        try {
+            super.dispatchMessage(msg);
+        } finally {
+            long runMicros = (System.nanoTime() - startNanos) / 1000;
+            mLag[type].record(lagMillis * 1000);
+            mRun[type].record(runMicros);
+            if (lagMillis >= LAG_WARNING_MS) {
+                Log.w(TAG, "Dispatch lag " + lagMillis + "ms for " + mTypes[type]
+                        + "; recent work: " + describeRecentWork());
+            }
+            int slot = mRecentCount % RECENT_COUNT;
+            mRecentTypes[slot] = type;
+            mRecentRunMicros[slot] = runMicros;
+            mRecentCount++;
+        }
+    }
+
+    /**
+     * Logs the histograms of every message type seen so far. Must be called on the looper thread,
+     * e.g. by posting it to this handler.
+     */
+    void logReport() {
+        for (int i = 0; i < mTypeCount; i++) {
+            Log.i(TAG, mTypes[i] + ": lag " + mLag[i] + "; run " + mRun[i]);
+        }
+    }
+
+    /**
+     * Attributes a message to one of a small set of types: our own {@code ImageSaver}, capture
+     * callbacks and state callbacks of the camera framework, or else the class of its callback.
+     */
+    private int typeOf(Message msg) {
+        Runnable callback = msg.getCallback();
+        String type;
+        if (null == callback) {
+            type = "message";
+        } else {
+            String name = callback.getClass().getName();
+            if (name.contains("ImageSaver")) {
+                type = "ImageSaver";
+            } else if (name.contains("CameraDeviceCallbacks") || name.contains("CaptureCallback")) {
+                type = "capture callback";
+            } else if (name.contains("CameraDeviceImpl") || name.contains("StateCallback")
+                    || name.contains("HandlerDispatcher")) {
+                type = "state callback";
+            } else {
+                type = name;
+            }
+        }
+        for (int i = 0; i < mTypeCount; i++) {
+            if (mTypes[i].equals(type)) {
+                return i;
+            }
+        }
+        if (mTypeCount == MAX_TYPES) {
+            return MAX_TYPES - 1;
+        }
+        if (mTypeCount == MAX_TYPES - 1) {
+            // The last slot collects every type we have no room for.
+            type = "other";
+        }
+        mTypes[mTypeCount] = type;
+        mLag[mTypeCount] = new LatencyHistogram();
+        mRun[mTypeCount] = new LatencyHistogram();
+        return mTypeCount++;
+    }
+
+    private String describeRecentWork() {
+        StringBuilder builder = new StringBuilder();
+        int count = Math.min(mRecentCount, RECENT_COUNT);
+        for (int i = 1; i <= count; i++) {
+            int slot = (mRecentCount - i) % RECENT_COUNT;
+            if (i > 1) {
+                builder.append(", ");
+            }
+            builder.append(mTypes[mRecentTypes[slot]]).append(' ')
+                    .append(mRecentRunMicros[slot] / 1000).append("ms");
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.util.Log;
+
+import com.example.android.camera2basic.core.CameraStreams;
+import com.example.android.camera2basic.core.CaptureController;
+import com.example.android.camera2basic.core.FrameStream;
+import com.example.android.camera2basic.core.LumaFrame;
+import com.example.android.camera2basic.core.MotionDetector;
+import com.example.android.camera2basic.core.MotionTrigger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes a picture with the 3A locked whenever the analysis frames show motion. The detector runs
+ * on its own thread and always gets the newest frame; only the events are handed to the
+ * {@link MotionTrigger} of the open camera on the background thread. The detection cost and the
+ * event-to-exposure latencies are logged when the feature is stopped and the camera is closed.
+ */
+class MotionCaptureFeature extends CameraFeature {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "MotionCaptureFeature";
+
+    /**
+     * Width and height in pixels of the blocks the analysis frames are compared in.
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Only every second pixel of every second row is read to find motion.
+     */
+    private static final int SAMPLE_STEP = 2;
+
+    private final CameraStreams mStreams;
+
+    private final long mCooldownNanos;
+
+    private final CaptureController.Listener mOrientation;
+
+    private final Executor mCameraExecutor;
+
+    /**
+     * The thread motion is looked for on while started, otherwise null.
+     */
+    private ExecutorService mDetectorExecutor;
+
+    /**
+     * The detector of {@link #mDetectorExecutor}; a new one for every executor, and only used on
+     * it.
+     */
+    private MotionDetector mDetector;
+
+    private FrameStream.Subscription mFrameSubscription;
+
+    /**
+     * Set when the camera has been reopened, so that the detector learns the background anew
+     * instead of comparing with the scene from before.
+     */
+    private volatile boolean mBackgroundStale;
+
+    /**
+     * Takes a picture on motion while the camera is open, otherwise null. Only accessed on the
+     * background thread.
+     */
+    private MotionTrigger mTrigger;
+
+    /**
+     * @param streams        The streams whose analysis frames are looked at.
+     * @param cooldownMillis The time after a picture during which no other is taken.
+     * @param orientation    Provides the JPEG orientation of the pictures.
+     * @param cameraExecutor Runs tasks on the background thread.
+     */
+    MotionCaptureFeature(CameraStreams streams, long cooldownMillis,
+            CaptureController.Listener orientation, Executor cameraExecutor) {
+        mStreams = streams;
+        mCooldownNanos = TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+        mOrientation = orientation;
+        mCameraExecutor = cameraExecutor;
+    }
+
+    /**
+     * Starts looking for motion in the analysis frames.
+     */
+    @Override
+    void start() {
+        // Not shared with the executor of a previous start, which may still be finishing.
+        final MotionDetector detector = new MotionDetector(BLOCK_SIZE, SAMPLE_STEP);
+        mDetector = detector;
+        mDetectorExecutor = Executors.newSingleThreadExecutor();
+        mFrameSubscription = mStreams.getAnalysisFrames().subscribe(
+                new FrameStream.Subscriber<LumaFrame>() {
+
+                    private FrameStream.Subscription mSubscription;
+
+                    @Override
+                    public void onSubscribe(FrameStream.Subscription subscription) {
+                        mSubscription = subscription;
+                        subscription.request(1);
+                    }
+
+                    @Override
+                    public void onNext(LumaFrame frame) {
+                        if (mBackgroundStale) {
+                            mBackgroundStale = false;
+                            detector.reset();
+                        }
+                        if (detector.detect(frame)) {
+                            final long timestamp = frame.getTimestamp();
+                            mCameraExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (null != mTrigger) {
+                                        mTrigger.onMotion(timestamp);
+                                    }
+                                }
+                            });
+                        }
+                        mSubscription.request(1);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                    }
+
+                    @Override
+                    public void onComplete() {
+                    }
+
+                }, mDetectorExecutor, 1, FrameStream.Overflow.DROP_OLDEST);
+    }
+
+    /**
+     * Stops looking for motion and logs the detection cost per frame.
+     */
+    @Override
+    void stop() {
+        mFrameSubscription.cancel();
+        mFrameSubscription = null;
+        final MotionDetector detector = mDetector;
+        // Logged on the detector thread, after the frame it may be working on.
+        mDetectorExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Log.d(TAG, "Motion detector: " + detector);
+            }
+        });
+        mDetectorExecutor.shutdown();
+        mDetectorExecutor = null;
+        mDetector = null;
+    }
+
+    /**
+     * Locks the 3A and starts taking pictures on motion, or starts over on the current device
+     * after it has been reopened.
+     */
+    @Override
+    void onPreviewStarted(Camera2Backend backend) {
+        if (null != mTrigger) {
+            // The camera was lost and has been reopened.
+            Log.i(TAG, "Motion capture: " + mTrigger);
+        }
+        mBackgroundStale = true;
+        mTrigger = new MotionTrigger(backend, mCooldownNanos, new MotionTrigger.Listener() {
+            @Override
+            public int getJpegOrientation() {
+                return mOrientation.getJpegOrientation();
+            }
+
+            @Override
+            public void onMotionShot(int shot, long latencyNanos) {
+                Log.d(TAG, "Motion shot " + shot + ": exposed " + latencyNanos / 1000
+                        + "us after the motion");
+            }
+        });
+        mTrigger.start();
+    }
+
+    /**
+     * Stops taking pictures on motion and logs the event-to-exposure latencies. The capture
+     * session is closed with the camera, so the 3A doesn't need to be unlocked.
+     */
+    @Override
+    void onCameraClosing(final Camera2Backend backend) {
+        mCameraExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (null == mTrigger) {
+                    return;
+                }
+                backend.setFrameCallback(null);
+                Log.i(TAG, "Motion capture: " + mTrigger);
+                mTrigger = null;
+            }
+        });
+    }
+
+}
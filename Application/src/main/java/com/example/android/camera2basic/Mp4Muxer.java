@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.media.MediaCodec;
+import android.media.MediaMuxer;
+
+import com.example.android.camera2basic.core.VideoEncoder;
+import com.example.android.camera2basic.core.VideoMuxer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the output of a {@link SurfaceVideoEncoder} into an MP4 file with {@link MediaMuxer}.
+ */
+class Mp4Muxer implements VideoMuxer {
+
+    private final MediaMuxer mMuxer;
+
+    private final SurfaceVideoEncoder mEncoder;
+
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+    private int mTrack = -1;
+
+    /**
+     * @param orientationHint The clockwise rotation, in degrees, players apply to the frames.
+     */
+    Mp4Muxer(File file, SurfaceVideoEncoder encoder, int orientationHint) throws IOException {
+        mMuxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        mMuxer.setOrientationHint(orientationHint);
+        mEncoder = encoder;
+    }
+
+    @Override
+    public void start() {
+        mTrack = mMuxer.addTrack(mEncoder.getOutputFormat());
+        mMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, VideoEncoder.Sample sample) {
+        mBufferInfo.set(sample.offset, sample.size, sample.presentationTimeUs, sample.flags);
+        mMuxer.writeSampleData(mTrack, data, mBufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        mMuxer.stop();
+    }
+
+    /**
+     * Releases the muxer, which must have been stopped if it was started.
+     */
+    void release() {
+        mMuxer.release();
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.Manifest;
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraManager;
+import android.media.Image;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+import android.util.Size;
+import android.view.TextureView;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.Toast;
+
+import com.example.android.camera2basic.core.CameraBudget;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows the preview of every camera of the device at once, stacked vertically. Tapping a preview
+ * takes a picture with that camera. Started by {@link CameraActivity} with
+ * {@link CameraActivity#EXTRA_MULTI_CAMERA} once the camera permission has been granted.
+ */
+public class MultiCameraActivity extends Activity {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "MultiCameraActivity";
+
+    /**
+     * Image buffers shared by all cameras; enough for four cameras at their minimum.
+     */
+    private static final int MAX_IMAGES = 12;
+
+    /**
+     * Handler threads shared by all cameras.
+     */
+    private static final int MAX_THREADS = 2;
+
+    /**
+     * Bytes of JPEG data that may wait for the writer, about four full-size pictures.
+     */
+    private static final long MAX_PENDING_WRITE_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * How often the analysis frame rate of each camera is logged.
+     */
+    private static final long ANALYSIS_LOG_INTERVAL_MS = 5000;
+
+    private LinearLayout mContainer;
+
+    private MultiCameraManager mCameraManager;
+
+    /**
+     * Logs the rate at which analysis frames arrive. Runs on the camera threads.
+     */
+    private final MultiCameraManager.Analyzer mAnalyzer = new MultiCameraManager.Analyzer() {
+
+        private final Object mLock = new Object();
+
+        private long mWindowStart = SystemClock.elapsedRealtime();
+
+        private final Map<String, Integer> mFrames = new HashMap<>();
+
+        @Override
+        public void analyze(String cameraId, Image image) {
+            synchronized (mLock) {
+                Integer frames = mFrames.get(cameraId);
+                mFrames.put(cameraId, null == frames ? 1 : frames + 1);
+                long now = SystemClock.elapsedRealtime();
+                if (now - mWindowStart >= ANALYSIS_LOG_INTERVAL_MS) {
+                    Log.d(TAG, "Analysis frames in " + (now - mWindowStart) + "ms: " + mFrames);
+                    mFrames.clear();
+                    mWindowStart = now;
+                }
+            }
+        }
+
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mContainer = new LinearLayout(this);
+        mContainer.setOrientation(LinearLayout.VERTICAL);
+        setContentView(mContainer);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            Toast.makeText(this, R.string.request_permission, Toast.LENGTH_SHORT).show();
+            finish();
+            return;
+        }
+        CameraManager manager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        mCameraManager = new MultiCameraManager(manager,
+                new CameraBudget(MAX_IMAGES, MAX_THREADS, MAX_PENDING_WRITE_BYTES),
+                getExternalFilesDir(null), mAnalyzer);
+        try {
+            List<String> cameraIds = mCameraManager.open(MultiCameraManager.findCameras(manager));
+            for (String cameraId : cameraIds) {
+                addPreview(cameraId);
+            }
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        if (null != mCameraManager) {
+            mCameraManager.close();
+            mCameraManager = null;
+        }
+        mContainer.removeAllViews();
+        super.onPause();
+    }
+
+    private void addPreview(final String cameraId) {
+        final AutoFitTextureView textureView = new AutoFitTextureView(this);
+        textureView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+
+            @Override
+            public void onSurfaceTextureAvailable(SurfaceTexture texture, int width, int height) {
+                if (null == mCameraManager) {
+                    return;
+                }
+                Size size = mCameraManager.getPreviewSize(cameraId, width, height);
+                // The activity is portrait only, so the preview is always rotated.
+                textureView.setAspectRatio(size.getHeight(), size.getWidth());
+                mCameraManager.setPreviewSurface(cameraId, texture, size);
+            }
+
+            @Override
+            public void onSurfaceTextureSizeChanged(SurfaceTexture texture, int width,
+                                                    int height) {
+            }
+
+            @Override
+            public boolean onSurfaceTextureDestroyed(SurfaceTexture texture) {
+                return true;
+            }
+
+            @Override
+            public void onSurfaceTextureUpdated(SurfaceTexture texture) {
+            }
+
+        });
+        textureView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                if (null != mCameraManager) {
+                    mCameraManager.takePicture(cameraId);
+                }
+            }
+        });
+        mContainer.addView(textureView, new LinearLayout.LayoutParams(
+                LinearLayout.LayoutParams.MATCH_PARENT, 0, 1));
+    }
+
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Size;
+
+import com.example.android.camera2basic.core.BufferPool;
+import com.example.android.camera2basic.core.CameraBudget;
+import com.example.android.camera2basic.core.CameraSizes;
+import com.example.android.camera2basic.core.CaptureController;
+import com.example.android.camera2basic.core.Orientations;
+import com.example.android.camera2basic.core.Resolution;
+import com.example.android.camera2basic.core.SharedImageWriter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Streams from several cameras at once. Every camera has its own preview, still capture and
+ * analysis outputs, but they share one {@link CameraBudget}: the image buffers of all readers are
+ * split between the cameras, the camera callbacks are spread over a fixed number of handler
+ * threads, and all pictures go through one {@link SharedImageWriter}.
+ *
+ * <p>{@link #open(List)}, {@link #setPreviewSurface}, {@link #takePicture(String)} and
+ * {@link #close()} are called from the UI thread.</p>
+ */
+class MultiCameraManager {
+
+    /**
+     * Receives the analysis frames of all cameras.
+     */
+    interface Analyzer {
+
+        /**
+         * Called on the callback thread of the camera. The image is closed after this returns.
+         */
+        void analyze(String cameraId, Image image);
+
+    }
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "MultiCameraManager";
+
+    /**
+     * Still images each camera would like to hold, so that a capture can start while the previous
+     * picture is still being handed over.
+     */
+    private static final int STILL_IMAGES_REQUESTED = 2;
+
+    private static final int STILL_IMAGES_MIN = 1;
+
+    /**
+     * Analysis frames each camera would like to hold, so that the analyzer can run late by a frame.
+     */
+    private static final int ANALYSIS_IMAGES_REQUESTED = 3;
+
+    /**
+     * {@link ImageReader#acquireLatestImage()} needs two images.
+     */
+    private static final int ANALYSIS_IMAGES_MIN = 2;
+
+    /**
+     * Analysis frames are kept small; they are read in full for every preview frame.
+     */
+    private static final int MAX_ANALYSIS_WIDTH = 640;
+
+    private static final int MAX_ANALYSIS_HEIGHT = 480;
+
+    /**
+     * Max preview width that is guaranteed by Camera2 API
+     */
+    private static final int MAX_PREVIEW_WIDTH = 1920;
+
+    /**
+     * Max preview height that is guaranteed by Camera2 API
+     */
+    private static final int MAX_PREVIEW_HEIGHT = 1080;
+
+    private final CameraManager mCameraManager;
+
+    private final CameraBudget mBudget;
+
+    private final File mOutputDir;
+
+    private final Analyzer mAnalyzer;
+
+    private final Map<String, CameraStream> mStreams = new LinkedHashMap<>();
+
+    private final List<HandlerThread> mThreads = new ArrayList<>();
+
+    private ExecutorService mWriterThread;
+
+    private SharedImageWriter mWriter;
+
+    /**
+     * The buffers the pictures of all cameras are copied into while they wait for the writer.
+     */
+    private BufferPool mBufferPool;
+
+    /**
+     * @param outputDir The directory pictures are saved into, as {@code pic-<camera id>.jpg}.
+     * @param analyzer  Receives the analysis frames, or null for no analysis output.
+     */
+    MultiCameraManager(CameraManager cameraManager, CameraBudget budget, File outputDir,
+                       Analyzer analyzer) {
+        mCameraManager = cameraManager;
+        mBudget = budget;
+        mOutputDir = outputDir;
+        mAnalyzer = analyzer;
+    }
+
+    /**
+     * @return The IDs of all cameras that can capture JPEG pictures, whichever way they face.
+     */
+    static List<String> findCameras(CameraManager cameraManager) throws CameraAccessException {
+        List<String> cameraIds = new ArrayList<>();
+        for (String cameraId : cameraManager.getCameraIdList()) {
+            StreamConfigurationMap map = cameraManager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            if (null != map && map.getOutputSizes(ImageFormat.JPEG).length > 0) {
+                cameraIds.add(cameraId);
+            }
+        }
+        return cameraIds;
+    }
+
+    /**
+     * Opens the given cameras, or as many of them as the image budget allows.
+     *
+     * @return The IDs of the cameras that are being opened.
+     */
+    List<String> open(List<String> cameraIds) throws CameraAccessException {
+        int minimum = STILL_IMAGES_MIN + (null == mAnalyzer ? 0 : ANALYSIS_IMAGES_MIN);
+        int count = Math.min(cameraIds.size(), mBudget.getMaxOutputs(minimum));
+        if (count < cameraIds.size()) {
+            Log.w(TAG, "Image budget only allows " + count + " of " + cameraIds + " cameras");
+        }
+        cameraIds = cameraIds.subList(0, count);
+
+        // Still and analysis readers of all cameras share the image budget.
+        int outputs = null == mAnalyzer ? 1 : 2;
+        int[] requested = new int[count * outputs];
+        int[] minimums = new int[count * outputs];
+        for (int i = 0; i < count; i++) {
+            requested[i * outputs] = STILL_IMAGES_REQUESTED;
+            minimums[i * outputs] = STILL_IMAGES_MIN;
+            if (null != mAnalyzer) {
+                requested[i * outputs + 1] = ANALYSIS_IMAGES_REQUESTED;
+                minimums[i * outputs + 1] = ANALYSIS_IMAGES_MIN;
+            }
+        }
+        int[] granted = mBudget.splitImages(requested, minimums);
+
+        for (int i = 0; i < mBudget.getThreadCount(count); i++) {
+            HandlerThread thread = new HandlerThread("Camera" + i);
+            thread.start();
+            mThreads.add(thread);
+        }
+        // Flash storage doesn't write faster in parallel, so one writer serves all cameras.
+        mWriterThread = Executors.newSingleThreadExecutor();
+        mWriter = new SharedImageWriter(mWriterThread, mBudget.getMaxPendingWriteBytes());
+        mBufferPool = new BufferPool(mBudget.getMaxPendingWriteBytes());
+
+        for (int i = 0; i < count; i++) {
+            String cameraId = cameraIds.get(i);
+            HandlerThread thread = mThreads.get(mBudget.getThreadIndex(i, count));
+            CameraStream stream = new CameraStream(cameraId,
+                    mCameraManager.getCameraCharacteristics(cameraId),
+                    new MonitoredHandler(thread.getLooper()), granted[i * outputs],
+                    null == mAnalyzer ? 0 : granted[i * outputs + 1]);
+            mStreams.put(cameraId, stream);
+            stream.mController.open();
+        }
+        return new ArrayList<>(mStreams.keySet());
+    }
+
+    /**
+     * Chooses the preview size of a camera for a view of the given size, in portrait.
+     */
+    Size getPreviewSize(String cameraId, int viewWidth, int viewHeight) {
+        CameraStream stream = mStreams.get(cameraId);
+        if (Orientations.isSwappedDimensions(0, stream.mSensorOrientation)) {
+            int width = viewWidth;
+            viewWidth = viewHeight;
+            viewHeight = width;
+        }
+        Resolution size = CameraSizes.chooseOptimalSize(stream.mPreviewSizes, viewWidth,
+                viewHeight, Math.min(viewWidth, MAX_PREVIEW_WIDTH),
+                Math.min(viewHeight, MAX_PREVIEW_HEIGHT), stream.mStillSize);
+        return new Size(size.getWidth(), size.getHeight());
+    }
+
+    /**
+     * Sets the preview output of a camera; its session is created once the camera is open too.
+     */
+    void setPreviewSurface(String cameraId, SurfaceTexture texture, Size size) {
+        final CameraStream stream = mStreams.get(cameraId);
+        if (null == stream) {
+            return;
+        }
+        stream.mBackend.setPreviewSurface(texture, size);
+        stream.mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                stream.mController.onPreviewSurfaceReady();
+            }
+        });
+    }
+
+    void takePicture(String cameraId) {
+        CameraStream stream = mStreams.get(cameraId);
+        if (null != stream) {
+            stream.mController.takePicture();
+        }
+    }
+
+    /**
+     * Closes all cameras and stops the threads.
+     */
+    void close() {
+        for (CameraStream stream : mStreams.values()) {
+            stream.mController.close();
+        }
+        mStreams.clear();
+        for (HandlerThread thread : mThreads) {
+            thread.quitSafely();
+        }
+        mThreads.clear();
+        if (null != mWriterThread) {
+            mWriterThread.shutdown();
+            Log.i(TAG, "Pictures written: " + mWriter.getWrittenCount() + ", dropped: "
+                    + mWriter.getDroppedCount() + ", buffer pool: " + mBufferPool);
+            mWriterThread = null;
+            mWriter = null;
+            mBufferPool = null;
+        }
+    }
+
+    private static Resolution[] toResolutions(Size[] sizes) {
+        Resolution[] resolutions = new Resolution[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            resolutions[i] = new Resolution(sizes[i].getWidth(), sizes[i].getHeight());
+        }
+        return resolutions;
+    }
+
+    /**
+     * The outputs and the capture sequence of one camera.
+     */
+    private class CameraStream implements CaptureController.Listener {
+
+        private final String mCameraId;
+
+        private final MonitoredHandler mHandler;
+
+        private final int mSensorOrientation;
+
+        private final Resolution mStillSize;
+
+        private final Resolution[] mPreviewSizes;
+
+        private final Camera2Backend mBackend;
+
+        private final CaptureController mController;
+
+        CameraStream(final String cameraId, CameraCharacteristics characteristics,
+                     MonitoredHandler handler, int stillImages, int analysisImages) {
+            mCameraId = cameraId;
+            mHandler = handler;
+            StreamConfigurationMap map = characteristics.get(
+                    CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            //noinspection ConstantConditions
+            mSensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            Boolean flash = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+            mStillSize = Collections.max(
+                    Arrays.asList(toResolutions(map.getOutputSizes(ImageFormat.JPEG))),
+                    new CameraSizes.CompareSizesByArea());
+            mPreviewSizes = toResolutions(map.getOutputSizes(SurfaceTexture.class));
+
+            mBackend = new Camera2Backend(mCameraManager, cameraId,
+                    new Size(mStillSize.getWidth(), mStillSize.getHeight()), stillImages,
+                    null != flash && flash, handler);
+            if (analysisImages > 0) {
+                Resolution analysisSize = CameraSizes.chooseOptimalSize(
+                        toResolutions(map.getOutputSizes(ImageFormat.YUV_420_888)),
+                        MAX_ANALYSIS_WIDTH, MAX_ANALYSIS_HEIGHT, MAX_ANALYSIS_WIDTH,
+                        MAX_ANALYSIS_HEIGHT, mStillSize);
+                mBackend.setAnalysisOutput(
+                        new Size(analysisSize.getWidth(), analysisSize.getHeight()),
+                        analysisImages, new ImageReader.OnImageAvailableListener() {
+                            @Override
+                            public void onImageAvailable(ImageReader reader) {
+                                Image image = reader.acquireLatestImage();
+                                if (null == image) {
+                                    return;
+                                }
+                                try {
+                                    mAnalyzer.analyze(cameraId, image);
+                                } finally {
+                                    image.close();
+                                }
+                            }
+                        });
+            }
+            mController = new CaptureController(mBackend, mWriterThread, this);
+            mController.setImageWriter(mWriter);
+            mController.setCameraExecutor(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    mHandler.post(command);
+                }
+            });
+            mController.setBufferPool(mBufferPool);
+            mController.setOutputFile(new File(mOutputDir, "pic-" + cameraId + ".jpg"));
+        }
+
+        @Override
+        public int getJpegOrientation() {
+            return Orientations.getJpegOrientation(0, mSensorOrientation);
+        }
+
+        @Override
+        public void onPreviewStarted() {
+            Log.d(TAG, "Camera " + mCameraId + " is streaming");
+        }
+
+        @Override
+        public void onOpenFailed() {
+            Log.e(TAG, "Camera " + mCameraId + " could not be opened");
+        }
+
+        @Override
+        public void onSessionConfigureFailed() {
+            Log.e(TAG, "Camera " + mCameraId + " could not configure its outputs");
+        }
+
+        @Override
+        public void onCameraLost(int error) {
+            Log.e(TAG, "Camera " + mCameraId + " lost, error " + error);
+        }
+
+        @Override
+        public void onPictureTaken(File file) {
+            Log.d(TAG, "Camera " + mCameraId + ": " + file);
+        }
+
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.hardware.camera2.CameraCharacteristics;
+import android.util.Log;
+
+import com.example.android.camera2basic.core.BufferPool;
+import com.example.android.camera2basic.core.CameraStreams;
+import com.example.android.camera2basic.core.CaptureController;
+import com.example.android.camera2basic.core.CapturePipeline;
+import com.example.android.camera2basic.core.ChecksumStage;
+import com.example.android.camera2basic.core.FrameStream;
+import com.example.android.camera2basic.core.OrientationStage;
+import com.example.android.camera2basic.core.PackStage;
+import com.example.android.camera2basic.core.PackStore;
+import com.example.android.camera2basic.core.PersistStage;
+import com.example.android.camera2basic.core.SavedCapture;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Processes and saves the captured images off the background thread while started: they are
+ * turned upright if requested, checksummed, then written into their file or appended to a
+ * {@link PackStore}. The saved pictures are published on {@link CameraStreams#getCaptures()}.
+ */
+class PipelineFeature extends CameraFeature {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "PipelineFeature";
+
+    /**
+     * Threads of {@link #mPipeline}.
+     */
+    private static final int THREADS = 2;
+
+    /**
+     * How long stopping waits for the captures still in {@link #mPipeline}. The queues hold a few
+     * pictures at most, which take well under this to store.
+     */
+    private static final long CLOSE_TIMEOUT_MS = 2000;
+
+    private final BufferPool mBufferPool;
+
+    private final CameraStreams mStreams;
+
+    private final boolean mLosslessRotation;
+
+    private final PackStore mPackStore;
+
+    /**
+     * The pipeline while started, otherwise null.
+     */
+    private CapturePipeline mPipeline;
+
+    /**
+     * The threads the stages of {@link #mPipeline} run on.
+     */
+    private ExecutorService mExecutor;
+
+    /**
+     * @param bufferPool       The buffers the images are copied into.
+     * @param streams          The streams the saved pictures are published on.
+     * @param losslessRotation Whether to rotate the pixels of the pictures upright.
+     * @param packStore        Where to store the pictures, or null to write every picture into
+     *                         its own file. It is opened on every start and left open; the owner
+     *                         closes it once no append can still be running.
+     */
+    PipelineFeature(BufferPool bufferPool, CameraStreams streams, boolean losslessRotation,
+            PackStore packStore) {
+        mBufferPool = bufferPool;
+        mStreams = streams;
+        mLosslessRotation = losslessRotation;
+        mPackStore = packStore;
+    }
+
+    /**
+     * @return The pipeline while started, otherwise null.
+     */
+    CapturePipeline getPipeline() {
+        return mPipeline;
+    }
+
+    @Override
+    void start() {
+        mExecutor = Executors.newFixedThreadPool(THREADS);
+        mPipeline = new CapturePipeline(mExecutor, mBufferPool);
+        if (mLosslessRotation) {
+            mPipeline.addStage("orientation", new OrientationStage(), THREADS, 2);
+        }
+        PackStore packStore = openPackStore();
+        mPipeline.addStage("checksum", new ChecksumStage(), THREADS, 4)
+                .addStage("persist", null == packStore
+                        ? new PersistStage() : new PackStage(packStore))
+                .setListener(new CapturePipeline.Listener() {
+                    @Override
+                    public void onCaptureProcessed(CapturePipeline.Capture capture) {
+                        PackStore.Record record = capture.get(PackStage.RECORD);
+                        Log.d(TAG, "Saved " + (null == record ? capture.getFile() : record)
+                                + ", CRC-32 "
+                                + Long.toHexString(capture.get(ChecksumStage.CRC32)));
+                        FrameStream<SavedCapture> captures = mStreams.getCaptures();
+                        if (!captures.hasSubscribers()) {
+                            return;
+                        }
+                        if (null == record) {
+                            captures.publish(new SavedCapture(capture.getFile(),
+                                    capture.getTimestamp(), capture.getFile().length()));
+                        } else {
+                            captures.publish(new SavedCapture(record.getSegment(),
+                                    record.getOffset(), capture.getTimestamp(),
+                                    record.getLength()));
+                        }
+                    }
+
+                    @Override
+                    public void onCaptureFailed(CapturePipeline.Capture capture, String stage,
+                            Exception e) {
+                        Log.e(TAG, "Couldn't process " + capture.getFile() + " in " + stage, e);
+                    }
+
+                    @Override
+                    public void onCaptureDropped(CapturePipeline.Capture capture) {
+                        Log.w(TAG, "Pipeline full, dropped capture " + capture.getSequence());
+                    }
+                });
+    }
+
+    /**
+     * Opens {@link #mPackStore}, recovering the segment that was being written if the app died.
+     *
+     * @return The store, or null to write every picture into its own file.
+     */
+    private PackStore openPackStore() {
+        if (null == mPackStore) {
+            return null;
+        }
+        try {
+            mPackStore.open();
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't open the pack store, saving single files", e);
+            return null;
+        }
+        Log.d(TAG, "Pack store: " + mPackStore);
+        return mPackStore;
+    }
+
+    /**
+     * Holds no more still images in {@link #mPipeline} than the reader of the camera allows.
+     */
+    @Override
+    void onCameraOpening(CameraCharacteristics characteristics, Camera2Backend backend,
+            CaptureController controller) {
+        mPipeline.setMaxImages(backend.getMaxStillImages());
+    }
+
+    /**
+     * Stops {@link #mPipeline} once the captures already submitted have been processed, waiting
+     * up to {@link #CLOSE_TIMEOUT_MS} for them.
+     */
+    @Override
+    void stop() {
+        try {
+            if (!mPipeline.close(CLOSE_TIMEOUT_MS)) {
+                Log.w(TAG, mPipeline.getPendingCount() + " capture(s) still in the pipeline");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.d(TAG, "Pipeline: " + mPipeline);
+        mExecutor.shutdown();
+        mExecutor = null;
+        mPipeline = null;
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.graphics.Matrix;
+import android.util.Size;
+import android.view.Surface;
+
+/**
+ * A view the camera preview is drawn into. {@link AutoFitTextureView} composes the preview in the
+ * app's own window; {@link AutoFitSurfaceView} hands it to the system compositor, which saves a
+ * copy and about one frame of latency but can't be animated or blended like a regular view.
+ *
+ * <p>All methods must be called, and all callbacks run, on the UI thread.</p>
+ */
+interface PreviewView {
+
+    /**
+     * Receives the lifecycle events of a {@link PreviewView}.
+     */
+    interface Callback {
+
+        /**
+         * The view is laid out and can provide a preview surface.
+         */
+        void onPreviewViewAvailable(int width, int height);
+
+        /**
+         * The view has been resized while available.
+         */
+        void onPreviewViewSizeChanged(int width, int height);
+
+        /**
+         * A preview frame has been handed to the view. Only reported by views for which
+         * {@link #reportsFrames()} is true.
+         *
+         * @param timestampNanos The sensor timestamp of the frame.
+         */
+        void onPreviewFrameAvailable(long timestampNanos);
+
+    }
+
+    /**
+     * Receives the surface requested with {@link #requestSurface(Size, SurfaceCallback)}.
+     */
+    interface SurfaceCallback {
+
+        void onSurfaceReady(Surface surface);
+
+    }
+
+    void setCallback(Callback callback);
+
+    /**
+     * @return Whether {@link Callback#onPreviewViewAvailable(int, int)} has been called, and the
+     * view hasn't been torn down since.
+     */
+    boolean isAvailable();
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Sets the aspect ratio the view is measured with.
+     *
+     * @param width  Relative horizontal size
+     * @param height Relative vertical size
+     */
+    void setAspectRatio(int width, int height);
+
+    /**
+     * Sets the transformation from the preview buffers to the view. Views whose buffers are
+     * rotated by the compositor may ignore it.
+     */
+    void setTransform(Matrix matrix);
+
+    /**
+     * Requests a surface with buffers of the given size. The callback runs once the surface has
+     * that size, which may be right away; a new request replaces a pending one.
+     */
+    void requestSurface(Size size, SurfaceCallback callback);
+
+    /**
+     * @return Whether {@link Callback#onPreviewFrameAvailable(long)} is reported.
+     */
+    boolean reportsFrames();
+
+    /**
+     * @return The vsync periods assumed between a frame being picked up and its scan-out, for the
+     * display latency model; not measured.
+     */
+    int getCompositionVsyncs();
+
+}
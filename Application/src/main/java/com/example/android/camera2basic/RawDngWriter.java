@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.DngCreator;
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import com.example.android.camera2basic.core.ExifEditor;
+import com.example.android.camera2basic.core.ThroughputMeter;
+import com.example.android.camera2basic.core.TimestampMatcher;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Captures RAW_SENSOR frames alongside the still JPEGs and writes them as DNG files. Each frame is
+ * paired with its {@link TotalCaptureResult} by sensor timestamp, and {@link DngCreator} then
+ * streams it into the file through a small buffer on a dedicated low-priority thread, so neither
+ * the file nor a copy of the frame is ever held in the Java heap.
+ *
+ * <p>At most {@code maxImages - 1} frames wait for the writer, so that the camera always has a
+ * buffer to capture into. Frames beyond that are dropped and their images closed right away; a
+ * slow storage device then costs RAW frames, never preview frames or JPEGs.</p>
+ *
+ * <p>{@link #onCaptureCompleted(TotalCaptureResult)} must be called on the {@link Handler} the
+ * writer was created with; the other methods may be called from any thread.</p>
+ */
+class RawDngWriter {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "RawDngWriter";
+
+    /**
+     * The buffer between {@link DngCreator} and the file.
+     */
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+
+    private final CameraCharacteristics mCharacteristics;
+
+    private final File mFile;
+
+    private final Handler mHandler;
+
+    private final ImageReader mImageReader;
+
+    private final int mMaxPending;
+
+    private final AtomicInteger mPending = new AtomicInteger();
+
+    private final ThroughputMeter mThroughput = new ThroughputMeter();
+
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            // Below the camera and UI threads, which must stay responsive.
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, TAG);
+                }
+            });
+
+    private final TimestampMatcher<Image, TotalCaptureResult> mMatcher;
+
+    /**
+     * @param characteristics The characteristics of the camera, for the DNG metadata.
+     * @param size            The RAW_SENSOR size, usually the only one.
+     * @param maxImages       The number of frames that can be held at the same time; at least 2.
+     * @param file            The file the frames are written to.
+     * @param handler         The {@link Handler} camera callbacks run on.
+     */
+    RawDngWriter(CameraCharacteristics characteristics, Size size, int maxImages, File file,
+                 Handler handler) {
+        mCharacteristics = characteristics;
+        mFile = file;
+        mHandler = handler;
+        mMaxPending = maxImages - 1;
+        mImageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+                ImageFormat.RAW_SENSOR, maxImages);
+        mMatcher = new TimestampMatcher<>(maxImages,
+                new TimestampMatcher.Listener<Image, TotalCaptureResult>() {
+                    @Override
+                    public void onMatched(long timestamp, Image image,
+                                          TotalCaptureResult result) {
+                        write(image, result);
+                    }
+
+                    @Override
+                    public void onImageUnmatched(long timestamp, Image image) {
+                        Log.w(TAG, "No capture result for RAW frame " + timestamp);
+                        image.close();
+                    }
+                });
+        mImageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                Image image = reader.acquireNextImage();
+                if (null != image) {
+                    mMatcher.addImage(image.getTimestamp(), image);
+                }
+            }
+        }, handler);
+    }
+
+    /**
+     * @return The output to add to the capture session and to the still capture requests.
+     */
+    Surface getSurface() {
+        return mImageReader.getSurface();
+    }
+
+    /**
+     * Pairs the result of a still capture with its RAW frame.
+     */
+    void onCaptureCompleted(TotalCaptureResult result) {
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        if (null != timestamp) {
+            mMatcher.addResult(timestamp, result);
+        }
+    }
+
+    /**
+     * Closes the frames that are still unpaired, and the reader once the frames being written are
+     * done.
+     */
+    void close() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mImageReader.setOnImageAvailableListener(null, null);
+                mMatcher.clear();
+                mWriter.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Log.i(TAG, "RAW capture: " + RawDngWriter.this);
+                        mImageReader.close();
+                    }
+                });
+                mWriter.shutdown();
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return mThroughput + " " + mMatcher;
+    }
+
+    private void write(final Image image, final TotalCaptureResult result) {
+        if (mPending.incrementAndGet() > mMaxPending) {
+            mPending.decrementAndGet();
+            mThroughput.recordDropped();
+            image.close();
+            return;
+        }
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                DngCreator creator = new DngCreator(mCharacteristics, result);
+                OutputStream output = null;
+                try {
+                    Integer orientation = result.get(CaptureResult.JPEG_ORIENTATION);
+                    if (null != orientation) {
+                        creator.setOrientation(toExifOrientation(orientation));
+                    }
+                    output = new BufferedOutputStream(new FileOutputStream(mFile),
+                            WRITE_BUFFER_SIZE);
+                    creator.writeImage(output, image);
+                    output.close();
+                    output = null;
+                    mThroughput.record(mFile.length(), start, System.nanoTime());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    if (null != output) {
+                        try {
+                            output.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                    creator.close();
+                    image.close();
+                    mPending.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    private static int toExifOrientation(int jpegOrientation) {
+        switch (jpegOrientation) {
+            case 90:
+                return ExifEditor.ORIENTATION_ROTATE_90;
+            case 180:
+                return ExifEditor.ORIENTATION_ROTATE_180;
+            case 270:
+                return ExifEditor.ORIENTATION_ROTATE_270;
+            default:
+                return ExifEditor.ORIENTATION_NORMAL;
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.hardware.camera2.CameraCharacteristics;
+import android.util.Log;
+import android.util.Size;
+
+import com.example.android.camera2basic.core.CameraStreams;
+import com.example.android.camera2basic.core.CaptureController;
+import com.example.android.camera2basic.core.FrameStream;
+import com.example.android.camera2basic.core.PreviewResult;
+import com.example.android.camera2basic.core.VideoRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Records the preview of every camera the fragment opens as H.264 into a new MP4 file, until the
+ * camera is closed. The encoder throughput and dropped frames are logged at the end.
+ */
+class RecordingFeature extends CameraFeature {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "RecordingFeature";
+
+    /**
+     * Frame rate of the recordings, unless the quality tier caps it lower.
+     */
+    private static final int FRAME_RATE = 30;
+
+    /**
+     * How long the end of a recording may take before the frames still in the encoder are
+     * abandoned.
+     */
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    private final File mDirectory;
+
+    private final CameraStreams mStreams;
+
+    private final Executor mCameraExecutor;
+
+    private final AdaptiveQualityFeature mAdaptiveQuality;
+
+    /**
+     * Orientation of the sensor of the camera being opened.
+     */
+    private int mSensorOrientation;
+
+    /**
+     * Records the preview while the camera is open, otherwise null.
+     */
+    private VideoRecorder mRecorder;
+
+    private SurfaceVideoEncoder mEncoder;
+
+    private Mp4Muxer mMuxer;
+
+    private FrameStream.Subscription mFrameSubscription;
+
+    /**
+     * Counts the frames the camera sends to the encoder of {@link #mRecorder}, on the background
+     * thread.
+     */
+    private final FrameStream.Subscriber<PreviewResult> mFrameSubscriber
+            = new FrameStream.Subscriber<PreviewResult>() {
+
+        @Override
+        public void onSubscribe(FrameStream.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(PreviewResult result) {
+            VideoRecorder recorder = mRecorder;
+            if (null != recorder) {
+                recorder.onCameraFrame(result.getTimestamp());
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+    };
+
+    /**
+     * @param directory       The directory the recordings are written into.
+     * @param streams         The streams whose preview results are counted.
+     * @param cameraExecutor  Runs tasks on the background thread.
+     * @param adaptiveQuality Caps the frame rate, or null.
+     */
+    RecordingFeature(File directory, CameraStreams streams, Executor cameraExecutor,
+            AdaptiveQualityFeature adaptiveQuality) {
+        mDirectory = directory;
+        mStreams = streams;
+        mCameraExecutor = cameraExecutor;
+        mAdaptiveQuality = adaptiveQuality;
+    }
+
+    @Override
+    void onCameraOpening(CameraCharacteristics characteristics, Camera2Backend backend,
+            CaptureController controller) {
+        //noinspection ConstantConditions
+        mSensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+    }
+
+    /**
+     * Starts {@link #mRecorder} into a new file and adds the input surface of its encoder to the
+     * outputs of {@code backend}.
+     */
+    @Override
+    void onPreviewSizeChosen(Camera2Backend backend, Size previewSize) {
+        if (null != mRecorder) {
+            return;
+        }
+        int frameRate = null == mAdaptiveQuality ? FRAME_RATE
+                : Math.min(FRAME_RATE, mAdaptiveQuality.getTier().getMaxFps());
+        File file = new File(mDirectory, "video-" + System.currentTimeMillis() + ".mp4");
+        try {
+            mEncoder = new SurfaceVideoEncoder(previewSize, frameRate);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Couldn't create the video encoder", e);
+            return;
+        }
+        try {
+            mMuxer = new Mp4Muxer(file, mEncoder, mSensorOrientation);
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't create " + file, e);
+            mEncoder.release();
+            mEncoder = null;
+            return;
+        }
+        backend.setRecordingOutput(mEncoder.getInputSurface());
+        mRecorder = new VideoRecorder(mEncoder, mMuxer, frameRate);
+        mFrameSubscription = mStreams.getPreviewResults().subscribe(mFrameSubscriber,
+                mCameraExecutor, 8, FrameStream.Overflow.DROP_OLDEST);
+        mRecorder.start();
+        Log.i(TAG, "Recording " + previewSize + " at " + frameRate + " fps into " + file);
+    }
+
+    /**
+     * Ends the recording and logs its stats. Called once the camera is closed, so that no more
+     * frames are rendered into the encoder.
+     */
+    @Override
+    void onCameraClosed() {
+        if (null == mRecorder) {
+            return;
+        }
+        mFrameSubscription.cancel();
+        mFrameSubscription = null;
+        try {
+            if (!mRecorder.stop(STOP_TIMEOUT_MS)) {
+                Log.w(TAG, "The encoder didn't end the stream in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.i(TAG, "Recording: " + mRecorder);
+        mMuxer.release();
+        mEncoder.release();
+        mRecorder = null;
+        mMuxer = null;
+        mEncoder = null;
+    }
+
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records the cold-start milestones between {@link CameraActivity#onCreate} and the first preview
+ * frame. Every section is also emitted through {@link Trace} so it shows up in systrace, and the
+ * whole timeline can be exported as a Chrome trace-event JSON file that can be opened in
+ * chrome://tracing or Perfetto and compared between releases.
+ *
+ * <p>All methods are static and thread-safe; milestones arrive from the UI thread as well as the
+ * camera background thread. Once {@link #finish()} has been called, further events are ignored
+ * until the next {@link #start()}.</p>
+ */
+final class StartupTimeline {
+
+    /**
+     * Tag for the {@link Log}.
+     */
+    private static final String TAG = "StartupTimeline";
+
+    /**
+     * Milestone: {@link CameraActivity#onCreate} was entered.
+     */
+    static final String ACTIVITY_CREATE = "activity_create";
+
+    /**
+     * Milestone: the fragment view was inflated.
+     */
+    static final String FRAGMENT_VIEW_CREATED = "fragment_view_created";
+
+    /**
+     * Milestone: the fragment was resumed.
+     */
+    static final String FRAGMENT_RESUMED = "fragment_resumed";
+
+    /**
+     * Milestone: the preview {@link android.graphics.SurfaceTexture} became available.
+     */
+    static final String SURFACE_AVAILABLE = "surface_available";
+
+    /**
+     * Milestone: {@link android.hardware.camera2.CameraManager#openCamera} was called.
+     */
+    static final String CAMERA_OPEN_REQUESTED = "camera_open_requested";
+
+    /**
+     * Milestone: the camera device reported {@code onOpened}.
+     */
+    static final String CAMERA_OPENED = "camera_opened";
+
+    /**
+     * Milestone: the capture session reported {@code onConfigured}.
+     */
+    static final String SESSION_CONFIGURED = "session_configured";
+
+    /**
+     * Milestone: the repeating preview request was submitted.
+     */
+    static final String PREVIEW_REQUESTED = "preview_requested";
+
+    /**
+     * Milestone: the first capture result for the preview arrived.
+     */
+    static final String FIRST_RESULT = "first_result";
+
+    /**
+     * Milestone: the first preview frame reached the {@link android.view.TextureView}.
+     */
+    static final String FIRST_FRAME = "first_frame";
+
+    /**
+     * Upper bound on recorded events, so that a timeline that is never finished can't grow.
+     */
+    private static final int MAX_EVENTS = 128;
+
+    private static final Object sLock = new Object();
+
+    private static final List<Event> sEvents = new ArrayList<>();
+
+    private static final ThreadLocal<ArrayDeque<Event>> sOpenSections
+            = new ThreadLocal<ArrayDeque<Event>>() {
+        @Override
+        protected ArrayDeque<Event> initialValue() {
+            return new ArrayDeque<>();
+        }
+    };
+
+    private static boolean sRecording;
+
+    private StartupTimeline() {
+    }
+
+    /**
+     * Clears any previous timeline and starts recording a new one.
+     */
+    static void start() {
+        synchronized (sLock) {
+            sEvents.clear();
+            sRecording = true;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                // The process start is the real beginning of a cold start.
+                sEvents.add(new Event("process_start",
+                        Process.getStartElapsedRealtime() * 1000000L, -1, 0));
+            }
+        }
+    }
+
+    /**
+     * Records an instantaneous milestone.
+     *
+     * @param name The milestone; one of the constants of this class.
+     */
+    static void mark(String name) {
+        record(new Event(name, SystemClock.elapsedRealtimeNanos(), -1, Process.myTid()));
+    }
+
+    /**
+     * Opens a synchronous section on the calling thread. Must be balanced by
+     * {@link #endSection()} on the same thread.
+     *
+     * @param name The section name shown in systrace and in the exported file.
+     */
+    static void beginSection(String name) {
+        Trace.beginSection(name);
+        sOpenSections.get().push(
+                new Event(name, SystemClock.elapsedRealtimeNanos(), 0, Process.myTid()));
+    }
+
+    /**
+     * Closes the section most recently opened on the calling thread.
+     */
+    static void endSection() {
+        Trace.endSection();
+        Event section = sOpenSections.get().poll();
+        if (null != section) {
+            record(new Event(section.mName, section.mStartNanos,
+                    SystemClock.elapsedRealtimeNanos() - section.mStartNanos, section.mTid));
+        }
+    }
+
+    /**
+     * Stops recording.
+     *
+     * @return true if this call ended an active timeline, false if it was already finished.
+     */
+    static boolean finish() {
+        synchronized (sLock) {
+            if (!sRecording) {
+                return false;
+            }
+            sRecording = false;
+            StringBuilder summary = new StringBuilder("Startup:");
+            long origin = sEvents.isEmpty() ? 0 : sEvents.get(0).mStartNanos;
+            for (Event event : sEvents) {
+                if (event.mDurationNanos < 0) {
+                    summary.append(' ').append(event.mName).append('=')
+                            .append((event.mStartNanos - origin) / 1000000L).append("ms");
+                }
+            }
+            Log.i(TAG, summary.toString());
+            return true;
+        }
+    }
+
+    /**
+     * Writes the recorded timeline in the Chrome trace-event JSON format. Milestones are exported
+     * as instant events, sections as complete events, and the gap between each pair of
+     * consecutive milestones as a complete event on a separate "phases" track.
+     *
+     * @param file The file to write to.
+     * @return true if the file was written.
+     */
+    static boolean writeTo(File file) {
+        List<Event> events;
+        synchronized (sLock) {
+            events = new ArrayList<>(sEvents);
+        }
+        // Sections are recorded when they end, so restore chronological order first.
+        Collections.sort(events, new Comparator<Event>() {
+            @Override
+            public int compare(Event lhs, Event rhs) {
+                return Long.signum(lhs.mStartNanos - rhs.mStartNanos);
+            }
+        });
+        int pid = Process.myPid();
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            writer.write("{\"traceEvents\":[\n");
+            // Thread 0 carries the gaps between milestones.
+            writer.write(String.format(Locale.US, "{\"name\":\"thread_name\",\"ph\":\"M\","
+                    + "\"pid\":%d,\"tid\":0,\"args\":{\"name\":\"phases\"}}", pid));
+            Event previous = null;
+            for (Event event : events) {
+                writer.write(",\n");
+                if (event.mDurationNanos < 0) {
+                    writer.write(String.format(Locale.US, "{\"name\":\"%s\",\"ph\":\"i\","
+                                    + "\"s\":\"p\",\"ts\":%d,\"pid\":%d,\"tid\":%d}",
+                            event.mName, event.mStartNanos / 1000L, pid, event.mTid));
+                    if (null != previous) {
+                        writer.write(String.format(Locale.US, ",\n{\"name\":\"%s -> %s\","
+                                        + "\"ph\":\"X\",\"ts\":%d,\"dur\":%d,\"pid\":%d,"
+                                        + "\"tid\":0}",
+                                previous.mName, event.mName, previous.mStartNanos / 1000L,
+                                (event.mStartNanos - previous.mStartNanos) / 1000L, pid));
+                    }
+                    previous = event;
+                } else {
+                    writer.write(String.format(Locale.US, "{\"name\":\"%s\",\"ph\":\"X\","
+                                    + "\"ts\":%d,\"dur\":%d,\"pid\":%d,\"tid\":%d}",
+                            event.mName, event.mStartNanos / 1000L, event.mDurationNanos / 1000L,
+                            pid, event.mTid));
+                }
+            }
+            writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (null != writer) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static void record(Event event) {
+        synchronized (sLock) {
+            if (sRecording && sEvents.size() < MAX_EVENTS) {
+                sEvents.add(event);
+            }
+        }
+    }
+
+    /**
+     * A single milestone (negative duration) or section.
+     */
+    private static class Event {
+
+        private final String mName;
+        private final long mStartNanos;
+        private final long mDurationNanos;
+        private final int mTid;
+
+        Event(String name, long startNanos, long durationNanos, int tid) {
+            mName = name;
+            mStartNanos = startNanos;
+            mDurationNanos = durationNanos;
+            mTid = tid;
+        }
+
+    }
+
+}
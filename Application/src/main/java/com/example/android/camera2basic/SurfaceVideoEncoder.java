@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.util.Size;
+import android.view.Surface;
+
+import com.example.android.camera2basic.core.VideoEncoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An H.264 {@link MediaCodec} encoder whose input is a {@link Surface} the camera renders into,
+ * so that the frames go from the camera to the hardware encoder without being copied.
+ */
+class SurfaceVideoEncoder implements VideoEncoder {
+
+    /**
+     * Bits per pixel and frame of the target bit rate; about 9 Mbit/s for 1080p at 30 fps.
+     */
+    private static final float BITS_PER_PIXEL = 0.15f;
+
+    /**
+     * Seconds between two key frames.
+     */
+    private static final int KEY_FRAME_INTERVAL_S = 1;
+
+    private final MediaCodec mCodec;
+
+    private final Surface mInputSurface;
+
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+    /**
+     * Creates, configures and starts the encoder.
+     *
+     * @param size      The size of the frames the camera renders.
+     * @param frameRate The frame rate of the camera.
+     */
+    SurfaceVideoEncoder(Size size, int frameRate) throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC,
+                size.getWidth(), size.getHeight());
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE,
+                (int) (size.getWidth() * size.getHeight() * frameRate * BITS_PER_PIXEL));
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, KEY_FRAME_INTERVAL_S);
+        mCodec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
+        try {
+            mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            mInputSurface = mCodec.createInputSurface();
+            mCodec.start();
+        } catch (RuntimeException e) {
+            mCodec.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The surface to add to the capture session and to the repeating request.
+     */
+    Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    /**
+     * Only valid once {@link #dequeueOutputBuffer} returned {@link #INFO_OUTPUT_FORMAT_CHANGED}.
+     */
+    MediaFormat getOutputFormat() {
+        return mCodec.getOutputFormat();
+    }
+
+    @Override
+    public int dequeueOutputBuffer(Sample sample, long timeoutMicros) {
+        int index = mCodec.dequeueOutputBuffer(mBufferInfo, timeoutMicros);
+        if (index >= 0) {
+            sample.set(mBufferInfo.offset, mBufferInfo.size, mBufferInfo.presentationTimeUs,
+                    mBufferInfo.flags);
+        }
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return mCodec.getOutputBuffer(index);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        mCodec.releaseOutputBuffer(index, false);
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        mCodec.signalEndOfInputStream();
+    }
+
+    /**
+     * Stops the encoder and releases it along with its input surface. Must only be called once
+     * the camera no longer renders into the surface and the output has been drained.
+     */
+    void release() {
+        try {
+            mCodec.stop();
+        } catch (IllegalStateException e) {
+            // Already stopped after an error.
+        }
+        mCodec.release();
+        mInputSurface.release();
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.benchmark;
+
+import com.example.android.camera2basic.core.BufferPool;
+import com.example.android.camera2basic.core.ImageSaver;
+import com.example.android.camera2basic.core.StillImage;
+import com.example.android.camera2basic.core.SyntheticFrames;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves a burst of pictures on two writer threads, the way a burst of captures reaches the
+ * {@link ImageSaver}s. The images are copied out before they are written, either into freshly
+ * allocated buffers or into buffers leased from a {@link BufferPool}; writing them in place is
+ * measured as the baseline. The hits and misses of the pool are reported as auxiliary counters;
+ * for the allocation rate and the garbage collections, run with the GC profiler, e.g.
+ * {@code ./gradlew :Benchmark:jmh -PjmhArgs="BurstSaveBenchmark -prof gc"}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class BurstSaveBenchmark {
+
+    private static final int BURST = 8;
+
+    @Param({"2097152", "8388608"})
+    public int size;
+
+    @Param({"in_place", "allocate", "pooled"})
+    public String copy;
+
+    private ByteBuffer[] mJpegs;
+
+    private File[] mFiles;
+
+    private ExecutorService mWriters;
+
+    private BufferPool mPool;
+
+    @Setup
+    public void setUp() throws IOException {
+        mJpegs = new ByteBuffer[BURST];
+        mFiles = new File[BURST];
+        for (int i = 0; i < BURST; i++) {
+            mJpegs[i] = ByteBuffer.allocateDirect(size);
+            mJpegs[i].put(SyntheticFrames.jpeg(size, i));
+            mJpegs[i].flip();
+            mFiles[i] = File.createTempFile("BurstSaveBenchmark", ".jpg");
+        }
+        mWriters = Executors.newFixedThreadPool(2);
+        switch (copy) {
+            case "allocate":
+                // Nothing is kept, so every lease allocates a new buffer.
+                mPool = new BufferPool(0);
+                break;
+            case "pooled":
+                mPool = new BufferPool(4L * size);
+                break;
+            default:
+                mPool = null;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mWriters.shutdown();
+        for (File file : mFiles) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    @Benchmark
+    public void burst(PoolCounters counters) throws InterruptedException {
+        int leases = null == mPool ? 0 : mPool.getLeaseCount();
+        int hits = null == mPool ? 0 : mPool.getHitCount();
+        final CountDownLatch saved = new CountDownLatch(BURST);
+        for (int i = 0; i < BURST; i++) {
+            final ImageSaver saver = new ImageSaver(new BufferImage(mJpegs[i].duplicate()),
+                    mFiles[i], mPool);
+            mWriters.execute(new Runnable() {
+                @Override
+                public void run() {
+                    saver.run();
+                    saved.countDown();
+                }
+            });
+        }
+        saved.await();
+        if (null != mPool) {
+            hits = mPool.getHitCount() - hits;
+            counters.poolHits += hits;
+            counters.poolMisses += mPool.getLeaseCount() - leases - hits;
+        }
+    }
+
+    /**
+     * The leases of the pool during an iteration, reported by JMH next to the time.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class PoolCounters {
+
+        /**
+         * Leases served from an idle buffer.
+         */
+        public long poolHits;
+
+        /**
+         * Leases that allocated a new buffer.
+         */
+        public long poolMisses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            poolHits = 0;
+            poolMisses = 0;
+        }
+
+    }
+
+    /**
+     * A {@link StillImage} over an existing buffer.
+     */
+    private static class BufferImage implements StillImage {
+
+        private final ByteBuffer mBuffer;
+
+        BufferImage(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.benchmark;
+
+import com.example.android.camera2basic.core.CameraSizes;
+import com.example.android.camera2basic.core.Orientations;
+import com.example.android.camera2basic.core.Resolution;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Output size selection as done by {@code Camera2BasicFragment} when the camera is set up, with
+ * the size tables of real devices.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 20, time = 1)
+@Fork(3)
+public class CameraSizesBenchmark {
+
+    /**
+     * Same as {@code Camera2BasicFragment.MAX_PREVIEW_WIDTH}.
+     */
+    private static final int MAX_PREVIEW_WIDTH = 1920;
+
+    /**
+     * Same as {@code Camera2BasicFragment.MAX_PREVIEW_HEIGHT}.
+     */
+    private static final int MAX_PREVIEW_HEIGHT = 1080;
+
+    @Param({"nexus_5", "nexus_5x", "nexus_6p", "pixel", "pixel_2", "galaxy_s7", "galaxy_s8",
+            "moto_g5", "oneplus_5", "lg_g6"})
+    public String device;
+
+    private DeviceSizeTables.Device mDevice;
+
+    private Resolution mStillSize;
+
+    private int mViewWidth;
+
+    private int mViewHeight;
+
+    private int mMaxWidth;
+
+    private int mMaxHeight;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDevice = DeviceSizeTables.get(device);
+        mStillSize = chooseStillSize();
+        // A full screen preview in portrait, relative to the sensor coordinate.
+        Resolution display = mDevice.display;
+        if (Orientations.isSwappedDimensions(0, mDevice.sensorOrientation)) {
+            mViewWidth = display.getWidth();
+            mViewHeight = display.getHeight();
+        } else {
+            mViewWidth = display.getHeight();
+            mViewHeight = display.getWidth();
+        }
+        mMaxWidth = Math.min(mViewWidth, MAX_PREVIEW_WIDTH);
+        mMaxHeight = Math.min(mViewHeight, MAX_PREVIEW_HEIGHT);
+    }
+
+    @Benchmark
+    public Resolution chooseStillSize() {
+        return Collections.max(Arrays.asList(mDevice.jpegSizes),
+                new CameraSizes.CompareSizesByArea());
+    }
+
+    @Benchmark
+    public Resolution choosePreviewSize() {
+        return CameraSizes.chooseOptimalSize(mDevice.previewSizes, mViewWidth, mViewHeight,
+                mMaxWidth, mMaxHeight, mStillSize);
+    }
+
+    @Benchmark
+    public int jpegOrientation() {
+        int sum = 0;
+        for (int rotation = 0; rotation < 4; rotation++) {
+            sum += Orientations.getJpegOrientation(rotation, mDevice.sensorOrientation);
+        }
+        return sum;
+    }
+
+}
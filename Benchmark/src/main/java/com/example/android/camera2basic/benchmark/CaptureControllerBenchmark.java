@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.benchmark;
+
+import com.example.android.camera2basic.core.CameraBackend;
+import com.example.android.camera2basic.core.CaptureController;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The 3A state machine of {@link CaptureController}, replaying the capture results of a
+ * {@link CaptureTrace} from {@link CaptureController#takePicture()} until the still capture.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 20, time = 1)
+@Fork(3)
+public class CaptureControllerBenchmark {
+
+    @Param({"bright_continuous_af", "low_light_flash", "fixed_focus", "focus_hunting"})
+    public String trace;
+
+    private CaptureTrace mTrace;
+
+    private ReplayBackend mBackend;
+
+    private CaptureController mController;
+
+    @Setup
+    public void setUp() throws IOException {
+        mTrace = CaptureTrace.load(trace);
+        mBackend = new ReplayBackend();
+        mController = new CaptureController(mBackend, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, new NoOpListener());
+        mController.setOutputFile(new File("unused.jpg"));
+        mController.open();
+        mController.onPreviewSurfaceReady();
+        if (replay() != 1) {
+            throw new IllegalStateException("Trace " + trace + " does not lead to a capture");
+        }
+    }
+
+    @Benchmark
+    public int replay() {
+        int before = mBackend.mStillCount;
+        mController.takePicture();
+        int[] afStates = mTrace.afStates;
+        int[] aeStates = mTrace.aeStates;
+        for (int i = 0; i < afStates.length; i++) {
+            mController.onCaptureResult(afStates[i], aeStates[i]);
+        }
+        return mBackend.mStillCount - before;
+    }
+
+    /**
+     * A {@link CameraBackend} that completes every request synchronously and produces no images.
+     */
+    private static class ReplayBackend implements CameraBackend {
+
+        private Callback mCallback;
+
+        private int mStillCount;
+
+        @Override
+        public boolean open(Callback callback) {
+            mCallback = callback;
+            callback.onOpened();
+            return true;
+        }
+
+        @Override
+        public void createSession() {
+            mCallback.onSessionConfigured();
+        }
+
+        @Override
+        public void startPreview() {
+        }
+
+        @Override
+        public void lockFocus() {
+        }
+
+        @Override
+        public void runPrecaptureSequence() {
+        }
+
+        @Override
+        public void captureStillPicture(int jpegOrientation) {
+            mStillCount++;
+            mCallback.onStillCaptureCompleted();
+        }
+
+        @Override
+        public void unlockFocus() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    private static class NoOpListener implements CaptureController.Listener {
+
+        @Override
+        public int getJpegOrientation() {
+            return 90;
+        }
+
+        @Override
+        public void onPreviewStarted() {
+        }
+
+        @Override
+        public void onOpenFailed() {
+        }
+
+        @Override
+        public void onSessionConfigureFailed() {
+        }
+
+        @Override
+        public void onCameraLost(int error) {
+        }
+
+        @Override
+        public void onPictureTaken(File file) {
+        }
+
+    }
+
+}
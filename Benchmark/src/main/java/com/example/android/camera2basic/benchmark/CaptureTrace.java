@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The AF and AE states reported by the preview frames during a still capture, read from the
+ * {@code traces} resources.
+ */
+final class CaptureTrace {
+
+    final int[] afStates;
+
+    final int[] aeStates;
+
+    private CaptureTrace(int[] afStates, int[] aeStates) {
+        this.afStates = afStates;
+        this.aeStates = aeStates;
+    }
+
+    /**
+     * @param name The name of the trace, e.g. "low_light_flash".
+     */
+    static CaptureTrace load(String name) throws IOException {
+        String resource = "traces/" + name + ".txt";
+        InputStream input = CaptureTrace.class.getResourceAsStream(resource);
+        if (null == input) {
+            throw new IOException("Missing resource " + resource);
+        }
+        List<int[]> frames = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        try {
+            String line;
+            while (null != (line = reader.readLine())) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                frames.add(new int[]{Integer.parseInt(fields[0]), Integer.parseInt(fields[1])});
+            }
+        } finally {
+            reader.close();
+        }
+        int[] afStates = new int[frames.size()];
+        int[] aeStates = new int[frames.size()];
+        for (int i = 0; i < frames.size(); i++) {
+            afStates[i] = frames.get(i)[0];
+            aeStates[i] = frames.get(i)[1];
+        }
+        return new CaptureTrace(afStates, aeStates);
+    }
+
+}
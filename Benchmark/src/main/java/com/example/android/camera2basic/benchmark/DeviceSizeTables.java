@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.benchmark;
+
+import com.example.android.camera2basic.core.Resolution;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The output sizes of real devices, read from {@code device_sizes.txt}.
+ */
+final class DeviceSizeTables {
+
+    /**
+     * What a single device reports for its back camera.
+     */
+    static class Device {
+
+        Resolution display;
+
+        int sensorOrientation;
+
+        Resolution[] jpegSizes;
+
+        Resolution[] previewSizes;
+
+    }
+
+    private static final String RESOURCE = "device_sizes.txt";
+
+    private DeviceSizeTables() {
+    }
+
+    /**
+     * @param name The device name used in {@code device_sizes.txt}, e.g. "nexus_5x".
+     */
+    static Device get(String name) throws IOException {
+        Device device = load().get(name);
+        if (null == device) {
+            throw new IllegalArgumentException("Unknown device: " + name);
+        }
+        return device;
+    }
+
+    private static Map<String, Device> load() throws IOException {
+        Map<String, Device> devices = new HashMap<>();
+        InputStream input = DeviceSizeTables.class.getResourceAsStream(RESOURCE);
+        if (null == input) {
+            throw new IOException("Missing resource " + RESOURCE);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        try {
+            String line;
+            while (null != (line = reader.readLine())) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                Device device = devices.get(fields[0]);
+                if (null == device) {
+                    device = new Device();
+                    devices.put(fields[0], device);
+                }
+                switch (fields[1]) {
+                    case "display":
+                        device.display = parseResolution(fields[2]);
+                        break;
+                    case "sensor":
+                        device.sensorOrientation = Integer.parseInt(fields[2]);
+                        break;
+                    case "jpeg":
+                        device.jpegSizes = parseResolutions(fields);
+                        break;
+                    case "preview":
+                        device.previewSizes = parseResolutions(fields);
+                        break;
+                    default:
+                        throw new IOException("Unknown key in " + RESOURCE + ": " + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return devices;
+    }
+
+    private static Resolution[] parseResolutions(String[] fields) {
+        List<Resolution> resolutions = new ArrayList<>();
+        for (int i = 2; i < fields.length; i++) {
+            resolutions.add(parseResolution(fields[i]));
+        }
+        return resolutions.toArray(new Resolution[resolutions.size()]);
+    }
+
+    private static Resolution parseResolution(String value) {
+        int separator = value.indexOf('x');
+        return new Resolution(Integer.parseInt(value.substring(0, separator)),
+                Integer.parseInt(value.substring(separator + 1)));
+    }
+
+}
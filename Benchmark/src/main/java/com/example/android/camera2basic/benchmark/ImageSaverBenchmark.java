@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.benchmark;
+
+import com.example.android.camera2basic.core.ImageSaver;
+import com.example.android.camera2basic.core.StillImage;
+import com.example.android.camera2basic.core.SyntheticFrames;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes JPEGs of the size produced by 8 to 20 megapixel sensors with {@link ImageSaver}. The
+ * buffer of an {@code android.media.Image} is direct, so both kinds of buffer are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 20, time = 1)
+@Fork(3)
+public class ImageSaverBenchmark {
+
+    @Param({"2097152", "4194304", "8388608"})
+    public int size;
+
+    @Param({"direct", "heap"})
+    public String buffer;
+
+    private ByteBuffer mJpeg;
+
+    private File mFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] jpeg = SyntheticFrames.jpeg(size, size);
+        if ("direct".equals(buffer)) {
+            mJpeg = ByteBuffer.allocateDirect(size);
+            mJpeg.put(jpeg);
+            mJpeg.flip();
+        } else {
+            mJpeg = ByteBuffer.wrap(jpeg);
+        }
+        mFile = File.createTempFile("ImageSaverBenchmark", ".jpg");
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public long save() {
+        new ImageSaver(new BufferImage(mJpeg.duplicate()), mFile).run();
+        return mFile.length();
+    }
+
+    /**
+     * A {@link StillImage} over an existing buffer.
+     */
+    private static class BufferImage implements StillImage {
+
+        private final ByteBuffer mBuffer;
+
+        BufferImage(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
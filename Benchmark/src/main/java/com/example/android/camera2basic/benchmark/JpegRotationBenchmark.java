@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.benchmark;
+
+import com.example.android.camera2basic.core.ExifEditor;
+import com.example.android.camera2basic.core.JpegRotator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Fixes the orientation of a camera-sized JPEG three ways: by rewriting the EXIF orientation with
+ * {@link ExifEditor}, by rotating the DCT coefficients with {@link JpegRotator}, and by decoding,
+ * rotating the pixels and encoding again with {@link ImageIO}, which is what the app would have to
+ * do otherwise.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class JpegRotationBenchmark {
+
+    private static final float QUALITY = 0.92f;
+
+    @Param({"1920x1088", "4032x3024"})
+    public String size;
+
+    @Param({"exif", "dct", "reencode"})
+    public String method;
+
+    private ByteBuffer mJpeg;
+
+    private ByteBuffer mExifOutput;
+
+    private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+
+    private final ExifEditor mEditor =
+            new ExifEditor().setOrientation(ExifEditor.ORIENTATION_ROTATE_90);
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        // Smooth gradients with sensor-like noise, so that the JPEG has a realistic size.
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = clamp(255 * x / width + random.nextInt(9) - 4);
+                int g = clamp(255 * y / height + random.nextInt(9) - 4);
+                int b = clamp((int) (127.5 + 127.5 * Math.sin((x + 2 * y) / 40.0))
+                        + random.nextInt(9) - 4);
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        encode(image, mOutput);
+        mJpeg = ByteBuffer.wrap(mOutput.toByteArray());
+        mExifOutput = ByteBuffer.allocate(mEditor.getMaxOutputSize(mJpeg));
+    }
+
+    @Benchmark
+    public int rotate() throws IOException {
+        mOutput.reset();
+        switch (method) {
+            case "exif":
+                mExifOutput.clear();
+                return mEditor.apply(mJpeg, mExifOutput);
+            case "dct":
+                JpegRotator.rotate(mJpeg, 90, mOutput);
+                return mOutput.size();
+            default:
+                BufferedImage source = ImageIO.read(new ByteArrayInputStream(
+                        mJpeg.array(), mJpeg.position(), mJpeg.remaining()));
+                int width = source.getWidth();
+                int height = source.getHeight();
+                BufferedImage rotated =
+                        new BufferedImage(height, width, BufferedImage.TYPE_INT_RGB);
+                int[] row = new int[width];
+                for (int y = 0; y < height; y++) {
+                    source.getRGB(0, y, width, 1, row, 0, width);
+                    for (int x = 0; x < width; x++) {
+                        rotated.setRGB(height - 1 - y, x, row[x]);
+                    }
+                }
+                encode(rotated, mOutput);
+                return mOutput.size();
+        }
+    }
+
+    private static void encode(BufferedImage image, ByteArrayOutputStream output)
+            throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(QUALITY);
+        ImageOutputStream stream = ImageIO.createImageOutputStream(output);
+        writer.setOutput(stream);
+        writer.write(null, new IIOImage(image, null, null), param);
+        stream.close();
+        writer.dispose();
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+}
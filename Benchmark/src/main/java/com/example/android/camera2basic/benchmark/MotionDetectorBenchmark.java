@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.benchmark;
+
+import com.example.android.camera2basic.core.MotionDetector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks for motion in an analysis frame, in microseconds per frame, at the analysis sizes the
+ * app picks. Alternates between two noisy frames so the background model keeps working, and
+ * reads them from direct buffers with a padded row stride like camera images.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class MotionDetectorBenchmark {
+
+    @Param({"320x240", "640x480"})
+    public String size;
+
+    /**
+     * Distance between two sampled pixels.
+     */
+    @Param({"1", "2", "4"})
+    public int step;
+
+    private final ByteBuffer[] mFrames = new ByteBuffer[2];
+
+    private int mWidth;
+
+    private int mHeight;
+
+    private int mRowStride;
+
+    private MotionDetector mDetector;
+
+    private int mFrame;
+
+    @Setup
+    public void setUp() {
+        String[] dimensions = size.split("x");
+        mWidth = Integer.parseInt(dimensions[0]);
+        mHeight = Integer.parseInt(dimensions[1]);
+        mRowStride = mWidth + 64;
+        Random random = new Random(5);
+        for (int i = 0; i < mFrames.length; i++) {
+            mFrames[i] = ByteBuffer.allocateDirect(mRowStride * mHeight);
+            for (int offset = 0; offset < mRowStride * mHeight; offset++) {
+                mFrames[i].put(offset, (byte) (100 + random.nextInt(17) - 8));
+            }
+        }
+        mDetector = new MotionDetector(16, step);
+    }
+
+    @Benchmark
+    public boolean detect() {
+        mFrame ^= 1;
+        return mDetector.detect(mFrames[mFrame], mWidth, mHeight, mRowStride);
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.benchmark;
+
+import com.example.android.camera2basic.core.ImageSaver;
+import com.example.android.camera2basic.core.PackStore;
+import com.example.android.camera2basic.core.StillImage;
+import com.example.android.camera2basic.core.SyntheticFrames;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores a long session of shots, in shots per second: either one new file per shot with
+ * {@link ImageSaver}, like the app does without a pack store, or appended to the segments of a
+ * {@link PackStore}. Every iteration starts with an empty directory, which then grows by one
+ * file per shot in the per-file mode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class PackStoreBenchmark {
+
+    /**
+     * Small enough for a few segments to be sealed in every iteration.
+     */
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    @Param({"262144", "2097152"})
+    public int size;
+
+    @Param({"per_file", "pack"})
+    public String storage;
+
+    private ByteBuffer mJpeg;
+
+    private File mDirectory;
+
+    private PackStore mStore;
+
+    private long mShot;
+
+    @Setup
+    public void setUp() throws IOException {
+        mJpeg = ByteBuffer.allocateDirect(size);
+        mJpeg.put(SyntheticFrames.jpeg(size, size));
+        mJpeg.flip();
+        mDirectory = Files.createTempDirectory("PackStoreBenchmark").toFile();
+    }
+
+    @Setup(Level.Iteration)
+    public void startSession() throws IOException {
+        if ("pack".equals(storage)) {
+            mStore = new PackStore(mDirectory, SEGMENT_BYTES);
+            mStore.open();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void endSession() throws IOException {
+        if (null != mStore) {
+            mStore.close();
+            mStore = null;
+        }
+        deleteFiles();
+    }
+
+    @TearDown
+    public void tearDown() {
+        deleteFiles();
+        if (!mDirectory.delete()) {
+            mDirectory.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public Object shot() throws IOException {
+        long shot = mShot++;
+        if (null != mStore) {
+            return mStore.append(mJpeg, shot);
+        }
+        File file = new File(mDirectory, "IMG_" + shot + ".jpg");
+        new ImageSaver(new BufferImage(mJpeg.duplicate()), file).run();
+        return file;
+    }
+
+    private void deleteFiles() {
+        File[] files = mDirectory.listFiles();
+        if (null == files) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * A {@link StillImage} over an existing buffer.
+     */
+    private static class BufferImage implements StillImage {
+
+        private final ByteBuffer mBuffer;
+
+        BufferImage(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps the capture session down through {@link QualityTier}s when the device heats up, runs low
+ * on battery or starts dropping preview frames, and back up once it has recovered.
+ *
+ * <p>Stepping down happens on the first sample that calls for it, straight to the tier the
+ * conditions require. Stepping up goes one tier at a time, and only after the conditions have
+ * stayed clear of the thresholds by a margin for {@link #setStepUpHoldMillis(long)}, so that the
+ * session doesn't flap between two tiers when the temperature hovers around a threshold.</p>
+ *
+ * <p>Not thread-safe; {@link #onFrame(long)} and {@link #sample(DeviceConditions, long)} are
+ * meant to be called on the camera thread.</p>
+ */
+public class AdaptiveQualityController {
+
+    /**
+     * Receives the tier changes.
+     */
+    public interface Listener {
+
+        /**
+         * Called from {@link #sample(DeviceConditions, long)} after the tier has changed.
+         *
+         * @param reason Why, for the log.
+         */
+        void onTierChanged(QualityTier from, QualityTier to, String reason);
+
+    }
+
+    /**
+     * The battery temperatures, in degrees Celsius, from which tier 1, 2, 3... is required.
+     */
+    private static final float[] TEMPERATURE_STEPS_CELSIUS = {40, 43, 46};
+
+    /**
+     * How far below a temperature step the battery must cool down before stepping back up.
+     */
+    private static final float TEMPERATURE_HYSTERESIS_CELSIUS = 3;
+
+    /**
+     * The battery levels, in percent, below which tier 1, 2... is required when not charging.
+     */
+    private static final int[] BATTERY_STEPS_PERCENT = {30, 15};
+
+    /**
+     * How far above a battery step the level must be before stepping back up.
+     */
+    private static final int BATTERY_HYSTERESIS_PERCENT = 5;
+
+    /**
+     * A frame interval longer than this many periods at the tier's frame rate counts as a
+     * dropped frame. Leaves room for auto-exposure lowering the frame rate in the dark.
+     */
+    private static final double LATE_FRAME_PERIODS = 2.5;
+
+    /**
+     * Frame intervals longer than this are pauses of the preview, e.g. for a still capture.
+     */
+    private static final long MAX_FRAME_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The share of late frames from which the current tier is considered too demanding.
+     */
+    private static final double MAX_LATE_FRAME_RATIO = 0.1;
+
+    /**
+     * The share of late frames below which the next better tier may be tried.
+     */
+    private static final double RECOVERED_LATE_FRAME_RATIO = 0.02;
+
+    private final QualityTier[] mTiers;
+
+    private final Listener mListener;
+
+    private final long[] mTierNanos;
+
+    private long mStepUpHoldNanos = TimeUnit.SECONDS.toNanos(30);
+
+    private int mTier;
+
+    private int mChangeCount;
+
+    /**
+     * When the current tier was entered, or 0 before the first sample.
+     */
+    private long mTierSinceNanos;
+
+    private long mLastSampleNanos;
+
+    /**
+     * Since when the conditions have allowed a better tier, or 0.
+     */
+    private long mClearSinceNanos;
+
+    private long mLastFrameNanos;
+
+    private int mFrameCount;
+
+    private int mLateFrameCount;
+
+    /**
+     * @param tiers    The tiers, best first.
+     * @param listener Receives the tier changes.
+     */
+    public AdaptiveQualityController(QualityTier[] tiers, Listener listener) {
+        if (tiers.length == 0) {
+            throw new IllegalArgumentException("No tiers");
+        }
+        mTiers = tiers.clone();
+        mListener = listener;
+        mTierNanos = new long[tiers.length];
+    }
+
+    /**
+     * Sets how long the conditions must allow a better tier before it is used.
+     */
+    public AdaptiveQualityController setStepUpHoldMillis(long millis) {
+        mStepUpHoldNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        return this;
+    }
+
+    public QualityTier getTier() {
+        return mTiers[mTier];
+    }
+
+    public int getTierIndex() {
+        return mTier;
+    }
+
+    public int getChangeCount() {
+        return mChangeCount;
+    }
+
+    /**
+     * @return The time spent in a tier up to the latest sample, in milliseconds.
+     */
+    public long getTimeInTierMillis(int tier) {
+        long nanos = mTierNanos[tier];
+        if (tier == mTier && mTierSinceNanos != 0) {
+            nanos += mLastSampleNanos - mTierSinceNanos;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Reports a preview frame.
+     *
+     * @param timestampNanos The sensor timestamp of the frame.
+     */
+    public void onFrame(long timestampNanos) {
+        long interval = timestampNanos - mLastFrameNanos;
+        mLastFrameNanos = timestampNanos;
+        if (interval <= 0 || interval > MAX_FRAME_INTERVAL_NANOS) {
+            return;
+        }
+        mFrameCount++;
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / mTiers[mTier].getMaxFps();
+        if (interval > LATE_FRAME_PERIODS * periodNanos) {
+            mLateFrameCount++;
+        }
+    }
+
+    /**
+     * Evaluates the conditions and the frames reported since the previous sample, and changes
+     * the tier if needed.
+     *
+     * @param nowNanos The current time, from {@link System#nanoTime()}.
+     */
+    public void sample(DeviceConditions conditions, long nowNanos) {
+        if (0 == mTierSinceNanos) {
+            mTierSinceNanos = nowNanos;
+        }
+        mLastSampleNanos = nowNanos;
+        double lateRatio = mFrameCount == 0 ? 0 : (double) mLateFrameCount / mFrameCount;
+        mFrameCount = 0;
+        mLateFrameCount = 0;
+
+        int required = requiredTier(conditions, 0, 0);
+        String reason = conditions.toString();
+        if (lateRatio > MAX_LATE_FRAME_RATIO && required <= mTier) {
+            required = mTier + 1;
+            reason = String.format(Locale.US, "%.0f%% frames late", lateRatio * 100);
+        }
+        required = Math.min(required, mTiers.length - 1);
+        if (required > mTier) {
+            mClearSinceNanos = 0;
+            changeTier(required, nowNanos, reason);
+            return;
+        }
+        boolean clear = mTier > 0 && lateRatio < RECOVERED_LATE_FRAME_RATIO
+                && requiredTier(conditions, TEMPERATURE_HYSTERESIS_CELSIUS,
+                BATTERY_HYSTERESIS_PERCENT) < mTier;
+        if (!clear) {
+            mClearSinceNanos = 0;
+        } else if (0 == mClearSinceNanos) {
+            mClearSinceNanos = nowNanos;
+        } else if (nowNanos - mClearSinceNanos >= mStepUpHoldNanos) {
+            mClearSinceNanos = 0;
+            changeTier(mTier - 1, nowNanos, "recovered: " + conditions);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("tier=").append(mTiers[mTier].getName())
+                .append(" changes=").append(mChangeCount);
+        for (int i = 0; i < mTiers.length; i++) {
+            builder.append(' ').append(mTiers[i].getName()).append('=')
+                    .append(getTimeInTierMillis(i) / 1000).append('s');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param temperatureMargin Lowers the temperature steps by this much.
+     * @param batteryMargin     Raises the battery steps by this much.
+     * @return The best tier the conditions allow.
+     */
+    private static int requiredTier(DeviceConditions conditions, float temperatureMargin,
+                                     int batteryMargin) {
+        int tier = 0;
+        float temperature = conditions.getTemperatureCelsius();
+        for (int i = 0; i < TEMPERATURE_STEPS_CELSIUS.length; i++) {
+            // Comparisons with NaN are false, so an unknown temperature requires nothing.
+            if (temperature >= TEMPERATURE_STEPS_CELSIUS[i] - temperatureMargin) {
+                tier = Math.max(tier, i + 1);
+            }
+        }
+        int thermalStatus = conditions.getThermalStatus();
+        if (thermalStatus >= DeviceConditions.THERMAL_STATUS_SEVERE) {
+            tier = Math.max(tier, 3);
+        } else if (thermalStatus >= DeviceConditions.THERMAL_STATUS_LIGHT) {
+            // The status has no finer grain to add a margin to.
+            tier = Math.max(tier, thermalStatus);
+        }
+        if (!conditions.isCharging()) {
+            for (int i = 0; i < BATTERY_STEPS_PERCENT.length; i++) {
+                if (conditions.getBatteryPercent() < BATTERY_STEPS_PERCENT[i] + batteryMargin) {
+                    tier = Math.max(tier, i + 1);
+                }
+            }
+        }
+        if (conditions.isPowerSaveMode()) {
+            tier = Math.max(tier, 1);
+        }
+        return tier;
+    }
+
+    private void changeTier(int tier, long nowNanos, String reason) {
+        QualityTier from = mTiers[mTier];
+        mTierNanos[mTier] += nowNanos - mTierSinceNanos;
+        mTierSinceNanos = nowNanos;
+        mTier = tier;
+        mChangeCount++;
+        // The frames seen so far were produced under the old tier.
+        mLastFrameNanos = 0;
+        mListener.onTierChanged(from, mTiers[tier], reason);
+    }
+
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of direct {@link ByteBuffer}s for the stages that copy image data out of an
+ * {@code android.media.Image}, so that a burst of captures doesn't allocate a new buffer of
+ * several megabytes for every picture.
+ *
+ * <p>Buffers are grouped into power-of-two size classes, starting at {@link #MIN_CLASS_BYTES}. A
+ * {@link Lease} hands out a buffer of at least the requested size and must be
+ * {@link Lease#release() released} when the stage is done with it. Idle buffers are kept for reuse
+ * as long as their total stays below the cap given to the constructor; beyond that, released
+ * buffers are left to the garbage collector.</p>
+ *
+ * <p>A lease that becomes unreachable without having been released is counted as a leak and
+ * logged, together with where it was leased if {@link #setTrackAllocationSites(boolean)} is on.
+ * Thread-safe.</p>
+ */
+public class BufferPool {
+
+    private static final Logger LOG = Logger.getLogger("BufferPool");
+
+    /**
+     * The capacity of the smallest size class.
+     */
+    public static final int MIN_CLASS_BYTES = 64 * 1024;
+
+    /**
+     * Number of size classes; the largest one is 1 GB.
+     */
+    private static final int CLASS_COUNT = 15;
+
+    private final long mMaxPooledBytes;
+
+    /**
+     * The idle buffers of each size class. Guarded by the list itself.
+     */
+    private final List<ArrayDeque<ByteBuffer>> mIdle;
+
+    /**
+     * The total capacity of the idle buffers. Guarded by {@link #mIdle}.
+     */
+    private long mPooledBytes;
+
+    /**
+     * Keeps the references of the outstanding leases reachable until they are released.
+     */
+    private final Set<LeaseReference> mOutstanding
+            = Collections.newSetFromMap(new ConcurrentHashMap<LeaseReference, Boolean>());
+
+    private final ReferenceQueue<Lease> mLeaked = new ReferenceQueue<>();
+
+    private final AtomicInteger mLeaseCount = new AtomicInteger();
+
+    private final AtomicInteger mHitCount = new AtomicInteger();
+
+    private final AtomicInteger mLeakCount = new AtomicInteger();
+
+    private volatile boolean mTrackAllocationSites;
+
+    /**
+     * @param maxPooledBytes The upper bound of the total capacity of the idle buffers.
+     */
+    public BufferPool(long maxPooledBytes) {
+        mMaxPooledBytes = maxPooledBytes;
+        mIdle = new ArrayList<>(CLASS_COUNT);
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            mIdle.add(new ArrayDeque<ByteBuffer>());
+        }
+    }
+
+    /**
+     * Records a stack trace for every lease, so that leaks can be traced back to the code that
+     * leased the buffer. Costly; meant for debug builds and tests.
+     */
+    public BufferPool setTrackAllocationSites(boolean track) {
+        mTrackAllocationSites = track;
+        return this;
+    }
+
+    /**
+     * Leases a buffer with room for at least {@code bytes}. Its position is zero and its limit is
+     * {@code bytes}.
+     */
+    public Lease lease(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Negative size: " + bytes);
+        }
+        pollLeaks();
+        mLeaseCount.incrementAndGet();
+        int sizeClass = sizeClass(bytes);
+        ByteBuffer buffer = null;
+        if (sizeClass < CLASS_COUNT) {
+            synchronized (mIdle) {
+                buffer = mIdle.get(sizeClass).poll();
+                if (null != buffer) {
+                    mPooledBytes -= buffer.capacity();
+                }
+            }
+        }
+        if (null == buffer) {
+            buffer = ByteBuffer.allocateDirect(
+                    sizeClass < CLASS_COUNT ? MIN_CLASS_BYTES << sizeClass : bytes);
+        } else {
+            mHitCount.incrementAndGet();
+        }
+        buffer.clear();
+        buffer.limit(bytes);
+        Lease lease = new Lease(buffer);
+        LeaseReference reference = new LeaseReference(lease, bytes,
+                mTrackAllocationSites ? new Throwable("Leased here") : null);
+        lease.mReference = reference;
+        mOutstanding.add(reference);
+        return lease;
+    }
+
+    /**
+     * Drops all idle buffers, e.g. when the system is low on memory.
+     */
+    public void trim() {
+        synchronized (mIdle) {
+            for (ArrayDeque<ByteBuffer> idle : mIdle) {
+                idle.clear();
+            }
+            mPooledBytes = 0;
+        }
+    }
+
+    public int getLeaseCount() {
+        return mLeaseCount.get();
+    }
+
+    /**
+     * @return The number of leases served by an idle buffer.
+     */
+    public int getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return The fraction of leases served by an idle buffer, 0 if there were none.
+     */
+    public double getHitRate() {
+        int leases = mLeaseCount.get();
+        return 0 == leases ? 0 : (double) mHitCount.get() / leases;
+    }
+
+    /**
+     * @return The number of leases neither released nor detected as leaked yet.
+     */
+    public int getOutstandingLeases() {
+        pollLeaks();
+        return mOutstanding.size();
+    }
+
+    /**
+     * @return The number of leases that became unreachable without having been released.
+     */
+    public int getLeakCount() {
+        pollLeaks();
+        return mLeakCount.get();
+    }
+
+    /**
+     * @return The total capacity of the idle buffers.
+     */
+    public long getPooledBytes() {
+        synchronized (mIdle) {
+            return mPooledBytes;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("leases=%d hitRate=%.2f outstanding=%d leaked=%d pooledBytes=%d",
+                getLeaseCount(), getHitRate(), getOutstandingLeases(), getLeakCount(),
+                getPooledBytes());
+    }
+
+    private void release(Lease lease) {
+        mOutstanding.remove(lease.mReference);
+        lease.mReference.clear();
+        ByteBuffer buffer = lease.mBuffer;
+        int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass >= CLASS_COUNT || buffer.capacity() != MIN_CLASS_BYTES << sizeClass) {
+            return;
+        }
+        synchronized (mIdle) {
+            if (mPooledBytes + buffer.capacity() <= mMaxPooledBytes) {
+                mIdle.get(sizeClass).push(buffer);
+                mPooledBytes += buffer.capacity();
+            }
+        }
+    }
+
+    private void pollLeaks() {
+        LeaseReference reference;
+        while (null != (reference = (LeaseReference) mLeaked.poll())) {
+            if (mOutstanding.remove(reference)) {
+                mLeakCount.incrementAndGet();
+                LOG.log(Level.WARNING, "Buffer of " + reference.mBytes
+                        + " bytes was never released", reference.mAllocationSite);
+            }
+        }
+    }
+
+    /**
+     * @return The index of the smallest size class that holds {@code bytes}, or
+     * {@link #CLASS_COUNT} or more if none does.
+     */
+    private static int sizeClass(int bytes) {
+        if (bytes <= MIN_CLASS_BYTES) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros((bytes - 1) / MIN_CLASS_BYTES);
+    }
+
+    /**
+     * A buffer leased from the pool.
+     */
+    public final class Lease {
+
+        private final ByteBuffer mBuffer;
+
+        private LeaseReference mReference;
+
+        private boolean mReleased;
+
+        private Lease(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        /**
+         * @return The leased buffer. It must not be used after {@link #release()}.
+         */
+        public ByteBuffer getBuffer() {
+            if (mReleased) {
+                throw new IllegalStateException("Lease already released");
+            }
+            return mBuffer;
+        }
+
+        /**
+         * Returns the buffer to the pool.
+         */
+        public void release() {
+            if (mReleased) {
+                throw new IllegalStateException("Lease released twice");
+            }
+            mReleased = true;
+            BufferPool.this.release(this);
+        }
+
+    }
+
+    /**
+     * Tracks a {@link Lease}, so that the pool notices when it is collected unreleased.
+     */
+    private class LeaseReference extends WeakReference<Lease> {
+
+        private final int mBytes;
+
+        private final Throwable mAllocationSite;
+
+        LeaseReference(Lease lease, int bytes, Throwable allocationSite) {
+            super(lease, mLeaked);
+            mBytes = bytes;
+            mAllocationSite = allocationSite;
+        }
+
+    }
+
+}
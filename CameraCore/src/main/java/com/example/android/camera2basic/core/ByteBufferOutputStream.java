@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link OutputStream} that writes into a {@link ByteBuffer}, e.g. one leased from a
+ * {@link BufferPool}, instead of a growing heap array.
+ *
+ * <p>The buffer doesn't grow: a write beyond its limit throws a {@link BufferOverflowException},
+ * after which the caller can start over with a larger buffer. Not thread-safe.</p>
+ */
+final class ByteBufferOutputStream extends OutputStream {
+
+    private final ByteBuffer mBuffer;
+
+    /**
+     * @param buffer Written from its position up to its limit.
+     */
+    ByteBufferOutputStream(ByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+        mBuffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        mBuffer.put(b, off, len);
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+/**
+ * The camera operations that {@link CaptureController} needs to run the preview and still capture
+ * sequence. {@code Camera2Backend} implements them with the camera2 API; because this interface
+ * does not use any Android types, a simulated camera can stand in for it in JVM tests.
+ *
+ * <p>All {@link Callback} methods are called on the camera thread.</p>
+ */
+public interface CameraBackend {
+
+    /**
+     * Pseudo error code reported when the camera device was disconnected.
+     */
+    int ERROR_DISCONNECTED = 0;
+
+    /**
+     * Same as {@code CameraDevice.StateCallback.ERROR_CAMERA_IN_USE}.
+     */
+    int ERROR_CAMERA_IN_USE = 1;
+
+    /**
+     * Same as {@code CameraDevice.StateCallback.ERROR_MAX_CAMERAS_IN_USE}.
+     */
+    int ERROR_MAX_CAMERAS_IN_USE = 2;
+
+    /**
+     * Same as {@code CameraDevice.StateCallback.ERROR_CAMERA_DISABLED}.
+     */
+    int ERROR_CAMERA_DISABLED = 3;
+
+    /**
+     * Auto-focus or auto-exposure state that the camera did not report.
+     */
+    int STATE_UNKNOWN = -1;
+
+    /**
+     * Same as {@code CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED}.
+     */
+    int AF_STATE_FOCUSED_LOCKED = 4;
+
+    /**
+     * Same as {@code CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED}.
+     */
+    int AF_STATE_NOT_FOCUSED_LOCKED = 5;
+
+    /**
+     * Same as {@code CaptureResult.CONTROL_AE_STATE_CONVERGED}.
+     */
+    int AE_STATE_CONVERGED = 2;
+
+    /**
+     * Same as {@code CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED}.
+     */
+    int AE_STATE_FLASH_REQUIRED = 4;
+
+    /**
+     * Same as {@code CaptureResult.CONTROL_AE_STATE_PRECAPTURE}.
+     */
+    int AE_STATE_PRECAPTURE = 5;
+
+    /**
+     * Receives the events of a {@link CameraBackend}.
+     */
+    interface Callback {
+
+        /**
+         * The camera device has been opened.
+         */
+        void onOpened();
+
+        /**
+         * The camera device has been lost.
+         *
+         * @param error {@link #ERROR_DISCONNECTED}, or one of the
+         *              {@code CameraDevice.StateCallback.ERROR_*} constants.
+         */
+        void onCameraLost(int error);
+
+        /**
+         * The capture session has been configured.
+         */
+        void onSessionConfigured();
+
+        /**
+         * The capture session could not be configured.
+         */
+        void onSessionConfigureFailed();
+
+        /**
+         * A (partial or total) result of a preview or 3A trigger request.
+         *
+         * @param afState The auto-focus state, or {@link #STATE_UNKNOWN}.
+         * @param aeState The auto-exposure state, or {@link #STATE_UNKNOWN}.
+         */
+        void onCaptureResult(int afState, int aeState);
+
+        /**
+         * The still capture requested by {@link #captureStillPicture(int)} has completed.
+         */
+        void onStillCaptureCompleted();
+
+        /**
+         * A still image is ready. The receiver must close it.
+         */
+        void onStillImageAvailable(StillImage image);
+
+    }
+
+    /**
+     * Starts opening the camera device.
+     *
+     * @return false if the open could not be started.
+     */
+    boolean open(Callback callback);
+
+    /**
+     * Creates the capture session with the preview and still capture outputs.
+     */
+    void createSession();
+
+    /**
+     * Starts the repeating preview request, with continuous auto-focus.
+     */
+    void startPreview();
+
+    /**
+     * Triggers the auto-focus lock.
+     */
+    void lockFocus();
+
+    /**
+     * Triggers the auto-exposure precapture sequence.
+     */
+    void runPrecaptureSequence();
+
+    /**
+     * Stops the preview and captures a still picture.
+     *
+     * @param jpegOrientation The JPEG orientation, in degrees.
+     */
+    void captureStillPicture(int jpegOrientation);
+
+    /**
+     * Cancels the auto-focus lock and resumes the preview.
+     */
+    void unlockFocus();
+
+    /**
+     * Closes the camera device and all its outputs.
+     */
+    void close();
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+/**
+ * The resources shared by all cameras that stream at the same time: the image buffers of their
+ * {@code ImageReader}s, the threads their callbacks run on, and the bytes waiting to be written.
+ * Each camera gets a share of the budget instead of its own maximum footprint.
+ *
+ * <p>Preview buffers belong to the preview surfaces and are not part of the budget.</p>
+ */
+public class CameraBudget {
+
+    private final int mMaxImages;
+
+    private final int mMaxThreads;
+
+    private final long mMaxPendingWriteBytes;
+
+    /**
+     * @param maxImages            The total {@code maxImages} of all image readers.
+     * @param maxThreads           The number of threads camera callbacks are spread over.
+     * @param maxPendingWriteBytes The bytes that may wait to be written before pictures are
+     *                             dropped; see {@link SharedImageWriter}.
+     */
+    public CameraBudget(int maxImages, int maxThreads, long maxPendingWriteBytes) {
+        if (maxImages <= 0 || maxThreads <= 0 || maxPendingWriteBytes <= 0) {
+            throw new IllegalArgumentException("Budget must be positive");
+        }
+        mMaxImages = maxImages;
+        mMaxThreads = maxThreads;
+        mMaxPendingWriteBytes = maxPendingWriteBytes;
+    }
+
+    public int getMaxImages() {
+        return mMaxImages;
+    }
+
+    public int getMaxThreads() {
+        return mMaxThreads;
+    }
+
+    public long getMaxPendingWriteBytes() {
+        return mMaxPendingWriteBytes;
+    }
+
+    /**
+     * Splits the image buffers between outputs. Every output first gets its minimum, then the
+     * rest is handed out one buffer at a time in turn to the outputs that want more, so that no
+     * output grows at the expense of another.
+     *
+     * @param requested The number of buffers each output would like to have.
+     * @param minimum   The number of buffers each output can't work without.
+     * @return The number of buffers granted to each output.
+     * @throws IllegalArgumentException If the budget doesn't cover the minimums.
+     */
+    public int[] splitImages(int[] requested, int[] minimum) {
+        if (requested.length != minimum.length) {
+            throw new IllegalArgumentException("One minimum per request expected");
+        }
+        int[] granted = new int[requested.length];
+        int remaining = mMaxImages;
+        for (int i = 0; i < minimum.length; i++) {
+            granted[i] = minimum[i];
+            remaining -= minimum[i];
+        }
+        if (remaining < 0) {
+            throw new IllegalArgumentException("A budget of " + mMaxImages
+                    + " images is too small for " + (mMaxImages - remaining));
+        }
+        boolean progress = true;
+        while (remaining > 0 && progress) {
+            progress = false;
+            for (int i = 0; i < granted.length && remaining > 0; i++) {
+                if (granted[i] < requested[i]) {
+                    granted[i]++;
+                    remaining--;
+                    progress = true;
+                }
+            }
+        }
+        return granted;
+    }
+
+    /**
+     * @return How many of the outputs, each with the given minimum, fit into the budget.
+     */
+    public int getMaxOutputs(int minimumImages) {
+        return mMaxImages / minimumImages;
+    }
+
+    /**
+     * @return The number of callback threads to start for the given number of cameras.
+     */
+    public int getThreadCount(int cameraCount) {
+        return Math.min(mMaxThreads, cameraCount);
+    }
+
+    /**
+     * @param camera      The index of the camera.
+     * @param cameraCount The number of cameras.
+     * @return The index of the callback thread of the camera.
+     */
+    public int getThreadIndex(int camera, int cameraCount) {
+        return camera % getThreadCount(cameraCount);
+    }
+
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Reopens the camera after it has been disconnected or reported an error, instead of giving up on
+ * the whole screen. Attempts are spaced with a bounded exponential backoff, and the supervisor
+ * keeps count of failures and of how long each recovery took.
+ *
+ * <p>An attempt is in flight from {@link Callback#onReopen()} until it is reported to have
+ * succeeded or failed. Camera availability only brings forward an attempt that is waiting for its
+ * backoff, and only if the camera was lost to another client: after a device or service error,
+ * the camera becomes available as soon as we close it ourselves, and an attempt made then would
+ * defeat the backoff.</p>
+ *
+ * <p>Apart from {@link #setScheduler(Scheduler)}, which is called around the start and stop of
+ * the camera thread, all methods must be called on that thread, which the {@link Callback}
+ * methods are called on as well.</p>
+ */
+public class CameraRecoverySupervisor {
+
+    /**
+     * Receives the decisions of the supervisor.
+     */
+    public interface Callback {
+
+        /**
+         * Reopen the camera device, reusing the existing outputs.
+         */
+        void onReopen();
+
+        /**
+         * Recovery is not possible, or all attempts have failed.
+         *
+         * @param error The last error, one of the {@code CameraBackend.ERROR_*} constants or
+         *              another {@code CameraDevice.StateCallback.ERROR_*} constant.
+         */
+        void onGiveUp(int error);
+
+    }
+
+    /**
+     * Runs the reopen attempts on the camera thread after their backoff, e.g. with a
+     * {@code Handler}.
+     */
+    public interface Scheduler {
+
+        /**
+         * Runs {@code task} after {@code delayMillis}.
+         */
+        void schedule(Runnable task, long delayMillis);
+
+        /**
+         * Cancels the pending runs of {@code task}.
+         */
+        void cancel(Runnable task);
+
+    }
+
+    private static final Logger LOG = Logger.getLogger("CameraRecovery");
+
+    /**
+     * Delay before the first reopen attempt.
+     */
+    static final long INITIAL_BACKOFF_MS = 100;
+
+    /**
+     * Upper bound for the delay between two reopen attempts.
+     */
+    static final long MAX_BACKOFF_MS = 3200;
+
+    /**
+     * Number of reopen attempts after which we give up.
+     */
+    static final int MAX_ATTEMPTS = 8;
+
+    private final Callback mCallback;
+
+    private final Runnable mReopenRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mAttemptPending = false;
+            mAttemptInFlight = true;
+            mAttempts++;
+            LOG.fine("Reopen attempt " + mAttempts + " after error " + mLastError);
+            mCallback.onReopen();
+        }
+    };
+
+    private Scheduler mScheduler;
+
+    /**
+     * Whether the camera has been lost and not yet recovered.
+     */
+    private boolean mRecovering;
+
+    /**
+     * Whether a reopen attempt is waiting for its backoff.
+     */
+    private boolean mAttemptPending;
+
+    /**
+     * Whether a reopen attempt has been started and not yet reported back.
+     */
+    private boolean mAttemptInFlight;
+
+    /**
+     * Reopen attempts made in the current recovery.
+     */
+    private int mAttempts;
+
+    private int mLastError;
+
+    /**
+     * {@link System#nanoTime()} when the camera was lost.
+     */
+    private long mLostAtNanos;
+
+    private int mFailureCount;
+
+    private int mRecoveryCount;
+
+    private long mLastRecoveryMillis;
+
+    private long mMaxRecoveryMillis;
+
+    public CameraRecoverySupervisor(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Sets the {@link Scheduler} reopen attempts are run by. Passing null cancels any pending
+     * attempt and ends the current recovery.
+     */
+    public void setScheduler(Scheduler scheduler) {
+        if (null != mScheduler) {
+            mScheduler.cancel(mReopenRunnable);
+        }
+        mScheduler = scheduler;
+        mAttemptPending = false;
+        if (null == scheduler) {
+            mRecovering = false;
+            mAttemptInFlight = false;
+        }
+    }
+
+    /**
+     * Reports that the camera device was disconnected or hit an error, including while a reopen
+     * attempt was in flight.
+     *
+     * @param error One of the {@code CameraBackend.ERROR_*} constants or another
+     *              {@code CameraDevice.StateCallback.ERROR_*} constant.
+     */
+    public void onCameraLost(int error) {
+        mFailureCount++;
+        mLastError = error;
+        mAttemptInFlight = false;
+        if (!mRecovering) {
+            mRecovering = true;
+            mAttempts = 0;
+            mLostAtNanos = System.nanoTime();
+        }
+        if (error == CameraBackend.ERROR_CAMERA_DISABLED) {
+            // Device policy forbids the camera; retrying won't help.
+            giveUp();
+            return;
+        }
+        scheduleNextAttempt();
+    }
+
+    /**
+     * Reports that a reopen attempt failed before the device could report back, for example
+     * because {@code openCamera} threw.
+     */
+    public void onReopenFailed() {
+        mFailureCount++;
+        mAttemptInFlight = false;
+        if (mRecovering) {
+            scheduleNextAttempt();
+        }
+    }
+
+    /**
+     * Reports that the camera is available again, e.g. because the app that took it has released
+     * it. An attempt waiting for its backoff is then made right away, if the camera was lost to
+     * another client; otherwise the report is ignored.
+     */
+    public void onCameraAvailable() {
+        if (!mRecovering || !mAttemptPending || mAttemptInFlight || null == mScheduler) {
+            // Nothing to bring forward, or an open in flight that a second one would block on.
+            return;
+        }
+        if (!isHeldByAnotherClient(mLastError)) {
+            // Most likely our own close after the error.
+            return;
+        }
+        mScheduler.cancel(mReopenRunnable);
+        mScheduler.schedule(mReopenRunnable, 0);
+    }
+
+    /**
+     * Reports that the preview is running again.
+     */
+    public void onRecovered() {
+        mAttemptInFlight = false;
+        if (!mRecovering) {
+            return;
+        }
+        mRecovering = false;
+        mRecoveryCount++;
+        mLastRecoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mLostAtNanos);
+        mMaxRecoveryMillis = Math.max(mMaxRecoveryMillis, mLastRecoveryMillis);
+        LOG.info("Recovered in " + mLastRecoveryMillis + "ms after " + mAttempts
+                + " attempt(s); " + this);
+    }
+
+    /**
+     * @return Whether the camera has been lost and not yet recovered.
+     */
+    public boolean isRecovering() {
+        return mRecovering;
+    }
+
+    public int getFailureCount() {
+        return mFailureCount;
+    }
+
+    public int getRecoveryCount() {
+        return mRecoveryCount;
+    }
+
+    public long getLastRecoveryMillis() {
+        return mLastRecoveryMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "failures=" + mFailureCount + " recoveries=" + mRecoveryCount
+                + " lastRecoveryMs=" + mLastRecoveryMillis + " maxRecoveryMs=" + mMaxRecoveryMillis;
+    }
+
+    /**
+     * @return Whether the error means that another client has the camera, so that its
+     * availability means that the client has released it.
+     */
+    private static boolean isHeldByAnotherClient(int error) {
+        return error == CameraBackend.ERROR_DISCONNECTED
+                || error == CameraBackend.ERROR_CAMERA_IN_USE
+                || error == CameraBackend.ERROR_MAX_CAMERAS_IN_USE;
+    }
+
+    private void scheduleNextAttempt() {
+        if (null == mScheduler) {
+            return;
+        }
+        if (mAttempts >= MAX_ATTEMPTS) {
+            giveUp();
+            return;
+        }
+        long delay = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << mAttempts);
+        mScheduler.cancel(mReopenRunnable);
+        mScheduler.schedule(mReopenRunnable, delay);
+        mAttemptPending = true;
+    }
+
+    private void giveUp() {
+        mRecovering = false;
+        mAttemptPending = false;
+        if (null != mScheduler) {
+            mScheduler.cancel(mReopenRunnable);
+        }
+        LOG.warning("Giving up after " + mAttempts + " attempt(s), error " + mLastError + "; "
+                + this);
+        mCallback.onGiveUp(mLastError);
+    }
+
+}
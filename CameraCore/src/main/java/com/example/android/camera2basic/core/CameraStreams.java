@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+/**
+ * The camera output that consumers such as the UI, analytics or uploads can subscribe to, without
+ * hooking into the camera callbacks:
+ * <ul>
+ * <li>{@link #getPreviewResults()}: the capture result of every preview frame.</li>
+ * <li>{@link #getAnalysisFrames()}: the luma plane of every analysis frame, if the camera has an
+ * analysis output.</li>
+ * <li>{@link #getCaptures()}: every still capture once it has been written.</li>
+ * </ul>
+ *
+ * <p>The producers publish on the camera thread and on the save threads, and skip preparing items
+ * for streams nobody is subscribed to.</p>
+ */
+public class CameraStreams {
+
+    private final FrameStream<PreviewResult> mPreviewResults
+            = new FrameStream<>("previewResults");
+
+    private final FrameStream<LumaFrame> mAnalysisFrames
+            = new FrameStream<>("analysisFrames", LumaFrame.RECYCLER);
+
+    private final FrameStream<SavedCapture> mCaptures = new FrameStream<>("captures");
+
+    public FrameStream<PreviewResult> getPreviewResults() {
+        return mPreviewResults;
+    }
+
+    public FrameStream<LumaFrame> getAnalysisFrames() {
+        return mAnalysisFrames;
+    }
+
+    public FrameStream<SavedCapture> getCaptures() {
+        return mCaptures;
+    }
+
+    /**
+     * Ends all streams.
+     */
+    public void complete() {
+        mPreviewResults.complete();
+        mAnalysisFrames.complete();
+        mCaptures.complete();
+    }
+
+    @Override
+    public String toString() {
+        return mPreviewResults + "; " + mAnalysisFrames + "; " + mCaptures;
+    }
+
+}
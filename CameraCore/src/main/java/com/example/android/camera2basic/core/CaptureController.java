@@ -0,0 +1,730 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Runs the sequence from opening the camera to saving a still picture against a
+ * {@link CameraBackend}. It waits for both the camera device and the preview surface before it
+ * creates the capture session, drives the 3A state machine that precedes every still capture, and
+ * hands the captured images to an {@link ImageSaver}.
+ *
+ * <p>Shutter presses are queued rather than dropped while a capture is under way. When a still
+ * capture completes and more presses are waiting, the next one is captured right away with the 3A
+ * still locked, so that rapid presses turn into back-to-back captures while the previous images
+ * are still being saved.</p>
+ *
+ * <p>{@link #takePicture()}, {@link #open()}, {@link #close()} and the statistics may be called
+ * from any thread; everything else runs on the camera thread. The capture state is only changed
+ * on the camera thread: presses, opens and closes from other threads are handed over to it
+ * through the executor given to {@link #setCameraExecutor(Executor)}, and {@link #close()} waits
+ * for its hand-over to have run. The configured-session flag is also cleared right away by
+ * {@link #close()}, so that presses stop being queued before the close has reached the camera
+ * thread.</p>
+ */
+public class CaptureController implements CameraBackend.Callback {
+
+    /**
+     * Receives the events of a {@link CaptureController} that concern the UI.
+     */
+    public interface Listener {
+
+        /**
+         * @return The JPEG orientation for the next still capture, in degrees.
+         */
+        int getJpegOrientation();
+
+        /**
+         * The preview has been started, either for the first time or after a reopen.
+         */
+        void onPreviewStarted();
+
+        /**
+         * The camera device could not be opened, e.g. because it is in use or disabled.
+         */
+        void onOpenFailed();
+
+        /**
+         * The capture session could not be configured.
+         */
+        void onSessionConfigureFailed();
+
+        /**
+         * The camera device has been lost.
+         *
+         * @param error See {@link CameraBackend.Callback#onCameraLost(int)}.
+         */
+        void onCameraLost(int error);
+
+        /**
+         * A still picture has been taken and is being saved into the given file.
+         */
+        void onPictureTaken(File file);
+
+    }
+
+    /**
+     * Camera state: Showing camera preview.
+     */
+    public static final int STATE_PREVIEW = 0;
+
+    /**
+     * Camera state: Waiting for the focus to be locked.
+     */
+    public static final int STATE_WAITING_LOCK = 1;
+
+    /**
+     * Camera state: Waiting for the exposure to be precapture state.
+     */
+    public static final int STATE_WAITING_PRECAPTURE = 2;
+
+    /**
+     * Camera state: Waiting for the exposure state to be something other than precapture.
+     */
+    public static final int STATE_WAITING_NON_PRECAPTURE = 3;
+
+    /**
+     * Camera state: Picture was taken.
+     */
+    public static final int STATE_PICTURE_TAKEN = 4;
+
+    private static final Logger LOG = Logger.getLogger("CaptureController");
+
+    /**
+     * How long {@link #close()} waits for the camera thread before it closes the camera itself.
+     */
+    private static final long CLOSE_TIMEOUT_MS = 2500;
+
+    private static final MetricsRegistry.Histogram OPEN_LATENCY = MetricsRegistry.getDefault()
+            .histogram("camera_open_seconds", "Time from open to the device being opened");
+
+    private static final MetricsRegistry.Counter CLOSES = MetricsRegistry.getDefault().counter(
+            "camera_closes_total", "Camera closes");
+
+    private static final MetricsRegistry.Counter LOSSES = MetricsRegistry.getDefault().counter(
+            "camera_lost_total", "Camera disconnections and errors");
+
+    private static final MetricsRegistry.Counter RESULTS = MetricsRegistry.getDefault().counter(
+            "camera_capture_results_total", "Capture results of the preview and the 3A sequence");
+
+    private static final MetricsRegistry.Counter STILLS = MetricsRegistry.getDefault().counter(
+            "camera_still_captures_total", "Completed still captures");
+
+    private static final MetricsRegistry.Counter DROPPED_PRESSES = MetricsRegistry.getDefault()
+            .counter("camera_dropped_presses_total", "Shutter presses that were not captured");
+
+    private static final MetricsRegistry.Gauge QUEUED_PRESSES = MetricsRegistry.getDefault()
+            .gauge("camera_queued_presses", "Shutter presses waiting for their capture");
+
+    private static final MetricsRegistry.Histogram SHUTTER_WAIT = MetricsRegistry.getDefault()
+            .histogram("camera_shutter_wait_seconds", "Time from a shutter press to the start"
+                    + " of its capture");
+
+    private final CameraBackend mBackend;
+
+    /**
+     * The {@link Executor} that runs the {@link ImageSaver}s.
+     */
+    private final Executor mSaveExecutor;
+
+    private final Listener mListener;
+
+    /**
+     * The times of the shutter presses waiting for a capture, from {@link System#nanoTime()}.
+     */
+    private final ConcurrentLinkedQueue<Long> mShutterQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of entries in {@link #mShutterQueue}. A slot is reserved here before a press is
+     * added and given back after it has been polled, so the queue never outgrows
+     * {@link #mMaxQueuedPresses}.
+     */
+    private final AtomicInteger mQueuedPressCount = new AtomicInteger();
+
+    /**
+     * Opens the camera device. Runs on the camera thread.
+     */
+    private final Runnable mOpen = new Runnable() {
+        @Override
+        public void run() {
+            openOnCameraThread();
+        }
+    };
+
+    /**
+     * Starts the capture of the next queued press. Runs on the camera thread.
+     */
+    private final Runnable mStartNextCapture = new Runnable() {
+        @Override
+        public void run() {
+            startNextCapture();
+        }
+    };
+
+    /**
+     * The time from a shutter press to the start of its capture, in microseconds. Guarded by
+     * itself.
+     */
+    private final LatencyHistogram mShutterWait = new LatencyHistogram();
+
+    private final AtomicInteger mPressCount = new AtomicInteger();
+
+    private final AtomicInteger mDroppedPressCount = new AtomicInteger();
+
+    private final AtomicInteger mCaptureCount = new AtomicInteger();
+
+    /**
+     * The times of the first and the latest still capture completion. Guarded by
+     * {@link #mShutterWait}.
+     */
+    private long mFirstCaptureNanos;
+
+    private long mLastCaptureNanos;
+
+    /**
+     * The executor of the camera thread, or null if the controller is only called on it.
+     */
+    private Executor mCameraExecutor;
+
+    /**
+     * When {@link #open()} was last called, from {@link System#nanoTime()}.
+     */
+    private long mOpenStartNanos;
+
+    /**
+     * The number of shutter presses that may wait for their capture.
+     */
+    private volatile int mMaxQueuedPresses = Integer.MAX_VALUE;
+
+    /**
+     * This is the output file for our picture.
+     */
+    private File mFile;
+
+    /**
+     * The pool the {@link ImageSaver}s copy the images into, or null.
+     */
+    private BufferPool mBufferPool;
+
+    /**
+     * The writer the {@link ImageSaver}s are submitted to instead of the save executor, or null.
+     */
+    private SharedImageWriter mImageWriter;
+
+    /**
+     * The pipeline captured images go through instead of an {@link ImageSaver}, or null.
+     */
+    private CapturePipeline mPipeline;
+
+    /**
+     * The current state of camera state for taking pictures.
+     *
+     * @see #onCaptureResult(int, int)
+     */
+    private volatile int mState = STATE_PREVIEW;
+
+    /**
+     * Whether the camera device is open.
+     */
+    private boolean mOpened;
+
+    /**
+     * Whether the preview surface is ready to be used as an output.
+     */
+    private boolean mPreviewSurfaceReady;
+
+    /**
+     * Whether the capture session has been requested for the currently open device.
+     */
+    private boolean mSessionRequested;
+
+    /**
+     * Whether the capture session is configured and can take pictures.
+     */
+    private volatile boolean mSessionConfigured;
+
+    public CaptureController(CameraBackend backend, Executor saveExecutor, Listener listener) {
+        mBackend = backend;
+        mSaveExecutor = saveExecutor;
+        mListener = listener;
+    }
+
+    /**
+     * Sets the executor of the camera thread, which shutter presses, opens and closes are handed
+     * over to. Must be set before {@link #takePicture()}, {@link #open()} or {@link #close()} is
+     * called from any other thread.
+     */
+    public void setCameraExecutor(Executor cameraExecutor) {
+        mCameraExecutor = cameraExecutor;
+    }
+
+    /**
+     * Limits the number of shutter presses that may wait for their capture; further presses are
+     * dropped. Unlimited by default.
+     */
+    public void setMaxQueuedPresses(int maxQueuedPresses) {
+        mMaxQueuedPresses = maxQueuedPresses;
+    }
+
+    /**
+     * Sets the file pictures are saved into.
+     */
+    public void setOutputFile(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Sets the pool captured images are copied into before they are saved, so that they are
+     * returned to the camera without waiting for the storage. Null to save them in place.
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        mBufferPool = bufferPool;
+    }
+
+    /**
+     * Sets the writer the {@link ImageSaver}s are submitted to in place of the save executor, e.g.
+     * one shared with other cameras. Null to go back to the save executor.
+     */
+    public void setImageWriter(SharedImageWriter imageWriter) {
+        mImageWriter = imageWriter;
+    }
+
+    /**
+     * Sets the pipeline that processes and persists the captured images in place of the
+     * {@link ImageSaver}s run on the save executor. Null to go back to the {@link ImageSaver}s.
+     */
+    public void setPipeline(CapturePipeline pipeline) {
+        mPipeline = pipeline;
+    }
+
+    /**
+     * Opens the camera device, or reopens it after it was lost. The preview starts once the device
+     * is open and {@link #onPreviewSurfaceReady()} has been called, in either order.
+     *
+     * <p>The open is handed over to the camera thread. If it cannot be started there,
+     * {@link Listener#onOpenFailed()} is called.</p>
+     */
+    public void open() {
+        if (null != mCameraExecutor) {
+            mCameraExecutor.execute(mOpen);
+        } else {
+            openOnCameraThread();
+        }
+    }
+
+    /**
+     * Reports that the preview surface is ready.
+     */
+    public void onPreviewSurfaceReady() {
+        mPreviewSurfaceReady = true;
+        maybeCreateSession();
+    }
+
+    /**
+     * Initiate a still image capture. If a capture is already under way, the press is queued and
+     * taken as soon as the camera is done with the previous ones.
+     */
+    public void takePicture() {
+        mPressCount.incrementAndGet();
+        if (!mSessionConfigured) {
+            // The camera is still opening, or being recovered.
+            mDroppedPressCount.incrementAndGet();
+            DROPPED_PRESSES.increment();
+            return;
+        }
+        if (!reservePressSlot()) {
+            // The burst is already as deep as allowed.
+            mDroppedPressCount.incrementAndGet();
+            DROPPED_PRESSES.increment();
+            return;
+        }
+        // Counted first, so that the gauge doesn't go below zero when the press is taken at once.
+        QUEUED_PRESSES.add(1);
+        mShutterQueue.add(System.nanoTime());
+        if (null != mCameraExecutor) {
+            mCameraExecutor.execute(mStartNextCapture);
+        } else {
+            startNextCapture();
+        }
+    }
+
+    /**
+     * Closes the camera. The close is handed over to the camera thread, and this waits until it
+     * has run there; it must therefore not be called on the camera thread when a camera executor
+     * has been set. If the camera thread doesn't get to it in time, e.g. because it has been
+     * stopped, the camera is closed on the calling thread instead.
+     */
+    public void close() {
+        CLOSES.increment();
+        // Presses from other threads are dropped from now on.
+        mSessionConfigured = false;
+        Executor executor = mCameraExecutor;
+        if (null == executor) {
+            closeOnCameraThread();
+            return;
+        }
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final CountDownLatch closed = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (claimed.compareAndSet(false, true)) {
+                    closeOnCameraThread();
+                }
+                closed.countDown();
+            }
+        });
+        boolean done = false;
+        try {
+            done = closed.await(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!done && claimed.compareAndSet(false, true)) {
+            LOG.warning("Camera thread did not close the camera in " + CLOSE_TIMEOUT_MS + "ms");
+            closeOnCameraThread();
+        }
+    }
+
+    /**
+     * @return The current state; one of the {@code STATE_*} constants.
+     */
+    public int getState() {
+        return mState;
+    }
+
+    /**
+     * @return The number of shutter presses waiting for their capture to start.
+     */
+    public int getQueuedPressCount() {
+        return mQueuedPressCount.get();
+    }
+
+    /**
+     * @return The number of calls to {@link #takePicture()}.
+     */
+    public int getPressCount() {
+        return mPressCount.get();
+    }
+
+    /**
+     * @return The number of shutter presses that were not captured because the camera was not
+     * ready, or was closed or lost before their turn, or because too many were queued already.
+     */
+    public int getDroppedPressCount() {
+        return mDroppedPressCount.get();
+    }
+
+    /**
+     * @return The number of completed still captures.
+     */
+    public int getCaptureCount() {
+        return mCaptureCount.get();
+    }
+
+    /**
+     * @return The mean time from a shutter press to the start of its capture, in microseconds.
+     */
+    public long getMeanShutterWaitMicros() {
+        synchronized (mShutterWait) {
+            return mShutterWait.getMean();
+        }
+    }
+
+    /**
+     * @return The rate of still captures between the first and the latest one, or 0 if there
+     * haven't been two yet.
+     */
+    public double getCapturesPerSecond() {
+        synchronized (mShutterWait) {
+            long elapsed = mLastCaptureNanos - mFirstCaptureNanos;
+            int captures = mCaptureCount.get();
+            return captures < 2 || elapsed <= 0 ? 0
+                    : (captures - 1) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        }
+    }
+
+    /**
+     * @return A summary of the shutter presses and captures, for logging.
+     */
+    public String getShutterStats() {
+        String wait;
+        synchronized (mShutterWait) {
+            wait = mShutterWait.toString();
+        }
+        return "presses=" + mPressCount.get() + " captures=" + mCaptureCount.get()
+                + " dropped=" + mDroppedPressCount.get() + " queued=" + mQueuedPressCount.get()
+                + String.format(Locale.US, " rate=%.2f/s", getCapturesPerSecond())
+                + " wait[" + wait + "]";
+    }
+
+    @Override
+    public void onOpened() {
+        OPEN_LATENCY.recordSince(mOpenStartNanos);
+        mOpened = true;
+        maybeCreateSession();
+    }
+
+    @Override
+    public void onCameraLost(int error) {
+        LOSSES.increment();
+        mOpened = false;
+        mSessionRequested = false;
+        mSessionConfigured = false;
+        dropQueuedPresses();
+        mListener.onCameraLost(error);
+    }
+
+    @Override
+    public void onSessionConfigured() {
+        // When the session is ready, we start displaying the preview.
+        mBackend.startPreview();
+        mSessionConfigured = true;
+        mListener.onPreviewStarted();
+    }
+
+    @Override
+    public void onSessionConfigureFailed() {
+        mListener.onSessionConfigureFailed();
+    }
+
+    @Override
+    public void onCaptureResult(int afState, int aeState) {
+        RESULTS.increment();
+        switch (mState) {
+            case STATE_PREVIEW: {
+                // We have nothing to do when the camera preview is working normally.
+                break;
+            }
+            case STATE_WAITING_LOCK: {
+                if (afState == CameraBackend.STATE_UNKNOWN) {
+                    mState = STATE_PICTURE_TAKEN;
+                    captureStillPicture();
+                } else if (CameraBackend.AF_STATE_FOCUSED_LOCKED == afState ||
+                        CameraBackend.AF_STATE_NOT_FOCUSED_LOCKED == afState) {
+                    // CONTROL_AE_STATE can be null on some devices
+                    if (aeState == CameraBackend.STATE_UNKNOWN ||
+                            aeState == CameraBackend.AE_STATE_CONVERGED) {
+                        mState = STATE_PICTURE_TAKEN;
+                        captureStillPicture();
+                    } else {
+                        runPrecaptureSequence();
+                    }
+                }
+                break;
+            }
+            case STATE_WAITING_PRECAPTURE: {
+                // CONTROL_AE_STATE can be null on some devices
+                if (aeState == CameraBackend.STATE_UNKNOWN ||
+                        aeState == CameraBackend.AE_STATE_PRECAPTURE ||
+                        aeState == CameraBackend.AE_STATE_FLASH_REQUIRED) {
+                    mState = STATE_WAITING_NON_PRECAPTURE;
+                }
+                break;
+            }
+            case STATE_WAITING_NON_PRECAPTURE: {
+                // CONTROL_AE_STATE can be null on some devices
+                if (aeState == CameraBackend.STATE_UNKNOWN ||
+                        aeState != CameraBackend.AE_STATE_PRECAPTURE) {
+                    mState = STATE_PICTURE_TAKEN;
+                    captureStillPicture();
+                }
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void onStillCaptureCompleted() {
+        long now = System.nanoTime();
+        STILLS.increment();
+        synchronized (mShutterWait) {
+            if (0 == mCaptureCount.getAndIncrement()) {
+                mFirstCaptureNanos = now;
+            }
+            mLastCaptureNanos = now;
+        }
+        mListener.onPictureTaken(mFile);
+        Long pressed = mSessionConfigured ? pollPress() : null;
+        if (null != pressed) {
+            // The 3A is still locked from the previous picture, so the next one can be captured
+            // right away.
+            recordShutterWait(pressed, now);
+            mState = STATE_PICTURE_TAKEN;
+            captureStillPicture();
+        } else {
+            unlockFocus();
+        }
+    }
+
+    @Override
+    public void onStillImageAvailable(StillImage image) {
+        if (null != mPipeline) {
+            mPipeline.submit(image, mFile);
+        } else if (null != mImageWriter) {
+            mImageWriter.submit(new ImageSaver(image, mFile, mBufferPool));
+        } else {
+            ImageSaver saver = new ImageSaver(image, mFile, mBufferPool);
+            try {
+                mSaveExecutor.execute(saver);
+            } catch (RejectedExecutionException e) {
+                // The save thread has gone away, e.g. while the camera is being closed.
+                LOG.warning("Save executor rejected a picture; dropping it");
+                saver.discard();
+            }
+        }
+    }
+
+    private void openOnCameraThread() {
+        mOpened = false;
+        mSessionRequested = false;
+        mSessionConfigured = false;
+        mState = STATE_PREVIEW;
+        dropQueuedPresses();
+        mOpenStartNanos = System.nanoTime();
+        if (!mBackend.open(this)) {
+            mListener.onOpenFailed();
+        }
+    }
+
+    private void closeOnCameraThread() {
+        mSessionConfigured = false;
+        mBackend.close();
+        dropQueuedPresses();
+    }
+
+    /**
+     * Creates the capture session once both the camera device has been opened and the preview
+     * surface is ready, whichever comes last.
+     */
+    private void maybeCreateSession() {
+        if (mSessionRequested || !mOpened || !mPreviewSurfaceReady) {
+            return;
+        }
+        mSessionRequested = true;
+        mBackend.createSession();
+    }
+
+    /**
+     * Starts the capture sequence for the oldest queued shutter press, unless a capture is
+     * already under way. Runs on the camera thread.
+     */
+    private void startNextCapture() {
+        if (STATE_PREVIEW != mState || !mSessionConfigured) {
+            return;
+        }
+        Long pressed = pollPress();
+        if (null != pressed) {
+            recordShutterWait(pressed, System.nanoTime());
+            lockFocus();
+        }
+    }
+
+    /**
+     * Reserves a place in {@link #mShutterQueue} for one more press.
+     *
+     * @return false if the queue already holds {@link #mMaxQueuedPresses} presses.
+     */
+    private boolean reservePressSlot() {
+        while (true) {
+            int queued = mQueuedPressCount.get();
+            if (queued >= mMaxQueuedPresses) {
+                return false;
+            }
+            if (mQueuedPressCount.compareAndSet(queued, queued + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return The oldest queued press, whose slot is given back, or null if there is none.
+     */
+    private Long pollPress() {
+        Long pressed = mShutterQueue.poll();
+        if (null != pressed) {
+            mQueuedPressCount.decrementAndGet();
+        }
+        return pressed;
+    }
+
+    private void recordShutterWait(long pressedNanos, long nowNanos) {
+        QUEUED_PRESSES.add(-1);
+        SHUTTER_WAIT.record(TimeUnit.NANOSECONDS.toMicros(nowNanos - pressedNanos));
+        synchronized (mShutterWait) {
+            mShutterWait.record(TimeUnit.NANOSECONDS.toMicros(nowNanos - pressedNanos));
+        }
+    }
+
+    private void dropQueuedPresses() {
+        while (null != pollPress()) {
+            QUEUED_PRESSES.add(-1);
+            mDroppedPressCount.incrementAndGet();
+            DROPPED_PRESSES.increment();
+        }
+    }
+
+    /**
+     * Lock the focus as the first step for a still image capture.
+     */
+    private void lockFocus() {
+        // Tell #onCaptureResult to wait for the lock.
+        mState = STATE_WAITING_LOCK;
+        mBackend.lockFocus();
+    }
+
+    /**
+     * Run the precapture sequence for capturing a still image. This method should be called when
+     * we get a response in {@link #onCaptureResult(int, int)} from {@link #lockFocus()}.
+     */
+    private void runPrecaptureSequence() {
+        // Tell #onCaptureResult to wait for the precapture sequence to be set.
+        mState = STATE_WAITING_PRECAPTURE;
+        mBackend.runPrecaptureSequence();
+    }
+
+    /**
+     * Capture a still picture. This method should be called when we get a response in
+     * {@link #onCaptureResult(int, int)} from both {@link #lockFocus()}.
+     */
+    private void captureStillPicture() {
+        mBackend.captureStillPicture(mListener.getJpegOrientation());
+    }
+
+    /**
+     * Unlock the focus. This method should be called when still image capture sequence is
+     * finished.
+     */
+    private void unlockFocus() {
+        mBackend.unlockFocus();
+        // After this, the camera will go back to the normal state of preview.
+        mState = STATE_PREVIEW;
+        // A press may have been queued after the last one was taken from the queue.
+        startNextCapture();
+    }
+
+}
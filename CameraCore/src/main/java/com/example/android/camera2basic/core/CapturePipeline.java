@@ -0,0 +1,697 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Processes captured images in a chain of {@link Stage}s, e.g. orientation fix, watermark,
+ * checksum and persist, off the camera thread.
+ *
+ * <p>{@link #submit(StillImage, File)} only queues the image, so it is cheap enough to be called
+ * from the camera callback. The first stage, named {@link #STAGE_COPY}, copies the image into a
+ * buffer leased from the {@link BufferPool} and closes it, so that it returns to the camera right
+ * away; the stages added with {@link #addStage} follow in the order they were added.</p>
+ *
+ * <p>Each stage has its own bounded queue and works on up to {@code parallelism} captures at a
+ * time, so that different stages, and different captures in the same stage, run concurrently on
+ * the shared executor. The stages of one capture still run one after the other, and every stage
+ * hands its captures to the next one in the order they were submitted, so that the
+ * {@link Listener} also sees the processed captures in that order. A stage only starts a
+ * capture when the queue of the next stage has room for it, so a slow stage holds back the ones
+ * before it; once the queue of the first stage is full, further captures are dropped.</p>
+ *
+ * <p>{@link #close(long)} waits for the captures already submitted before the executor may be
+ * shut down. If the executor rejects a stage anyway, the capture fails in that stage, like the
+ * ones still queued behind it, and their buffers are released.</p>
+ *
+ * <p>Stages are added before the first capture is submitted. Thread-safe otherwise.</p>
+ */
+public class CapturePipeline {
+
+    /**
+     * A processing step.
+     */
+    public interface Stage {
+
+        /**
+         * Processes one capture. Runs on the executor of the pipeline, never on the camera
+         * thread. Stages must not move the position of {@link Capture#getData()}; they can read it
+         * through a {@link ByteBuffer#duplicate()}, or replace it with
+         * {@link Capture#setData(ByteBuffer)}.
+         *
+         * @throws Exception If the capture can't be processed; it then skips the remaining stages
+         *                   and is reported to {@link Listener#onCaptureFailed}.
+         */
+        void process(Capture capture) throws Exception;
+
+    }
+
+    /**
+     * Receives the outcome of every submitted capture, on the executor of the pipeline, or on the
+     * submitting thread once the executor has rejected work.
+     */
+    public interface Listener {
+
+        /**
+         * The capture went through all stages.
+         */
+        void onCaptureProcessed(Capture capture);
+
+        /**
+         * A stage failed to process the capture.
+         */
+        void onCaptureFailed(Capture capture, String stage, Exception e);
+
+        /**
+         * The capture was dropped because the pipeline was full or closed. Called on the
+         * submitting thread.
+         */
+        void onCaptureDropped(Capture capture);
+
+    }
+
+    /**
+     * The name of the stage that copies the image out of the camera buffer.
+     */
+    public static final String STAGE_COPY = "copy";
+
+    private static final Logger LOG = Logger.getLogger("CapturePipeline");
+
+    private static final MetricsRegistry.Gauge PENDING = MetricsRegistry.getDefault().gauge(
+            "pipeline_pending_captures", "Captures in the pipeline");
+
+    private static final MetricsRegistry.Counter DROPPED = MetricsRegistry.getDefault().counter(
+            "pipeline_dropped_total", "Captures dropped because the pipeline was full");
+
+    private static final MetricsRegistry.Counter FAILED = MetricsRegistry.getDefault().counter(
+            "pipeline_failed_total", "Captures that failed in a stage");
+
+    private static final MetricsRegistry.Histogram LATENCY = MetricsRegistry.getDefault()
+            .histogram("pipeline_capture_seconds", "Time from submission to the end of the last"
+                    + " stage");
+
+    /**
+     * Queue capacity of the {@link #STAGE_COPY} stage until {@link #setMaxImages(int)} is called.
+     */
+    private static final int COPY_QUEUE_CAPACITY = 2;
+
+    private final Executor mExecutor;
+
+    private final BufferPool mBufferPool;
+
+    private final Object mLock = new Object();
+
+    private final List<StageQueue> mStages = new ArrayList<>();
+
+    private Listener mListener;
+
+    /**
+     * Captures done with the pipeline, waiting to be reported to {@link #mListener}.
+     */
+    private final ArrayDeque<Capture> mFinished = new ArrayDeque<>();
+
+    /**
+     * Whether a thread is reporting {@link #mFinished}; only one does at a time, so that the
+     * listener sees the captures in the order they left the pipeline.
+     */
+    private boolean mReporting;
+
+    private long mSequence;
+
+    private int mDroppedCount;
+
+    /**
+     * Whether {@link #close(long)} has been called; later captures are dropped.
+     */
+    private boolean mClosed;
+
+    /**
+     * Set once the executor has rejected a stage; every capture that would start a stage after
+     * that fails instead.
+     */
+    private RejectedExecutionException mRejection;
+
+    /**
+     * @param executor   The threads the stages run on. The pipeline never has more tasks running
+     *                   or queued on it than the sum of the parallelism of its stages.
+     * @param bufferPool The pool the images and the stages lease their buffers from.
+     */
+    public CapturePipeline(Executor executor, BufferPool bufferPool) {
+        mExecutor = executor;
+        mBufferPool = bufferPool;
+        mStages.add(new StageQueue(STAGE_COPY, new Stage() {
+            @Override
+            public void process(Capture capture) {
+                capture.copyImage();
+            }
+        }, 1, COPY_QUEUE_CAPACITY));
+    }
+
+    /**
+     * Bounds the images the {@link #STAGE_COPY} stage holds from the camera, the one being copied
+     * and those waiting for it, to the {@code maxImages} of the reader they come from. Captures
+     * beyond that are dropped and their image closed, instead of being held until the reader
+     * fails to deliver the next one.
+     *
+     * @param maxImages The number of images the reader lets the app hold at once.
+     */
+    public CapturePipeline setMaxImages(int maxImages) {
+        if (maxImages < 1) {
+            throw new IllegalArgumentException("maxImages must be positive");
+        }
+        synchronized (mLock) {
+            mStages.get(0).mCapacity = Math.max(1, maxImages - 1);
+        }
+        return this;
+    }
+
+    public CapturePipeline setListener(Listener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Appends a stage that processes one capture at a time.
+     */
+    public CapturePipeline addStage(String name, Stage stage) {
+        return addStage(name, stage, 1, 4);
+    }
+
+    /**
+     * Appends a stage.
+     *
+     * @param parallelism   The number of captures the stage can process at the same time.
+     * @param queueCapacity The number of captures that can wait for the stage.
+     */
+    public CapturePipeline addStage(String name, Stage stage, int parallelism,
+            int queueCapacity) {
+        if (parallelism < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Parallelism and capacity must be positive");
+        }
+        synchronized (mLock) {
+            StageQueue queue = new StageQueue(name, stage, parallelism, queueCapacity);
+            mStages.get(mStages.size() - 1).mNext = queue;
+            mStages.add(queue);
+        }
+        return this;
+    }
+
+    /**
+     * Queues a captured image. The image is closed by the pipeline in any case.
+     *
+     * @param file The file the capture is meant to be persisted into.
+     * @return false if the capture was dropped because the pipeline is full or closed.
+     */
+    public boolean submit(StillImage image, File file) {
+        Capture capture;
+        boolean accepted;
+        boolean report;
+        synchronized (mLock) {
+            capture = new Capture(mSequence++, image, file);
+            StageQueue first = mStages.get(0);
+            accepted = !mClosed && first.mQueue.size() < first.mCapacity;
+            if (accepted) {
+                PENDING.add(1);
+                first.enqueue(capture);
+                schedule();
+            } else {
+                mDroppedCount++;
+            }
+            report = claimReporting();
+        }
+        if (report) {
+            reportFinished();
+        }
+        if (!accepted) {
+            DROPPED.increment();
+            image.close();
+            if (null != mListener) {
+                mListener.onCaptureDropped(capture);
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Stops accepting captures and waits until the ones already submitted have left the
+     * pipeline, so that the executor can be shut down without losing them.
+     *
+     * @return false if some captures were still in the pipeline after the timeout.
+     */
+    public boolean close(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (mLock) {
+            mClosed = true;
+            while (0 != getPendingCount() || !mFinished.isEmpty() || mReporting) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(mLock, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return The number of captures dropped because the pipeline was full or closed.
+     */
+    public int getDroppedCount() {
+        synchronized (mLock) {
+            return mDroppedCount;
+        }
+    }
+
+    /**
+     * @return The number of captures the given stage has processed successfully.
+     */
+    public long getProcessedCount(String stage) {
+        synchronized (mLock) {
+            return getStage(stage).mProcessed;
+        }
+    }
+
+    /**
+     * @return The number of captures the given stage has failed to process.
+     */
+    public long getFailedCount(String stage) {
+        synchronized (mLock) {
+            return getStage(stage).mFailed;
+        }
+    }
+
+    /**
+     * @return The captures waiting for, or being processed by, any stage.
+     */
+    public int getPendingCount() {
+        synchronized (mLock) {
+            int pending = 0;
+            for (StageQueue stage : mStages) {
+                pending += stage.mQueue.size() + stage.mRunning + stage.mCompleted.size();
+            }
+            return pending;
+        }
+    }
+
+    /**
+     * @return One line per stage with its counts, throughput, and queue wait and processing time.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        synchronized (mLock) {
+            builder.append("dropped=").append(mDroppedCount);
+            for (StageQueue stage : mStages) {
+                builder.append('\n').append(stage);
+            }
+        }
+        return builder.toString();
+    }
+
+    private StageQueue getStage(String name) {
+        for (StageQueue stage : mStages) {
+            if (stage.mName.equals(name)) {
+                return stage;
+            }
+        }
+        throw new IllegalArgumentException("No such stage: " + name);
+    }
+
+    /**
+     * Starts every capture that a stage has room for. Must hold {@link #mLock}.
+     */
+    private void schedule() {
+        boolean again;
+        do {
+            again = false;
+            // From the last stage backwards, so that room made downstream is used right away.
+            for (int i = mStages.size() - 1; i >= 0; i--) {
+                StageQueue stage = mStages.get(i);
+                while (stage.canStart()) {
+                    final StageQueue current = stage;
+                    final Capture capture = stage.mQueue.poll();
+                    stage.mRunning++;
+                    capture.mStartNanos = System.nanoTime();
+                    current.mWait.record((capture.mStartNanos - capture.mEnqueuedNanos) / 1000);
+                    if (null == mRejection) {
+                        try {
+                            mExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    runStage(current, capture);
+                                }
+                            });
+                            continue;
+                        } catch (RejectedExecutionException e) {
+                            LOG.log(Level.WARNING, "Executor shut down with captures in the"
+                                    + " pipeline", e);
+                            mRejection = e;
+                        }
+                    }
+                    // Fails here, which may hand earlier captures on to the next stage, where
+                    // they have to fail too.
+                    complete(current, capture, mRejection, capture.mStartNanos);
+                    again = true;
+                }
+            }
+        } while (again);
+    }
+
+    private void runStage(StageQueue stage, Capture capture) {
+        Exception failure = null;
+        try {
+            stage.mStage.process(capture);
+        } catch (Exception e) {
+            failure = e;
+        }
+        long endNanos = System.nanoTime();
+        boolean report;
+        synchronized (mLock) {
+            complete(stage, capture, failure, endNanos);
+            schedule();
+            report = claimReporting();
+        }
+        if (report) {
+            reportFinished();
+        }
+    }
+
+    /**
+     * Records the end of a stage for a capture and hands the captures that are done with the
+     * stage to the next one, in the order they entered it. Must hold {@link #mLock}.
+     *
+     * @param failure Why the stage failed, or null if it succeeded.
+     */
+    private void complete(StageQueue stage, Capture capture, Exception failure, long endNanos) {
+        stage.mRunning--;
+        if (null == failure) {
+            stage.mProcessed++;
+            stage.mProcessing.record((endNanos - capture.mStartNanos) / 1000);
+            if (0 == stage.mFirstStartNanos) {
+                stage.mFirstStartNanos = capture.mStartNanos;
+            }
+            stage.mLastEndNanos = endNanos;
+        } else {
+            stage.mFailed++;
+            capture.mFailedStage = stage.mName;
+            capture.mFailure = failure;
+        }
+        stage.mCompleted.put(capture.mTicket, capture);
+        Capture next;
+        while (null != (next = stage.mCompleted.remove(stage.mNextTicketOut))) {
+            stage.mNextTicketOut++;
+            if (null != next.mFailure || null == stage.mNext) {
+                mFinished.add(next);
+            } else {
+                stage.mNext.enqueue(next);
+            }
+        }
+    }
+
+    /**
+     * Must hold {@link #mLock}.
+     *
+     * @return Whether the calling thread is now the one reporting {@link #mFinished}, and must
+     * call {@link #reportFinished()} once it has released the lock.
+     */
+    private boolean claimReporting() {
+        if (mReporting || mFinished.isEmpty()) {
+            return false;
+        }
+        mReporting = true;
+        return true;
+    }
+
+    /**
+     * Reports the finished captures until there are none left. Must not hold {@link #mLock}.
+     */
+    private void reportFinished() {
+        while (true) {
+            Capture finished;
+            synchronized (mLock) {
+                finished = mFinished.poll();
+                if (null == finished) {
+                    mReporting = false;
+                    // Wakes up close().
+                    mLock.notifyAll();
+                    return;
+                }
+            }
+            finish(finished);
+        }
+    }
+
+    private void finish(Capture capture) {
+        capture.release();
+        PENDING.add(-1);
+        LATENCY.recordSince(capture.mSubmittedNanos);
+        if (null != capture.mFailure) {
+            FAILED.increment();
+            LOG.log(Level.WARNING, "Capture " + capture.mSequence + " failed in stage "
+                    + capture.mFailedStage, capture.mFailure);
+        }
+        if (null == mListener) {
+            return;
+        }
+        if (null == capture.mFailure) {
+            mListener.onCaptureProcessed(capture);
+        } else {
+            mListener.onCaptureFailed(capture, capture.mFailedStage, capture.mFailure);
+        }
+    }
+
+    /**
+     * The key of a typed attribute of a {@link Capture}, similar to {@code CaptureResult.Key}.
+     */
+    public static final class Key<T> {
+
+        private final String mName;
+
+        public Key(String name) {
+            mName = name;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+
+    }
+
+    /**
+     * A capture on its way through the pipeline. Only one stage works on it at a time.
+     */
+    public final class Capture {
+
+        private final long mSequence;
+
+        private final long mTimestamp;
+
+        private final File mFile;
+
+        private final long mSubmittedNanos = System.nanoTime();
+
+        private StillImage mImage;
+
+        private ByteBuffer mData;
+
+        private final Map<Key<?>, Object> mAttributes = new HashMap<>();
+
+        private final List<BufferPool.Lease> mLeases = new ArrayList<>();
+
+        // The fields below are guarded by mLock.
+
+        private long mTicket;
+
+        private long mEnqueuedNanos;
+
+        private long mStartNanos;
+
+        private String mFailedStage;
+
+        private Exception mFailure;
+
+        private Capture(long sequence, StillImage image, File file) {
+            mSequence = sequence;
+            mTimestamp = image.getTimestamp();
+            mImage = image;
+            mFile = file;
+        }
+
+        /**
+         * @return The position of the capture in the order of submission, starting at 0.
+         */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        /**
+         * @return The sensor timestamp of the image.
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * @return The encoded picture, from its position to its limit.
+         */
+        public ByteBuffer getData() {
+            return mData;
+        }
+
+        /**
+         * Replaces the encoded picture, e.g. with one leased through {@link #leaseBuffer(int)}.
+         */
+        public void setData(ByteBuffer data) {
+            mData = data;
+        }
+
+        /**
+         * Leases a buffer that stays valid until the capture leaves the pipeline.
+         */
+        public ByteBuffer leaseBuffer(int bytes) {
+            BufferPool.Lease lease = mBufferPool.lease(bytes);
+            mLeases.add(lease);
+            return lease.getBuffer();
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T get(Key<T> key) {
+            return (T) mAttributes.get(key);
+        }
+
+        public <T> void set(Key<T> key, T value) {
+            mAttributes.put(key, value);
+        }
+
+        private void copyImage() {
+            ByteBuffer source = mImage.getBuffer();
+            ByteBuffer copy = leaseBuffer(source.remaining());
+            copy.put(source);
+            copy.flip();
+            mData = copy;
+            mImage.close();
+            mImage = null;
+        }
+
+        private void release() {
+            if (null != mImage) {
+                mImage.close();
+                mImage = null;
+            }
+            for (BufferPool.Lease lease : mLeases) {
+                lease.release();
+            }
+            mLeases.clear();
+            mData = null;
+        }
+
+    }
+
+    /**
+     * The queue and the counters of one stage. Guarded by {@link #mLock}.
+     */
+    private class StageQueue {
+
+        private final String mName;
+
+        private final Stage mStage;
+
+        private final int mParallelism;
+
+        /**
+         * Only changed for the {@link #STAGE_COPY} stage, under {@link #mLock}.
+         */
+        private int mCapacity;
+
+        private final ArrayDeque<Capture> mQueue = new ArrayDeque<>();
+
+        /**
+         * Captures done with this stage, waiting for the ones that entered it before them.
+         */
+        private final TreeMap<Long, Capture> mCompleted = new TreeMap<>();
+
+        private final LatencyHistogram mWait = new LatencyHistogram();
+
+        private final LatencyHistogram mProcessing = new LatencyHistogram();
+
+        private StageQueue mNext;
+
+        private int mRunning;
+
+        private long mNextTicketIn;
+
+        private long mNextTicketOut;
+
+        private long mProcessed;
+
+        private long mFailed;
+
+        private long mFirstStartNanos;
+
+        private long mLastEndNanos;
+
+        StageQueue(String name, Stage stage, int parallelism, int capacity) {
+            mName = name;
+            mStage = stage;
+            mParallelism = parallelism;
+            mCapacity = capacity;
+        }
+
+        void enqueue(Capture capture) {
+            capture.mTicket = mNextTicketIn++;
+            capture.mEnqueuedNanos = System.nanoTime();
+            mQueue.add(capture);
+        }
+
+        boolean canStart() {
+            if (mQueue.isEmpty() || mRunning >= mParallelism) {
+                return false;
+            }
+            // Everything running or completed here will end up in the next queue.
+            return null == mNext
+                    || mNext.mQueue.size() + mRunning + mCompleted.size() < mNext.mCapacity;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = (mLastEndNanos - mFirstStartNanos) / 1e9;
+            return String.format("%s: processed=%d failed=%d queued=%d perSecond=%.1f wait[%s]"
+                            + " process[%s]", mName, mProcessed, mFailed, mQueue.size(),
+                    seconds > 0 ? mProcessed / seconds : 0, mWait, mProcessing);
+        }
+
+    }
+
+}
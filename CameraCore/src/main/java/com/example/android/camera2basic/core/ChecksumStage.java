@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link CapturePipeline.Stage} that computes the CRC-32 of the encoded picture, so that it can
+ * be verified after it has been persisted or transferred.
+ */
+public class ChecksumStage implements CapturePipeline.Stage {
+
+    /**
+     * The CRC-32 of {@link CapturePipeline.Capture#getData()}.
+     */
+    public static final CapturePipeline.Key<Long> CRC32
+            = new CapturePipeline.Key<>("crc32");
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Direct buffers have no array, so they are checksummed through this one chunk at a time.
+     */
+    private final ThreadLocal<byte[]> mChunk = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[CHUNK_SIZE];
+        }
+    };
+
+    @Override
+    public void process(CapturePipeline.Capture capture) {
+        ByteBuffer data = capture.getData().duplicate();
+        CRC32 crc = new CRC32();
+        if (data.hasArray()) {
+            crc.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            // CRC32.update(ByteBuffer) is only available from Java 8 and API 26.
+            byte[] chunk = mChunk.get();
+            while (data.hasRemaining()) {
+                int length = Math.min(chunk.length, data.remaining());
+                data.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+        }
+        capture.set(CRC32, crc.getValue());
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.util.Locale;
+
+/**
+ * A sample of the device state that {@link AdaptiveQualityController} adapts to.
+ */
+public final class DeviceConditions {
+
+    /**
+     * Value of {@link #getThermalStatus()} when the platform doesn't report one.
+     */
+    public static final int THERMAL_STATUS_UNKNOWN = -1;
+
+    /**
+     * Same as {@code PowerManager.THERMAL_STATUS_LIGHT}.
+     */
+    public static final int THERMAL_STATUS_LIGHT = 1;
+
+    /**
+     * Same as {@code PowerManager.THERMAL_STATUS_MODERATE}.
+     */
+    public static final int THERMAL_STATUS_MODERATE = 2;
+
+    /**
+     * Same as {@code PowerManager.THERMAL_STATUS_SEVERE}.
+     */
+    public static final int THERMAL_STATUS_SEVERE = 3;
+
+    private final float mTemperatureCelsius;
+
+    private final int mThermalStatus;
+
+    private final int mBatteryPercent;
+
+    private final boolean mCharging;
+
+    private final boolean mPowerSaveMode;
+
+    /**
+     * @param temperatureCelsius The battery temperature, or NaN if unknown.
+     * @param thermalStatus      One of the {@code PowerManager.THERMAL_STATUS_*} constants, or
+     *                           {@link #THERMAL_STATUS_UNKNOWN}.
+     * @param batteryPercent     The battery level, 0 to 100.
+     * @param charging           Whether the device is plugged in.
+     * @param powerSaveMode      Whether battery saver is on.
+     */
+    public DeviceConditions(float temperatureCelsius, int thermalStatus, int batteryPercent,
+                            boolean charging, boolean powerSaveMode) {
+        mTemperatureCelsius = temperatureCelsius;
+        mThermalStatus = thermalStatus;
+        mBatteryPercent = batteryPercent;
+        mCharging = charging;
+        mPowerSaveMode = powerSaveMode;
+    }
+
+    public float getTemperatureCelsius() {
+        return mTemperatureCelsius;
+    }
+
+    public int getThermalStatus() {
+        return mThermalStatus;
+    }
+
+    public int getBatteryPercent() {
+        return mBatteryPercent;
+    }
+
+    public boolean isCharging() {
+        return mCharging;
+    }
+
+    public boolean isPowerSaveMode() {
+        return mPowerSaveMode;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%.1fC thermal=%d battery=%d%%%s%s",
+                mTemperatureCelsius, mThermalStatus, mBatteryPercent,
+                mCharging ? " charging" : "", mPowerSaveMode ? " powerSave" : "");
+    }
+
+}
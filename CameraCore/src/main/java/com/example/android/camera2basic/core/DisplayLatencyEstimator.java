@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+/**
+ * Measures how long preview frames take from the start of their exposure to their consumer, and
+ * models how much longer they take to reach the screen.
+ *
+ * <p>Only the delivery latency is measured. The app cannot observe when a frame is scanned out,
+ * so the display latency is a model, not a measurement: it assumes that the frame is picked up at
+ * the first vsync after it arrived and then spends a fixed number of vsync periods in
+ * composition. The number of periods is an assumption of the caller; this class doesn't check
+ * it. The actual present times of a layer can be read with
+ * {@code adb shell dumpsys SurfaceFlinger --latency <layer>}.</p>
+ *
+ * <p>All times must come from the clock of the sensor timestamps. Thread-safe.</p>
+ */
+public class DisplayLatencyEstimator {
+
+    /**
+     * Vsync intervals longer than this many periods are missed frames, not a new period.
+     */
+    private static final double MAX_PERIOD_RATIO = 1.5;
+
+    private final int mCompositionVsyncs;
+
+    private final LatencyHistogram mDeliveryLatency = new LatencyHistogram();
+
+    /**
+     * The modeled display latency, in microseconds.
+     */
+    private final LatencyHistogram mDisplayLatency = new LatencyHistogram();
+
+    private long mVsyncPeriodNanos;
+
+    private long mLastVsyncNanos = -1;
+
+    /**
+     * @param compositionVsyncs The assumed vsync periods between the pick-up of a frame and its
+     *                          scan-out.
+     * @param vsyncPeriodNanos  The nominal vsync period, refined by {@link #onVsync(long)}.
+     */
+    public DisplayLatencyEstimator(int compositionVsyncs, long vsyncPeriodNanos) {
+        mCompositionVsyncs = compositionVsyncs;
+        mVsyncPeriodNanos = vsyncPeriodNanos;
+    }
+
+    /**
+     * Reports a vsync, e.g. from {@code Choreographer.FrameCallback}.
+     */
+    public synchronized void onVsync(long vsyncNanos) {
+        if (mLastVsyncNanos >= 0) {
+            long interval = vsyncNanos - mLastVsyncNanos;
+            if (interval > 0 && interval < mVsyncPeriodNanos * MAX_PERIOD_RATIO) {
+                mVsyncPeriodNanos += (interval - mVsyncPeriodNanos) / 8;
+            }
+        }
+        mLastVsyncNanos = vsyncNanos;
+    }
+
+    /**
+     * Reports that a preview frame reached its consumer.
+     *
+     * @param sensorTimestampNanos The start of the exposure of the frame.
+     * @param availableNanos       When it arrived, or the closest event the caller can observe.
+     */
+    public synchronized void onFrameAvailable(long sensorTimestampNanos, long availableNanos) {
+        long delivery = availableNanos - sensorTimestampNanos;
+        if (delivery < 0) {
+            // Not from the same clock.
+            return;
+        }
+        mDeliveryLatency.record(delivery / 1000);
+        if (mLastVsyncNanos < 0 || mVsyncPeriodNanos <= 0) {
+            return;
+        }
+        long sinceVsync = availableNanos - mLastVsyncNanos;
+        long periods = sinceVsync <= 0 ? -(-sinceVsync / mVsyncPeriodNanos)
+                : (sinceVsync + mVsyncPeriodNanos - 1) / mVsyncPeriodNanos;
+        long pickUp = mLastVsyncNanos + periods * mVsyncPeriodNanos;
+        long display = pickUp + mCompositionVsyncs * mVsyncPeriodNanos;
+        mDisplayLatency.record((display - sensorTimestampNanos) / 1000);
+    }
+
+    public synchronized long getVsyncPeriodNanos() {
+        return mVsyncPeriodNanos;
+    }
+
+    /**
+     * @return The mean modeled latency from exposure start to scan-out, in microseconds. Not a
+     * measurement; see the class documentation.
+     */
+    public synchronized long getMeanModeledDisplayLatencyMicros() {
+        return mDisplayLatency.getMean();
+    }
+
+    /**
+     * @return The mean measured latency from exposure start to the consumer, in microseconds.
+     */
+    public synchronized long getMeanDeliveryLatencyMicros() {
+        return mDeliveryLatency.getMean();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "measured delivery[" + mDeliveryLatency + "] modeled display["
+                + mDisplayLatency + "] (assumes " + mCompositionVsyncs + " composition vsyncs of "
+                + mVsyncPeriodNanos / 1000 + "us)";
+    }
+
+}
@@ -0,0 +1,578 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Updates or inserts EXIF tags of a JPEG without decoding it. Only the APP1 segment is rewritten;
+ * every other segment and the entropy-coded data are copied as they are, in a single pass.
+ *
+ * <p>The existing TIFF structure is left in place so that offsets into it, e.g. from maker notes
+ * or to the thumbnail, stay valid. Values that fit where the old value was are overwritten, longer
+ * values are appended to the end of the segment, and a directory that gains a tag is copied to the
+ * end with the new entry and pointed to instead of the old copy.</p>
+ *
+ * <pre>
+ * new ExifEditor()
+ *         .setOrientation(ExifEditor.ORIENTATION_ROTATE_90)
+ *         .setAscii(ExifEditor.IFD_EXIF, ExifEditor.TAG_DATE_TIME_ORIGINAL, "2017:03:01 12:00:00")
+ *         .apply(jpeg, output);
+ * </pre>
+ */
+public class ExifEditor {
+
+    /**
+     * The primary image directory.
+     */
+    public static final int IFD_0 = 0;
+
+    /**
+     * The Exif private directory, pointed to from {@link #IFD_0}.
+     */
+    public static final int IFD_EXIF = 1;
+
+    /**
+     * The GPS directory, pointed to from {@link #IFD_0}.
+     */
+    public static final int IFD_GPS = 2;
+
+    public static final int TAG_IMAGE_DESCRIPTION = 0x010E;
+
+    public static final int TAG_ORIENTATION = 0x0112;
+
+    public static final int TAG_SOFTWARE = 0x0131;
+
+    public static final int TAG_DATE_TIME = 0x0132;
+
+    public static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+
+    public static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+
+    public static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+
+    public static final int TAG_IMAGE_UNIQUE_ID = 0xA420;
+
+    /**
+     * Same as {@code ExifInterface.ORIENTATION_NORMAL}.
+     */
+    public static final int ORIENTATION_NORMAL = 1;
+
+    /**
+     * Same as {@code ExifInterface.ORIENTATION_ROTATE_180}.
+     */
+    public static final int ORIENTATION_ROTATE_180 = 3;
+
+    /**
+     * Same as {@code ExifInterface.ORIENTATION_ROTATE_90}.
+     */
+    public static final int ORIENTATION_ROTATE_90 = 6;
+
+    /**
+     * Same as {@code ExifInterface.ORIENTATION_ROTATE_270}.
+     */
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    private static final int TAG_EXIF_IFD_POINTER = 0x8769;
+
+    private static final int TAG_GPS_IFD_POINTER = 0x8825;
+
+    private static final int TYPE_ASCII = 2;
+
+    private static final int TYPE_SHORT = 3;
+
+    private static final int TYPE_LONG = 4;
+
+    /**
+     * The sizes of the TIFF field types, indexed by type.
+     */
+    private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+
+    private static final int MARKER_SOI = 0xD8;
+
+    private static final int MARKER_APP0 = 0xE0;
+
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final int MARKER_SOS = 0xDA;
+
+    private static final int MARKER_EOI = 0xD9;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final List<Edit> mEdits = new ArrayList<>();
+
+    /**
+     * Sets the orientation tag, one of the {@code ORIENTATION_*} constants.
+     */
+    public ExifEditor setOrientation(int orientation) {
+        return setShort(IFD_0, TAG_ORIENTATION, orientation);
+    }
+
+    /**
+     * Sets an ASCII tag, e.g. {@link #TAG_DATE_TIME} in the {@code "yyyy:MM:dd HH:mm:ss"} format.
+     *
+     * @param ifd One of the {@code IFD_*} constants.
+     */
+    public ExifEditor setAscii(int ifd, int tag, String value) {
+        byte[] bytes = Arrays.copyOf(value.getBytes(ASCII), value.length() + 1);
+        return put(new Edit(ifd, tag, TYPE_ASCII, bytes.length, bytes));
+    }
+
+    /**
+     * Sets a tag with a single unsigned 16 bit value.
+     */
+    public ExifEditor setShort(int ifd, int tag, int value) {
+        return put(new Edit(ifd, tag, TYPE_SHORT, 1, new byte[]{
+                (byte) (value >> 8), (byte) value}));
+    }
+
+    /**
+     * Sets a tag with a single unsigned 32 bit value.
+     */
+    public ExifEditor setLong(int ifd, int tag, long value) {
+        return put(new Edit(ifd, tag, TYPE_LONG, 1, new byte[]{
+                (byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value}));
+    }
+
+    /**
+     * @return An upper bound of the size of the output of {@link #apply}.
+     */
+    public int getMaxOutputSize(ByteBuffer jpeg) {
+        // At worst, a new APP1 segment of the maximum length is inserted.
+        return jpeg.remaining() + 2 + MAX_SEGMENT_LENGTH;
+    }
+
+    /**
+     * Writes {@code jpeg} with the tags set on this editor into {@code output}.
+     *
+     * @param jpeg   The JPEG, from its position to its limit. Its position is not changed.
+     * @param output Receives the edited JPEG at its position; must have room for
+     *               {@link #getMaxOutputSize(ByteBuffer)} bytes.
+     * @return The number of bytes written.
+     * @throws IOException If {@code jpeg} is not a JPEG, its EXIF data is malformed, or the edited
+     *                     EXIF data doesn't fit into a segment.
+     */
+    public int apply(ByteBuffer jpeg, ByteBuffer output) throws IOException {
+        ByteBuffer input = jpeg.duplicate();
+        int start = input.position();
+        Segment exif = findExif(input);
+        byte[] tiffData;
+        int copyEnd;
+        int resumeAt;
+        if (null != exif) {
+            tiffData = new byte[exif.mEnd - exif.mStart - 4 - EXIF_HEADER.length];
+            ByteBuffer payload = input.duplicate();
+            payload.position(exif.mStart + 4 + EXIF_HEADER.length);
+            payload.get(tiffData);
+            copyEnd = exif.mStart;
+            resumeAt = exif.mEnd;
+        } else {
+            tiffData = Tiff.empty();
+            copyEnd = findExifInsertionPoint(input);
+            resumeAt = copyEnd;
+        }
+        Tiff tiff = new Tiff(tiffData);
+        for (Edit edit : mEdits) {
+            tiff.put(edit);
+        }
+        int segmentLength = 2 + EXIF_HEADER.length + tiff.mSize;
+        if (segmentLength > MAX_SEGMENT_LENGTH) {
+            throw new IOException("EXIF data too large: " + segmentLength);
+        }
+        int outputStart = output.position();
+        ByteBuffer head = input.duplicate();
+        head.position(start).limit(copyEnd);
+        output.put(head);
+        output.put((byte) 0xFF).put((byte) MARKER_APP1).putShort((short) segmentLength);
+        output.put(EXIF_HEADER);
+        output.put(tiff.mData, 0, tiff.mSize);
+        ByteBuffer tail = input.duplicate();
+        tail.position(resumeAt);
+        output.put(tail);
+        return output.position() - outputStart;
+    }
+
+    /**
+     * @return The orientation tag of {@code jpeg}, or 0 if it has none. The position of
+     * {@code jpeg} is not changed.
+     */
+    public static int readOrientation(ByteBuffer jpeg) throws IOException {
+        Tiff tiff = readTiff(jpeg);
+        int entry = null == tiff ? -1 : tiff.findEntry(tiff.getIfdOffset(IFD_0), TAG_ORIENTATION);
+        return entry < 0 ? 0 : tiff.mBuffer.getShort(entry + 8) & 0xFFFF;
+    }
+
+    /**
+     * @param ifd One of the {@code IFD_*} constants.
+     * @return The value of an ASCII tag of {@code jpeg}, or null if it has none. The position of
+     * {@code jpeg} is not changed.
+     */
+    public static String readAscii(ByteBuffer jpeg, int ifd, int tag) throws IOException {
+        Tiff tiff = readTiff(jpeg);
+        int offset = null == tiff ? -1 : tiff.getIfdOffset(ifd);
+        int entry = offset < 0 ? -1 : tiff.findEntry(offset, tag);
+        if (entry < 0 || tiff.mBuffer.getShort(entry + 2) != TYPE_ASCII) {
+            return null;
+        }
+        int count = tiff.mBuffer.getInt(entry + 4);
+        int start = count <= 4 ? entry + 8 : tiff.mBuffer.getInt(entry + 8);
+        if (count < 0 || start < 0 || start + count > tiff.mSize) {
+            throw new IOException("Value out of bounds: " + tag);
+        }
+        int end = start;
+        while (end < start + count && tiff.mData[end] != 0) {
+            end++;
+        }
+        return new String(tiff.mData, start, end - start, ASCII);
+    }
+
+    private static Tiff readTiff(ByteBuffer jpeg) throws IOException {
+        ByteBuffer input = jpeg.duplicate();
+        Segment exif = findExif(input);
+        if (null == exif) {
+            return null;
+        }
+        byte[] tiffData = new byte[exif.mEnd - exif.mStart - 4 - EXIF_HEADER.length];
+        input.position(exif.mStart + 4 + EXIF_HEADER.length);
+        input.get(tiffData);
+        return new Tiff(tiffData);
+    }
+
+    private ExifEditor put(Edit edit) {
+        for (int i = 0; i < mEdits.size(); i++) {
+            Edit existing = mEdits.get(i);
+            if (existing.mIfd == edit.mIfd && existing.mTag == edit.mTag) {
+                mEdits.set(i, edit);
+                return this;
+            }
+        }
+        mEdits.add(edit);
+        return this;
+    }
+
+    /**
+     * @return The first APP1 segment with EXIF data before the image data, or null.
+     */
+    private static Segment findExif(ByteBuffer input) throws IOException {
+        int position = checkSoi(input);
+        while (true) {
+            int marker = readMarker(input, position);
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                return null;
+            }
+            int end = segmentEnd(input, position);
+            if (marker == MARKER_APP1 && end - position >= 4 + EXIF_HEADER.length) {
+                boolean isExif = true;
+                for (int i = 0; i < EXIF_HEADER.length; i++) {
+                    isExif &= input.get(position + 4 + i) == EXIF_HEADER[i];
+                }
+                if (isExif) {
+                    return new Segment(position, end);
+                }
+            }
+            position = end;
+        }
+    }
+
+    /**
+     * @return Where a new EXIF segment goes: after the JFIF APP0 segment if there is one,
+     * otherwise right after SOI.
+     */
+    private static int findExifInsertionPoint(ByteBuffer input) throws IOException {
+        int position = checkSoi(input);
+        if (readMarker(input, position) == MARKER_APP0) {
+            return segmentEnd(input, position);
+        }
+        return position;
+    }
+
+    private static int checkSoi(ByteBuffer input) throws IOException {
+        int position = input.position();
+        if (input.remaining() < 4 || (input.get(position) & 0xFF) != 0xFF
+                || (input.get(position + 1) & 0xFF) != MARKER_SOI) {
+            throw new IOException("Not a JPEG");
+        }
+        return position + 2;
+    }
+
+    private static int readMarker(ByteBuffer input, int position) throws IOException {
+        if (position + 2 > input.limit() || (input.get(position) & 0xFF) != 0xFF) {
+            throw new IOException("Expected a marker at " + position);
+        }
+        return input.get(position + 1) & 0xFF;
+    }
+
+    private static int segmentEnd(ByteBuffer input, int position) throws IOException {
+        if (position + 4 > input.limit()) {
+            throw new IOException("Truncated segment at " + position);
+        }
+        int end = position + 2 + (input.getShort(position + 2) & 0xFFFF);
+        if (end > input.limit()) {
+            throw new IOException("Truncated segment at " + position);
+        }
+        return end;
+    }
+
+    /**
+     * A JPEG segment, from its marker to its end.
+     */
+    private static class Segment {
+
+        private final int mStart;
+
+        private final int mEnd;
+
+        Segment(int start, int end) {
+            mStart = start;
+            mEnd = end;
+        }
+
+    }
+
+    /**
+     * A tag to set. Values are big-endian; they are converted to the byte order of the TIFF
+     * structure when they are written.
+     */
+    private static class Edit {
+
+        private final int mIfd;
+
+        private final int mTag;
+
+        private final int mType;
+
+        private final int mCount;
+
+        private final byte[] mValue;
+
+        Edit(int ifd, int tag, int type, int count, byte[] value) {
+            mIfd = ifd;
+            mTag = tag;
+            mType = type;
+            mCount = count;
+            mValue = value;
+        }
+
+    }
+
+    /**
+     * The TIFF structure inside the EXIF segment, edited in a growable array.
+     */
+    private static class Tiff {
+
+        private byte[] mData;
+
+        private ByteBuffer mBuffer;
+
+        private int mSize;
+
+        Tiff(byte[] data) throws IOException {
+            if (data.length < 8) {
+                throw new IOException("Truncated TIFF header");
+            }
+            ByteOrder order;
+            if (data[0] == 'I' && data[1] == 'I') {
+                order = ByteOrder.LITTLE_ENDIAN;
+            } else if (data[0] == 'M' && data[1] == 'M') {
+                order = ByteOrder.BIG_ENDIAN;
+            } else {
+                throw new IOException("Unknown TIFF byte order");
+            }
+            mData = data;
+            mSize = data.length;
+            mBuffer = ByteBuffer.wrap(mData).order(order);
+            if (mBuffer.getShort(2) != 42) {
+                throw new IOException("Not a TIFF header");
+            }
+        }
+
+        /**
+         * @return A big-endian TIFF header followed by an empty IFD0.
+         */
+        static byte[] empty() {
+            return new byte[]{'M', 'M', 0, 42, 0, 0, 0, 8, 0, 0, 0, 0, 0, 0};
+        }
+
+        /**
+         * @return The offset of the given directory, or -1 if there is none.
+         */
+        int getIfdOffset(int ifd) throws IOException {
+            int ifd0 = mBuffer.getInt(4);
+            if (IFD_0 == ifd) {
+                checkIfd(ifd0);
+                return ifd0;
+            }
+            int pointer = findEntry(ifd0, pointerTag(ifd));
+            if (pointer < 0) {
+                return -1;
+            }
+            int offset = mBuffer.getInt(pointer + 8);
+            checkIfd(offset);
+            return offset;
+        }
+
+        /**
+         * @return The offset of the entry of {@code tag} in the directory at {@code ifd}, or -1.
+         */
+        int findEntry(int ifd, int tag) {
+            int count = mBuffer.getShort(ifd) & 0xFFFF;
+            for (int i = 0; i < count; i++) {
+                int entry = ifd + 2 + 12 * i;
+                if ((mBuffer.getShort(entry) & 0xFFFF) == tag) {
+                    return entry;
+                }
+            }
+            return -1;
+        }
+
+        void put(Edit edit) throws IOException {
+            int ifd = getIfdOffset(edit.mIfd);
+            if (ifd < 0) {
+                ifd = append(6);
+                put(new Edit(IFD_0, pointerTag(edit.mIfd), TYPE_LONG, 1, new byte[]{
+                        (byte) (ifd >> 24), (byte) (ifd >> 16), (byte) (ifd >> 8), (byte) ifd}));
+            }
+            int entry = findEntry(ifd, edit.mTag);
+            if (entry >= 0) {
+                int type = mBuffer.getShort(entry + 2) & 0xFFFF;
+                int oldSize = type < TYPE_SIZES.length
+                        ? TYPE_SIZES[type] * mBuffer.getInt(entry + 4) : 0;
+                if (edit.mValue.length > 4 && (oldSize <= 4 || edit.mValue.length > oldSize)) {
+                    // Doesn't fit where the old value was.
+                    int offset = append(edit.mValue.length);
+                    writeValue(edit, offset);
+                    writeEntry(entry, edit, offset);
+                } else if (edit.mValue.length > 4) {
+                    writeValue(edit, mBuffer.getInt(entry + 8));
+                    writeEntry(entry, edit, mBuffer.getInt(entry + 8));
+                } else {
+                    writeEntry(entry, edit, -1);
+                }
+                return;
+            }
+            // Copy the directory to the end with room for the new entry.
+            int valueOffset = edit.mValue.length > 4 ? append(edit.mValue.length) : -1;
+            if (valueOffset >= 0) {
+                writeValue(edit, valueOffset);
+            }
+            int count = mBuffer.getShort(ifd) & 0xFFFF;
+            int copy = append(2 + 12 * (count + 1) + 4);
+            mBuffer.putShort(copy, (short) (count + 1));
+            int target = copy + 2;
+            boolean inserted = false;
+            for (int i = 0; i < count; i++) {
+                int source = ifd + 2 + 12 * i;
+                if (!inserted && (mBuffer.getShort(source) & 0xFFFF) > edit.mTag) {
+                    // Entries are sorted by tag.
+                    writeEntry(target, edit, valueOffset);
+                    target += 12;
+                    inserted = true;
+                }
+                System.arraycopy(mData, source, mData, target, 12);
+                target += 12;
+            }
+            if (!inserted) {
+                writeEntry(target, edit, valueOffset);
+                target += 12;
+            }
+            mBuffer.putInt(target, mBuffer.getInt(ifd + 2 + 12 * count));
+            if (IFD_0 == edit.mIfd) {
+                mBuffer.putInt(4, copy);
+            } else {
+                int pointer = findEntry(getIfdOffset(IFD_0), pointerTag(edit.mIfd));
+                mBuffer.putInt(pointer + 8, copy);
+            }
+        }
+
+        private void checkIfd(int offset) throws IOException {
+            if (offset < 8 || offset + 2 > mSize
+                    || offset + 2 + 12 * (mBuffer.getShort(offset) & 0xFFFF) + 4 > mSize) {
+                throw new IOException("Directory out of bounds: " + offset);
+            }
+        }
+
+        /**
+         * Writes an entry; the value goes inline if {@code valueOffset} is negative.
+         */
+        private void writeEntry(int entry, Edit edit, int valueOffset) {
+            mBuffer.putShort(entry, (short) edit.mTag);
+            mBuffer.putShort(entry + 2, (short) edit.mType);
+            mBuffer.putInt(entry + 4, edit.mCount);
+            if (valueOffset >= 0) {
+                mBuffer.putInt(entry + 8, valueOffset);
+            } else {
+                mBuffer.putInt(entry + 8, 0);
+                writeValue(edit, entry + 8);
+            }
+        }
+
+        private void writeValue(Edit edit, int offset) {
+            ByteBuffer value = ByteBuffer.wrap(edit.mValue);
+            switch (edit.mType) {
+                case TYPE_SHORT:
+                    mBuffer.putShort(offset, value.getShort());
+                    break;
+                case TYPE_LONG:
+                    mBuffer.putInt(offset, value.getInt());
+                    break;
+                default:
+                    System.arraycopy(edit.mValue, 0, mData, offset, edit.mValue.length);
+            }
+        }
+
+        /**
+         * Reserves {@code length} zeroed bytes at the end, at an even offset as TIFF requires.
+         *
+         * @return The offset of the reserved bytes.
+         */
+        private int append(int length) {
+            int offset = (mSize + 1) & ~1;
+            int size = offset + length;
+            if (size > mData.length) {
+                mData = Arrays.copyOf(mData, Math.max(size, mData.length * 2));
+                mBuffer = ByteBuffer.wrap(mData).order(mBuffer.order());
+            }
+            Arrays.fill(mData, mSize, size, (byte) 0);
+            mSize = size;
+            return offset;
+        }
+
+        private static int pointerTag(int ifd) {
+            switch (ifd) {
+                case IFD_EXIF:
+                    return TAG_EXIF_IFD_POINTER;
+                case IFD_GPS:
+                    return TAG_GPS_IFD_POINTER;
+                default:
+                    throw new IllegalArgumentException("Unknown directory: " + ifd);
+            }
+        }
+
+    }
+
+}
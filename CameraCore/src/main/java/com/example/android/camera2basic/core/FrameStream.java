@@ -0,0 +1,507 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A stream of camera output that any number of consumers can subscribe to, in the manner of
+ * Reactive Streams. Every subscriber has its own bounded buffer, its own {@link Executor} and its
+ * own demand, so {@link #publish(Object)} never blocks the camera thread and a slow subscriber
+ * only ever loses its own items, as decided by its {@link Overflow} policy.
+ *
+ * <p>Items that hold camera buffers come with a {@link Recycler}: the stream retains an item once
+ * for each subscriber that buffers it and releases it after {@link Subscriber#onNext(Object)}
+ * returns, or when it is dropped. Such items are only valid during {@code onNext}.</p>
+ *
+ * <p>Thread-safe. Each subscriber is called on its executor, one call at a time. A subscriber
+ * that throws is cancelled rather than left stalled, and never stops the others.</p>
+ *
+ * @param <T> The type of the items.
+ */
+public class FrameStream<T> {
+
+    /**
+     * Consumes the items of a {@link FrameStream}.
+     */
+    public interface Subscriber<T> {
+
+        /**
+         * Called first. No items are delivered before they are requested through
+         * {@link Subscription#request(long)}.
+         */
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        /**
+         * The subscription has ended because the subscriber fell behind with
+         * {@link Overflow#CANCEL}, or because one of its other methods threw. No more calls
+         * follow.
+         */
+        void onError(Exception e);
+
+        /**
+         * The stream has ended. No more calls follow.
+         */
+        void onComplete();
+
+    }
+
+    /**
+     * The link between a {@link FrameStream} and one of its {@link Subscriber}s.
+     */
+    public interface Subscription {
+
+        /**
+         * Adds to the number of items the subscriber is ready for; {@link Long#MAX_VALUE} for
+         * unbounded demand.
+         */
+        void request(long n);
+
+        /**
+         * Stops the delivery, and releases the buffered items.
+         */
+        void cancel();
+
+    }
+
+    /**
+     * Manages the references of items that hold buffers.
+     */
+    public interface Recycler<T> {
+
+        void retain(T item);
+
+        void release(T item);
+
+    }
+
+    /**
+     * What happens when an item is published while the buffer of a subscriber is full.
+     */
+    public enum Overflow {
+
+        /**
+         * Drop the oldest buffered item, for consumers that want the most recent items.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Drop the new item, for consumers that want contiguous runs of items.
+         */
+        DROP_NEWEST,
+
+        /**
+         * End the subscription with {@link Subscriber#onError(Exception)}, for consumers that must
+         * not miss any item.
+         */
+        CANCEL
+
+    }
+
+    private static final Logger LOG = Logger.getLogger("FrameStream");
+
+    private final String mName;
+
+    private final Recycler<? super T> mRecycler;
+
+    private final List<Sink> mSinks = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong mPublishedCount = new AtomicLong();
+
+    private volatile boolean mCompleted;
+
+    /**
+     * @param name The name of the stream, for logging.
+     */
+    public FrameStream(String name) {
+        this(name, null);
+    }
+
+    /**
+     * @param name     The name of the stream, for logging.
+     * @param recycler Manages the references of the items, or null if they don't hold buffers.
+     */
+    public FrameStream(String name, Recycler<? super T> recycler) {
+        mName = name;
+        mRecycler = recycler;
+    }
+
+    /**
+     * Subscribes to the items published from now on.
+     *
+     * @param subscriber The consumer.
+     * @param executor   The thread(s) the subscriber is called on; never the camera thread.
+     * @param bufferSize The number of items buffered for the subscriber, at least 1.
+     * @param overflow   What to do when the buffer is full.
+     * @return The subscription, also passed to {@link Subscriber#onSubscribe(Subscription)}.
+     */
+    public Subscription subscribe(Subscriber<? super T> subscriber, Executor executor,
+                                  int bufferSize, Overflow overflow) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be at least 1: " + bufferSize);
+        }
+        Sink sink = new Sink(subscriber, executor, bufferSize, overflow);
+        mSinks.add(sink);
+        if (mCompleted) {
+            sink.terminate(null);
+        } else {
+            sink.schedule();
+        }
+        return sink;
+    }
+
+    /**
+     * @return Whether anyone is subscribed; publishers can skip preparing items otherwise.
+     */
+    public boolean hasSubscribers() {
+        return !mSinks.isEmpty();
+    }
+
+    /**
+     * Offers an item to every subscriber. Never blocks; the caller keeps its own reference to the
+     * item and remains responsible for it.
+     */
+    public void publish(T item) {
+        if (mCompleted) {
+            return;
+        }
+        mPublishedCount.incrementAndGet();
+        for (Sink sink : mSinks) {
+            sink.offer(item);
+        }
+    }
+
+    /**
+     * Ends the stream. Subscribers receive the items already buffered, then
+     * {@link Subscriber#onComplete()}.
+     */
+    public void complete() {
+        mCompleted = true;
+        for (Sink sink : mSinks) {
+            sink.terminate(null);
+        }
+    }
+
+    public long getPublishedCount() {
+        return mPublishedCount.get();
+    }
+
+    /**
+     * @return The number of items dropped for the current subscribers.
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (Sink sink : mSinks) {
+            dropped += sink.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(mName).append(": published=")
+                .append(mPublishedCount.get());
+        for (Sink sink : mSinks) {
+            builder.append(" [").append(sink).append(']');
+        }
+        return builder.toString();
+    }
+
+    private void retain(T item) {
+        if (null != mRecycler) {
+            mRecycler.retain(item);
+        }
+    }
+
+    private void release(T item) {
+        if (null != mRecycler && null != item) {
+            mRecycler.release(item);
+        }
+    }
+
+    /**
+     * The buffer and the demand of one subscriber. Delivers on the executor of the subscriber,
+     * with at most one delivery task scheduled at a time.
+     */
+    private class Sink implements Subscription, Runnable {
+
+        private final Subscriber<? super T> mSubscriber;
+
+        private final Executor mExecutor;
+
+        private final int mCapacity;
+
+        private final Overflow mOverflow;
+
+        // The fields below are guarded by this.
+
+        private final ArrayDeque<T> mBuffer = new ArrayDeque<>();
+
+        private long mDemand;
+
+        private boolean mSubscribed;
+
+        private boolean mScheduled;
+
+        /**
+         * Whether no more items are accepted, because the stream completed or the subscription
+         * was cancelled or overflowed.
+         */
+        private boolean mTerminated;
+
+        /**
+         * Whether the subscriber has been called for the last time, or must not be called again.
+         */
+        private boolean mDone;
+
+        /**
+         * The error to end with, or null to end with {@link Subscriber#onComplete()}.
+         */
+        private Exception mError;
+
+        private long mDeliveredCount;
+
+        private long mDroppedCount;
+
+        Sink(Subscriber<? super T> subscriber, Executor executor, int capacity,
+             Overflow overflow) {
+            mSubscriber = subscriber;
+            mExecutor = executor;
+            mCapacity = capacity;
+            mOverflow = overflow;
+        }
+
+        void offer(T item) {
+            T dropped = null;
+            boolean overflowed = false;
+            synchronized (this) {
+                if (mTerminated) {
+                    return;
+                }
+                if (mBuffer.size() >= mCapacity) {
+                    mDroppedCount++;
+                    switch (mOverflow) {
+                        case DROP_NEWEST:
+                            return;
+                        case DROP_OLDEST:
+                            dropped = mBuffer.poll();
+                            break;
+                        case CANCEL:
+                            overflowed = true;
+                            break;
+                    }
+                }
+                if (!overflowed) {
+                    retain(item);
+                    mBuffer.add(item);
+                }
+            }
+            release(dropped);
+            if (overflowed) {
+                terminate(new IllegalStateException(
+                        "Subscriber of " + mName + " fell behind by " + mCapacity + " items"));
+            } else {
+                schedule();
+            }
+        }
+
+        void terminate(Exception error) {
+            List<T> discarded = null;
+            synchronized (this) {
+                if (mTerminated) {
+                    return;
+                }
+                mTerminated = true;
+                mError = error;
+                if (null != error) {
+                    // Nothing more is delivered after an error.
+                    discarded = new ArrayList<>(mBuffer);
+                    mBuffer.clear();
+                }
+            }
+            if (null != discarded) {
+                for (T item : discarded) {
+                    release(item);
+                }
+            }
+            mSinks.remove(this);
+            schedule();
+        }
+
+        synchronized long getDroppedCount() {
+            return mDroppedCount;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                throw new IllegalArgumentException("Requested " + n + " items");
+            }
+            synchronized (this) {
+                mDemand = mDemand + n < 0 ? Long.MAX_VALUE : mDemand + n;
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            List<T> discarded;
+            synchronized (this) {
+                mTerminated = true;
+                mDone = true;
+                discarded = new ArrayList<>(mBuffer);
+                mBuffer.clear();
+            }
+            for (T item : discarded) {
+                release(item);
+            }
+            mSinks.remove(this);
+        }
+
+        /**
+         * Schedules a delivery task if there is anything to deliver and none is scheduled.
+         */
+        void schedule() {
+            synchronized (this) {
+                if (mScheduled || mDone || (mSubscribed && !mTerminated
+                        && (0 == mDemand || mBuffer.isEmpty()))) {
+                    return;
+                }
+                mScheduled = true;
+            }
+            mExecutor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            boolean finished = false;
+            try {
+                deliver();
+                finished = true;
+            } catch (RuntimeException e) {
+                fail(e);
+                finished = true;
+            } finally {
+                if (!finished) {
+                    // An Error; at least don't leave the sink marked as scheduled.
+                    synchronized (this) {
+                        mScheduled = false;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Calls the subscriber until there is nothing more to deliver, and clears
+         * {@link #mScheduled} on the way out.
+         */
+        private void deliver() {
+            boolean subscribed;
+            synchronized (this) {
+                subscribed = mSubscribed;
+                mSubscribed = true;
+            }
+            if (!subscribed) {
+                mSubscriber.onSubscribe(this);
+            }
+            while (true) {
+                T item = null;
+                boolean end = false;
+                Exception error;
+                synchronized (this) {
+                    error = mError;
+                    if (mDone) {
+                        mScheduled = false;
+                        return;
+                    } else if (mDemand > 0 && !mBuffer.isEmpty()) {
+                        item = mBuffer.poll();
+                        if (mDemand != Long.MAX_VALUE) {
+                            mDemand--;
+                        }
+                        mDeliveredCount++;
+                    } else if (mTerminated && mBuffer.isEmpty()) {
+                        // The buffer was cleared already if the subscription ends with an error.
+                        end = true;
+                        mDone = true;
+                    } else {
+                        mScheduled = false;
+                        return;
+                    }
+                }
+                if (end) {
+                    if (null == error) {
+                        mSubscriber.onComplete();
+                    } else {
+                        mSubscriber.onError(error);
+                    }
+                    synchronized (this) {
+                        mScheduled = false;
+                    }
+                    return;
+                }
+                try {
+                    mSubscriber.onNext(item);
+                } finally {
+                    release(item);
+                }
+            }
+        }
+
+        /**
+         * Ends the subscription of a subscriber that threw. It is told with
+         * {@link Subscriber#onError(Exception)}, unless it was already being told that the
+         * subscription had ended.
+         */
+        private void fail(RuntimeException e) {
+            boolean ended;
+            synchronized (this) {
+                ended = mDone;
+            }
+            LOG.log(Level.WARNING, "Subscriber of " + mName + " threw; cancelling it", e);
+            cancel();
+            synchronized (this) {
+                mScheduled = false;
+            }
+            if (!ended) {
+                try {
+                    mSubscriber.onError(e);
+                } catch (RuntimeException onErrorFailure) {
+                    LOG.log(Level.WARNING, "Subscriber of " + mName + " threw from onError",
+                            onErrorFailure);
+                }
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "delivered=" + mDeliveredCount + " dropped=" + mDroppedCount + " buffered="
+                    + mBuffer.size() + " demand=" + (mDemand == Long.MAX_VALUE ? "unbounded"
+                    : String.valueOf(mDemand));
+        }
+
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Saves a JPEG {@link StillImage} into the specified {@link File}.
+ */
+public class ImageSaver implements Runnable {
+
+    private static final MetricsRegistry.Histogram LATENCY = MetricsRegistry.getDefault()
+            .histogram("image_save_seconds", "Time to copy and write a still image");
+
+    private static final MetricsRegistry.Counter BYTES = MetricsRegistry.getDefault().counter(
+            "image_saved_bytes_total", "Bytes of still images written");
+
+    private static final MetricsRegistry.Counter FAILURES = MetricsRegistry.getDefault().counter(
+            "image_save_failures_total", "Still images that could not be written");
+
+    /**
+     * The JPEG image
+     */
+    private final StillImage mImage;
+    /**
+     * The file we save the image into.
+     */
+    private final File mFile;
+    /**
+     * The pool the image is copied into before it is written, or null to write it in place.
+     */
+    private final BufferPool mBufferPool;
+
+    public ImageSaver(StillImage image, File file) {
+        this(image, file, null);
+    }
+
+    /**
+     * @param bufferPool If not null, the image is copied into a buffer leased from this pool and
+     *                   closed before the file is written, so that it goes back to the camera
+     *                   without waiting for the storage.
+     */
+    public ImageSaver(StillImage image, File file, BufferPool bufferPool) {
+        mImage = image;
+        mFile = file;
+        mBufferPool = bufferPool;
+    }
+
+    /**
+     * @return The number of bytes that will be written.
+     */
+    public int getByteCount() {
+        return mImage.getBuffer().remaining();
+    }
+
+    /**
+     * Closes the image without saving it, e.g. because the writer is too far behind.
+     */
+    public void discard() {
+        mImage.close();
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        ByteBuffer buffer = mImage.getBuffer();
+        int bytes = buffer.remaining();
+        BufferPool.Lease lease = null;
+        boolean imageClosed = false;
+        FileOutputStream output = null;
+        try {
+            if (null != mBufferPool) {
+                lease = mBufferPool.lease(buffer.remaining());
+                ByteBuffer copy = lease.getBuffer();
+                copy.put(buffer);
+                copy.flip();
+                mImage.close();
+                imageClosed = true;
+                buffer = copy;
+            }
+            output = new FileOutputStream(mFile);
+            FileChannel channel = output.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            BYTES.add(bytes);
+            LATENCY.recordSince(start);
+        } catch (IOException e) {
+            FAILURES.increment();
+            e.printStackTrace();
+        } finally {
+            if (!imageClosed) {
+                mImage.close();
+            }
+            if (null != lease) {
+                lease.release();
+            }
+            if (null != output) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+/**
+ * The camera operations that {@link IntervalScheduler} needs on top of {@link CameraBackend}: a
+ * repeating request with the 3A locked, still captures that neither stop it nor trigger the 3A,
+ * and the sensor timestamp of every frame.
+ *
+ * <p>The images of these still captures are delivered to
+ * {@link CameraBackend.Callback#onStillImageAvailable(StillImage)} like any other. All
+ * {@link FrameCallback} methods are called on the camera thread.</p>
+ */
+public interface IntervalCaptureBackend {
+
+    /**
+     * Same as {@code CaptureResult.CONTROL_AF_STATE_INACTIVE}; reported by fixed-focus cameras.
+     */
+    int AF_STATE_INACTIVE = 0;
+
+    /**
+     * Same as {@code CaptureResult.CONTROL_AE_STATE_LOCKED}.
+     */
+    int AE_STATE_LOCKED = 3;
+
+    /**
+     * Receives the frame timing of an {@link IntervalCaptureBackend}.
+     */
+    interface FrameCallback {
+
+        /**
+         * The total result of a frame of the repeating request.
+         *
+         * @param sensorTimestamp The start of exposure of the frame, in nanoseconds.
+         * @param afState         The auto-focus state, or {@link CameraBackend#STATE_UNKNOWN}.
+         * @param aeState         The auto-exposure state, or {@link CameraBackend#STATE_UNKNOWN}.
+         */
+        void onFrameResult(long sensorTimestamp, int afState, int aeState);
+
+        /**
+         * The still capture requested by {@link #captureLockedStill(int)} has completed.
+         *
+         * @param sensorTimestamp The start of exposure of the still, in nanoseconds.
+         */
+        void onLockedStillCompleted(long sensorTimestamp);
+
+    }
+
+    /**
+     * Sets the receiver of the frame results, or null to stop reporting them.
+     */
+    void setFrameCallback(FrameCallback callback);
+
+    /**
+     * Locks the auto-focus and the auto-exposure, and keeps them locked in the repeating request.
+     */
+    void lock3A();
+
+    /**
+     * Switches the repeating request between its normal frame rate and the lowest one the camera
+     * supports, to save power between still captures.
+     */
+    void setLowPowerRepeating(boolean lowPower);
+
+    /**
+     * Captures a still picture with the 3A locked, without stopping the repeating request.
+     *
+     * @param jpegOrientation The JPEG orientation, in degrees.
+     */
+    void captureLockedStill(int jpegOrientation);
+
+    /**
+     * Unlocks the 3A and resumes the normal preview.
+     */
+    void unlock3A();
+
+}
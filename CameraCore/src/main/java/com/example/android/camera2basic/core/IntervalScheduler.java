@@ -0,0 +1,354 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+/**
+ * Takes still pictures at a fixed interval, e.g. every 500 ms for hours, on an
+ * {@link IntervalCaptureBackend}.
+ *
+ * <p>The 3A is locked once at the start instead of before every picture, and the captures are
+ * timed against the sensor timestamps of the repeating request rather than a wall-clock timer.
+ * The exposure targets lie on a fixed grid, {@code start + n * interval}, so that errors don't
+ * accumulate: every still is requested on the frame that is predicted to put its exposure closest
+ * to the next target, and the prediction learns the delay between a request and its exposure from
+ * the stills taken so far. Targets that can't be met any more, e.g. after a stall, are skipped and
+ * counted as missed.</p>
+ *
+ * <p>Optionally, the repeating request runs at the lowest frame rate between pictures, and at the
+ * normal rate again shortly before the next target.</p>
+ *
+ * <p>All methods must be called on the camera thread.</p>
+ */
+public class IntervalScheduler implements IntervalCaptureBackend.FrameCallback {
+
+    /**
+     * Receives the events of an {@link IntervalScheduler}.
+     */
+    public interface Listener {
+
+        /**
+         * @return The JPEG orientation for the next still capture, in degrees.
+         */
+        int getJpegOrientation();
+
+        /**
+         * A still picture has been exposed.
+         *
+         * @param shot          The number of the picture, starting at 0.
+         * @param intervalNanos The time since the previous picture, or 0 for the first one.
+         * @param errorNanos    The time between the target and the actual exposure; positive if
+         *                      the picture was late.
+         */
+        void onIntervalShot(int shot, long intervalNanos, long errorNanos);
+
+    }
+
+    /**
+     * Frames from a still request to its exposure, assumed until the first still has been taken.
+     */
+    private static final int DEFAULT_PIPELINE_FRAMES = 3;
+
+    /**
+     * Frames to wait for the 3A to report locked before starting anyway.
+     */
+    static final int MAX_LOCK_FRAMES = 30;
+
+    private static final int STATE_IDLE = 0;
+
+    private static final int STATE_LOCKING = 1;
+
+    private static final int STATE_RUNNING = 2;
+
+    private final IntervalCaptureBackend mBackend;
+
+    private final long mIntervalNanos;
+
+    private final Listener mListener;
+
+    private boolean mLowPowerBetweenShots;
+
+    private int mState = STATE_IDLE;
+
+    private int mLockFrames;
+
+    private long mLastFrameTimestamp;
+
+    /**
+     * Moving average of the frame duration at the normal frame rate.
+     */
+    private long mFrameDurationNanos;
+
+    /**
+     * Moving average of the frame duration at the low-power frame rate.
+     */
+    private long mLowPowerFrameDurationNanos;
+
+    /**
+     * Moving average of the time from the frame a still was requested on to its exposure.
+     */
+    private long mLatencyNanos;
+
+    private boolean mLowPower;
+
+    private long mNextTargetNanos;
+
+    /**
+     * The target of the still in flight.
+     */
+    private long mIssuedTargetNanos;
+
+    /**
+     * The timestamp of the frame the still in flight was requested on, or 0 if there is none.
+     */
+    private long mIssuedFrameTimestamp;
+
+    private long mLastShotTimestamp;
+
+    private int mShotCount;
+
+    private int mMissedCount;
+
+    private long mMinIntervalNanos = Long.MAX_VALUE;
+
+    private long mMaxIntervalNanos;
+
+    private long mIntervalSumNanos;
+
+    private long mMaxErrorNanos;
+
+    /**
+     * Absolute errors between the targets and the exposures.
+     */
+    private final LatencyHistogram mErrors = new LatencyHistogram();
+
+    /**
+     * @param backend       The backend; its preview must be running.
+     * @param intervalNanos The requested time between two exposures.
+     */
+    public IntervalScheduler(IntervalCaptureBackend backend, long intervalNanos,
+            Listener listener) {
+        if (intervalNanos <= 0) {
+            throw new IllegalArgumentException("Interval must be positive: " + intervalNanos);
+        }
+        mBackend = backend;
+        mIntervalNanos = intervalNanos;
+        mListener = listener;
+    }
+
+    /**
+     * Runs the repeating request at the lowest frame rate between pictures.
+     */
+    public IntervalScheduler setLowPowerBetweenShots(boolean lowPower) {
+        mLowPowerBetweenShots = lowPower;
+        return this;
+    }
+
+    /**
+     * Locks the 3A and starts taking pictures as soon as it reports locked.
+     */
+    public void start() {
+        if (STATE_IDLE != mState) {
+            return;
+        }
+        mState = STATE_LOCKING;
+        mLockFrames = 0;
+        mLastFrameTimestamp = 0;
+        mIssuedFrameTimestamp = 0;
+        mBackend.setFrameCallback(this);
+        mBackend.lock3A();
+    }
+
+    /**
+     * Stops taking pictures and unlocks the 3A.
+     */
+    public void stop() {
+        if (STATE_IDLE == mState) {
+            return;
+        }
+        mState = STATE_IDLE;
+        mBackend.setFrameCallback(null);
+        if (mLowPower) {
+            setLowPower(false);
+        }
+        mBackend.unlock3A();
+    }
+
+    public boolean isRunning() {
+        return STATE_IDLE != mState;
+    }
+
+    public int getShotCount() {
+        return mShotCount;
+    }
+
+    /**
+     * @return The number of targets skipped because they could not be met any more.
+     */
+    public int getMissedCount() {
+        return mMissedCount;
+    }
+
+    /**
+     * @return The mean time between two exposures, or 0 before the second one.
+     */
+    public long getMeanIntervalNanos() {
+        return mShotCount < 2 ? 0 : mIntervalSumNanos / (mShotCount - 1);
+    }
+
+    public long getMinIntervalNanos() {
+        return mShotCount < 2 ? 0 : mMinIntervalNanos;
+    }
+
+    public long getMaxIntervalNanos() {
+        return mMaxIntervalNanos;
+    }
+
+    /**
+     * @return The largest absolute time between a target and its exposure.
+     */
+    public long getMaxErrorNanos() {
+        return mMaxErrorNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("shots=%d missed=%d requestedMs=%.1f meanMs=%.2f minMs=%.2f"
+                        + " maxMs=%.2f latencyMs=%.1f error[%s]", mShotCount, mMissedCount,
+                mIntervalNanos / 1e6, getMeanIntervalNanos() / 1e6, getMinIntervalNanos() / 1e6,
+                mMaxIntervalNanos / 1e6, mLatencyNanos / 1e6, mErrors);
+    }
+
+    @Override
+    public void onFrameResult(long sensorTimestamp, int afState, int aeState) {
+        if (0 != mLastFrameTimestamp) {
+            long duration = sensorTimestamp - mLastFrameTimestamp;
+            if (mLowPower) {
+                mLowPowerFrameDurationNanos = average(mLowPowerFrameDurationNanos, duration);
+            } else if (0 == mFrameDurationNanos || duration < mFrameDurationNanos * 3 / 2) {
+                // Longer gaps are skipped frames, e.g. the slots taken by the stills, or frames
+                // still at the low-power rate.
+                mFrameDurationNanos = average(mFrameDurationNanos, duration);
+            }
+        }
+        mLastFrameTimestamp = sensorTimestamp;
+        switch (mState) {
+            case STATE_LOCKING: {
+                mLockFrames++;
+                if ((is3ALocked(afState, aeState) || mLockFrames >= MAX_LOCK_FRAMES)
+                        && 0 != mFrameDurationNanos) {
+                    mState = STATE_RUNNING;
+                    // The first picture is taken as soon as possible.
+                    mNextTargetNanos = sensorTimestamp + getLatencyNanos();
+                    maybeCapture(sensorTimestamp);
+                }
+                break;
+            }
+            case STATE_RUNNING: {
+                maybeCapture(sensorTimestamp);
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void onLockedStillCompleted(long sensorTimestamp) {
+        if (STATE_RUNNING != mState || 0 == mIssuedFrameTimestamp) {
+            return;
+        }
+        mLatencyNanos = 0 == mLatencyNanos ? sensorTimestamp - mIssuedFrameTimestamp
+                : average(mLatencyNanos, sensorTimestamp - mIssuedFrameTimestamp);
+        mIssuedFrameTimestamp = 0;
+        long error = sensorTimestamp - mIssuedTargetNanos;
+        mMaxErrorNanos = Math.max(mMaxErrorNanos, Math.abs(error));
+        mErrors.record(Math.abs(error) / 1000);
+        long interval = 0;
+        if (0 != mLastShotTimestamp) {
+            interval = sensorTimestamp - mLastShotTimestamp;
+            mIntervalSumNanos += interval;
+            mMinIntervalNanos = Math.min(mMinIntervalNanos, interval);
+            mMaxIntervalNanos = Math.max(mMaxIntervalNanos, interval);
+        }
+        mLastShotTimestamp = sensorTimestamp;
+        int shot = mShotCount++;
+        // The next target is on the grid, not relative to this exposure, so errors don't add up.
+        mNextTargetNanos = mIssuedTargetNanos + mIntervalNanos;
+        if (mLowPowerBetweenShots && !mLowPower
+                && mNextTargetNanos - sensorTimestamp > getLowPowerLeadNanos()) {
+            setLowPower(true);
+        }
+        mListener.onIntervalShot(shot, interval, error);
+    }
+
+    private void maybeCapture(long frameTimestamp) {
+        if (0 != mIssuedFrameTimestamp) {
+            // One still at a time; the next target is set when it completes.
+            return;
+        }
+        long predicted = frameTimestamp + getLatencyNanos();
+        long halfFrame = mFrameDurationNanos / 2;
+        while (predicted - mNextTargetNanos > halfFrame) {
+            mMissedCount++;
+            mNextTargetNanos += mIntervalNanos;
+        }
+        if (mLowPower && mNextTargetNanos - predicted < getLowPowerLeadNanos()) {
+            setLowPower(false);
+        }
+        if (mNextTargetNanos - predicted <= halfFrame) {
+            mIssuedFrameTimestamp = frameTimestamp;
+            mIssuedTargetNanos = mNextTargetNanos;
+            mBackend.captureLockedStill(mListener.getJpegOrientation());
+        }
+    }
+
+    /**
+     * @return The predicted time from a still request to its exposure.
+     */
+    private long getLatencyNanos() {
+        return 0 != mLatencyNanos ? mLatencyNanos : DEFAULT_PIPELINE_FRAMES * mFrameDurationNanos;
+    }
+
+    /**
+     * @return How long before the next target the normal frame rate must be back: a few low-power
+     * frames to notice that it is time, and a few normal ones for the new rate to take effect.
+     */
+    private long getLowPowerLeadNanos() {
+        long lowPowerFrame = Math.max(mLowPowerFrameDurationNanos, mFrameDurationNanos);
+        return 2 * lowPowerFrame + DEFAULT_PIPELINE_FRAMES * mFrameDurationNanos;
+    }
+
+    private void setLowPower(boolean lowPower) {
+        mLowPower = lowPower;
+        // The first frame at the new rate must not count towards either average.
+        mLastFrameTimestamp = 0;
+        mBackend.setLowPowerRepeating(lowPower);
+    }
+
+    static boolean is3ALocked(int afState, int aeState) {
+        boolean afLocked = afState == CameraBackend.STATE_UNKNOWN
+                || afState == IntervalCaptureBackend.AF_STATE_INACTIVE
+                || afState == CameraBackend.AF_STATE_FOCUSED_LOCKED
+                || afState == CameraBackend.AF_STATE_NOT_FOCUSED_LOCKED;
+        boolean aeLocked = aeState == CameraBackend.STATE_UNKNOWN
+                || aeState == IntervalCaptureBackend.AE_STATE_LOCKED;
+        return afLocked && aeLocked;
+    }
+
+    private static long average(long average, long value) {
+        return 0 == average ? value : (average * 7 + value) / 8;
+    }
+
+}
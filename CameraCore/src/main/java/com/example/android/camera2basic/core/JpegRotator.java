@@ -0,0 +1,1018 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rotates baseline JPEGs by multiples of 90 degrees without decoding them to pixels. The entropy
+ * coded DCT coefficients are decoded, the blocks are moved and their coefficients transposed and
+ * negated in place of a pixel rotation, and the result is entropy coded again with optimized
+ * Huffman tables. The quantized coefficients don't change, so no quality is lost, and there is no
+ * inverse or forward DCT to pay for.
+ *
+ * <p>Like {@code jpegtran -trim}, a partial MCU row or column that would end up on the leading
+ * edge of the rotated image is dropped, since it can't be moved there losslessly. Camera sizes are
+ * usually MCU aligned, so nothing is lost in practice. APPn and COM segments are copied as they
+ * are; it is up to the caller to reset the EXIF orientation, e.g. with {@link ExifEditor}.</p>
+ *
+ * <p>Only single-scan baseline and extended Huffman JPEGs with 8 bit samples are supported, which
+ * is what camera HALs produce. Progressive and arithmetic coded JPEGs are rejected.</p>
+ */
+public final class JpegRotator {
+
+    /**
+     * The natural order index of each coefficient, in the zig-zag order of the entropy coded data.
+     */
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63};
+
+    private static final int MARKER_SOI = 0xD8;
+
+    private static final int MARKER_EOI = 0xD9;
+
+    private static final int MARKER_SOF0 = 0xC0;
+
+    private static final int MARKER_SOF1 = 0xC1;
+
+    private static final int MARKER_DHT = 0xC4;
+
+    private static final int MARKER_DQT = 0xDB;
+
+    private static final int MARKER_DRI = 0xDD;
+
+    private static final int MARKER_SOS = 0xDA;
+
+    private static final int MARKER_RST0 = 0xD0;
+
+    private static final int MARKER_COM = 0xFE;
+
+    private JpegRotator() {
+    }
+
+    /**
+     * @param orientation One of the {@code ExifEditor.ORIENTATION_*} constants.
+     * @return The clockwise rotation that makes an image with the given EXIF orientation upright,
+     * or 0 if it needs none or the orientation involves a mirroring.
+     */
+    public static int getDegrees(int orientation) {
+        switch (orientation) {
+            case ExifEditor.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifEditor.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifEditor.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Rotates a JPEG clockwise.
+     *
+     * @param jpeg    The JPEG, from its position to its limit. Its position is not changed.
+     * @param degrees 90, 180 or 270.
+     * @param output  Receives the rotated JPEG.
+     * @throws IOException If {@code jpeg} is malformed or not supported, or writing fails.
+     */
+    public static void rotate(ByteBuffer jpeg, int degrees, OutputStream output)
+            throws IOException {
+        if (degrees != 90 && degrees != 180 && degrees != 270) {
+            throw new IllegalArgumentException("Unsupported rotation: " + degrees);
+        }
+        Frame frame = new Frame();
+        frame.decode(jpeg.duplicate());
+        frame.encode(degrees, output);
+    }
+
+    private static int u8(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xFF;
+    }
+
+    private static int u16(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    /**
+     * One color component of the frame and its quantized coefficients.
+     */
+    private static class Component {
+
+        int mId;
+
+        /**
+         * Horizontal and vertical sampling factors.
+         */
+        int mH;
+
+        int mV;
+
+        int mQuantTable;
+
+        int mDcTable;
+
+        int mAcTable;
+
+        /**
+         * The size of the coded block grid, including the blocks padding the last MCUs.
+         */
+        int mBlocksWide;
+
+        int mBlocksHigh;
+
+        /**
+         * Coefficients of all blocks in row major block order, 64 per block in natural order.
+         */
+        short[] mCoefficients;
+
+    }
+
+    /**
+     * A parsed JPEG frame.
+     */
+    private static class Frame {
+
+        private final List<byte[]> mMetadata = new ArrayList<>();
+
+        private final int[][] mQuantTables = new int[4][];
+
+        private final boolean[] mQuantIs16Bit = new boolean[4];
+
+        private final HuffmanDecoder[] mDcDecoders = new HuffmanDecoder[4];
+
+        private final HuffmanDecoder[] mAcDecoders = new HuffmanDecoder[4];
+
+        private int mSofMarker;
+
+        private int mWidth;
+
+        private int mHeight;
+
+        private Component[] mComponents;
+
+        /**
+         * The components in the order of the scan.
+         */
+        private Component[] mScan;
+
+        private int mMaxH;
+
+        private int mMaxV;
+
+        private int mRestartInterval;
+
+        void decode(ByteBuffer in) throws IOException {
+            int position = in.position();
+            if (in.remaining() < 4 || u8(in, position) != 0xFF
+                    || u8(in, position + 1) != MARKER_SOI) {
+                throw new IOException("Not a JPEG");
+            }
+            position += 2;
+            while (true) {
+                if (position + 4 > in.limit() || u8(in, position) != 0xFF) {
+                    throw new IOException("Expected a marker at " + position);
+                }
+                int marker = u8(in, position + 1);
+                if (marker == 0xFF) {
+                    position++;
+                    continue;
+                }
+                int start = position + 4;
+                int end = position + 2 + u16(in, position + 2);
+                if (end > in.limit()) {
+                    throw new IOException("Truncated segment at " + position);
+                }
+                if (marker == MARKER_SOF0 || marker == MARKER_SOF1) {
+                    readFrameHeader(in, start, marker);
+                } else if (marker == MARKER_DHT) {
+                    readHuffmanTables(in, start, end);
+                } else if (marker == MARKER_DQT) {
+                    readQuantTables(in, start, end);
+                } else if (marker == MARKER_DRI) {
+                    mRestartInterval = u16(in, start);
+                } else if (marker == MARKER_SOS) {
+                    readScanHeader(in, start);
+                    decodeScan(in, end);
+                    return;
+                } else if ((marker >= 0xE0 && marker <= 0xEF) || marker == MARKER_COM) {
+                    byte[] segment = new byte[end - position];
+                    ByteBuffer source = in.duplicate();
+                    source.position(position);
+                    source.get(segment);
+                    mMetadata.add(segment);
+                } else {
+                    throw new IOException(String.format("Unsupported marker 0x%02X", marker));
+                }
+                position = end;
+            }
+        }
+
+        void encode(int degrees, OutputStream output) throws IOException {
+            boolean transpose = degrees != 180;
+            int mcuWidth = 8 * mMaxH;
+            int mcuHeight = 8 * mMaxV;
+            // Drop the partial MCUs that would end up on the leading edge.
+            int width = degrees == 90 ? mWidth : mWidth / mcuWidth * mcuWidth;
+            int height = degrees == 270 ? mHeight : mHeight / mcuHeight * mcuHeight;
+            if (width == 0 || height == 0) {
+                throw new IOException("Image smaller than an MCU: " + mWidth + "x" + mHeight);
+            }
+            int newWidth = transpose ? height : width;
+            int newHeight = transpose ? width : height;
+            int newMaxH = transpose ? mMaxV : mMaxH;
+            int newMaxV = transpose ? mMaxH : mMaxV;
+            int mcusWide = (newWidth + 8 * newMaxH - 1) / (8 * newMaxH);
+            int mcusHigh = (newHeight + 8 * newMaxV - 1) / (8 * newMaxV);
+
+            // For each coefficient in zig-zag order, where it comes from in the source block.
+            int[] sourceIndex = new int[64];
+            int[] sign = new int[64];
+            for (int k = 0; k < 64; k++) {
+                int v = ZIGZAG[k] / 8;
+                int u = ZIGZAG[k] % 8;
+                sourceIndex[k] = transpose ? u * 8 + v : v * 8 + u;
+                int negated = degrees == 90 ? u : degrees == 270 ? v : u + v;
+                sign[k] = (negated & 1) == 0 ? 1 : -1;
+            }
+
+            int[][] dcFrequencies = new int[4][257];
+            int[][] acFrequencies = new int[4][257];
+            Transform transform = new Transform(degrees, mcusWide, mcusHigh, transpose,
+                    sourceIndex, sign);
+            transform.run(this, null, null, null, dcFrequencies, acFrequencies);
+            HuffmanEncoder[] dcEncoders = new HuffmanEncoder[4];
+            HuffmanEncoder[] acEncoders = new HuffmanEncoder[4];
+            for (Component component : mScan) {
+                if (null == dcEncoders[component.mDcTable]) {
+                    dcEncoders[component.mDcTable] =
+                            new HuffmanEncoder(dcFrequencies[component.mDcTable]);
+                }
+                if (null == acEncoders[component.mAcTable]) {
+                    acEncoders[component.mAcTable] =
+                            new HuffmanEncoder(acFrequencies[component.mAcTable]);
+                }
+            }
+
+            BitWriter writer = new BitWriter(output);
+            writer.writeMarker(MARKER_SOI);
+            for (byte[] segment : mMetadata) {
+                writer.writeBytes(segment);
+            }
+            writeQuantTables(writer, transpose);
+            writer.writeMarker(mSofMarker);
+            writer.writeShort(8 + 3 * mComponents.length);
+            writer.writeByte(8);
+            writer.writeShort(newHeight);
+            writer.writeShort(newWidth);
+            writer.writeByte(mComponents.length);
+            for (Component component : mComponents) {
+                writer.writeByte(component.mId);
+                writer.writeByte(transpose ? component.mV << 4 | component.mH
+                        : component.mH << 4 | component.mV);
+                writer.writeByte(component.mQuantTable);
+            }
+            writeHuffmanTables(writer, dcEncoders, acEncoders);
+            writer.writeMarker(MARKER_SOS);
+            writer.writeShort(6 + 2 * mScan.length);
+            writer.writeByte(mScan.length);
+            for (Component component : mScan) {
+                writer.writeByte(component.mId);
+                writer.writeByte(component.mDcTable << 4 | component.mAcTable);
+            }
+            writer.writeByte(0);
+            writer.writeByte(63);
+            writer.writeByte(0);
+            transform.run(this, writer, dcEncoders, acEncoders, null, null);
+            writer.flushBits();
+            writer.writeMarker(MARKER_EOI);
+            writer.flush();
+        }
+
+        private void readFrameHeader(ByteBuffer in, int start, int marker) throws IOException {
+            if (u8(in, start) != 8) {
+                throw new IOException("Unsupported sample precision: " + u8(in, start));
+            }
+            mSofMarker = marker;
+            mHeight = u16(in, start + 1);
+            mWidth = u16(in, start + 3);
+            if (mHeight == 0 || mWidth == 0) {
+                throw new IOException("Unsupported image size: " + mWidth + "x" + mHeight);
+            }
+            int count = u8(in, start + 5);
+            mComponents = new Component[count];
+            mMaxH = 1;
+            mMaxV = 1;
+            for (int i = 0; i < count; i++) {
+                int offset = start + 6 + 3 * i;
+                Component component = new Component();
+                component.mId = u8(in, offset);
+                // A single component is not interleaved, so its MCU is always one block.
+                component.mH = count == 1 ? 1 : u8(in, offset + 1) >> 4;
+                component.mV = count == 1 ? 1 : u8(in, offset + 1) & 15;
+                component.mQuantTable = u8(in, offset + 2) & 3;
+                if (component.mH < 1 || component.mH > 4 || component.mV < 1
+                        || component.mV > 4) {
+                    throw new IOException("Invalid sampling factors");
+                }
+                mMaxH = Math.max(mMaxH, component.mH);
+                mMaxV = Math.max(mMaxV, component.mV);
+                mComponents[i] = component;
+            }
+            int mcusWide = (mWidth + 8 * mMaxH - 1) / (8 * mMaxH);
+            int mcusHigh = (mHeight + 8 * mMaxV - 1) / (8 * mMaxV);
+            for (Component component : mComponents) {
+                component.mBlocksWide = mcusWide * component.mH;
+                component.mBlocksHigh = mcusHigh * component.mV;
+                component.mCoefficients =
+                        new short[component.mBlocksWide * component.mBlocksHigh * 64];
+            }
+        }
+
+        private void readHuffmanTables(ByteBuffer in, int position, int end) throws IOException {
+            while (position < end) {
+                int classAndId = u8(in, position);
+                int[] counts = new int[17];
+                int total = 0;
+                for (int length = 1; length <= 16; length++) {
+                    counts[length] = u8(in, position + length);
+                    total += counts[length];
+                }
+                if (position + 17 + total > end) {
+                    throw new IOException("Truncated Huffman table");
+                }
+                int[] symbols = new int[total];
+                for (int i = 0; i < total; i++) {
+                    symbols[i] = u8(in, position + 17 + i);
+                }
+                HuffmanDecoder decoder = new HuffmanDecoder(counts, symbols);
+                if ((classAndId >> 4) == 0) {
+                    mDcDecoders[classAndId & 3] = decoder;
+                } else {
+                    mAcDecoders[classAndId & 3] = decoder;
+                }
+                position += 17 + total;
+            }
+        }
+
+        private void readQuantTables(ByteBuffer in, int position, int end) throws IOException {
+            while (position < end) {
+                int precisionAndId = u8(in, position);
+                boolean is16Bit = (precisionAndId >> 4) != 0;
+                if (position + 1 + (is16Bit ? 128 : 64) > end) {
+                    throw new IOException("Truncated quantization table");
+                }
+                int[] table = new int[64];
+                for (int k = 0; k < 64; k++) {
+                    table[ZIGZAG[k]] = is16Bit ? u16(in, position + 1 + 2 * k)
+                            : u8(in, position + 1 + k);
+                }
+                mQuantTables[precisionAndId & 3] = table;
+                mQuantIs16Bit[precisionAndId & 3] = is16Bit;
+                position += 1 + (is16Bit ? 128 : 64);
+            }
+        }
+
+        private void readScanHeader(ByteBuffer in, int start) throws IOException {
+            if (null == mComponents) {
+                throw new IOException("Unsupported JPEG process");
+            }
+            int count = u8(in, start);
+            if (count != mComponents.length) {
+                throw new IOException("Only single-scan JPEGs are supported");
+            }
+            mScan = new Component[count];
+            for (int i = 0; i < count; i++) {
+                int id = u8(in, start + 1 + 2 * i);
+                int tables = u8(in, start + 2 + 2 * i);
+                for (Component component : mComponents) {
+                    if (component.mId == id) {
+                        mScan[i] = component;
+                    }
+                }
+                if (null == mScan[i]) {
+                    throw new IOException("Unknown component in scan: " + id);
+                }
+                mScan[i].mDcTable = tables >> 4 & 3;
+                mScan[i].mAcTable = tables & 3;
+                if (null == mDcDecoders[mScan[i].mDcTable]
+                        || null == mAcDecoders[mScan[i].mAcTable]
+                        || null == mQuantTables[mScan[i].mQuantTable]) {
+                    throw new IOException("Missing table for component " + id);
+                }
+            }
+            int offset = start + 1 + 2 * count;
+            if (u8(in, offset) != 0 || u8(in, offset + 1) != 63 || u8(in, offset + 2) != 0) {
+                throw new IOException("Unsupported scan parameters");
+            }
+        }
+
+        private void decodeScan(ByteBuffer in, int position) throws IOException {
+            BitReader reader = new BitReader(in, position);
+            int[] predictions = new int[mScan.length];
+            int mcusWide = (mWidth + 8 * mMaxH - 1) / (8 * mMaxH);
+            int mcusHigh = (mHeight + 8 * mMaxV - 1) / (8 * mMaxV);
+            int restartsToGo = mRestartInterval;
+            for (int mcuY = 0; mcuY < mcusHigh; mcuY++) {
+                for (int mcuX = 0; mcuX < mcusWide; mcuX++) {
+                    if (mRestartInterval > 0) {
+                        if (restartsToGo == 0) {
+                            reader.restart();
+                            Arrays.fill(predictions, 0);
+                            restartsToGo = mRestartInterval;
+                        }
+                        restartsToGo--;
+                    }
+                    for (int c = 0; c < mScan.length; c++) {
+                        Component component = mScan[c];
+                        for (int v = 0; v < component.mV; v++) {
+                            for (int h = 0; h < component.mH; h++) {
+                                int block = (mcuY * component.mV + v) * component.mBlocksWide
+                                        + mcuX * component.mH + h;
+                                predictions[c] = decodeBlock(reader, component, block * 64,
+                                        predictions[c]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private int decodeBlock(BitReader reader, Component component, int offset,
+                                int prediction) throws IOException {
+            short[] coefficients = component.mCoefficients;
+            int size = mDcDecoders[component.mDcTable].decode(reader);
+            if (size != 0) {
+                prediction += extend(reader.readBits(size), size);
+            }
+            coefficients[offset] = (short) prediction;
+            HuffmanDecoder ac = mAcDecoders[component.mAcTable];
+            for (int k = 1; k < 64; k++) {
+                int symbol = ac.decode(reader);
+                int run = symbol >> 4;
+                size = symbol & 15;
+                if (size == 0) {
+                    if (run != 15) {
+                        break;
+                    }
+                    k += 15;
+                    continue;
+                }
+                k += run;
+                if (k > 63) {
+                    throw new IOException("Corrupt entropy coded data");
+                }
+                coefficients[offset + ZIGZAG[k]] = (short) extend(reader.readBits(size), size);
+            }
+            return prediction;
+        }
+
+        private void writeQuantTables(BitWriter writer, boolean transpose) throws IOException {
+            for (int id = 0; id < 4; id++) {
+                int[] table = mQuantTables[id];
+                if (null == table) {
+                    continue;
+                }
+                writer.writeMarker(MARKER_DQT);
+                writer.writeShort(2 + 1 + (mQuantIs16Bit[id] ? 128 : 64));
+                writer.writeByte((mQuantIs16Bit[id] ? 0x10 : 0) | id);
+                for (int k = 0; k < 64; k++) {
+                    int index = ZIGZAG[k];
+                    // The coefficients are transposed, and so must be their quantizers.
+                    int value = table[transpose ? (index % 8) * 8 + index / 8 : index];
+                    if (mQuantIs16Bit[id]) {
+                        writer.writeShort(value);
+                    } else {
+                        writer.writeByte(value);
+                    }
+                }
+            }
+        }
+
+        private void writeHuffmanTables(BitWriter writer, HuffmanEncoder[] dcEncoders,
+                                        HuffmanEncoder[] acEncoders) throws IOException {
+            int length = 2;
+            for (int id = 0; id < 4; id++) {
+                length += null == dcEncoders[id] ? 0 : 17 + dcEncoders[id].mSymbols.length;
+                length += null == acEncoders[id] ? 0 : 17 + acEncoders[id].mSymbols.length;
+            }
+            writer.writeMarker(MARKER_DHT);
+            writer.writeShort(length);
+            for (int id = 0; id < 4; id++) {
+                if (null != dcEncoders[id]) {
+                    dcEncoders[id].writeTable(writer, id);
+                }
+            }
+            for (int id = 0; id < 4; id++) {
+                if (null != acEncoders[id]) {
+                    acEncoders[id].writeTable(writer, 0x10 | id);
+                }
+            }
+        }
+
+        private static int extend(int value, int size) {
+            return value < 1 << (size - 1) ? value - (1 << size) + 1 : value;
+        }
+
+    }
+
+    /**
+     * Walks the blocks of the rotated image in scan order, either to count the Huffman symbols
+     * or to write them.
+     */
+    private static class Transform {
+
+        private final int mDegrees;
+
+        private final int mMcusWide;
+
+        private final int mMcusHigh;
+
+        private final boolean mTranspose;
+
+        private final int[] mSourceIndex;
+
+        private final int[] mSign;
+
+        Transform(int degrees, int mcusWide, int mcusHigh, boolean transpose, int[] sourceIndex,
+                  int[] sign) {
+            mDegrees = degrees;
+            mMcusWide = mcusWide;
+            mMcusHigh = mcusHigh;
+            mTranspose = transpose;
+            mSourceIndex = sourceIndex;
+            mSign = sign;
+        }
+
+        void run(Frame frame, BitWriter writer, HuffmanEncoder[] dcEncoders,
+                 HuffmanEncoder[] acEncoders, int[][] dcFrequencies, int[][] acFrequencies)
+                throws IOException {
+            Component[] scan = frame.mScan;
+            int[] predictions = new int[scan.length];
+            for (int mcuY = 0; mcuY < mMcusHigh; mcuY++) {
+                for (int mcuX = 0; mcuX < mMcusWide; mcuX++) {
+                    for (int c = 0; c < scan.length; c++) {
+                        Component component = scan[c];
+                        int h = mTranspose ? component.mV : component.mH;
+                        int v = mTranspose ? component.mH : component.mV;
+                        int blocksWide = mMcusWide * h;
+                        int blocksHigh = mMcusHigh * v;
+                        for (int y = 0; y < v; y++) {
+                            for (int x = 0; x < h; x++) {
+                                int blockX = mcuX * h + x;
+                                int blockY = mcuY * v + y;
+                                int sourceX;
+                                int sourceY;
+                                if (mDegrees == 90) {
+                                    sourceX = blockY;
+                                    sourceY = blocksWide - 1 - blockX;
+                                } else if (mDegrees == 180) {
+                                    sourceX = blocksWide - 1 - blockX;
+                                    sourceY = blocksHigh - 1 - blockY;
+                                } else {
+                                    sourceX = blocksHigh - 1 - blockY;
+                                    sourceY = blockX;
+                                }
+                                int offset = (sourceY * component.mBlocksWide + sourceX) * 64;
+                                if (null == writer) {
+                                    predictions[c] = countBlock(component, offset,
+                                            predictions[c], dcFrequencies[component.mDcTable],
+                                            acFrequencies[component.mAcTable]);
+                                } else {
+                                    predictions[c] = writeBlock(component, offset,
+                                            predictions[c], writer,
+                                            dcEncoders[component.mDcTable],
+                                            acEncoders[component.mAcTable]);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private int countBlock(Component component, int offset, int prediction,
+                               int[] dcFrequencies, int[] acFrequencies) {
+            short[] coefficients = component.mCoefficients;
+            int dc = coefficients[offset];
+            dcFrequencies[category(dc - prediction)]++;
+            int run = 0;
+            for (int k = 1; k < 64; k++) {
+                int value = coefficients[offset + mSourceIndex[k]];
+                if (value == 0) {
+                    run++;
+                    continue;
+                }
+                while (run > 15) {
+                    acFrequencies[0xF0]++;
+                    run -= 16;
+                }
+                acFrequencies[run << 4 | category(value)]++;
+                run = 0;
+            }
+            if (run > 0) {
+                acFrequencies[0]++;
+            }
+            return dc;
+        }
+
+        private int writeBlock(Component component, int offset, int prediction, BitWriter writer,
+                               HuffmanEncoder dcEncoder, HuffmanEncoder acEncoder)
+                throws IOException {
+            short[] coefficients = component.mCoefficients;
+            int dc = coefficients[offset];
+            int diff = dc - prediction;
+            int size = category(diff);
+            dcEncoder.write(writer, size);
+            if (size != 0) {
+                writer.writeBits(diff < 0 ? diff - 1 : diff, size);
+            }
+            int run = 0;
+            for (int k = 1; k < 64; k++) {
+                int value = coefficients[offset + mSourceIndex[k]] * mSign[k];
+                if (value == 0) {
+                    run++;
+                    continue;
+                }
+                while (run > 15) {
+                    acEncoder.write(writer, 0xF0);
+                    run -= 16;
+                }
+                size = category(value);
+                acEncoder.write(writer, run << 4 | size);
+                writer.writeBits(value < 0 ? value - 1 : value, size);
+                run = 0;
+            }
+            if (run > 0) {
+                acEncoder.write(writer, 0);
+            }
+            return dc;
+        }
+
+        private static int category(int value) {
+            return 32 - Integer.numberOfLeadingZeros(value < 0 ? -value : value);
+        }
+
+    }
+
+    /**
+     * Reads the entropy coded data, removing stuffed zero bytes and stopping at markers.
+     */
+    private static class BitReader {
+
+        private final ByteBuffer mIn;
+
+        private int mPosition;
+
+        private int mBits;
+
+        private int mBitCount;
+
+        private boolean mMarkerHit;
+
+        BitReader(ByteBuffer in, int position) {
+            mIn = in;
+            mPosition = position;
+        }
+
+        int peekBits(int count) {
+            while (mBitCount < count) {
+                int b = 0;
+                if (!mMarkerHit && mPosition < mIn.limit()) {
+                    b = u8(mIn, mPosition);
+                    if (b == 0xFF) {
+                        int next = mPosition + 1 < mIn.limit() ? u8(mIn, mPosition + 1) : 0;
+                        if (next == 0) {
+                            mPosition += 2;
+                        } else {
+                            // Past the end of the data, which decodes as zeros.
+                            mMarkerHit = true;
+                            b = 0;
+                        }
+                    } else {
+                        mPosition++;
+                    }
+                }
+                mBits = mBits << 8 | b;
+                mBitCount += 8;
+            }
+            return mBits >>> (mBitCount - count) & ((1 << count) - 1);
+        }
+
+        void skipBits(int count) {
+            mBitCount -= count;
+        }
+
+        int readBits(int count) {
+            int bits = peekBits(count);
+            mBitCount -= count;
+            return bits;
+        }
+
+        /**
+         * Skips to the data after the next restart marker.
+         */
+        void restart() throws IOException {
+            mBits = 0;
+            mBitCount = 0;
+            mMarkerHit = false;
+            while (mPosition + 1 < mIn.limit()) {
+                int marker = u8(mIn, mPosition + 1);
+                if (u8(mIn, mPosition) == 0xFF && marker >= MARKER_RST0
+                        && marker <= MARKER_RST0 + 7) {
+                    mPosition += 2;
+                    return;
+                }
+                mPosition++;
+            }
+            throw new IOException("Missing restart marker");
+        }
+
+    }
+
+    /**
+     * Decodes Huffman codes of up to {@link #LOOKAHEAD} bits with a table lookup, and longer ones
+     * bit by bit with the procedure of ITU T.81 F.2.2.3.
+     */
+    private static class HuffmanDecoder {
+
+        private static final int LOOKAHEAD = 9;
+
+        /**
+         * Indexed by the next {@link #LOOKAHEAD} bits: the code length in bits 8 and up and the
+         * symbol in the low byte, or 0 for longer codes.
+         */
+        private final int[] mLookup = new int[1 << LOOKAHEAD];
+
+        private final int[] mMaxCode = new int[18];
+
+        private final int[] mValueOffset = new int[17];
+
+        private final int[] mSymbols;
+
+        HuffmanDecoder(int[] counts, int[] symbols) throws IOException {
+            mSymbols = symbols;
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= 16; length++) {
+                mValueOffset[length] = index - code;
+                for (int i = 0; i < counts[length]; i++) {
+                    if (length <= LOOKAHEAD) {
+                        int shift = LOOKAHEAD - length;
+                        Arrays.fill(mLookup, code << shift, (code + 1) << shift,
+                                length << 8 | symbols[index]);
+                    }
+                    code++;
+                    index++;
+                }
+                if (code > 1 << length) {
+                    throw new IOException("Invalid Huffman table");
+                }
+                mMaxCode[length] = counts[length] == 0 ? -1 : code - 1;
+                code <<= 1;
+            }
+            mMaxCode[17] = Integer.MAX_VALUE;
+        }
+
+        int decode(BitReader reader) throws IOException {
+            int entry = mLookup[reader.peekBits(LOOKAHEAD)];
+            if (entry != 0) {
+                reader.skipBits(entry >> 8);
+                return entry & 0xFF;
+            }
+            int length = LOOKAHEAD + 1;
+            int code = reader.readBits(length);
+            while (code > mMaxCode[length]) {
+                code = code << 1 | reader.readBits(1);
+                length++;
+            }
+            if (length > 16) {
+                throw new IOException("Corrupt entropy coded data");
+            }
+            return mSymbols[mValueOffset[length] + code];
+        }
+
+    }
+
+    /**
+     * An optimal Huffman code for the given symbol frequencies, built as in ITU T.81 K.2 and
+     * limited to 16 bit code lengths.
+     */
+    private static class HuffmanEncoder {
+
+        private final int[] mCounts = new int[17];
+
+        private final int[] mSymbols;
+
+        private final int[] mCodes = new int[256];
+
+        private final int[] mLengths = new int[256];
+
+        HuffmanEncoder(int[] frequencies) {
+            int[] frequency = Arrays.copyOf(frequencies, 257);
+            // Reserve one code so that no code consists of 1 bits only.
+            frequency[256] = 1;
+            boolean any = false;
+            for (int i = 0; i < 256; i++) {
+                any |= frequency[i] > 0;
+            }
+            if (!any) {
+                frequency[0] = 1;
+            }
+            int[] codeSize = new int[257];
+            int[] others = new int[257];
+            Arrays.fill(others, -1);
+            while (true) {
+                int c1 = -1;
+                int c2 = -1;
+                long lowest = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (frequency[i] > 0 && frequency[i] <= lowest) {
+                        lowest = frequency[i];
+                        c1 = i;
+                    }
+                }
+                lowest = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (frequency[i] > 0 && frequency[i] <= lowest && i != c1) {
+                        lowest = frequency[i];
+                        c2 = i;
+                    }
+                }
+                if (c2 < 0) {
+                    break;
+                }
+                frequency[c1] += frequency[c2];
+                frequency[c2] = 0;
+                codeSize[c1]++;
+                while (others[c1] >= 0) {
+                    c1 = others[c1];
+                    codeSize[c1]++;
+                }
+                others[c1] = c2;
+                codeSize[c2]++;
+                while (others[c2] >= 0) {
+                    c2 = others[c2];
+                    codeSize[c2]++;
+                }
+            }
+            int[] bits = new int[33];
+            for (int i = 0; i <= 256; i++) {
+                if (codeSize[i] > 0) {
+                    bits[Math.min(codeSize[i], 32)]++;
+                }
+            }
+            for (int i = 32; i > 16; i--) {
+                while (bits[i] > 0) {
+                    int j = i - 2;
+                    while (bits[j] == 0) {
+                        j--;
+                    }
+                    bits[i] -= 2;
+                    bits[i - 1]++;
+                    bits[j + 1] += 2;
+                    bits[j]--;
+                }
+            }
+            // Drop the reserved code, which is one of the longest.
+            int longest = 16;
+            while (bits[longest] == 0) {
+                longest--;
+            }
+            bits[longest]--;
+            System.arraycopy(bits, 0, mCounts, 0, 17);
+
+            int total = 0;
+            for (int length = 1; length <= 16; length++) {
+                total += mCounts[length];
+            }
+            mSymbols = new int[total];
+            int index = 0;
+            for (int size = 1; size <= 32 && index < total; size++) {
+                for (int symbol = 0; symbol < 256 && index < total; symbol++) {
+                    if (codeSize[symbol] == size) {
+                        mSymbols[index++] = symbol;
+                    }
+                }
+            }
+            int code = 0;
+            index = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < mCounts[length]; i++) {
+                    mCodes[mSymbols[index]] = code++;
+                    mLengths[mSymbols[index]] = length;
+                    index++;
+                }
+                code <<= 1;
+            }
+        }
+
+        void write(BitWriter writer, int symbol) throws IOException {
+            writer.writeBits(mCodes[symbol], mLengths[symbol]);
+        }
+
+        void writeTable(BitWriter writer, int classAndId) throws IOException {
+            writer.writeByte(classAndId);
+            for (int length = 1; length <= 16; length++) {
+                writer.writeByte(mCounts[length]);
+            }
+            for (int symbol : mSymbols) {
+                writer.writeByte(symbol);
+            }
+        }
+
+    }
+
+    /**
+     * Buffers the output, and writes the entropy coded data with zero bytes stuffed after 0xFF.
+     */
+    private static class BitWriter {
+
+        private final OutputStream mOut;
+
+        private final byte[] mBuffer = new byte[64 * 1024];
+
+        private int mCount;
+
+        private int mBits;
+
+        private int mBitCount;
+
+        BitWriter(OutputStream out) {
+            mOut = out;
+        }
+
+        void writeBits(int bits, int count) throws IOException {
+            mBits = mBits << count | (bits & ((1 << count) - 1));
+            mBitCount += count;
+            while (mBitCount >= 8) {
+                int b = mBits >> (mBitCount - 8) & 0xFF;
+                mBitCount -= 8;
+                writeByte(b);
+                if (b == 0xFF) {
+                    writeByte(0);
+                }
+            }
+        }
+
+        /**
+         * Pads the last byte of the entropy coded data with 1 bits.
+         */
+        void flushBits() throws IOException {
+            if (mBitCount > 0) {
+                writeBits(0x7F, 8 - mBitCount);
+            }
+        }
+
+        void writeByte(int b) throws IOException {
+            if (mCount == mBuffer.length) {
+                flush();
+            }
+            mBuffer[mCount++] = (byte) b;
+        }
+
+        void writeShort(int value) throws IOException {
+            writeByte(value >> 8);
+            writeByte(value);
+        }
+
+        void writeMarker(int marker) throws IOException {
+            writeByte(0xFF);
+            writeByte(marker);
+        }
+
+        void writeBytes(byte[] bytes) throws IOException {
+            flush();
+            mOut.write(bytes);
+        }
+
+        void flush() throws IOException {
+            mOut.write(mBuffer, 0, mCount);
+            mCount = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+/**
+ * A fixed-size histogram of latencies in microseconds. Bucket {@code i} counts the values in
+ * {@code [2^(i-1), 2^i)}, so recording never allocates and percentiles are accurate to within a
+ * factor of two. Values beyond the last bucket (about 4 seconds) are counted in the last bucket.
+ *
+ * <p>This class is not thread-safe; it is meant to be updated from a single thread.</p>
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 24;
+
+    private final long[] mBuckets = new long[BUCKET_COUNT];
+
+    private long mCount;
+
+    private long mSum;
+
+    private long mMax;
+
+    /**
+     * Records one value.
+     *
+     * @param micros The latency in microseconds. Negative values are recorded as 0.
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        mBuckets[Math.min(bucket, BUCKET_COUNT - 1)]++;
+        mCount++;
+        mSum += micros;
+        if (micros > mMax) {
+            mMax = micros;
+        }
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public long getMean() {
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The upper bound of the bucket the percentile falls into, in microseconds.
+     */
+    public long getPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(mCount * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets[i];
+            if (seen >= rank) {
+                return Math.min(mMax, (1L << i) - 1);
+            }
+        }
+        return mMax;
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + mCount + " mean=" + getMean() + "us p50<=" + getPercentile(50)
+                + "us p99<=" + getPercentile(99) + "us max=" + mMax + "us";
+    }
+
+}
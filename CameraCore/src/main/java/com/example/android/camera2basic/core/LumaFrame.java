@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The luma plane of an analysis frame, shared by reference count so that several consumers can
+ * read the camera buffer without copying it. The frame starts with one reference, held by its
+ * producer; the buffer is handed back once the last reference is released.
+ *
+ * <p>Readers must not move the position of {@link #getData()}; they use absolute reads, or a
+ * {@link ByteBuffer#duplicate()}. Thread-safe.</p>
+ */
+public final class LumaFrame {
+
+    /**
+     * The {@link FrameStream.Recycler} for streams of {@link LumaFrame}s.
+     */
+    public static final FrameStream.Recycler<LumaFrame> RECYCLER
+            = new FrameStream.Recycler<LumaFrame>() {
+
+        @Override
+        public void retain(LumaFrame frame) {
+            frame.retain();
+        }
+
+        @Override
+        public void release(LumaFrame frame) {
+            frame.release();
+        }
+
+    };
+
+    private final ByteBuffer mData;
+
+    private final int mWidth;
+
+    private final int mHeight;
+
+    private final int mRowStride;
+
+    private final long mTimestamp;
+
+    private final Runnable mOnReleased;
+
+    private final AtomicInteger mReferences = new AtomicInteger(1);
+
+    /**
+     * @param data       The luma plane, one byte per pixel.
+     * @param width      The width of the frame in pixels.
+     * @param height     The height of the frame in pixels.
+     * @param rowStride  The distance between the starts of two rows in bytes.
+     * @param timestamp  The sensor timestamp of the frame, in nanoseconds.
+     * @param onReleased Hands the buffer back, e.g. closes the camera image; run on the thread
+     *                   that releases the last reference.
+     */
+    public LumaFrame(ByteBuffer data, int width, int height, int rowStride, long timestamp,
+                     Runnable onReleased) {
+        mData = data;
+        mWidth = width;
+        mHeight = height;
+        mRowStride = rowStride;
+        mTimestamp = timestamp;
+        mOnReleased = onReleased;
+    }
+
+    public ByteBuffer getData() {
+        return mData;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getRowStride() {
+        return mRowStride;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Adds a reference.
+     *
+     * @throws IllegalStateException If the frame has been released already.
+     */
+    public void retain() {
+        int references;
+        do {
+            references = mReferences.get();
+            if (references <= 0) {
+                throw new IllegalStateException("Frame " + mTimestamp + " already released");
+            }
+        } while (!mReferences.compareAndSet(references, references + 1));
+    }
+
+    /**
+     * Drops a reference, and hands the buffer back if it was the last one.
+     */
+    public void release() {
+        int references = mReferences.decrementAndGet();
+        if (0 == references) {
+            mOnReleased.run();
+        } else if (references < 0) {
+            throw new IllegalStateException("Frame " + mTimestamp + " released too often");
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a luma plane as a grayscale baseline JPEG, straight into a {@link ByteBuffer}, e.g. one
+ * leased from a {@link BufferPool}. It uses the example quantization and Huffman tables of the
+ * JPEG standard scaled like libjpeg does, which is good enough for monitoring and keeps the
+ * encoder free of allocations after construction.
+ *
+ * <p>Not thread-safe; use one encoder per thread.</p>
+ */
+public class LumaJpegEncoder {
+
+    /**
+     * Upper bound for the headers written by {@link #encode}.
+     */
+    private static final int HEADER_BYTES = 2 + 18 + 69 + 13 + 33 + 183 + 10 + 2;
+
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63,
+    };
+
+    /**
+     * Table K.1 of the JPEG standard, in natural order.
+     */
+    private static final int[] LUMINANCE_QUANTIZATION = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99,
+    };
+
+    private static final int[] DC_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+
+    private static final int[] DC_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+    private static final int[] AC_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7D};
+
+    private static final int[] AC_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51,
+            0x61, 0x07, 0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xA1, 0x08, 0x23, 0x42, 0xB1, 0xC1,
+            0x15, 0x52, 0xD1, 0xF0, 0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0A, 0x16, 0x17, 0x18,
+            0x19, 0x1A, 0x25, 0x26, 0x27, 0x28, 0x29, 0x2A, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39,
+            0x3A, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49, 0x4A, 0x53, 0x54, 0x55, 0x56, 0x57,
+            0x58, 0x59, 0x5A, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6A, 0x73, 0x74, 0x75,
+            0x76, 0x77, 0x78, 0x79, 0x7A, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89, 0x8A, 0x92,
+            0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9A, 0xA2, 0xA3, 0xA4, 0xA5, 0xA6, 0xA7,
+            0xA8, 0xA9, 0xAA, 0xB2, 0xB3, 0xB4, 0xB5, 0xB6, 0xB7, 0xB8, 0xB9, 0xBA, 0xC2, 0xC3,
+            0xC4, 0xC5, 0xC6, 0xC7, 0xC8, 0xC9, 0xCA, 0xD2, 0xD3, 0xD4, 0xD5, 0xD6, 0xD7, 0xD8,
+            0xD9, 0xDA, 0xE1, 0xE2, 0xE3, 0xE4, 0xE5, 0xE6, 0xE7, 0xE8, 0xE9, 0xEA, 0xF1, 0xF2,
+            0xF3, 0xF4, 0xF5, 0xF6, 0xF7, 0xF8, 0xF9, 0xFA,
+    };
+
+    /**
+     * {@code COSINES[u * 8 + x]} is {@code C(u) / 2 * cos((2x + 1) * u * pi / 16)}.
+     */
+    private static final float[] COSINES = new float[64];
+
+    static {
+        for (int u = 0; u < 8; u++) {
+            double scale = u == 0 ? Math.sqrt(0.125) : 0.5;
+            for (int x = 0; x < 8; x++) {
+                COSINES[u * 8 + x] = (float) (scale * Math.cos((2 * x + 1) * u * Math.PI / 16));
+            }
+        }
+    }
+
+    /**
+     * The quantization table in zigzag order, as written into the file.
+     */
+    private final int[] mQuantization = new int[64];
+
+    /**
+     * The reciprocals of the quantization table, in natural order.
+     */
+    private final float[] mScale = new float[64];
+
+    private final int[] mDcCodes = new int[12];
+
+    private final int[] mDcLengths = new int[12];
+
+    private final int[] mAcCodes = new int[256];
+
+    private final int[] mAcLengths = new int[256];
+
+    private final float[] mBlock = new float[64];
+
+    private final float[] mRows = new float[64];
+
+    private final int[] mCoefficients = new int[64];
+
+    private ByteBuffer mOut;
+
+    private int mBits;
+
+    private int mBitCount;
+
+    /**
+     * @param quality 1 to 100, as in libjpeg.
+     */
+    public LumaJpegEncoder(int quality) {
+        if (quality < 1 || quality > 100) {
+            throw new IllegalArgumentException("Quality out of range: " + quality);
+        }
+        int scale = quality < 50 ? 5000 / quality : 200 - 2 * quality;
+        for (int i = 0; i < 64; i++) {
+            int natural = ZIGZAG[i];
+            int q = (LUMINANCE_QUANTIZATION[natural] * scale + 50) / 100;
+            q = Math.max(1, Math.min(255, q));
+            mQuantization[i] = q;
+            mScale[natural] = 1f / q;
+        }
+        buildCodes(DC_BITS, DC_VALUES, mDcCodes, mDcLengths);
+        buildCodes(AC_BITS, AC_VALUES, mAcCodes, mAcLengths);
+    }
+
+    /**
+     * @return The most bytes {@link #encode} can write for an image of the given size. Typical
+     * images need less than a tenth of it.
+     */
+    public static int getMaxEncodedSize(int width, int height) {
+        int blocks = ((width + 7) / 8) * ((height + 7) / 8);
+        // 20 bits for the DC and 26 bits for each AC coefficient, doubled for stuffed bytes.
+        return HEADER_BYTES + blocks * (20 + 63 * 26) / 4;
+    }
+
+    /**
+     * Encodes a luma plane. Edge blocks are padded by repeating the last row and column.
+     *
+     * @param luma      The plane, one byte per pixel, read with absolute gets.
+     * @param width     The width in pixels.
+     * @param height    The height in pixels.
+     * @param rowStride The distance between the starts of two rows in bytes.
+     * @param out       Receives the JPEG from its position on; the position is advanced.
+     * @return The number of bytes written.
+     * @throws BufferOverflowException If {@code out} has too little room; see
+     *                                 {@link #getMaxEncodedSize(int, int)}.
+     */
+    public int encode(ByteBuffer luma, int width, int height, int rowStride, ByteBuffer out) {
+        int start = out.position();
+        mOut = out;
+        mBits = 0;
+        mBitCount = 0;
+        writeHeaders(width, height);
+        int base = luma.position();
+        int prediction = 0;
+        for (int blockY = 0; blockY < height; blockY += 8) {
+            for (int blockX = 0; blockX < width; blockX += 8) {
+                for (int y = 0; y < 8; y++) {
+                    int row = base + Math.min(blockY + y, height - 1) * rowStride;
+                    for (int x = 0; x < 8; x++) {
+                        mBlock[y * 8 + x] = (luma.get(row + Math.min(blockX + x, width - 1)) & 0xFF)
+                                - 128;
+                    }
+                }
+                transform();
+                prediction = writeBlock(prediction);
+            }
+        }
+        // Pads the last byte of the entropy coded data with 1 bits.
+        if (mBitCount > 0) {
+            writeBits(0x7F, 8 - mBitCount);
+        }
+        out.put((byte) 0xFF).put((byte) 0xD9);
+        mOut = null;
+        return out.position() - start;
+    }
+
+    private void writeHeaders(int width, int height) {
+        ByteBuffer out = mOut;
+        // SOI, and a JFIF APP0 segment for viewers that insist on one.
+        out.put((byte) 0xFF).put((byte) 0xD8);
+        out.put((byte) 0xFF).put((byte) 0xE0).putShort((short) 16)
+                .put((byte) 'J').put((byte) 'F').put((byte) 'I').put((byte) 'F').put((byte) 0)
+                .put((byte) 1).put((byte) 1).put((byte) 0).putShort((short) 1)
+                .putShort((short) 1).put((byte) 0).put((byte) 0);
+        out.put((byte) 0xFF).put((byte) 0xDB).putShort((short) 67).put((byte) 0);
+        for (int q : mQuantization) {
+            out.put((byte) q);
+        }
+        // SOF0 with a single component.
+        out.put((byte) 0xFF).put((byte) 0xC0).putShort((short) 11).put((byte) 8)
+                .putShort((short) height).putShort((short) width).put((byte) 1)
+                .put((byte) 1).put((byte) 0x11).put((byte) 0);
+        writeHuffmanTable(0x00, DC_BITS, DC_VALUES);
+        writeHuffmanTable(0x10, AC_BITS, AC_VALUES);
+        out.put((byte) 0xFF).put((byte) 0xDA).putShort((short) 8).put((byte) 1)
+                .put((byte) 1).put((byte) 0).put((byte) 0).put((byte) 63).put((byte) 0);
+    }
+
+    private void writeHuffmanTable(int classAndId, int[] bits, int[] values) {
+        mOut.put((byte) 0xFF).put((byte) 0xC4).putShort((short) (2 + 1 + 16 + values.length))
+                .put((byte) classAndId);
+        for (int count : bits) {
+            mOut.put((byte) count);
+        }
+        for (int value : values) {
+            mOut.put((byte) value);
+        }
+    }
+
+    /**
+     * Forward DCT of {@link #mBlock}, quantized into {@link #mCoefficients} in natural order.
+     */
+    private void transform() {
+        float[] block = mBlock;
+        float[] rows = mRows;
+        for (int y = 0; y < 8; y++) {
+            for (int u = 0; u < 8; u++) {
+                float sum = 0;
+                for (int x = 0; x < 8; x++) {
+                    sum += COSINES[u * 8 + x] * block[y * 8 + x];
+                }
+                rows[y * 8 + u] = sum;
+            }
+        }
+        for (int u = 0; u < 8; u++) {
+            for (int v = 0; v < 8; v++) {
+                float sum = 0;
+                for (int y = 0; y < 8; y++) {
+                    sum += COSINES[v * 8 + y] * rows[y * 8 + u];
+                }
+                mCoefficients[v * 8 + u] = Math.round(sum * mScale[v * 8 + u]);
+            }
+        }
+    }
+
+    /**
+     * Entropy codes {@link #mCoefficients}.
+     *
+     * @return The DC value, the prediction for the next block.
+     */
+    private int writeBlock(int prediction) {
+        int dc = mCoefficients[0];
+        int diff = dc - prediction;
+        int size = category(diff);
+        writeBits(mDcCodes[size], mDcLengths[size]);
+        writeBits(diff < 0 ? diff - 1 : diff, size);
+        int run = 0;
+        for (int i = 1; i < 64; i++) {
+            int value = mCoefficients[ZIGZAG[i]];
+            if (0 == value) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                // ZRL: sixteen zeros.
+                writeBits(mAcCodes[0xF0], mAcLengths[0xF0]);
+                run -= 16;
+            }
+            size = category(value);
+            int symbol = run << 4 | size;
+            writeBits(mAcCodes[symbol], mAcLengths[symbol]);
+            writeBits(value < 0 ? value - 1 : value, size);
+            run = 0;
+        }
+        if (run > 0) {
+            // EOB
+            writeBits(mAcCodes[0], mAcLengths[0]);
+        }
+        return dc;
+    }
+
+    private void writeBits(int bits, int count) {
+        mBits = mBits << count | (bits & ((1 << count) - 1));
+        mBitCount += count;
+        while (mBitCount >= 8) {
+            int b = mBits >> (mBitCount - 8) & 0xFF;
+            mBitCount -= 8;
+            mOut.put((byte) b);
+            if (b == 0xFF) {
+                mOut.put((byte) 0);
+            }
+        }
+    }
+
+    private static int category(int value) {
+        int magnitude = value < 0 ? -value : value;
+        return 32 - Integer.numberOfLeadingZeros(magnitude);
+    }
+
+    /**
+     * Assigns the canonical codes of a table given as in a DHT segment (Annex C).
+     */
+    private static void buildCodes(int[] bits, int[] values, int[] codes, int[] lengths) {
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= 16; length++) {
+            for (int i = 0; i < bits[length - 1]; i++) {
+                codes[values[k]] = code++;
+                lengths[values[k]] = length;
+                k++;
+            }
+            code <<= 1;
+        }
+    }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Keeps the buffer memory of all camera streams within a budget. The worst-case footprint of a
+ * stream is its size times the bytes per pixel of its format times its queue depth. When the
+ * streams don't fit, the governor takes away from the stream with the largest footprint, first
+ * queue depth and then resolution, until they do.
+ *
+ * <p>The budget is derived from the memory class of the app and shrinks when the system asks the
+ * app to trim its memory. Negotiation is meant to happen before the capture session is
+ * created, since neither the size nor the depth of an output can change afterwards.</p>
+ */
+public class MemoryGovernor {
+
+    /**
+     * Same as {@code ImageFormat.JPEG}.
+     */
+    public static final int FORMAT_JPEG = 0x100;
+
+    /**
+     * Same as {@code ImageFormat.YUV_420_888}.
+     */
+    public static final int FORMAT_YUV_420_888 = 0x23;
+
+    /**
+     * Same as {@code ImageFormat.PRIVATE}, e.g. a preview {@code SurfaceTexture}.
+     */
+    public static final int FORMAT_PRIVATE = 0x22;
+
+    /**
+     * Same as {@code ImageFormat.RAW_SENSOR}.
+     */
+    public static final int FORMAT_RAW_SENSOR = 0x20;
+
+    /**
+     * Same as {@code ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE}.
+     */
+    public static final int TRIM_MEMORY_RUNNING_MODERATE = 5;
+
+    /**
+     * Same as {@code ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW}.
+     */
+    public static final int TRIM_MEMORY_RUNNING_LOW = 10;
+
+    /**
+     * Same as {@code ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL}.
+     */
+    public static final int TRIM_MEMORY_RUNNING_CRITICAL = 15;
+
+    /**
+     * Same as {@code ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN}.
+     */
+    public static final int TRIM_MEMORY_UI_HIDDEN = 20;
+
+    /**
+     * A stream to be configured, with the sizes and queue depths it can live with.
+     */
+    public static class Stream {
+
+        private final String mName;
+        private final int mFormat;
+        private final Resolution[] mSizes;
+        private final int mDepth;
+        private final int mMinDepth;
+
+        /**
+         * @param name     Identifies the stream in the {@link Plan}.
+         * @param format   One of the {@code FORMAT_*} constants.
+         * @param sizes    The acceptable sizes, in any order.
+         * @param depth    The queue depth the stream would like to have, e.g. the
+         *                 {@code maxImages} of an {@code ImageReader}.
+         * @param minDepth The queue depth the stream can't work with less of.
+         */
+        public Stream(String name, int format, Resolution[] sizes, int depth, int minDepth) {
+            if (sizes.length == 0 || minDepth <= 0 || depth < minDepth) {
+                throw new IllegalArgumentException("Invalid stream " + name);
+            }
+            mName = name;
+            mFormat = format;
+            mSizes = sizes.clone();
+            // Largest first, so that shrinking means moving to the next size.
+            Arrays.sort(mSizes, Collections.reverseOrder(new CameraSizes.CompareSizesByArea()));
+            mDepth = depth;
+            mMinDepth = minDepth;
+        }
+
+        /**
+         * A stream whose size and depth can't be negotiated, such as the preview.
+         */
+        public static Stream fixed(String name, int format, Resolution size, int depth) {
+            return new Stream(name, format, new Resolution[]{size}, depth, depth);
+        }
+
+    }
+
+    /**
+     * The outcome of a negotiation: the size and depth of every stream.
+     */
+    public static class Plan {
+
+        private final List<Stream> mStreams;
+        private final int[] mSizeIndex;
+        private final int[] mDepth;
+        private final long mBudgetBytes;
+
+        Plan(List<Stream> streams, int[] sizeIndex, int[] depth, long budgetBytes) {
+            mStreams = streams;
+            mSizeIndex = sizeIndex;
+            mDepth = depth;
+            mBudgetBytes = budgetBytes;
+        }
+
+        public Resolution getSize(String name) {
+            int i = indexOf(name);
+            return mStreams.get(i).mSizes[mSizeIndex[i]];
+        }
+
+        public int getDepth(String name) {
+            return mDepth[indexOf(name)];
+        }
+
+        /**
+         * @return The worst-case bytes of all streams.
+         */
+        public long getTotalBytes() {
+            long total = 0;
+            for (int i = 0; i < mStreams.size(); i++) {
+                total += footprint(i);
+            }
+            return total;
+        }
+
+        public long getBudgetBytes() {
+            return mBudgetBytes;
+        }
+
+        /**
+         * @return false if the streams exceed the budget even at their minimums.
+         */
+        public boolean isWithinBudget() {
+            return getTotalBytes() <= mBudgetBytes;
+        }
+
+        /**
+         * @return Whether this plan still fits into the given budget.
+         */
+        public boolean fits(long budgetBytes) {
+            return getTotalBytes() <= budgetBytes;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < mStreams.size(); i++) {
+                Stream stream = mStreams.get(i);
+                builder.append(stream.mName).append('=').append(stream.mSizes[mSizeIndex[i]])
+                        .append('x').append(mDepth[i]).append(' ');
+            }
+            return builder.append(String.format(Locale.US, "total=%.1fMB budget=%.1fMB",
+                    getTotalBytes() / 1048576.0, mBudgetBytes / 1048576.0)).toString();
+        }
+
+        private long footprint(int i) {
+            Stream stream = mStreams.get(i);
+            return bytesPerImage(stream.mFormat, stream.mSizes[mSizeIndex[i]]) * mDepth[i];
+        }
+
+        private boolean canShrink(int i) {
+            Stream stream = mStreams.get(i);
+            return mDepth[i] > stream.mMinDepth || mSizeIndex[i] < stream.mSizes.length - 1;
+        }
+
+        private void shrink(int i) {
+            if (mDepth[i] > mStreams.get(i).mMinDepth) {
+                mDepth[i]--;
+            } else {
+                mSizeIndex[i]++;
+            }
+        }
+
+        private int indexOf(String name) {
+            for (int i = 0; i < mStreams.size(); i++) {
+                if (mStreams.get(i).mName.equals(name)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Unknown stream " + name);
+        }
+
+    }
+
+    private long mBudgetBytes;
+
+    /**
+     * @param budgetBytes The budget when memory isn't being trimmed.
+     * @see #budgetForMemoryClass(int, boolean)
+     */
+    public MemoryGovernor(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * Derives a budget from {@code ActivityManager.getMemoryClass()}. Buffers of the camera
+     * streams are not on the Java heap, but they count against the app when the system picks
+     * which process to kill, so they are held to half of the heap limit, or a quarter on low-RAM
+     * devices.
+     *
+     * @param memoryClassMb The memory class in megabytes.
+     * @param lowRamDevice  {@code ActivityManager.isLowRamDevice()}.
+     */
+    public static long budgetForMemoryClass(int memoryClassMb, boolean lowRamDevice) {
+        return memoryClassMb * 1024L * 1024L / (lowRamDevice ? 4 : 2);
+    }
+
+    /**
+     * Shrinks a budget according to an {@code onTrimMemory} level. Levels of a hidden app are
+     * ignored, since the camera is closed then.
+     *
+     * @param budgetBytes The untrimmed budget.
+     * @param level       The level passed to {@code onTrimMemory}.
+     */
+    public static long budgetForTrimLevel(long budgetBytes, int level) {
+        switch (level) {
+            case TRIM_MEMORY_RUNNING_MODERATE:
+                return budgetBytes * 3 / 4;
+            case TRIM_MEMORY_RUNNING_LOW:
+                return budgetBytes / 2;
+            case TRIM_MEMORY_RUNNING_CRITICAL:
+                return budgetBytes / 4;
+            default:
+                return budgetBytes;
+        }
+    }
+
+    /**
+     * @return The worst-case bytes of one image of the given format and size.
+     */
+    public static long bytesPerImage(int format, Resolution size) {
+        long pixels = (long) size.getWidth() * size.getHeight();
+        switch (format) {
+            case FORMAT_RAW_SENSOR:
+                return pixels * 2;
+            case FORMAT_JPEG:
+                // JPEG buffers are allocated for the largest possible image; assume 1.5 bytes per
+                // pixel like the uncompressed formats.
+            case FORMAT_YUV_420_888:
+            case FORMAT_PRIVATE:
+            default:
+                return pixels * 3 / 2;
+        }
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    public void setBudgetBytes(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * Chooses the size and depth of every stream so that their total fits into the budget,
+     * taking away from the largest stream first.
+     *
+     * @return The plan; check {@link Plan#isWithinBudget()} in case even the minimums don't fit.
+     */
+    public Plan negotiate(Stream... streams) {
+        List<Stream> list = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(streams)));
+        int[] depth = new int[streams.length];
+        for (int i = 0; i < streams.length; i++) {
+            depth[i] = streams[i].mDepth;
+        }
+        Plan plan = new Plan(list, new int[streams.length], depth, mBudgetBytes);
+        while (!plan.isWithinBudget()) {
+            int largest = -1;
+            for (int i = 0; i < streams.length; i++) {
+                if (plan.canShrink(i)
+                        && (largest < 0 || plan.footprint(i) > plan.footprint(largest))) {
+                    largest = i;
+                }
+            }
+            if (largest < 0) {
+                break;
+            }
+            plan.shrink(largest);
+        }
+        return plan;
+    }
+
+}
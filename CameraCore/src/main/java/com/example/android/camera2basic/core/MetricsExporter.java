@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends snapshots of a {@link MetricsRegistry} to a local file, so that fleet tooling can
+ * collect them later without a live backend. Each run writes one timestamped snapshot in the
+ * Prometheus text format, preceded by a {@code # snapshot} comment line. Once the file has grown
+ * past its size limit it is rotated like a log: {@code metrics.prom} becomes
+ * {@code metrics.prom.1}, and so on, and the oldest file is deleted.
+ *
+ * <p>Meant to be scheduled at a fixed rate on a thread of its own; runs must not overlap.</p>
+ */
+public class MetricsExporter implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger("MetricsExporter");
+
+    private final MetricsRegistry mRegistry;
+
+    private final File mFile;
+
+    private final long mMaxBytes;
+
+    private final int mMaxFiles;
+
+    private final LatencyHistogram mExportMicros = new LatencyHistogram();
+
+    private int mRotationCount;
+
+    /**
+     * @param file     The file snapshots are appended to.
+     * @param maxBytes The size from which the file is rotated before the next snapshot.
+     * @param maxFiles The number of files kept, including the current one.
+     */
+    public MetricsExporter(MetricsRegistry registry, File file, long maxBytes, int maxFiles) {
+        if (maxFiles < 1) {
+            throw new IllegalArgumentException("Must keep at least one file: " + maxFiles);
+        }
+        mRegistry = registry;
+        mFile = file;
+        mMaxBytes = maxBytes;
+        mMaxFiles = maxFiles;
+    }
+
+    @Override
+    public void run() {
+        try {
+            export(System.currentTimeMillis());
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Couldn't export the metrics to " + mFile, e);
+        }
+    }
+
+    /**
+     * Appends a snapshot, rotating the files first if needed.
+     */
+    public void export(long timestampMillis) throws IOException {
+        long start = System.nanoTime();
+        if (mFile.length() >= mMaxBytes) {
+            rotate();
+        }
+        StringBuilder snapshot = new StringBuilder(16 * 1024);
+        snapshot.append("# snapshot ").append(timestampMillis).append('\n');
+        mRegistry.writeTo(snapshot, timestampMillis);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mFile, true), "UTF-8");
+        try {
+            writer.write(snapshot.toString());
+        } finally {
+            writer.close();
+        }
+        synchronized (mExportMicros) {
+            mExportMicros.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    public int getRotationCount() {
+        synchronized (mExportMicros) {
+            return mRotationCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mExportMicros) {
+            return mFile.getName() + " rotations=" + mRotationCount + " exportUs=" + mExportMicros;
+        }
+    }
+
+    private void rotate() throws IOException {
+        File oldest = rotated(mMaxFiles - 1);
+        if (oldest.exists() && !oldest.delete()) {
+            throw new IOException("Couldn't delete " + oldest);
+        }
+        for (int i = mMaxFiles - 2; i >= 0; i--) {
+            File from = rotated(i);
+            if (from.exists() && !from.renameTo(rotated(i + 1))) {
+                throw new IOException("Couldn't rename " + from);
+            }
+        }
+        synchronized (mExportMicros) {
+            mRotationCount++;
+        }
+    }
+
+    /**
+     * @return The file with the given age; 0 is the current one.
+     */
+    private File rotated(int age) {
+        return 0 == age ? mFile : new File(mFile.getPath() + "." + age);
+    }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters, gauges and histograms that the camera components report into, written out in the
+ * Prometheus text exposition format by {@link #writeTo(Appendable, long)}.
+ *
+ * <p>Metrics are meant to be looked up once and kept in static fields, like loggers; every update
+ * after that is a single atomic operation, and nothing is ever locked, so they can be updated from
+ * the camera thread. Names follow the Prometheus conventions: {@code _total} for counters and
+ * {@code _seconds} for histograms of durations, which are recorded in microseconds.</p>
+ *
+ * <p>Thread-safe.</p>
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    /**
+     * Number of histogram buckets; bucket {@code i} counts durations of up to {@code 2^i}
+     * microseconds, so the last one ends at about 67 seconds.
+     */
+    private static final int BUCKET_COUNT = 27;
+
+    /**
+     * The metrics by name, sorted for the output.
+     */
+    private final ConcurrentSkipListMap<String, Metric> mMetrics = new ConcurrentSkipListMap<>();
+
+    /**
+     * @return The registry the app components report into.
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return The counter with the given name, created if needed.
+     */
+    public Counter counter(String name, String help) {
+        return get(name, new Counter(name, help), Counter.class);
+    }
+
+    /**
+     * @return The gauge with the given name, created if needed.
+     */
+    public Gauge gauge(String name, String help) {
+        return get(name, new Gauge(name, help), Gauge.class);
+    }
+
+    /**
+     * @return The histogram of durations with the given name, created if needed.
+     */
+    public Histogram histogram(String name, String help) {
+        return get(name, new Histogram(name, help), Histogram.class);
+    }
+
+    /**
+     * Writes the current value of every metric, sorted by name.
+     *
+     * @param timestampMillis Added to every sample if not negative, in milliseconds since the
+     *                        epoch.
+     */
+    public void writeTo(Appendable out, long timestampMillis) throws IOException {
+        String timestamp = timestampMillis < 0 ? "\n" : " " + timestampMillis + "\n";
+        for (Metric metric : mMetrics.values()) {
+            out.append("# HELP ").append(metric.mName).append(' ').append(metric.mHelp)
+                    .append('\n');
+            out.append("# TYPE ").append(metric.mName).append(' ').append(metric.getType())
+                    .append('\n');
+            metric.writeSamples(out, timestamp);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        try {
+            writeTo(builder, -1);
+        } catch (IOException e) {
+            // Can't happen with a StringBuilder.
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    private <T extends Metric> T get(String name, T created, Class<T> type) {
+        Metric metric = mMetrics.get(name);
+        if (null == metric) {
+            metric = created;
+            Metric existing = mMetrics.putIfAbsent(name, created);
+            if (null != existing) {
+                metric = existing;
+            }
+        }
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is a " + metric.getType());
+        }
+        return type.cast(metric);
+    }
+
+    private static void writeSample(Appendable out, String name, String value, String timestamp)
+            throws IOException {
+        out.append(name).append(' ').append(value).append(timestamp);
+    }
+
+    /**
+     * The name and help text shared by all metrics.
+     */
+    public abstract static class Metric {
+
+        private final String mName;
+
+        private final String mHelp;
+
+        Metric(String name, String help) {
+            mName = name;
+            mHelp = help;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        abstract String getType();
+
+        abstract void writeSamples(Appendable out, String timestamp) throws IOException;
+
+    }
+
+    /**
+     * A count that only goes up.
+     */
+    public static final class Counter extends Metric {
+
+        private final AtomicLong mValue = new AtomicLong();
+
+        Counter(String name, String help) {
+            super(name, help);
+        }
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            mValue.addAndGet(delta);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+
+        @Override
+        String getType() {
+            return "counter";
+        }
+
+        @Override
+        void writeSamples(Appendable out, String timestamp) throws IOException {
+            writeSample(out, getName(), Long.toString(mValue.get()), timestamp);
+        }
+
+    }
+
+    /**
+     * A value that goes up and down, such as a queue depth.
+     */
+    public static final class Gauge extends Metric {
+
+        private final AtomicLong mBits = new AtomicLong(Double.doubleToLongBits(0));
+
+        Gauge(String name, String help) {
+            super(name, help);
+        }
+
+        public void set(double value) {
+            mBits.set(Double.doubleToLongBits(value));
+        }
+
+        public void add(double delta) {
+            while (true) {
+                long bits = mBits.get();
+                long updated = Double.doubleToLongBits(Double.longBitsToDouble(bits) + delta);
+                if (mBits.compareAndSet(bits, updated)) {
+                    return;
+                }
+            }
+        }
+
+        public double get() {
+            return Double.longBitsToDouble(mBits.get());
+        }
+
+        @Override
+        String getType() {
+            return "gauge";
+        }
+
+        @Override
+        void writeSamples(Appendable out, String timestamp) throws IOException {
+            writeSample(out, getName(), Double.toString(get()), timestamp);
+        }
+
+    }
+
+    /**
+     * A distribution of durations in power-of-two buckets from 1 microsecond to about 67
+     * seconds. Unlike {@link LatencyHistogram}, it can be updated from any thread without a lock.
+     */
+    public static final class Histogram extends Metric {
+
+        /**
+         * The last slot counts the durations above the largest bucket.
+         */
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT + 1);
+
+        private final AtomicLong mSumMicros = new AtomicLong();
+
+        Histogram(String name, String help) {
+            super(name, help);
+        }
+
+        public void record(long micros) {
+            long clamped = Math.max(0, micros);
+            int bucket = clamped <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(clamped - 1);
+            mBuckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT));
+            mSumMicros.addAndGet(clamped);
+        }
+
+        /**
+         * Records the time elapsed since {@code startNanos}, from {@link System#nanoTime()}.
+         */
+        public void recordSince(long startNanos) {
+            record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i <= BUCKET_COUNT; i++) {
+                count += mBuckets.get(i);
+            }
+            return count;
+        }
+
+        public long getSumMicros() {
+            return mSumMicros.get();
+        }
+
+        @Override
+        String getType() {
+            return "histogram";
+        }
+
+        @Override
+        void writeSamples(Appendable out, String timestamp) throws IOException {
+            // The count is taken from the buckets, so that the snapshot is consistent even when
+            // records come in while it is written.
+            long cumulative = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                cumulative += mBuckets.get(i);
+                writeSample(out, getName() + "_bucket{le=\"" + (double) (1L << i) / 1000000
+                        + "\"}", Long.toString(cumulative), timestamp);
+            }
+            cumulative += mBuckets.get(BUCKET_COUNT);
+            writeSample(out, getName() + "_bucket{le=\"+Inf\"}", Long.toString(cumulative),
+                    timestamp);
+            writeSample(out, getName() + "_sum",
+                    Double.toString((double) mSumMicros.get() / 1000000), timestamp);
+            writeSample(out, getName() + "_count", Long.toString(cumulative), timestamp);
+        }
+
+    }
+
+}
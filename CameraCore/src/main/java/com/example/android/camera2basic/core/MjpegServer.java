@@ -0,0 +1,755 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A minimal HTTP server on the loopback interface for watching a camera from a workstation, e.g.
+ * through {@code adb forward tcp:8080 tcp:8080}. It serves
+ * <ul>
+ * <li>{@code /stream}: the frames given to {@link #publishFrame(BufferPool.Lease)} as a
+ * {@code multipart/x-mixed-replace} MJPEG stream,</li>
+ * <li>{@code /still.jpg}: the capture given to {@link #setLatestStill(SavedCapture)},</li>
+ * <li>{@code /}: a page showing both.</li>
+ * </ul>
+ *
+ * <p>Everything runs on a single thread with a non-blocking {@link Selector}. Frames are written
+ * straight from the leased buffers with gathering writes, shared by all clients, and the lease
+ * goes back to its pool when the last client is done with it. A client whose socket is still busy
+ * with an older frame skips the frames that arrive meanwhile and then gets the newest one, so a
+ * slow client never queues frames nor holds up the others.</p>
+ *
+ * <p>Thread-safe.</p>
+ */
+public class MjpegServer {
+
+    private static final Logger LOG = Logger.getLogger("MjpegServer");
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final String BOUNDARY = "frame";
+
+    /**
+     * Requests larger than this are answered with an error.
+     */
+    private static final int MAX_REQUEST_BYTES = 4096;
+
+    /**
+     * Number of disconnected clients whose stats are kept for {@link #toString()}.
+     */
+    private static final int CLIENT_HISTORY = 4;
+
+    private static final byte[] PAGE = ("<!DOCTYPE html><html><head><title>Camera</title></head>"
+            + "<body style=\"background:#000;color:#ccc;font-family:sans-serif\">"
+            + "<p>Live</p><img src=\"/stream\">"
+            + "<p>Latest still</p><a href=\"/still.jpg\"><img src=\"/still.jpg\" width=\"320\"></a>"
+            + "</body></html>").getBytes(ASCII);
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    /**
+     * The frame handed over by {@link #publishFrame(BufferPool.Lease)} and not yet picked up by
+     * the server thread.
+     */
+    private final AtomicReference<Frame> mPendingFrame = new AtomicReference<>();
+
+    private final AtomicReference<SavedCapture> mLatestStill = new AtomicReference<>();
+
+    private final List<Client> mClients = new CopyOnWriteArrayList<>();
+
+    private final ArrayDeque<String> mClientHistory = new ArrayDeque<>();
+
+    private final AtomicLong mPublishedCount = new AtomicLong();
+
+    /**
+     * Frames replaced by a newer one before the server thread picked them up.
+     */
+    private final AtomicLong mOverrunCount = new AtomicLong();
+
+    private volatile int mStreamingClientCount;
+
+    private Selector mSelector;
+
+    private ServerSocketChannel mServerChannel;
+
+    private Thread mThread;
+
+    private volatile boolean mRunning;
+
+    // The fields below are only accessed on the server thread.
+
+    /**
+     * The newest frame, sent to clients as soon as their socket is free.
+     */
+    private Frame mLatestFrame;
+
+    private long mFrameSequence;
+
+    /**
+     * Starts listening on 127.0.0.1.
+     *
+     * @param port The port, or 0 for any free one.
+     * @return The port listened on.
+     */
+    public synchronized int start(int port) throws IOException {
+        if (null != mThread) {
+            throw new IllegalStateException("Already started");
+        }
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        try {
+            mServerChannel.socket().setReuseAddress(true);
+            mServerChannel.socket().bind(
+                    new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+            mServerChannel.configureBlocking(false);
+            mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            mServerChannel.close();
+            mSelector.close();
+            throw e;
+        }
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "MjpegServer");
+        mThread.start();
+        int boundPort = mServerChannel.socket().getLocalPort();
+        LOG.info("Listening on 127.0.0.1:" + boundPort);
+        return boundPort;
+    }
+
+    /**
+     * Disconnects all clients, stops listening and releases all frames. Blocks until the server
+     * thread has ended.
+     */
+    public synchronized void stop() {
+        if (null == mThread) {
+            return;
+        }
+        mRunning = false;
+        mSelector.wakeup();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+        Frame pending = mPendingFrame.getAndSet(null);
+        if (null != pending) {
+            pending.mLease.release();
+        }
+    }
+
+    /**
+     * @return Whether a client is watching {@code /stream}; encoding frames is pointless
+     * otherwise.
+     */
+    public boolean hasStreamingClients() {
+        return mStreamingClientCount > 0;
+    }
+
+    /**
+     * Hands a JPEG over to the streaming clients. Never blocks.
+     *
+     * @param jpeg A lease whose buffer holds the JPEG between position 0 and its limit. The server
+     *             takes ownership and releases it, also when it is not running.
+     */
+    public void publishFrame(BufferPool.Lease jpeg) {
+        if (!mRunning) {
+            jpeg.release();
+            return;
+        }
+        mPublishedCount.incrementAndGet();
+        Frame replaced = mPendingFrame.getAndSet(new Frame(jpeg));
+        if (null != replaced) {
+            mOverrunCount.incrementAndGet();
+            replaced.mLease.release();
+        }
+        Selector selector = mSelector;
+        if (null != selector) {
+            selector.wakeup();
+        }
+        // stop() may have drained the pending frame before ours arrived.
+        if (!mRunning) {
+            Frame orphan = mPendingFrame.getAndSet(null);
+            if (null != orphan) {
+                orphan.mLease.release();
+            }
+        }
+    }
+
+    /**
+     * Sets the file served at {@code /still.jpg}.
+     */
+    public void setLatestStill(File file) {
+        // Served up to the end of the file as it is when requested.
+        mLatestStill.set(new SavedCapture(file, 0, Long.MAX_VALUE));
+    }
+
+    /**
+     * Sets the capture served at {@code /still.jpg}, which can be part of a larger file.
+     */
+    public void setLatestStill(SavedCapture capture) {
+        mLatestStill.set(capture);
+    }
+
+    public long getPublishedCount() {
+        return mPublishedCount.get();
+    }
+
+    /**
+     * @return The number of published frames that no client could be sent because a newer one
+     * arrived first.
+     */
+    public long getOverrunCount() {
+        return mOverrunCount.get();
+    }
+
+    /**
+     * @return A snapshot of the stats of the connected clients.
+     */
+    public List<ClientStats> getClientStats() {
+        List<ClientStats> stats = new ArrayList<>();
+        for (Client client : mClients) {
+            stats.add(client.getStats());
+        }
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("published=").append(mPublishedCount.get())
+                .append(" overruns=").append(mOverrunCount.get())
+                .append(" clients=").append(mClients.size());
+        for (ClientStats stats : getClientStats()) {
+            builder.append(" [").append(stats).append(']');
+        }
+        synchronized (mClientHistory) {
+            for (String closed : mClientHistory) {
+                builder.append(" [closed ").append(closed).append(']');
+            }
+        }
+        return builder.toString();
+    }
+
+    private void serve() {
+        try {
+            while (mRunning) {
+                mSelector.select();
+                Frame frame = mPendingFrame.getAndSet(null);
+                if (null != frame) {
+                    onFrame(frame);
+                }
+                for (SelectionKey key : mSelector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            client.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            client.onWritable();
+                        }
+                    } catch (IOException e) {
+                        client.close();
+                    }
+                }
+                mSelector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Server failed", e);
+        } finally {
+            for (Client client : mClients) {
+                client.close();
+            }
+            if (null != mLatestFrame) {
+                mLatestFrame.unref();
+                mLatestFrame = null;
+            }
+            try {
+                mServerChannel.close();
+                mSelector.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to close the server", e);
+            }
+        }
+    }
+
+    /**
+     * Accepts a pending connection. A connection that fails while it is set up, e.g. because it
+     * was reset during the handshake, is closed on its own; the server and the other clients go
+     * on.
+     */
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = mServerChannel.accept();
+            if (null == channel) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Client client = new Client(channel);
+            client.mKey = channel.register(mSelector, SelectionKey.OP_READ, client);
+            mClients.add(client);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to accept a connection", e);
+            if (null != channel) {
+                try {
+                    channel.close();
+                } catch (IOException closeFailure) {
+                    LOG.log(Level.FINE, "Failed to close the connection", closeFailure);
+                }
+            }
+        }
+    }
+
+    private void onFrame(Frame frame) {
+        frame.mSequence = ++mFrameSequence;
+        if (null != mLatestFrame) {
+            mLatestFrame.unref();
+        }
+        mLatestFrame = frame;
+        for (Client client : mClients) {
+            if (!client.mStreaming) {
+                continue;
+            }
+            try {
+                client.offer(frame);
+            } catch (IOException e) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * A published JPEG, shared by the clients that send it. Only used on the server thread.
+     */
+    private static class Frame {
+
+        private final BufferPool.Lease mLease;
+
+        private final ByteBuffer mData;
+
+        private long mSequence;
+
+        /**
+         * One for being the latest frame, plus one for each client sending it.
+         */
+        private int mReferences = 1;
+
+        Frame(BufferPool.Lease lease) {
+            mLease = lease;
+            mData = lease.getBuffer();
+        }
+
+        void unref() {
+            if (--mReferences == 0) {
+                mLease.release();
+            }
+        }
+
+    }
+
+    /**
+     * The stats of one client.
+     */
+    public static final class ClientStats {
+
+        private final String mAddress;
+
+        private final String mPath;
+
+        private final long mConnectedMillis;
+
+        private final long mBytesSent;
+
+        private final long mFramesSent;
+
+        private final long mFramesDropped;
+
+        ClientStats(String address, String path, long connectedMillis, long bytesSent,
+                    long framesSent, long framesDropped) {
+            mAddress = address;
+            mPath = path;
+            mConnectedMillis = connectedMillis;
+            mBytesSent = bytesSent;
+            mFramesSent = framesSent;
+            mFramesDropped = framesDropped;
+        }
+
+        public String getAddress() {
+            return mAddress;
+        }
+
+        /**
+         * @return The requested path, or null before the request has been read.
+         */
+        public String getPath() {
+            return mPath;
+        }
+
+        public long getConnectedMillis() {
+            return mConnectedMillis;
+        }
+
+        public long getBytesSent() {
+            return mBytesSent;
+        }
+
+        public long getFramesSent() {
+            return mFramesSent;
+        }
+
+        /**
+         * @return The frames skipped because the socket was still busy with an older one.
+         */
+        public long getFramesDropped() {
+            return mFramesDropped;
+        }
+
+        /**
+         * @return The average throughput since the client connected, in kB per second.
+         */
+        public double getKilobytesPerSecond() {
+            return mBytesSent / 1024.0 / Math.max(1, mConnectedMillis) * 1000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %s %ds frames=%d dropped=%d %.1fkB/s", mAddress,
+                    mPath, mConnectedMillis / 1000, mFramesSent, mFramesDropped,
+                    getKilobytesPerSecond());
+        }
+
+    }
+
+    /**
+     * A connection. Apart from the volatile stats, only used on the server thread.
+     */
+    private class Client {
+
+        private final SocketChannel mChannel;
+
+        private final String mAddress;
+
+        private final long mConnectedAtNanos = System.nanoTime();
+
+        private final ByteBuffer mRequest = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+
+        /**
+         * The part header, the JPEG and the trailing CRLF of the frame being sent.
+         */
+        private final ByteBuffer[] mFrameBuffers = {ByteBuffer.allocate(128), null,
+                ByteBuffer.wrap(CRLF)};
+
+        private SelectionKey mKey;
+
+        private volatile String mPath;
+
+        private volatile long mBytesSent;
+
+        private volatile long mFramesSent;
+
+        private volatile long mFramesDropped;
+
+        private boolean mStreaming;
+
+        /**
+         * The response of a plain request.
+         */
+        private ByteBuffer mResponse;
+
+        private FileChannel mFile;
+
+        /**
+         * Where the response ends in {@link #mFile}.
+         */
+        private long mFileEnd;
+
+        /**
+         * The frame being sent, or null if the socket is free.
+         */
+        private Frame mFrame;
+
+        private long mLastSequence;
+
+        /**
+         * Whether a frame arrived while the socket was busy.
+         */
+        private boolean mFramePending;
+
+        private boolean mClosed;
+
+        Client(SocketChannel channel) {
+            mChannel = channel;
+            mAddress = String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+
+        ClientStats getStats() {
+            return new ClientStats(mAddress, mPath,
+                    (System.nanoTime() - mConnectedAtNanos) / 1000000L, mBytesSent,
+                    mFramesSent, mFramesDropped);
+        }
+
+        void onReadable() throws IOException {
+            if (null != mPath) {
+                // Clients don't send anything after the request; this is how we learn about EOF.
+                ByteBuffer discard = mRequest;
+                discard.clear();
+                if (mChannel.read(discard) < 0) {
+                    close();
+                }
+                return;
+            }
+            if (mChannel.read(mRequest) < 0) {
+                close();
+                return;
+            }
+            String request = new String(mRequest.array(), 0, mRequest.position(), ASCII);
+            if (!request.contains("\r\n\r\n")) {
+                if (!mRequest.hasRemaining()) {
+                    mPath = "";
+                    respond("413 Request Entity Too Large", "text/plain", null);
+                }
+                return;
+            }
+            String[] line = request.substring(0, request.indexOf("\r\n")).split(" ");
+            mPath = line.length > 1 ? line[1] : "";
+            if (!"GET".equals(line[0])) {
+                respond("405 Method Not Allowed", "text/plain", null);
+            } else if ("/".equals(mPath)) {
+                respond("200 OK", "text/html", ByteBuffer.wrap(PAGE));
+            } else if ("/stream".equals(mPath)) {
+                startStream();
+            } else if ("/still.jpg".equals(mPath)) {
+                sendStill();
+            } else {
+                respond("404 Not Found", "text/plain", null);
+            }
+        }
+
+        void onWritable() throws IOException {
+            if (null != mFrame) {
+                writeFrame();
+            } else if (null != mResponse) {
+                writeResponse();
+            }
+        }
+
+        /**
+         * Sends a new frame right away if the socket is free, or else remembers that the newest
+         * frame is still to be sent.
+         */
+        void offer(Frame frame) throws IOException {
+            if (null == mFrame && null == mResponse) {
+                startFrame(frame);
+            } else if (mFramePending) {
+                // The frame that was waiting has been replaced before it could be sent.
+                mFramesDropped++;
+            } else {
+                mFramePending = true;
+            }
+        }
+
+        private void startStream() throws IOException {
+            mResponse = ascii("HTTP/1.0 200 OK\r\n"
+                    + "Content-Type: multipart/x-mixed-replace; boundary=" + BOUNDARY + "\r\n"
+                    + "Cache-Control: no-cache, no-store\r\n"
+                    + "Pragma: no-cache\r\n"
+                    + "Connection: close\r\n\r\n");
+            mStreaming = true;
+            mStreamingClientCount++;
+            mFramePending = null != mLatestFrame;
+            writeResponse();
+        }
+
+        private void sendStill() throws IOException {
+            SavedCapture still = mLatestStill.get();
+            if (null == still || !still.getFile().isFile()) {
+                respond("404 Not Found", "text/plain", null);
+                return;
+            }
+            mFile = new FileInputStream(still.getFile()).getChannel();
+            mFile.position(still.getOffset());
+            mFileEnd = Math.min(mFile.size(), still.getOffset() + still.getByteCount());
+            mResponse = ascii("HTTP/1.0 200 OK\r\n"
+                    + "Content-Type: image/jpeg\r\n"
+                    + "Content-Length: " + (mFileEnd - still.getOffset()) + "\r\n"
+                    + "Cache-Control: no-cache, no-store\r\n"
+                    + "Connection: close\r\n\r\n");
+            writeResponse();
+        }
+
+        private void respond(String status, String type, ByteBuffer body) throws IOException {
+            if (null == body) {
+                body = ascii(status + "\n");
+            }
+            ByteBuffer header = ascii("HTTP/1.0 " + status + "\r\n"
+                    + "Content-Type: " + type + "\r\n"
+                    + "Content-Length: " + body.remaining() + "\r\n"
+                    + "Connection: close\r\n\r\n");
+            mResponse = ByteBuffer.allocate(header.remaining() + body.remaining());
+            mResponse.put(header).put(body).flip();
+            writeResponse();
+        }
+
+        /**
+         * Writes the headers, then the file if any, then closes unless streaming.
+         */
+        private void writeResponse() throws IOException {
+            mBytesSent += mChannel.write(mResponse);
+            if (mResponse.hasRemaining()) {
+                setWriteInterest(true);
+                return;
+            }
+            if (null != mFile) {
+                long position = mFile.position();
+                while (position < mFileEnd) {
+                    long sent = mFile.transferTo(position, mFileEnd - position, mChannel);
+                    if (sent <= 0) {
+                        mFile.position(position);
+                        setWriteInterest(true);
+                        return;
+                    }
+                    position += sent;
+                    mBytesSent += sent;
+                }
+            }
+            mResponse = null;
+            if (!mStreaming) {
+                close();
+                return;
+            }
+            setWriteInterest(false);
+            sendPendingFrame();
+        }
+
+        private void startFrame(Frame frame) throws IOException {
+            frame.mReferences++;
+            mFrame = frame;
+            mFramePending = false;
+            ByteBuffer header = mFrameBuffers[0];
+            header.clear();
+            header.put(("--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: "
+                    + frame.mData.limit() + "\r\n\r\n").getBytes(ASCII)).flip();
+            // Each client needs its own position into the shared buffer.
+            ByteBuffer data = frame.mData.duplicate();
+            data.position(0);
+            mFrameBuffers[1] = data;
+            mFrameBuffers[2].rewind();
+            writeFrame();
+        }
+
+        private void writeFrame() throws IOException {
+            mBytesSent += mChannel.write(mFrameBuffers);
+            if (mFrameBuffers[2].hasRemaining()) {
+                setWriteInterest(true);
+                return;
+            }
+            mLastSequence = mFrame.mSequence;
+            mFramesSent++;
+            mFrame.unref();
+            mFrame = null;
+            mFrameBuffers[1] = null;
+            setWriteInterest(false);
+            sendPendingFrame();
+        }
+
+        private void sendPendingFrame() throws IOException {
+            if (mFramePending && null != mLatestFrame && mLatestFrame.mSequence > mLastSequence) {
+                startFrame(mLatestFrame);
+            }
+        }
+
+        private void setWriteInterest(boolean write) {
+            if (mKey.isValid()) {
+                mKey.interestOps(write ? SelectionKey.OP_WRITE | SelectionKey.OP_READ
+                        : SelectionKey.OP_READ);
+            }
+        }
+
+        void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (mStreaming) {
+                ClientStats stats = getStats();
+                LOG.info("Client disconnected: " + stats);
+                synchronized (mClientHistory) {
+                    if (mClientHistory.size() == CLIENT_HISTORY) {
+                        mClientHistory.poll();
+                    }
+                    mClientHistory.add(stats.toString());
+                }
+                mStreamingClientCount--;
+            }
+            mClients.remove(this);
+            if (null != mFrame) {
+                mFrame.unref();
+                mFrame = null;
+            }
+            try {
+                if (null != mFile) {
+                    mFile.close();
+                }
+                mKey.cancel();
+                mChannel.close();
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Failed to close " + mAddress, e);
+            }
+        }
+
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(ASCII));
+    }
+
+}
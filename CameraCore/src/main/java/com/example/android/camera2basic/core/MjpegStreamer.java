@@ -0,0 +1,277 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Feeds a {@link MjpegServer} from {@link CameraStreams}: encodes the analysis frames into leased
+ * buffers and points {@code /still.jpg} at the latest saved capture.
+ *
+ * <p>The frames are subscribed to with a single-item buffer that drops the oldest, so the encoder
+ * always works on the newest frame and never holds more than one camera buffer. Nothing is
+ * encoded while no client is streaming.</p>
+ *
+ * <p>A subscription whose subscriber throws is ended by the stream; it is logged and subscribed
+ * again, up to {@link #MAX_RESUBSCRIBES} times, after which the streamer reports the error through
+ * {@link #getFailure()} so that its owner can start a new one.</p>
+ */
+public class MjpegStreamer {
+
+    private static final Logger LOG = Logger.getLogger("MjpegStreamer");
+
+    /**
+     * How often the subscriptions are renewed after a failure before the streamer gives up.
+     */
+    static final int MAX_RESUBSCRIBES = 3;
+
+    private final MjpegServer mServer;
+
+    private final BufferPool mBufferPool;
+
+    private final LumaJpegEncoder mEncoder;
+
+    private final LatencyHistogram mEncodeMicros = new LatencyHistogram();
+
+    private CameraStreams mStreams;
+
+    private Executor mEncoderThread;
+
+    /**
+     * Whether the streamer is between {@link #start} and {@link #stop()}. Guarded by this, like
+     * the subscriptions.
+     */
+    private boolean mStarted;
+
+    private FrameStream.Subscription mFrameSubscription;
+
+    private FrameStream.Subscription mCaptureSubscription;
+
+    private int mResubscribeCount;
+
+    /**
+     * The error the streamer gave up on, or null.
+     */
+    private Exception mFailure;
+
+    /**
+     * The size of the buffers leased for encoding. Grows when a frame doesn't fit.
+     */
+    private int mLeaseBytes;
+
+    private long mEncodedBytes;
+
+    private long mIdleFrameCount;
+
+    /**
+     * @param quality The JPEG quality, 1 to 100.
+     */
+    public MjpegStreamer(MjpegServer server, BufferPool bufferPool, int quality) {
+        mServer = server;
+        mBufferPool = bufferPool;
+        mEncoder = new LumaJpegEncoder(quality);
+    }
+
+    /**
+     * Subscribes to the analysis frames and the captures of {@code streams}.
+     *
+     * @param encoderThread Runs the encoder; a single thread that is not the camera thread.
+     */
+    public synchronized void start(CameraStreams streams, Executor encoderThread) {
+        mStreams = streams;
+        mEncoderThread = encoderThread;
+        mStarted = true;
+        mFrameSubscription = subscribeFrames();
+        mCaptureSubscription = subscribeCaptures();
+    }
+
+    /**
+     * Cancels the subscriptions.
+     */
+    public synchronized void stop() {
+        mStarted = false;
+        if (null != mFrameSubscription) {
+            mFrameSubscription.cancel();
+            mFrameSubscription = null;
+        }
+        if (null != mCaptureSubscription) {
+            mCaptureSubscription.cancel();
+            mCaptureSubscription = null;
+        }
+    }
+
+    /**
+     * @return The error after which the streamer stopped encoding, or null while it works.
+     */
+    public synchronized Exception getFailure() {
+        return mFailure;
+    }
+
+    @Override
+    public String toString() {
+        String failure;
+        synchronized (this) {
+            failure = "resubscribes=" + mResubscribeCount
+                    + (null == mFailure ? "" : " failure=" + mFailure);
+        }
+        synchronized (mEncodeMicros) {
+            long count = mEncodeMicros.getCount();
+            return "encoded=" + count + " idle=" + mIdleFrameCount
+                    + " meanKB=" + (0 == count ? 0 : mEncodedBytes / count / 1024)
+                    + " encodeUs=" + mEncodeMicros + " " + failure;
+        }
+    }
+
+    private FrameStream.Subscription subscribeFrames() {
+        return mStreams.getAnalysisFrames().subscribe(new FrameSubscriber(), mEncoderThread, 1,
+                FrameStream.Overflow.DROP_OLDEST);
+    }
+
+    private FrameStream.Subscription subscribeCaptures() {
+        return mStreams.getCaptures().subscribe(new CaptureSubscriber(), mEncoderThread, 1,
+                FrameStream.Overflow.DROP_OLDEST);
+    }
+
+    /**
+     * Subscribes {@code subscriber} again after its subscription ended with {@code e}, unless the
+     * streamer was stopped or has renewed its subscriptions too often.
+     */
+    private synchronized void onSubscriptionFailed(FrameStream.Subscriber<?> subscriber,
+            Exception e) {
+        if (!mStarted) {
+            return;
+        }
+        if (mResubscribeCount >= MAX_RESUBSCRIBES) {
+            LOG.log(Level.SEVERE, "Giving up after " + mResubscribeCount + " resubscribes", e);
+            mFailure = e;
+            stop();
+            return;
+        }
+        mResubscribeCount++;
+        LOG.log(Level.WARNING, "Subscription failed, subscribing again", e);
+        if (subscriber instanceof FrameSubscriber) {
+            mFrameSubscription = subscribeFrames();
+        } else {
+            mCaptureSubscription = subscribeCaptures();
+        }
+    }
+
+    private void encode(LumaFrame frame) {
+        if (!mServer.hasStreamingClients()) {
+            synchronized (mEncodeMicros) {
+                mIdleFrameCount++;
+            }
+            return;
+        }
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (0 == mLeaseBytes) {
+            // Enough for typical scenes at typical qualities; grown below if not.
+            mLeaseBytes = width * height / 2 + 1024;
+        }
+        long start = System.nanoTime();
+        BufferPool.Lease lease = mBufferPool.lease(mLeaseBytes);
+        int bytes;
+        try {
+            while (true) {
+                try {
+                    ByteBuffer out = lease.getBuffer();
+                    mEncoder.encode(frame.getData(), width, height, frame.getRowStride(), out);
+                    out.flip();
+                    break;
+                } catch (BufferOverflowException e) {
+                    lease.release();
+                    lease = null;
+                    mLeaseBytes = Math.min(mLeaseBytes * 2,
+                            LumaJpegEncoder.getMaxEncodedSize(width, height));
+                    lease = mBufferPool.lease(mLeaseBytes);
+                }
+            }
+            bytes = lease.getBuffer().limit();
+            // The server owns the lease from here on.
+            BufferPool.Lease encoded = lease;
+            lease = null;
+            mServer.publishFrame(encoded);
+        } finally {
+            if (null != lease) {
+                lease.release();
+            }
+        }
+        synchronized (mEncodeMicros) {
+            mEncodeMicros.record((System.nanoTime() - start) / 1000L);
+            mEncodedBytes += bytes;
+        }
+    }
+
+    /**
+     * Encodes one frame at a time, always the newest.
+     */
+    private class FrameSubscriber implements FrameStream.Subscriber<LumaFrame> {
+
+        private FrameStream.Subscription mSubscription;
+
+        @Override
+        public void onSubscribe(FrameStream.Subscription subscription) {
+            mSubscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(LumaFrame frame) {
+            encode(frame);
+            mSubscription.request(1);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            onSubscriptionFailed(this, e);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+    }
+
+    private class CaptureSubscriber implements FrameStream.Subscriber<SavedCapture> {
+
+        @Override
+        public void onSubscribe(FrameStream.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(SavedCapture capture) {
+            mServer.setLatestStill(capture);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            onSubscriptionFailed(this, e);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+    }
+
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds motion in a sequence of luma frames by block-wise differencing against a background
+ * model.
+ *
+ * <p>Every frame is downscaled to one mean per block of {@code blockSize} by {@code blockSize}
+ * pixels, reading only every {@code sampleStep}-th pixel of every {@code sampleStep}-th row. A
+ * block has changed if its mean differs from the background by more than the threshold, or by
+ * more than {@link #NOISE_FACTOR} times its usual deviation if the block is noisy. The background
+ * and the deviation are exponential moving averages, so slow changes like daylight are learned
+ * away; changed blocks are learned much more slowly, so that something that stops moving becomes
+ * background after a while instead of triggering forever. A frame has motion if enough blocks
+ * changed.</p>
+ *
+ * <p>The buffers are primitive arrays allocated for the first frame and reused as long as the
+ * frame size doesn't change, so detection doesn't allocate. Not thread-safe; meant to be fed from
+ * a single thread.</p>
+ */
+public class MotionDetector {
+
+    private static final MetricsRegistry.Histogram DETECT_LATENCY = MetricsRegistry.getDefault()
+            .histogram("motion_detect_seconds", "Time to look for motion in an analysis frame");
+
+    private static final MetricsRegistry.Counter EVENTS = MetricsRegistry.getDefault().counter(
+            "motion_frames_total", "Analysis frames with motion");
+
+    /**
+     * How many times its mean deviation a noisy block must change by.
+     */
+    private static final float NOISE_FACTOR = 3f;
+
+    /**
+     * How much slower changed blocks are learned into the background than unchanged ones.
+     */
+    private static final float CHANGED_LEARNING_DIVISOR = 16f;
+
+    /**
+     * Frames after the first one during which the deviations settle and no motion is reported.
+     */
+    private static final int WARM_UP_FRAMES = 8;
+
+    private final int mBlockSize;
+
+    private final int mSampleStep;
+
+    private int mThreshold = 12;
+
+    private float mMinChangedFraction = 0.01f;
+
+    private float mLearningRate = 0.05f;
+
+    private final LatencyHistogram mDetectMicros = new LatencyHistogram();
+
+    private int mWidth;
+
+    private int mHeight;
+
+    private int mColumns;
+
+    private int mBlockCount;
+
+    /**
+     * Sampled pixels per block.
+     */
+    private int mSamplesPerBlock;
+
+    private int[] mSums;
+
+    private float[] mBackground;
+
+    private float[] mDeviation;
+
+    private int mChangedBlockCount;
+
+    /**
+     * Frames compared with the current background since it was initialized.
+     */
+    private int mBackgroundFrames;
+
+    private long mFrameCount;
+
+    private long mMotionFrameCount;
+
+    /**
+     * @param blockSize  The width and height of the blocks, in pixels.
+     * @param sampleStep The distance between two sampled pixels, and between two sampled rows;
+     *                   must divide {@code blockSize}.
+     */
+    public MotionDetector(int blockSize, int sampleStep) {
+        if (blockSize <= 0 || sampleStep <= 0 || 0 != blockSize % sampleStep) {
+            throw new IllegalArgumentException("Block size " + blockSize + ", sample step "
+                    + sampleStep);
+        }
+        mBlockSize = blockSize;
+        mSampleStep = sampleStep;
+    }
+
+    /**
+     * Sets the smallest change of the mean of a block, in luma levels, that counts as motion; 12
+     * by default.
+     */
+    public MotionDetector setThreshold(int levels) {
+        mThreshold = levels;
+        return this;
+    }
+
+    /**
+     * Sets the fraction of the blocks that must change for a frame to have motion; 1% by default,
+     * and always at least one block.
+     */
+    public MotionDetector setMinChangedFraction(float fraction) {
+        mMinChangedFraction = fraction;
+        return this;
+    }
+
+    /**
+     * Sets how fast the background follows the scene, between 0 and 1; 0.05 by default, which
+     * learns a lasting change in about 50 frames.
+     */
+    public MotionDetector setLearningRate(float rate) {
+        mLearningRate = rate;
+        return this;
+    }
+
+    /**
+     * Looks for motion in {@code frame}, and updates the background with it.
+     *
+     * @return Whether the frame has motion.
+     */
+    public boolean detect(LumaFrame frame) {
+        return detect(frame.getData(), frame.getWidth(), frame.getHeight(),
+                frame.getRowStride());
+    }
+
+    /**
+     * Looks for motion in a luma plane, and updates the background with it. The position of
+     * {@code data} is not moved.
+     *
+     * @param data      The luma plane, one byte per pixel.
+     * @param width     The width of the frame in pixels.
+     * @param height    The height of the frame in pixels.
+     * @param rowStride The distance between the starts of two rows in bytes.
+     * @return Whether the frame has motion.
+     */
+    public boolean detect(ByteBuffer data, int width, int height, int rowStride) {
+        long start = System.nanoTime();
+        boolean first = width != mWidth || height != mHeight;
+        if (first) {
+            allocate(width, height);
+        }
+        downscale(data, rowStride);
+        boolean motion = compare(first);
+        mFrameCount++;
+        long micros = (System.nanoTime() - start) / 1000L;
+        mDetectMicros.record(micros);
+        DETECT_LATENCY.record(micros);
+        if (motion) {
+            mMotionFrameCount++;
+            EVENTS.increment();
+        }
+        return motion;
+    }
+
+    /**
+     * Forgets the background, e.g. after the camera has moved. The next frame becomes the new
+     * background.
+     */
+    public void reset() {
+        mWidth = 0;
+        mHeight = 0;
+    }
+
+    /**
+     * @return The number of blocks that changed in the last frame.
+     */
+    public int getChangedBlockCount() {
+        return mChangedBlockCount;
+    }
+
+    /**
+     * @return The number of blocks per frame, or 0 before the first frame.
+     */
+    public int getBlockCount() {
+        return mBlockCount;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getMotionFrameCount() {
+        return mMotionFrameCount;
+    }
+
+    /**
+     * @return The time taken to look for motion per frame, in microseconds.
+     */
+    public LatencyHistogram getDetectMicros() {
+        return mDetectMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "frames=" + mFrameCount + " motion=" + mMotionFrameCount + " blocks=" + mColumns
+                + "x" + (0 == mColumns ? 0 : mBlockCount / mColumns) + " detectUs=" + mDetectMicros;
+    }
+
+    private void allocate(int width, int height) {
+        int columns = width / mBlockSize;
+        int rows = height / mBlockSize;
+        if (0 == columns || 0 == rows) {
+            throw new IllegalArgumentException("Frame " + width + "x" + height
+                    + " smaller than a block of " + mBlockSize);
+        }
+        mWidth = width;
+        mHeight = height;
+        mColumns = columns;
+        mBlockCount = columns * rows;
+        int samplesPerSide = mBlockSize / mSampleStep;
+        mSamplesPerBlock = samplesPerSide * samplesPerSide;
+        if (null == mSums || mSums.length < mBlockCount) {
+            mSums = new int[mBlockCount];
+            mBackground = new float[mBlockCount];
+            mDeviation = new float[mBlockCount];
+        }
+    }
+
+    /**
+     * Sums the sampled pixels of every block into {@link #mSums}, row by row so that the buffer is
+     * read in order.
+     */
+    private void downscale(ByteBuffer data, int rowStride) {
+        int[] sums = mSums;
+        int blockSize = mBlockSize;
+        int step = mSampleStep;
+        int columns = mColumns;
+        int usedWidth = columns * blockSize;
+        int usedHeight = mBlockCount / columns * blockSize;
+        for (int i = 0; i < mBlockCount; i++) {
+            sums[i] = 0;
+        }
+        for (int y = 0; y < usedHeight; y += step) {
+            int row = y * rowStride;
+            int block = y / blockSize * columns;
+            for (int x = 0; x < usedWidth; x += blockSize, block++) {
+                int sum = 0;
+                int end = row + x + blockSize;
+                for (int offset = row + x; offset < end; offset += step) {
+                    sum += data.get(offset) & 0xff;
+                }
+                sums[block] += sum;
+            }
+        }
+    }
+
+    /**
+     * Compares the block means with the background and learns them.
+     *
+     * @param first Whether this is the first frame, which only initializes the background.
+     * @return Whether enough blocks changed.
+     */
+    private boolean compare(boolean first) {
+        int[] sums = mSums;
+        float[] background = mBackground;
+        float[] deviation = mDeviation;
+        float samples = mSamplesPerBlock;
+        if (first) {
+            for (int i = 0; i < mBlockCount; i++) {
+                background[i] = sums[i] / samples;
+                deviation[i] = 0f;
+            }
+            mChangedBlockCount = 0;
+            mBackgroundFrames = 0;
+            return false;
+        }
+        float rate = mLearningRate;
+        float changedRate = rate / CHANGED_LEARNING_DIVISOR;
+        int changed = 0;
+        for (int i = 0; i < mBlockCount; i++) {
+            float mean = sums[i] / samples;
+            float difference = mean - background[i];
+            float magnitude = Math.abs(difference);
+            if (magnitude > mThreshold && magnitude > NOISE_FACTOR * deviation[i]) {
+                changed++;
+                background[i] += changedRate * difference;
+            } else {
+                background[i] += rate * difference;
+                deviation[i] += rate * (magnitude - deviation[i]);
+            }
+        }
+        mChangedBlockCount = changed;
+        return ++mBackgroundFrames > WARM_UP_FRAMES
+                && changed >= Math.max(1, Math.round(mMinChangedFraction * mBlockCount));
+    }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+/**
+ * Takes a still picture as soon as motion is reported, e.g. by a {@link MotionDetector}, on an
+ * {@link IntervalCaptureBackend}.
+ *
+ * <p>The 3A is locked once at the start, so a picture is a single capture request with no focus
+ * sweep and no precapture sequence, issued on the camera thread the moment the event arrives.
+ * Events are ignored while the 3A is still locking, while a picture is in flight, and for a
+ * cooldown after the event that triggered the last picture.</p>
+ *
+ * <p>The latency from the event to the exposure is the time between the sensor timestamp of the
+ * analysis frame that showed the motion and the sensor timestamp of the picture; it includes the
+ * delivery and analysis of the frame as well as the capture pipeline.</p>
+ *
+ * <p>All methods must be called on the camera thread.</p>
+ */
+public class MotionTrigger implements IntervalCaptureBackend.FrameCallback {
+
+    /**
+     * Receives the events of a {@link MotionTrigger}.
+     */
+    public interface Listener {
+
+        /**
+         * @return The JPEG orientation for the next still capture, in degrees.
+         */
+        int getJpegOrientation();
+
+        /**
+         * A still picture triggered by motion has been exposed.
+         *
+         * @param shot         The number of the picture, starting at 0.
+         * @param latencyNanos The time from the frame that showed the motion to the exposure.
+         */
+        void onMotionShot(int shot, long latencyNanos);
+
+    }
+
+    private static final MetricsRegistry.Histogram EXPOSURE_LATENCY = MetricsRegistry
+            .getDefault().histogram("motion_event_to_exposure_seconds",
+                    "Time from the analysis frame with motion to the exposure of its picture");
+
+    private static final MetricsRegistry.Counter SUPPRESSED = MetricsRegistry.getDefault()
+            .counter("motion_events_suppressed_total",
+                    "Motion events ignored during the cooldown or a capture");
+
+    /**
+     * How long after its event a picture may take before it is given up on, e.g. because its
+     * capture failed, so that the trigger doesn't wait for it forever.
+     */
+    private static final long STILL_TIMEOUT_NANOS = 2000000000L;
+
+    private static final int STATE_IDLE = 0;
+
+    private static final int STATE_LOCKING = 1;
+
+    private static final int STATE_ARMED = 2;
+
+    private final IntervalCaptureBackend mBackend;
+
+    private final long mCooldownNanos;
+
+    private final Listener mListener;
+
+    private int mState = STATE_IDLE;
+
+    private int mLockFrames;
+
+    /**
+     * The timestamp of the event of the picture in flight, or 0 if there is none.
+     */
+    private long mPendingEventNanos;
+
+    /**
+     * The timestamp of the event of the last picture, or 0 before the first one.
+     */
+    private long mLastEventNanos;
+
+    private int mEventCount;
+
+    private int mSuppressedCount;
+
+    private int mShotCount;
+
+    /**
+     * Event-to-exposure latencies.
+     */
+    private final LatencyHistogram mLatencyMicros = new LatencyHistogram();
+
+    /**
+     * @param backend       The backend; its preview must be running.
+     * @param cooldownNanos The time after an event during which further events are ignored.
+     */
+    public MotionTrigger(IntervalCaptureBackend backend, long cooldownNanos, Listener listener) {
+        if (cooldownNanos < 0) {
+            throw new IllegalArgumentException("Negative cooldown: " + cooldownNanos);
+        }
+        mBackend = backend;
+        mCooldownNanos = cooldownNanos;
+        mListener = listener;
+    }
+
+    /**
+     * Locks the 3A; pictures are taken once it reports locked.
+     */
+    public void start() {
+        if (STATE_IDLE != mState) {
+            return;
+        }
+        mState = STATE_LOCKING;
+        mLockFrames = 0;
+        mPendingEventNanos = 0;
+        mBackend.setFrameCallback(this);
+        mBackend.lock3A();
+    }
+
+    /**
+     * Stops taking pictures and unlocks the 3A.
+     */
+    public void stop() {
+        if (STATE_IDLE == mState) {
+            return;
+        }
+        mState = STATE_IDLE;
+        mBackend.setFrameCallback(null);
+        mBackend.unlock3A();
+    }
+
+    /**
+     * @return Whether the 3A is locked and events are turned into pictures.
+     */
+    public boolean isArmed() {
+        return STATE_ARMED == mState;
+    }
+
+    /**
+     * Reports motion, and takes a picture unless the event is ignored.
+     *
+     * @param frameTimestamp The sensor timestamp of the frame that showed the motion.
+     * @return Whether a picture was requested.
+     */
+    public boolean onMotion(long frameTimestamp) {
+        mEventCount++;
+        if (STATE_ARMED != mState || 0 != mPendingEventNanos
+                || (0 != mLastEventNanos && frameTimestamp - mLastEventNanos < mCooldownNanos)) {
+            mSuppressedCount++;
+            SUPPRESSED.increment();
+            return false;
+        }
+        mPendingEventNanos = frameTimestamp;
+        mLastEventNanos = frameTimestamp;
+        mBackend.captureLockedStill(mListener.getJpegOrientation());
+        return true;
+    }
+
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * @return The number of events that didn't take a picture.
+     */
+    public int getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    public int getShotCount() {
+        return mShotCount;
+    }
+
+    /**
+     * @return The event-to-exposure latencies, in microseconds.
+     */
+    public LatencyHistogram getLatencyMicros() {
+        return mLatencyMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("events=%d suppressed=%d shots=%d cooldownMs=%.0f latencyUs[%s]",
+                mEventCount, mSuppressedCount, mShotCount, mCooldownNanos / 1e6, mLatencyMicros);
+    }
+
+    @Override
+    public void onFrameResult(long sensorTimestamp, int afState, int aeState) {
+        if (STATE_ARMED == mState && 0 != mPendingEventNanos
+                && sensorTimestamp - mPendingEventNanos > STILL_TIMEOUT_NANOS) {
+            mPendingEventNanos = 0;
+        }
+        if (STATE_LOCKING != mState) {
+            return;
+        }
+        mLockFrames++;
+        if (IntervalScheduler.is3ALocked(afState, aeState)
+                || mLockFrames >= IntervalScheduler.MAX_LOCK_FRAMES) {
+            mState = STATE_ARMED;
+        }
+    }
+
+    @Override
+    public void onLockedStillCompleted(long sensorTimestamp) {
+        if (STATE_ARMED != mState || 0 == mPendingEventNanos) {
+            return;
+        }
+        long latency = sensorTimestamp - mPendingEventNanos;
+        mPendingEventNanos = 0;
+        mLatencyMicros.record(latency / 1000);
+        EXPOSURE_LATENCY.record(latency / 1000);
+        mListener.onMotionShot(mShotCount++, latency);
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link CapturePipeline.Stage} that turns the pixels of the picture upright according to its
+ * EXIF orientation, losslessly with {@link JpegRotator}, and then resets the orientation tag. This
+ * is for consumers that ignore the tag, since many HALs implement {@code JPEG_ORIENTATION} by
+ * setting the tag rather than by rotating the image.
+ *
+ * <p>Both the rotated picture and the one with the reset tag are written into buffers leased from
+ * the capture, so the stage makes no copies on the heap.</p>
+ */
+public class OrientationStage implements CapturePipeline.Stage {
+
+    /**
+     * The clockwise rotation applied to the picture in degrees, 0 if it was already upright.
+     */
+    public static final CapturePipeline.Key<Integer> ROTATION
+            = new CapturePipeline.Key<>("rotation");
+
+    /**
+     * Room for the optimized Huffman tables, on top of the size of the picture.
+     */
+    private static final int ROTATION_SLACK_BYTES = 4096;
+
+    @Override
+    public void process(CapturePipeline.Capture capture) throws IOException {
+        ByteBuffer data = capture.getData();
+        int degrees = JpegRotator.getDegrees(ExifEditor.readOrientation(data));
+        capture.set(ROTATION, degrees);
+        if (degrees == 0) {
+            return;
+        }
+        // The Huffman tables are optimized, so the rotated picture rarely grows; if it does, the
+        // rotation starts over in a larger buffer.
+        int size = data.remaining() + data.remaining() / 8 + ROTATION_SLACK_BYTES;
+        ByteBuffer rotated;
+        while (true) {
+            rotated = capture.leaseBuffer(size);
+            try {
+                JpegRotator.rotate(data, degrees, new ByteBufferOutputStream(rotated));
+                break;
+            } catch (BufferOverflowException e) {
+                size *= 2;
+            }
+        }
+        rotated.flip();
+        ExifEditor editor = new ExifEditor().setOrientation(ExifEditor.ORIENTATION_NORMAL);
+        ByteBuffer output = capture.leaseBuffer(editor.getMaxOutputSize(rotated));
+        editor.apply(rotated, output);
+        output.flip();
+        capture.setData(output);
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+/**
+ * Converts between display rotations and camera sensor orientations. Display rotations are the
+ * {@code Surface.ROTATION_*} values, 0 to 3.
+ */
+public final class Orientations {
+
+    /**
+     * Conversion from screen rotation to JPEG orientation, indexed by display rotation.
+     */
+    private static final int[] ORIENTATIONS = {90, 0, 270, 180};
+
+    private Orientations() {
+    }
+
+    /**
+     * Retrieves the JPEG orientation from the specified screen rotation.
+     *
+     * @param rotation          The screen rotation.
+     * @param sensorOrientation The orientation of the camera sensor, in degrees.
+     * @return The JPEG orientation (one of 0, 90, 270, and 360)
+     */
+    public static int getJpegOrientation(int rotation, int sensorOrientation) {
+        // Sensor orientation is 90 for most devices, or 270 for some devices (eg. Nexus 5X)
+        // We have to take that into account and rotate JPEG properly.
+        // For devices with orientation of 90, we simply return our mapping from ORIENTATIONS.
+        // For devices with orientation of 270, we need to rotate the JPEG 180 degrees.
+        return (ORIENTATIONS[rotation] + sensorOrientation + 270) % 360;
+    }
+
+    /**
+     * Finds out if we need to swap dimension to get the preview size relative to sensor
+     * coordinate.
+     *
+     * @param rotation          The screen rotation.
+     * @param sensorOrientation The orientation of the camera sensor, in degrees.
+     * @return Whether width and height of the display are swapped relative to the sensor.
+     */
+    public static boolean isSwappedDimensions(int rotation, int sensorOrientation) {
+        switch (rotation) {
+            case 0:
+            case 2:
+                return sensorOrientation == 90 || sensorOrientation == 270;
+            case 1:
+            case 3:
+                return sensorOrientation == 0 || sensorOrientation == 180;
+            default:
+                throw new IllegalArgumentException("Display rotation is invalid: " + rotation);
+        }
+    }
+
+}
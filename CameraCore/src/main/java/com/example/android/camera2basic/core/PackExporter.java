@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Turns the segments of a {@link PackStore} back into one JPEG file per capture, e.g. after they
+ * have been pulled from the device. The checksum of every record is verified while it is copied;
+ * a record that doesn't match is not exported.
+ *
+ * <p>Can be run from the command line with a segment file, or a directory of segments, and the
+ * output directory:
+ * {@code ./gradlew :CameraCore:exportPack -PpackArgs="pack pictures"}.</p>
+ */
+public class PackExporter {
+
+    private static final Logger LOG = Logger.getLogger("PackExporter");
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ByteBuffer mChunk = ByteBuffer.allocate(CHUNK_SIZE);
+
+    private int mExportedCount;
+
+    private int mCorruptCount;
+
+    private long mByteCount;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException(
+                    "Expected <segment or directory> <output directory>");
+        }
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        PackExporter exporter = new PackExporter();
+        List<File> segments = input.isDirectory() ? PackStore.listSegments(input)
+                : Collections.singletonList(input);
+        for (File segment : segments) {
+            exporter.export(segment, output);
+        }
+        System.out.println("Exported " + segments.size() + " segment(s): " + exporter);
+        System.exit(0 == exporter.getCorruptCount() ? 0 : 1);
+    }
+
+    /**
+     * Writes every record of {@code segment} into {@code directory}, as
+     * {@code <segment>-<record number>.jpg}.
+     *
+     * @return The files written, in the order of the records.
+     */
+    public List<File> export(File segment, File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create " + directory);
+        }
+        String name = segment.getName();
+        String base = name.endsWith(PackStore.SEGMENT_SUFFIX)
+                ? name.substring(0, name.length() - PackStore.SEGMENT_SUFFIX.length()) : name;
+        List<PackStore.Record> records = PackStore.readRecords(segment);
+        List<File> files = new ArrayList<>(records.size());
+        RandomAccessFile input = new RandomAccessFile(segment, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            for (int i = 0; i < records.size(); i++) {
+                File file = new File(directory,
+                        String.format(Locale.US, "%s-%05d.jpg", base, i + 1));
+                if (copy(channel, records.get(i), file)) {
+                    files.add(file);
+                }
+            }
+        } finally {
+            input.close();
+        }
+        return files;
+    }
+
+    public int getExportedCount() {
+        return mExportedCount;
+    }
+
+    /**
+     * @return The records that weren't exported because their checksum didn't match.
+     */
+    public int getCorruptCount() {
+        return mCorruptCount;
+    }
+
+    @Override
+    public String toString() {
+        return "exported=" + mExportedCount + " corrupt=" + mCorruptCount + " bytes=" + mByteCount;
+    }
+
+    /**
+     * @return Whether the record was copied; false if its checksum didn't match.
+     */
+    private boolean copy(FileChannel input, PackStore.Record record, File file)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            FileChannel channel = output.getChannel();
+            long copied = 0;
+            while (copied < record.getLength()) {
+                mChunk.clear();
+                mChunk.limit((int) Math.min(CHUNK_SIZE, record.getLength() - copied));
+                while (mChunk.hasRemaining()) {
+                    if (input.read(mChunk, record.getOffset() + copied + mChunk.position()) < 0) {
+                        throw new IOException(record + " is past the end of the segment");
+                    }
+                }
+                mChunk.flip();
+                crc.update(mChunk.array(), 0, mChunk.limit());
+                while (mChunk.hasRemaining()) {
+                    channel.write(mChunk);
+                }
+                copied += mChunk.limit();
+            }
+        } finally {
+            output.close();
+        }
+        if (crc.getValue() != record.getCrc32()) {
+            LOG.warning("Checksum mismatch in " + record + ", not exported");
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            mCorruptCount++;
+            return false;
+        }
+        mExportedCount++;
+        mByteCount += record.getLength();
+        return true;
+    }
+
+}
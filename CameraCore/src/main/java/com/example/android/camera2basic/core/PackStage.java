@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.IOException;
+
+/**
+ * A {@link CapturePipeline.Stage} that appends the encoded picture to a {@link PackStore},
+ * instead of writing it into the file of the capture like {@link PersistStage}. The checksum of
+ * {@link ChecksumStage} is reused if that stage ran before this one.
+ *
+ * <p>The store keeps the order of the records, so this stage should run with a parallelism of
+ * 1, which is the default of {@link CapturePipeline#addStage(String, CapturePipeline.Stage)}.</p>
+ */
+public class PackStage implements CapturePipeline.Stage {
+
+    /**
+     * Where the capture was stored.
+     */
+    public static final CapturePipeline.Key<PackStore.Record> RECORD
+            = new CapturePipeline.Key<>("pack_record");
+
+    private final PackStore mStore;
+
+    public PackStage(PackStore store) {
+        mStore = store;
+    }
+
+    @Override
+    public void process(CapturePipeline.Capture capture) throws IOException {
+        Long crc32 = capture.get(ChecksumStage.CRC32);
+        PackStore.Record record = null == crc32
+                ? mStore.append(capture.getData(), capture.getTimestamp())
+                : mStore.append(capture.getData(), capture.getTimestamp(), crc32);
+        capture.set(RECORD, record);
+    }
+
+}
@@ -0,0 +1,686 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Stores captures by appending them to large segment files, instead of creating one file per
+ * picture. At thousands of shots per session, the file creation, metadata updates and directory
+ * growth of the per-file mode cost more than the writes themselves; a segment is created once
+ * per {@code maxSegmentBytes} and then only grows.
+ *
+ * <p>A segment {@code seg-00000001.pack} starts with an 8-byte header and holds one record per
+ * capture: a 20-byte header with the payload length, the sensor timestamp and the CRC-32 of the
+ * payload, followed by the payload. When a segment is full, or the store is closed, it is sealed:
+ * its offset index, 24 bytes per record, is written next to it as {@code seg-00000001.idx}. A
+ * segment without a valid index was being appended to when the app died, so {@link #open()}
+ * rebuilds its index by scanning the records, truncates a torn last record and seals it; later
+ * records go into a new segment. Records whose payload doesn't match its checksum are
+ * skipped.</p>
+ *
+ * <p>Like the per-file mode, nothing is forced to storage unless {@link #sync()} is called: the
+ * recovery covers the app dying, and the checksums catch the records a power loss took.</p>
+ *
+ * <p>{@link PackExporter} turns a segment back into individual JPEG files. Thread-safe.</p>
+ */
+public class PackStore {
+
+    private static final Logger LOG = Logger.getLogger("PackStore");
+
+    private static final MetricsRegistry.Histogram APPEND_LATENCY = MetricsRegistry.getDefault()
+            .histogram("pack_append_seconds", "Time to append a capture to a pack segment");
+
+    private static final MetricsRegistry.Counter BYTES = MetricsRegistry.getDefault().counter(
+            "pack_appended_bytes_total", "Bytes appended to pack segments, headers included");
+
+    private static final MetricsRegistry.Counter SEGMENTS = MetricsRegistry.getDefault().counter(
+            "pack_segments_total", "Pack segments created");
+
+    /**
+     * The extension of segment files.
+     */
+    public static final String SEGMENT_SUFFIX = ".pack";
+
+    /**
+     * The extension of index files.
+     */
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final String SEGMENT_PREFIX = "seg-";
+
+    private static final int SEGMENT_MAGIC = 0x5041434b;
+
+    private static final int INDEX_MAGIC = 0x50494458;
+
+    private static final int RECORD_MAGIC = 0x52454331;
+
+    private static final int VERSION = 1;
+
+    private static final int SEGMENT_HEADER_BYTES = 8;
+
+    /**
+     * Magic, payload length, timestamp and payload CRC-32.
+     */
+    static final int RECORD_HEADER_BYTES = 20;
+
+    /**
+     * Payload offset, length, timestamp and CRC-32.
+     */
+    private static final int INDEX_ENTRY_BYTES = 24;
+
+    /**
+     * Magic, version and record count.
+     */
+    private static final int INDEX_HEADER_BYTES = 12;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final File mDirectory;
+
+    private final long mMaxSegmentBytes;
+
+    private final ByteBuffer mHeader = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+
+    private final ByteBuffer[] mGather = new ByteBuffer[2];
+
+    private final byte[] mChunk = new byte[CHUNK_SIZE];
+
+    private final LatencyHistogram mAppendMicros = new LatencyHistogram();
+
+    /**
+     * The sealed segments, oldest first.
+     */
+    private final List<File> mSegments = new ArrayList<>();
+
+    private boolean mOpen;
+
+    private int mNextSegmentNumber = 1;
+
+    private int mRecordCount;
+
+    private long mByteCount;
+
+    private int mRecoveredSegmentCount;
+
+    private int mCorruptRecordCount;
+
+    private long mTruncatedBytes;
+
+    // The segment being appended to, or null before the first append and after it was sealed.
+
+    private File mActive;
+
+    private FileChannel mActiveChannel;
+
+    private long mActiveSize;
+
+    /**
+     * The index of the active segment, in parallel arrays so that it takes no object per record.
+     */
+    private long[] mOffsets = new long[64];
+
+    private int[] mLengths = new int[64];
+
+    private long[] mTimestamps = new long[64];
+
+    private int[] mCrcs = new int[64];
+
+    private int mActiveCount;
+
+    /**
+     * @param directory       The directory of the segments; it should not hold anything else.
+     * @param maxSegmentBytes The size from which a segment is sealed and a new one started. A
+     *                        record larger than that gets a segment of its own.
+     */
+    public PackStore(File directory, long maxSegmentBytes) {
+        mDirectory = directory;
+        mMaxSegmentBytes = maxSegmentBytes;
+    }
+
+    /**
+     * Opens the store, creating the directory if needed, and recovers the segments left behind
+     * by a crash.
+     */
+    public synchronized void open() throws IOException {
+        if (mOpen) {
+            return;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Couldn't create " + mDirectory);
+        }
+        mSegments.clear();
+        mRecordCount = 0;
+        mByteCount = 0;
+        for (File segment : listSegments(mDirectory)) {
+            List<Record> records = readValidIndex(segment);
+            if (null == records) {
+                records = recover(segment);
+            }
+            mSegments.add(segment);
+            mRecordCount += records.size();
+            mByteCount += segment.length();
+            mNextSegmentNumber = Math.max(mNextSegmentNumber, segmentNumber(segment) + 1);
+        }
+        mOpen = true;
+    }
+
+    /**
+     * Appends a capture, computing the checksum of its payload.
+     *
+     * @param data      The payload, from its position to its limit. The position is not moved.
+     * @param timestamp The sensor timestamp of the capture, in nanoseconds.
+     * @return Where the capture was stored.
+     */
+    public synchronized Record append(ByteBuffer data, long timestamp) throws IOException {
+        return append(data, timestamp, crc32(data.duplicate(), mChunk));
+    }
+
+    /**
+     * Appends a capture whose checksum is already known, e.g. from {@link ChecksumStage}.
+     *
+     * @param crc32 The CRC-32 of the payload.
+     */
+    public synchronized Record append(ByteBuffer data, long timestamp, long crc32)
+            throws IOException {
+        if (!mOpen) {
+            throw new IllegalStateException("Not open");
+        }
+        long start = System.nanoTime();
+        int length = data.remaining();
+        if (null != mActive && mActiveCount > 0
+                && mActiveSize + RECORD_HEADER_BYTES + length > mMaxSegmentBytes) {
+            seal();
+        }
+        if (null == mActive) {
+            startSegment();
+        }
+        mHeader.clear();
+        mHeader.putInt(RECORD_MAGIC).putInt(length).putLong(timestamp).putInt((int) crc32);
+        mHeader.flip();
+        ByteBuffer payload = data.duplicate();
+        mGather[0] = mHeader;
+        mGather[1] = payload;
+        long recordOffset = mActiveSize;
+        try {
+            while (mHeader.hasRemaining() || payload.hasRemaining()) {
+                mActiveChannel.write(mGather);
+            }
+        } catch (IOException e) {
+            // Leave no partial record behind for the next append to follow.
+            mActiveChannel.truncate(recordOffset);
+            throw e;
+        } finally {
+            mGather[1] = null;
+        }
+        mActiveSize += RECORD_HEADER_BYTES + length;
+        addToIndex(recordOffset + RECORD_HEADER_BYTES, length, timestamp, (int) crc32);
+        mRecordCount++;
+        mByteCount += RECORD_HEADER_BYTES + length;
+        BYTES.add(RECORD_HEADER_BYTES + length);
+        APPEND_LATENCY.recordSince(start);
+        mAppendMicros.record((System.nanoTime() - start) / 1000);
+        return new Record(mActive, recordOffset + RECORD_HEADER_BYTES, length, timestamp,
+                (int) crc32);
+    }
+
+    /**
+     * Forces the records appended so far to storage.
+     */
+    public synchronized void sync() throws IOException {
+        if (null != mActiveChannel) {
+            mActiveChannel.force(false);
+        }
+    }
+
+    /**
+     * Seals the active segment, if any, so that it no longer needs to be recovered.
+     */
+    public synchronized void close() throws IOException {
+        if (!mOpen) {
+            return;
+        }
+        mOpen = false;
+        if (null != mActive) {
+            seal();
+        }
+    }
+
+    /**
+     * @return The segment files, oldest first, including the one being appended to.
+     */
+    public synchronized List<File> getSegments() {
+        List<File> segments = new ArrayList<>(mSegments);
+        if (null != mActive) {
+            segments.add(mActive);
+        }
+        return segments;
+    }
+
+    public synchronized int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * @return The size of all segments.
+     */
+    public synchronized long getByteCount() {
+        return mByteCount;
+    }
+
+    /**
+     * @return The segments whose index had to be rebuilt by {@link #open()}.
+     */
+    public synchronized int getRecoveredSegmentCount() {
+        return mRecoveredSegmentCount;
+    }
+
+    /**
+     * @return The records skipped by {@link #open()} because their checksum didn't match.
+     */
+    public synchronized int getCorruptRecordCount() {
+        return mCorruptRecordCount;
+    }
+
+    /**
+     * @return The bytes of torn records cut off by {@link #open()}.
+     */
+    public synchronized long getTruncatedBytes() {
+        return mTruncatedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "segments=" + (mSegments.size() + (null == mActive ? 0 : 1))
+                + " records=" + mRecordCount + " bytes=" + mByteCount
+                + " recovered=" + mRecoveredSegmentCount + " corrupt=" + mCorruptRecordCount
+                + " truncated=" + mTruncatedBytes + " appendUs=" + mAppendMicros;
+    }
+
+    /**
+     * Lists the records of a segment, from its index if it has a valid one, otherwise by scanning
+     * it. The segment is not modified.
+     */
+    public static List<Record> readRecords(File segment) throws IOException {
+        List<Record> records = readValidIndex(segment);
+        if (null != records) {
+            return records;
+        }
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        try {
+            return scan(segment, file.getChannel(), new byte[CHUNK_SIZE]).mRecords;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return The segment files in {@code directory}, oldest first.
+     */
+    public static List<File> listSegments(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().startsWith(SEGMENT_PREFIX)
+                        && file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (null == files) {
+            return Collections.emptyList();
+        }
+        // The numbers are zero-padded, so the names sort like the numbers.
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    static long crc32(ByteBuffer data, byte[] chunk) {
+        CRC32 crc = new CRC32();
+        if (data.hasArray()) {
+            crc.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            while (data.hasRemaining()) {
+                int length = Math.min(chunk.length, data.remaining());
+                data.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private void startSegment() throws IOException {
+        File segment = new File(mDirectory, String.format(Locale.US, "%s%08d%s", SEGMENT_PREFIX,
+                mNextSegmentNumber++, SEGMENT_SUFFIX));
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        FileChannel channel = file.getChannel();
+        try {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+            header.putInt(SEGMENT_MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        mActive = segment;
+        mActiveChannel = channel;
+        mActiveSize = SEGMENT_HEADER_BYTES;
+        mActiveCount = 0;
+        mByteCount += SEGMENT_HEADER_BYTES;
+        SEGMENTS.increment();
+    }
+
+    private void seal() throws IOException {
+        File segment = mActive;
+        FileChannel channel = mActiveChannel;
+        mActive = null;
+        mActiveChannel = null;
+        channel.close();
+        writeIndex(segment, mOffsets, mLengths, mTimestamps, mCrcs, mActiveCount);
+        mSegments.add(segment);
+        mActiveCount = 0;
+    }
+
+    private void addToIndex(long offset, int length, long timestamp, int crc) {
+        if (mActiveCount == mOffsets.length) {
+            int capacity = mActiveCount * 2;
+            mOffsets = Arrays.copyOf(mOffsets, capacity);
+            mLengths = Arrays.copyOf(mLengths, capacity);
+            mTimestamps = Arrays.copyOf(mTimestamps, capacity);
+            mCrcs = Arrays.copyOf(mCrcs, capacity);
+        }
+        mOffsets[mActiveCount] = offset;
+        mLengths[mActiveCount] = length;
+        mTimestamps[mActiveCount] = timestamp;
+        mCrcs[mActiveCount] = crc;
+        mActiveCount++;
+    }
+
+    /**
+     * Rebuilds the index of a segment that wasn't sealed, cutting off a torn last record.
+     */
+    private List<Record> recover(File segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        Scan scan;
+        try {
+            FileChannel channel = file.getChannel();
+            scan = scan(segment, channel, mChunk);
+            long torn = channel.size() - scan.mEnd;
+            if (torn > 0) {
+                channel.truncate(scan.mEnd);
+                mTruncatedBytes += torn;
+            }
+        } finally {
+            file.close();
+        }
+        List<Record> records = scan.mRecords;
+        int count = records.size();
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        long[] timestamps = new long[count];
+        int[] crcs = new int[count];
+        for (int i = 0; i < count; i++) {
+            Record record = records.get(i);
+            offsets[i] = record.mOffset;
+            lengths[i] = record.mLength;
+            timestamps[i] = record.mTimestamp;
+            crcs[i] = record.mCrc;
+        }
+        writeIndex(segment, offsets, lengths, timestamps, crcs, count);
+        mRecoveredSegmentCount++;
+        mCorruptRecordCount += scan.mCorruptCount;
+        LOG.info("Recovered " + count + " records of " + segment.getName() + ", skipped "
+                + scan.mCorruptCount + " corrupt ones");
+        return records;
+    }
+
+    /**
+     * Reads the records of a segment one after the other. The scan ends at the first record that
+     * doesn't fit in the file or has no valid header, which is where the segment was torn.
+     */
+    private static Scan scan(File segment, FileChannel channel, byte[] chunk) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        header.limit(SEGMENT_HEADER_BYTES);
+        if (size < SEGMENT_HEADER_BYTES || !readFully(channel, header, 0)
+                || header.getInt(0) != SEGMENT_MAGIC) {
+            throw new IOException(segment + " is not a pack segment");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException(segment + " has unknown version " + header.getInt(4));
+        }
+        Scan scan = new Scan();
+        ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+        long position = SEGMENT_HEADER_BYTES;
+        while (size - position >= RECORD_HEADER_BYTES) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(4);
+            if (header.getInt(0) != RECORD_MAGIC || length < 0
+                    || length > size - position - RECORD_HEADER_BYTES) {
+                break;
+            }
+            long timestamp = header.getLong(8);
+            int crc = header.getInt(16);
+            long payload = position + RECORD_HEADER_BYTES;
+            CRC32 actual = new CRC32();
+            long read = 0;
+            while (read < length) {
+                chunkBuffer.clear();
+                chunkBuffer.limit((int) Math.min(chunk.length, length - read));
+                readFully(channel, chunkBuffer, payload + read);
+                actual.update(chunk, 0, chunkBuffer.limit());
+                read += chunkBuffer.limit();
+            }
+            if ((int) actual.getValue() == crc) {
+                scan.mRecords.add(new Record(segment, payload, length, timestamp, crc));
+            } else {
+                scan.mCorruptCount++;
+            }
+            position = payload + length;
+        }
+        scan.mEnd = position;
+        return scan;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the index of a segment into a temporary file first, so that a crash never leaves a
+     * partial index that looks valid.
+     */
+    private static void writeIndex(File segment, long[] offsets, int[] lengths,
+            long[] timestamps, int[] crcs, int count) throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(
+                INDEX_HEADER_BYTES + count * INDEX_ENTRY_BYTES + 4);
+        index.putInt(INDEX_MAGIC).putInt(VERSION).putInt(count);
+        for (int i = 0; i < count; i++) {
+            index.putLong(offsets[i]).putInt(lengths[i]).putLong(timestamps[i]).putInt(crcs[i]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(index.array(), 0, index.position());
+        index.putInt((int) crc.getValue());
+        index.flip();
+        File temporary = new File(segment.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(temporary);
+        try {
+            FileChannel channel = output.getChannel();
+            while (index.hasRemaining()) {
+                channel.write(index);
+            }
+        } finally {
+            output.close();
+        }
+        File indexFile = indexFile(segment);
+        if (!temporary.renameTo(indexFile)) {
+            throw new IOException("Couldn't rename " + temporary + " to " + indexFile);
+        }
+    }
+
+    /**
+     * @return The records listed in the index of the segment, or null if it has no valid index.
+     */
+    private static List<Record> readValidIndex(File segment) throws IOException {
+        File indexFile = indexFile(segment);
+        long size = indexFile.length();
+        if (size < INDEX_HEADER_BYTES + 4 || size > Integer.MAX_VALUE) {
+            return null;
+        }
+        ByteBuffer index = ByteBuffer.allocate((int) size);
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try {
+            if (!readFully(file.getChannel(), index, 0)) {
+                return null;
+            }
+        } finally {
+            file.close();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(index.array(), 0, (int) size - 4);
+        int count = index.getInt(8);
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION
+                || index.getInt((int) size - 4) != (int) crc.getValue()
+                || size != INDEX_HEADER_BYTES + (long) count * INDEX_ENTRY_BYTES + 4) {
+            return null;
+        }
+        List<Record> records = new ArrayList<>(count);
+        index.position(INDEX_HEADER_BYTES);
+        for (int i = 0; i < count; i++) {
+            long offset = index.getLong();
+            int length = index.getInt();
+            long timestamp = index.getLong();
+            int recordCrc = index.getInt();
+            records.add(new Record(segment, offset, length, timestamp, recordCrc));
+        }
+        return records;
+    }
+
+    private static File indexFile(File segment) {
+        String path = segment.getPath();
+        return new File(path.substring(0, path.length() - SEGMENT_SUFFIX.length())
+                + INDEX_SUFFIX);
+    }
+
+    private static int segmentNumber(File segment) {
+        String name = segment.getName();
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * The outcome of {@link #scan}.
+     */
+    private static class Scan {
+
+        final List<Record> mRecords = new ArrayList<>();
+
+        int mCorruptCount;
+
+        /**
+         * The end of the last complete record.
+         */
+        long mEnd;
+
+    }
+
+    /**
+     * Where a capture is stored.
+     */
+    public static final class Record {
+
+        private final File mSegment;
+
+        private final long mOffset;
+
+        private final int mLength;
+
+        private final long mTimestamp;
+
+        private final int mCrc;
+
+        Record(File segment, long offset, int length, long timestamp, int crc) {
+            mSegment = segment;
+            mOffset = offset;
+            mLength = length;
+            mTimestamp = timestamp;
+            mCrc = crc;
+        }
+
+        public File getSegment() {
+            return mSegment;
+        }
+
+        /**
+         * @return The offset of the payload in the segment.
+         */
+        public long getOffset() {
+            return mOffset;
+        }
+
+        public int getLength() {
+            return mLength;
+        }
+
+        /**
+         * @return The sensor timestamp of the capture, in nanoseconds.
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * @return The CRC-32 of the payload.
+         */
+        public long getCrc32() {
+            return mCrc & 0xffffffffL;
+        }
+
+        @Override
+        public String toString() {
+            return mSegment.getName() + "@" + mOffset + "+" + mLength;
+        }
+
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link CapturePipeline.Stage} that writes the encoded picture into the file of the capture,
+ * like {@link ImageSaver} does outside of a pipeline.
+ */
+public class PersistStage implements CapturePipeline.Stage {
+
+    @Override
+    public void process(CapturePipeline.Capture capture) throws IOException {
+        ByteBuffer data = capture.getData().duplicate();
+        FileOutputStream output = new FileOutputStream(capture.getFile());
+        try {
+            FileChannel channel = output.getChannel();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+/**
+ * The capture result of a preview frame, as published on {@link CameraStreams#getPreviewResults()}.
+ */
+public final class PreviewResult {
+
+    private final long mTimestamp;
+
+    private final long mFrameNumber;
+
+    private final int mAfState;
+
+    private final int mAeState;
+
+    /**
+     * @param timestamp   The sensor timestamp of the frame, in nanoseconds.
+     * @param frameNumber The frame number of the result.
+     * @param afState     See {@link CameraBackend.Callback#onCaptureResult(int, int)}.
+     * @param aeState     See {@link CameraBackend.Callback#onCaptureResult(int, int)}.
+     */
+    public PreviewResult(long timestamp, long frameNumber, int afState, int aeState) {
+        mTimestamp = timestamp;
+        mFrameNumber = frameNumber;
+        mAfState = afState;
+        mAeState = aeState;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public long getFrameNumber() {
+        return mFrameNumber;
+    }
+
+    public int getAfState() {
+        return mAfState;
+    }
+
+    public int getAeState() {
+        return mAeState;
+    }
+
+    @Override
+    public String toString() {
+        return "PreviewResult{frame=" + mFrameNumber + " timestamp=" + mTimestamp + " af="
+                + mAfState + " ae=" + mAeState + "}";
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+/**
+ * A set of limits the capture session runs under; see {@link AdaptiveQualityController}.
+ */
+public final class QualityTier {
+
+    /**
+     * The tiers {@link AdaptiveQualityController} steps through by default, best first.
+     */
+    public static final QualityTier[] DEFAULT_TIERS = {
+            new QualityTier("full", new Resolution(1920, 1080), 30, 1, 8),
+            new QualityTier("reduced", new Resolution(1280, 720), 30, 2, 4),
+            new QualityTier("low", new Resolution(960, 540), 24, 4, 2),
+            new QualityTier("minimal", new Resolution(640, 480), 15, 8, 1),
+    };
+
+    private final String mName;
+
+    private final Resolution mMaxPreviewSize;
+
+    private final int mMaxFps;
+
+    private final int mAnalysisStride;
+
+    private final int mBurstDepth;
+
+    /**
+     * @param name           Shown in logs.
+     * @param maxPreviewSize The largest preview size, in sensor orientation.
+     * @param maxFps         The highest preview frame rate.
+     * @param analysisStride Only every this many analysis frames are published.
+     * @param burstDepth     The number of shutter presses that may wait for a capture.
+     */
+    public QualityTier(String name, Resolution maxPreviewSize, int maxFps, int analysisStride,
+                       int burstDepth) {
+        mName = name;
+        mMaxPreviewSize = maxPreviewSize;
+        mMaxFps = maxFps;
+        mAnalysisStride = analysisStride;
+        mBurstDepth = burstDepth;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Resolution getMaxPreviewSize() {
+        return mMaxPreviewSize;
+    }
+
+    public int getMaxFps() {
+        return mMaxFps;
+    }
+
+    public int getAnalysisStride() {
+        return mAnalysisStride;
+    }
+
+    public int getBurstDepth() {
+        return mBurstDepth;
+    }
+
+    @Override
+    public String toString() {
+        return mName + "(" + mMaxPreviewSize + "@" + mMaxFps + "fps analysis=1/"
+                + mAnalysisStride + " burst=" + mBurstDepth + ")";
+    }
+
+}
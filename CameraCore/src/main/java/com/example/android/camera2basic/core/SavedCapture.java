@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.File;
+
+/**
+ * A still capture that has been written to storage, as published on
+ * {@link CameraStreams#getCaptures()}.
+ */
+public final class SavedCapture {
+
+    private final File mFile;
+
+    private final long mOffset;
+
+    private final long mTimestamp;
+
+    private final long mByteCount;
+
+    /**
+     * @param file      The file the capture was written into.
+     * @param timestamp The sensor timestamp of the capture, in nanoseconds.
+     * @param byteCount The size of the written image.
+     */
+    public SavedCapture(File file, long timestamp, long byteCount) {
+        this(file, 0, timestamp, byteCount);
+    }
+
+    /**
+     * @param file      The file the capture was written into, e.g. a {@link PackStore} segment.
+     * @param offset    Where the image starts in the file.
+     * @param timestamp The sensor timestamp of the capture, in nanoseconds.
+     * @param byteCount The size of the written image.
+     */
+    public SavedCapture(File file, long offset, long timestamp, long byteCount) {
+        mFile = file;
+        mOffset = offset;
+        mTimestamp = timestamp;
+        mByteCount = byteCount;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return Where the image starts in {@link #getFile()}; 0 unless it shares the file with
+     * other captures.
+     */
+    public long getOffset() {
+        return mOffset;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public long getByteCount() {
+        return mByteCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SavedCapture{" + mFile + (0 == mOffset ? "" : "@" + mOffset)
+                + " timestamp=" + mTimestamp + " bytes=" + mByteCount + "}";
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the {@link ImageSaver}s of several cameras on a shared {@link Executor}, and bounds the
+ * bytes waiting to be written. When the bound would be exceeded the picture is dropped and its
+ * image closed right away, so that a slow writer returns the buffers to the camera instead of
+ * stalling every camera that shares it.
+ *
+ * <p>Thread-safe.</p>
+ */
+public class SharedImageWriter {
+
+    private final Executor mWriter;
+
+    private final long mMaxPendingBytes;
+
+    private final AtomicLong mPendingBytes = new AtomicLong();
+
+    private final AtomicInteger mWrittenCount = new AtomicInteger();
+
+    private final AtomicInteger mDroppedCount = new AtomicInteger();
+
+    /**
+     * @param writer          The thread(s) the images are written on.
+     * @param maxPendingBytes The bytes that may be queued or being written. A single image larger
+     *                        than this is still written when nothing else is pending.
+     */
+    public SharedImageWriter(Executor writer, long maxPendingBytes) {
+        mWriter = writer;
+        mMaxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * Queues a picture for writing, or discards it if the writer is too far behind.
+     *
+     * @return false if the picture was discarded.
+     */
+    public boolean submit(final ImageSaver saver) {
+        final int bytes = saver.getByteCount();
+        long pending;
+        do {
+            pending = mPendingBytes.get();
+            if (pending > 0 && pending + bytes > mMaxPendingBytes) {
+                mDroppedCount.incrementAndGet();
+                saver.discard();
+                return false;
+            }
+        } while (!mPendingBytes.compareAndSet(pending, pending + bytes));
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    saver.run();
+                    mWrittenCount.incrementAndGet();
+                } finally {
+                    mPendingBytes.addAndGet(-bytes);
+                }
+            }
+        });
+        return true;
+    }
+
+    public long getPendingBytes() {
+        return mPendingBytes.get();
+    }
+
+    public int getWrittenCount() {
+        return mWrittenCount.get();
+    }
+
+    /**
+     * @return The number of pictures dropped because the writer was too far behind.
+     */
+    public int getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+}
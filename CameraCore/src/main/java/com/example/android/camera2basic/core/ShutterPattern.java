@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.util.Random;
+
+/**
+ * The timing of shutter presses during a soak run. Instances are stateful and are meant to be used
+ * from a single thread.
+ *
+ * <p>A pattern can be written as a string, which is what {@link #parse(String)} accepts and
+ * {@link #toString()} returns:</p>
+ * <ul>
+ * <li>{@code steady:<interval ms>}</li>
+ * <li>{@code bursty:<shots>:<interval ms>:<pause ms>}</li>
+ * <li>{@code random:<mean interval ms>}</li>
+ * </ul>
+ */
+public abstract class ShutterPattern {
+
+    /**
+     * @return The delay before the next shutter press, in milliseconds.
+     */
+    public abstract long nextDelayMillis();
+
+    /**
+     * @return The long-term average number of presses per second.
+     */
+    public abstract double getRatePerSecond();
+
+    /**
+     * One press every {@code intervalMillis}.
+     */
+    public static ShutterPattern steady(final long intervalMillis) {
+        checkPositive(intervalMillis);
+        return new ShutterPattern() {
+            @Override
+            public long nextDelayMillis() {
+                return intervalMillis;
+            }
+
+            @Override
+            public double getRatePerSecond() {
+                return 1000.0 / intervalMillis;
+            }
+
+            @Override
+            public String toString() {
+                return "steady:" + intervalMillis;
+            }
+        };
+    }
+
+    /**
+     * Bursts of {@code shots} presses {@code intervalMillis} apart, separated by
+     * {@code pauseMillis}.
+     */
+    public static ShutterPattern bursty(final int shots, final long intervalMillis,
+            final long pauseMillis) {
+        checkPositive(shots);
+        checkPositive(intervalMillis);
+        checkPositive(pauseMillis);
+        return new ShutterPattern() {
+
+            private int mShot;
+
+            @Override
+            public long nextDelayMillis() {
+                mShot++;
+                if (mShot < shots) {
+                    return intervalMillis;
+                }
+                mShot = 0;
+                return pauseMillis;
+            }
+
+            @Override
+            public double getRatePerSecond() {
+                return shots * 1000.0 / ((shots - 1) * intervalMillis + pauseMillis);
+            }
+
+            @Override
+            public String toString() {
+                return "bursty:" + shots + ":" + intervalMillis + ":" + pauseMillis;
+            }
+        };
+    }
+
+    /**
+     * Presses at exponentially distributed intervals, as if pressed independently by many users.
+     */
+    public static ShutterPattern random(final long meanIntervalMillis, long seed) {
+        checkPositive(meanIntervalMillis);
+        final Random random = new Random(seed);
+        return new ShutterPattern() {
+            @Override
+            public long nextDelayMillis() {
+                return Math.round(-Math.log(1.0 - random.nextDouble()) * meanIntervalMillis);
+            }
+
+            @Override
+            public double getRatePerSecond() {
+                return 1000.0 / meanIntervalMillis;
+            }
+
+            @Override
+            public String toString() {
+                return "random:" + meanIntervalMillis;
+            }
+        };
+    }
+
+    /**
+     * Parses a pattern in the format described in the class documentation.
+     *
+     * @throws IllegalArgumentException If the pattern is malformed.
+     */
+    public static ShutterPattern parse(String spec) {
+        String[] fields = spec.split(":");
+        try {
+            switch (fields[0]) {
+                case "steady":
+                    if (fields.length == 2) {
+                        return steady(Long.parseLong(fields[1]));
+                    }
+                    break;
+                case "bursty":
+                    if (fields.length == 4) {
+                        return bursty(Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+                                Long.parseLong(fields[3]));
+                    }
+                    break;
+                case "random":
+                    if (fields.length == 2) {
+                        return random(Long.parseLong(fields[1]), System.nanoTime());
+                    }
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed shutter pattern: " + spec, e);
+        }
+        throw new IllegalArgumentException("Malformed shutter pattern: " + spec);
+    }
+
+    private static void checkPositive(long value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException("Must be positive: " + value);
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+/**
+ * The parameters and the pass/fail thresholds of a {@link SoakRunner} run.
+ */
+public class SoakConfig {
+
+    private long mDurationMillis = 60 * 1000;
+
+    private long mSampleIntervalMillis = 5 * 1000;
+
+    private ShutterPattern mPattern = ShutterPattern.steady(1000);
+
+    private long mStallTimeoutMillis = 10 * 1000;
+
+    private long mMaxHeapGrowthBytes = 16 * 1024 * 1024;
+
+    private int mMaxOutstandingImages = 2;
+
+    private long mMaxSaveLatencyMillis = 500;
+
+    private double mMaxLatencyGrowth = 1.5;
+
+    private double mMinRateRatio = 0.8;
+
+    private int mMaxStalls = 0;
+
+    public SoakConfig setDurationMillis(long millis) {
+        mDurationMillis = millis;
+        return this;
+    }
+
+    /**
+     * Sets how often memory, queue depths and latencies are sampled. Latencies are reported per
+     * sample interval.
+     */
+    public SoakConfig setSampleIntervalMillis(long millis) {
+        mSampleIntervalMillis = millis;
+        return this;
+    }
+
+    public SoakConfig setPattern(ShutterPattern pattern) {
+        mPattern = pattern;
+        return this;
+    }
+
+    /**
+     * Sets how long a capture may take before it is counted as stalled and abandoned.
+     */
+    public SoakConfig setStallTimeoutMillis(long millis) {
+        mStallTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * Sets the allowed growth of the heap floor between the first and the last quarter of the run.
+     */
+    public SoakConfig setMaxHeapGrowthBytes(long bytes) {
+        mMaxHeapGrowthBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Sets how many delivered images may be open at once; normally the {@code maxImages} of the
+     * {@code ImageReader}.
+     */
+    public SoakConfig setMaxOutstandingImages(int images) {
+        mMaxOutstandingImages = images;
+        return this;
+    }
+
+    /**
+     * Sets the allowed 95th percentile of the time it takes to save a picture, including the time
+     * it waited in the save queue.
+     */
+    public SoakConfig setMaxSaveLatencyMillis(long millis) {
+        mMaxSaveLatencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * Sets the allowed ratio between the mean shutter-to-saved latency of the last and the first
+     * quarter of the run.
+     */
+    public SoakConfig setMaxLatencyGrowth(double ratio) {
+        mMaxLatencyGrowth = ratio;
+        return this;
+    }
+
+    /**
+     * Sets the minimum ratio between the capture rate of the last and the first quarter of the
+     * run; a lower ratio indicates throttling.
+     */
+    public SoakConfig setMinRateRatio(double ratio) {
+        mMinRateRatio = ratio;
+        return this;
+    }
+
+    public SoakConfig setMaxStalls(int stalls) {
+        mMaxStalls = stalls;
+        return this;
+    }
+
+    public long getDurationMillis() {
+        return mDurationMillis;
+    }
+
+    public long getSampleIntervalMillis() {
+        return mSampleIntervalMillis;
+    }
+
+    public ShutterPattern getPattern() {
+        return mPattern;
+    }
+
+    public long getStallTimeoutMillis() {
+        return mStallTimeoutMillis;
+    }
+
+    public long getMaxHeapGrowthBytes() {
+        return mMaxHeapGrowthBytes;
+    }
+
+    public int getMaxOutstandingImages() {
+        return mMaxOutstandingImages;
+    }
+
+    public long getMaxSaveLatencyMillis() {
+        return mMaxSaveLatencyMillis;
+    }
+
+    public double getMaxLatencyGrowth() {
+        return mMaxLatencyGrowth;
+    }
+
+    public double getMinRateRatio() {
+        return mMinRateRatio;
+    }
+
+    public int getMaxStalls() {
+        return mMaxStalls;
+    }
+
+    @Override
+    public String toString() {
+        return "pattern=" + mPattern + " duration=" + mDurationMillis + "ms sample="
+                + mSampleIntervalMillis + "ms";
+    }
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The outcome of a {@link SoakRunner} run: the samples taken over time, the latency of each
+ * capture phase over the whole run, and the pass/fail checks against the thresholds of the
+ * {@link SoakConfig}.
+ *
+ * <p>Heap growth is the difference of the heap retained after a garbage collection at the start
+ * and at the end of the run. Trends of latency and capture rate are judged by comparing the first
+ * and the last quarter of the samples, so that a single slow sample doesn't decide the
+ * outcome.</p>
+ */
+public class SoakReport {
+
+    /**
+     * The state at one point of the run, with the latencies since the previous sample.
+     */
+    public static class Sample {
+
+        private final long mElapsedMillis;
+        private final long mHeapUsedBytes;
+        private final int mOutstandingImages;
+        private final int mSaveQueueDepth;
+        private final int mCaptures;
+        private final int mDropped;
+        private final LatencyHistogram[] mLatencies;
+
+        Sample(long elapsedMillis, long heapUsedBytes, int outstandingImages, int saveQueueDepth,
+                int captures, int dropped, LatencyHistogram[] latencies) {
+            mElapsedMillis = elapsedMillis;
+            mHeapUsedBytes = heapUsedBytes;
+            mOutstandingImages = outstandingImages;
+            mSaveQueueDepth = saveQueueDepth;
+            mCaptures = captures;
+            mDropped = dropped;
+            mLatencies = latencies;
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+
+        public long getHeapUsedBytes() {
+            return mHeapUsedBytes;
+        }
+
+        public int getOutstandingImages() {
+            return mOutstandingImages;
+        }
+
+        public int getSaveQueueDepth() {
+            return mSaveQueueDepth;
+        }
+
+        /**
+         * @return The captures completed since the previous sample.
+         */
+        public int getCaptures() {
+            return mCaptures;
+        }
+
+        /**
+         * @return The shutter presses dropped since the previous sample.
+         */
+        public int getDropped() {
+            return mDropped;
+        }
+
+        /**
+         * @param phase One of the {@code SoakRunner.PHASE_*} constants.
+         * @return The latencies since the previous sample.
+         */
+        public LatencyHistogram getLatency(int phase) {
+            return mLatencies[phase];
+        }
+
+    }
+
+    /**
+     * A measured value compared against its threshold.
+     */
+    public static class Check {
+
+        private final String mName;
+        private final boolean mPassed;
+        private final String mDescription;
+
+        Check(String name, boolean passed, String description) {
+            mName = name;
+            mPassed = passed;
+            mDescription = description;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public boolean isPassed() {
+            return mPassed;
+        }
+
+        @Override
+        public String toString() {
+            return (mPassed ? "PASS " : "FAIL ") + mName + " " + mDescription;
+        }
+
+    }
+
+    private final SoakConfig mConfig;
+
+    private final List<Sample> mSamples;
+
+    private final LatencyHistogram[] mLatencies;
+
+    private final int mPresses;
+
+    private final int mDropped;
+
+    private final int mCaptures;
+
+    private final int mStalls;
+
+    private final int mCameraLost;
+
+    private final long mRetainedStartBytes;
+
+    private final long mRetainedEndBytes;
+
+    private final List<Check> mChecks = new ArrayList<>();
+
+    SoakReport(SoakConfig config, List<Sample> samples, LatencyHistogram[] latencies, int presses,
+            int dropped, int captures, int stalls, int cameraLost, long retainedStartBytes,
+            long retainedEndBytes) {
+        mConfig = config;
+        mSamples = Collections.unmodifiableList(new ArrayList<>(samples));
+        mLatencies = latencies;
+        mPresses = presses;
+        mDropped = dropped;
+        mCaptures = captures;
+        mStalls = stalls;
+        mCameraLost = cameraLost;
+        mRetainedStartBytes = retainedStartBytes;
+        mRetainedEndBytes = retainedEndBytes;
+        check();
+    }
+
+    /**
+     * @return Whether all checks passed.
+     */
+    public boolean passed() {
+        for (Check check : mChecks) {
+            if (!check.isPassed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<Check> getChecks() {
+        return Collections.unmodifiableList(mChecks);
+    }
+
+    public List<Sample> getSamples() {
+        return mSamples;
+    }
+
+    /**
+     * @param phase One of the {@code SoakRunner.PHASE_*} constants.
+     * @return The latencies over the whole run.
+     */
+    public LatencyHistogram getLatency(int phase) {
+        return mLatencies[phase];
+    }
+
+    public int getPresses() {
+        return mPresses;
+    }
+
+    public int getDropped() {
+        return mDropped;
+    }
+
+    public int getCaptures() {
+        return mCaptures;
+    }
+
+    public int getStalls() {
+        return mStalls;
+    }
+
+    public int getCameraLost() {
+        return mCameraLost;
+    }
+
+    /**
+     * @return The growth of the retained heap over the run, in bytes.
+     */
+    public long getHeapGrowthBytes() {
+        return mRetainedEndBytes - mRetainedStartBytes;
+    }
+
+    /**
+     * Writes the configuration, the samples as a table, the latencies and the checks as text.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        writer.write("# Soak report\n");
+        writer.write(mConfig + "\n");
+        writer.write(String.format(Locale.US,
+                "presses=%d captures=%d dropped=%d stalls=%d camera_lost=%d"
+                        + " retained_heap_kb=%d->%d%n%n",
+                mPresses, mCaptures, mDropped, mStalls, mCameraLost, mRetainedStartBytes / 1024,
+                mRetainedEndBytes / 1024));
+        writer.write("elapsed_ms heap_kb images save_queue captures dropped rate_hz"
+                + " total_mean_ms total_p95_ms save_p95_ms\n");
+        long previousMillis = 0;
+        for (Sample sample : mSamples) {
+            long interval = sample.mElapsedMillis - previousMillis;
+            previousMillis = sample.mElapsedMillis;
+            LatencyHistogram total = sample.getLatency(SoakRunner.PHASE_TOTAL);
+            writer.write(String.format(Locale.US, "%d %d %d %d %d %d %.2f %.1f %.1f %.1f%n",
+                    sample.mElapsedMillis, sample.mHeapUsedBytes / 1024,
+                    sample.mOutstandingImages, sample.mSaveQueueDepth, sample.mCaptures,
+                    sample.mDropped, interval > 0 ? sample.mCaptures * 1000.0 / interval : 0.0,
+                    total.getMean() / 1000.0, total.getPercentile(95) / 1000.0,
+                    sample.getLatency(SoakRunner.PHASE_SAVE).getPercentile(95) / 1000.0));
+        }
+        writer.write("\n");
+        for (int phase = 0; phase < SoakRunner.PHASE_NAMES.length; phase++) {
+            writer.write(SoakRunner.PHASE_NAMES[phase] + ": " + mLatencies[phase] + "\n");
+        }
+        writer.write("\n");
+        for (Check check : mChecks) {
+            writer.write(check + "\n");
+        }
+        writer.write(passed() ? "RESULT PASS\n" : "RESULT FAIL\n");
+    }
+
+    @Override
+    public String toString() {
+        return (passed() ? "PASS" : "FAIL") + " captures=" + mCaptures + " dropped=" + mDropped
+                + " stalls=" + mStalls + " total: " + mLatencies[SoakRunner.PHASE_TOTAL];
+    }
+
+    private void check() {
+        // The first sample is taken at the start and covers no interval.
+        List<Sample> intervals = mSamples.subList(Math.min(1, mSamples.size()), mSamples.size());
+        int quarter = Math.max(1, intervals.size() / 4);
+        List<Sample> first = intervals.subList(0, Math.min(quarter, intervals.size()));
+        List<Sample> last = intervals.subList(Math.max(0, intervals.size() - quarter),
+                intervals.size());
+
+        long growth = getHeapGrowthBytes();
+        mChecks.add(new Check("heap_growth", growth <= mConfig.getMaxHeapGrowthBytes(),
+                growth / 1024 + "KB <= " + mConfig.getMaxHeapGrowthBytes() / 1024 + "KB"));
+
+        int images = 0;
+        for (Sample sample : mSamples) {
+            images = Math.max(images, sample.mOutstandingImages);
+        }
+        mChecks.add(new Check("outstanding_images", images <= mConfig.getMaxOutstandingImages(),
+                images + " <= " + mConfig.getMaxOutstandingImages()));
+
+        long save = mLatencies[SoakRunner.PHASE_SAVE].getPercentile(95) / 1000;
+        mChecks.add(new Check("save_latency_p95", save <= mConfig.getMaxSaveLatencyMillis(),
+                save + "ms <= " + mConfig.getMaxSaveLatencyMillis() + "ms"));
+
+        double firstLatency = meanTotalLatency(first);
+        double lastLatency = meanTotalLatency(last);
+        if (firstLatency > 0 && lastLatency > 0) {
+            double ratio = lastLatency / firstLatency;
+            mChecks.add(new Check("latency_growth", ratio <= mConfig.getMaxLatencyGrowth(),
+                    String.format(Locale.US, "%.2f <= %.2f", ratio,
+                            mConfig.getMaxLatencyGrowth())));
+        }
+
+        double firstRate = captureRate(first);
+        double lastRate = captureRate(last);
+        if (firstRate > 0) {
+            double ratio = lastRate / firstRate;
+            mChecks.add(new Check("capture_rate", ratio >= mConfig.getMinRateRatio(),
+                    String.format(Locale.US, "%.2f >= %.2f (%.2fHz -> %.2fHz)", ratio,
+                            mConfig.getMinRateRatio(), firstRate, lastRate)));
+        }
+
+        mChecks.add(new Check("stalls", mStalls <= mConfig.getMaxStalls(),
+                mStalls + " <= " + mConfig.getMaxStalls()));
+    }
+
+    /**
+     * @return The mean shutter-to-saved latency over the samples in microseconds, or 0.
+     */
+    private static double meanTotalLatency(List<Sample> samples) {
+        long count = 0;
+        double sum = 0;
+        for (Sample sample : samples) {
+            LatencyHistogram total = sample.getLatency(SoakRunner.PHASE_TOTAL);
+            count += total.getCount();
+            sum += (double) total.getMean() * total.getCount();
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @return The captures per second over the samples.
+     */
+    private double captureRate(List<Sample> samples) {
+        if (samples.isEmpty()) {
+            return 0;
+        }
+        int index = mSamples.indexOf(samples.get(0));
+        long startMillis = index > 0 ? mSamples.get(index - 1).mElapsedMillis : 0;
+        long endMillis = samples.get(samples.size() - 1).mElapsedMillis;
+        int captures = 0;
+        for (Sample sample : samples) {
+            captures += sample.mCaptures;
+        }
+        return endMillis > startMillis ? captures * 1000.0 / (endMillis - startMillis) : 0;
+    }
+
+}
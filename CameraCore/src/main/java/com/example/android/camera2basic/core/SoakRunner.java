@@ -0,0 +1,502 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Presses the shutter of a {@link CaptureController} following a {@link ShutterPattern} for a
+ * fixed duration, and samples memory, queue depths and the latency of every capture phase along
+ * the way. At the end it hands a {@link SoakReport} to its {@link Listener}.
+ *
+ * <p>The runner observes the capture through the {@link CameraBackend} and the save
+ * {@link Executor} of the controller, which must be wrapped with the {@code instrument} methods
+ * before the controller is created:</p>
+ * <pre>
+ * SoakRunner runner = new SoakRunner(config, driver);
+ * CaptureController controller = new CaptureController(runner.instrument(backend),
+ *         runner.instrument(saveExecutor), listener);
+ * controller.open();
+ * runner.start(controller, reportListener);
+ * </pre>
+ *
+ * <p>A press is skipped, and counted as dropped, while the previous capture has not completed
+ * yet or while there is no capture session.</p>
+ */
+public class SoakRunner {
+
+    /**
+     * Receives the report at the end of the run.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the driver thread.
+         */
+        void onSoakFinished(SoakReport report);
+
+    }
+
+    /**
+     * Phase: from the shutter press until the still capture is requested, i.e. focus and
+     * exposure.
+     */
+    public static final int PHASE_3A = 0;
+
+    /**
+     * Phase: from the still capture request until the capture has completed.
+     */
+    public static final int PHASE_CAPTURE = 1;
+
+    /**
+     * Phase: time the image spent in the save queue.
+     */
+    public static final int PHASE_SAVE_WAIT = 2;
+
+    /**
+     * Phase: from the hand-off to the save executor until the image has been written, including
+     * the time spent in the save queue.
+     */
+    public static final int PHASE_SAVE = 3;
+
+    /**
+     * Phase: from the shutter press until the image has been saved and closed.
+     */
+    public static final int PHASE_TOTAL = 4;
+
+    static final String[] PHASE_NAMES = {"3a", "capture", "save_wait", "save", "total"};
+
+    private final SoakConfig mConfig;
+
+    private final ScheduledExecutorService mDriver;
+
+    private final ShutterPattern mPattern;
+
+    private final Object mLock = new Object();
+
+    /**
+     * Latencies of the current sample interval, per phase. Guarded by {@link #mLock}.
+     */
+    private LatencyHistogram[] mWindow = newHistograms();
+
+    /**
+     * Latencies of the whole run, per phase. Guarded by {@link #mLock}.
+     */
+    private final LatencyHistogram[] mTotals = newHistograms();
+
+    private final List<SoakReport.Sample> mSamples = new ArrayList<>();
+
+    private final AtomicInteger mPresses = new AtomicInteger();
+
+    private final AtomicInteger mDropped = new AtomicInteger();
+
+    private final AtomicInteger mCaptures = new AtomicInteger();
+
+    private final AtomicInteger mStalls = new AtomicInteger();
+
+    private final AtomicInteger mCameraLost = new AtomicInteger();
+
+    private final AtomicInteger mOutstandingImages = new AtomicInteger();
+
+    private final AtomicInteger mSaveQueueDepth = new AtomicInteger();
+
+    private final AtomicBoolean mCaptureInFlight = new AtomicBoolean();
+
+    private volatile boolean mSessionReady;
+
+    private volatile long mPressNanos;
+
+    private volatile long mCaptureRequestNanos;
+
+    /**
+     * The press of the capture that was last requested; its image may arrive after the next
+     * press.
+     */
+    private volatile long mCapturePressNanos;
+
+    // The fields below are only accessed on the driver thread.
+
+    private CaptureController mController;
+
+    private Listener mListener;
+
+    private long mStartNanos;
+
+    private long mRetainedStartBytes;
+
+    private int mSampledCaptures;
+
+    private int mSampledDropped;
+
+    private ScheduledFuture<?> mNextPress;
+
+    private ScheduledFuture<?> mSampling;
+
+    private ScheduledFuture<?> mEnd;
+
+    private boolean mFinished;
+
+    /**
+     * @param driver The thread that presses the shutter and takes the samples.
+     */
+    public SoakRunner(SoakConfig config, ScheduledExecutorService driver) {
+        mConfig = config;
+        mDriver = driver;
+        mPattern = config.getPattern();
+    }
+
+    /**
+     * Wraps the backend of the {@link CaptureController} under test.
+     */
+    public CameraBackend instrument(CameraBackend backend) {
+        return new InstrumentedBackend(backend);
+    }
+
+    /**
+     * Wraps the executor that runs the {@link ImageSaver}s of the {@link CaptureController} under
+     * test.
+     */
+    public Executor instrument(final Executor saveExecutor) {
+        return new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                final long enqueuedNanos = System.nanoTime();
+                mSaveQueueDepth.incrementAndGet();
+                try {
+                    saveExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            mSaveQueueDepth.decrementAndGet();
+                            long startNanos = System.nanoTime();
+                            command.run();
+                            long endNanos = System.nanoTime();
+                            synchronized (mLock) {
+                                record(PHASE_SAVE_WAIT, startNanos - enqueuedNanos);
+                                record(PHASE_SAVE, endNanos - enqueuedNanos);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    mSaveQueueDepth.decrementAndGet();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * Starts pressing the shutter. May be called before the capture session is ready.
+     *
+     * @param controller A controller created with the instrumented backend and executor.
+     * @param listener   Receives the report when the configured duration has passed or
+     *                   {@link #stop()} is called.
+     */
+    public void start(final CaptureController controller, final Listener listener) {
+        mDriver.execute(new Runnable() {
+            @Override
+            public void run() {
+                mController = controller;
+                mListener = listener;
+                mRetainedStartBytes = retainedHeapBytes();
+                mStartNanos = System.nanoTime();
+                sample();
+                long interval = mConfig.getSampleIntervalMillis();
+                mSampling = mDriver.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        sample();
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+                mEnd = mDriver.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        finish();
+                    }
+                }, mConfig.getDurationMillis(), TimeUnit.MILLISECONDS);
+                schedulePress();
+            }
+        });
+    }
+
+    /**
+     * Ends the run early. The report still goes to the listener.
+     */
+    public void stop() {
+        mDriver.execute(new Runnable() {
+            @Override
+            public void run() {
+                finish();
+            }
+        });
+    }
+
+    private void schedulePress() {
+        mNextPress = mDriver.schedule(new Runnable() {
+            @Override
+            public void run() {
+                press();
+            }
+        }, mPattern.nextDelayMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void press() {
+        if (mFinished) {
+            return;
+        }
+        mPresses.incrementAndGet();
+        long now = System.nanoTime();
+        if (mCaptureInFlight.get() && now - mPressNanos
+                > TimeUnit.MILLISECONDS.toNanos(mConfig.getStallTimeoutMillis())) {
+            // The capture never completed; give up on it so that the run can go on.
+            mStalls.incrementAndGet();
+            mCaptureInFlight.set(false);
+        }
+        if (!mSessionReady || !mCaptureInFlight.compareAndSet(false, true)) {
+            mDropped.incrementAndGet();
+        } else {
+            mPressNanos = now;
+            mCaptureRequestNanos = 0;
+            mController.takePicture();
+        }
+        schedulePress();
+    }
+
+    private void sample() {
+        Runtime runtime = Runtime.getRuntime();
+        int captures = mCaptures.get();
+        int dropped = mDropped.get();
+        LatencyHistogram[] window;
+        synchronized (mLock) {
+            window = mWindow;
+            mWindow = newHistograms();
+        }
+        mSamples.add(new SoakReport.Sample(
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos),
+                runtime.totalMemory() - runtime.freeMemory(), mOutstandingImages.get(),
+                mSaveQueueDepth.get(), captures - mSampledCaptures, dropped - mSampledDropped,
+                window));
+        mSampledCaptures = captures;
+        mSampledDropped = dropped;
+    }
+
+    private void finish() {
+        if (mFinished || null == mListener) {
+            return;
+        }
+        mFinished = true;
+        mNextPress.cancel(false);
+        mSampling.cancel(false);
+        mEnd.cancel(false);
+        long sinceLastSample = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos)
+                - mSamples.get(mSamples.size() - 1).getElapsedMillis();
+        if (sinceLastSample >= mConfig.getSampleIntervalMillis() / 10) {
+            sample();
+        }
+        long retainedEndBytes = retainedHeapBytes();
+        SoakReport report;
+        synchronized (mLock) {
+            report = new SoakReport(mConfig, mSamples, mTotals, mPresses.get(), mDropped.get(),
+                    mCaptures.get(), mStalls.get(), mCameraLost.get(), mRetainedStartBytes,
+                    retainedEndBytes);
+        }
+        mListener.onSoakFinished(report);
+    }
+
+    /**
+     * @return The heap in use after a garbage collection, i.e. roughly what is still referenced.
+     */
+    private static long retainedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        // A single request may not collect everything that is unreachable.
+        runtime.gc();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Must be called with {@link #mLock} held.
+     */
+    private void record(int phase, long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        mWindow[phase].record(micros);
+        mTotals[phase].record(micros);
+    }
+
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[PHASE_NAMES.length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    /**
+     * Forwards to the real backend, and times the capture phases on the way back.
+     */
+    private class InstrumentedBackend implements CameraBackend, CameraBackend.Callback {
+
+        private final CameraBackend mBackend;
+
+        private Callback mCallback;
+
+        InstrumentedBackend(CameraBackend backend) {
+            mBackend = backend;
+        }
+
+        @Override
+        public boolean open(Callback callback) {
+            mCallback = callback;
+            return mBackend.open(this);
+        }
+
+        @Override
+        public void createSession() {
+            mBackend.createSession();
+        }
+
+        @Override
+        public void startPreview() {
+            mBackend.startPreview();
+        }
+
+        @Override
+        public void lockFocus() {
+            mBackend.lockFocus();
+        }
+
+        @Override
+        public void runPrecaptureSequence() {
+            mBackend.runPrecaptureSequence();
+        }
+
+        @Override
+        public void captureStillPicture(int jpegOrientation) {
+            long now = System.nanoTime();
+            mCaptureRequestNanos = now;
+            mCapturePressNanos = mPressNanos;
+            synchronized (mLock) {
+                record(PHASE_3A, now - mPressNanos);
+            }
+            mBackend.captureStillPicture(jpegOrientation);
+        }
+
+        @Override
+        public void unlockFocus() {
+            mBackend.unlockFocus();
+        }
+
+        @Override
+        public void close() {
+            mSessionReady = false;
+            mBackend.close();
+        }
+
+        @Override
+        public void onOpened() {
+            mCallback.onOpened();
+        }
+
+        @Override
+        public void onCameraLost(int error) {
+            mSessionReady = false;
+            mCameraLost.incrementAndGet();
+            mCaptureInFlight.set(false);
+            mCallback.onCameraLost(error);
+        }
+
+        @Override
+        public void onSessionConfigured() {
+            mCallback.onSessionConfigured();
+            mSessionReady = true;
+        }
+
+        @Override
+        public void onSessionConfigureFailed() {
+            mCallback.onSessionConfigureFailed();
+        }
+
+        @Override
+        public void onCaptureResult(int afState, int aeState) {
+            mCallback.onCaptureResult(afState, aeState);
+        }
+
+        @Override
+        public void onStillCaptureCompleted() {
+            long requestNanos = mCaptureRequestNanos;
+            if (0 != requestNanos) {
+                synchronized (mLock) {
+                    record(PHASE_CAPTURE, System.nanoTime() - requestNanos);
+                }
+            }
+            mCaptures.incrementAndGet();
+            mCallback.onStillCaptureCompleted();
+            mCaptureInFlight.set(false);
+        }
+
+        @Override
+        public void onStillImageAvailable(StillImage image) {
+            mOutstandingImages.incrementAndGet();
+            mCallback.onStillImageAvailable(new InstrumentedImage(image, mCapturePressNanos));
+        }
+
+    }
+
+    /**
+     * Times the image from the shutter press until it is closed.
+     */
+    private class InstrumentedImage implements StillImage {
+
+        private final StillImage mImage;
+
+        private final long mShutterNanos;
+
+        InstrumentedImage(StillImage image, long shutterNanos) {
+            mImage = image;
+            mShutterNanos = shutterNanos;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mImage.getBuffer();
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mImage.getTimestamp();
+        }
+
+        @Override
+        public void close() {
+            mImage.close();
+            mOutstandingImages.decrementAndGet();
+            synchronized (mLock) {
+                record(PHASE_TOTAL, System.nanoTime() - mShutterNanos);
+            }
+        }
+
+    }
+
+}
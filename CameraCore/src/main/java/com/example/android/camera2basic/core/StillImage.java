@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An encoded still image delivered by a {@link CameraBackend}.
+ */
+public interface StillImage {
+
+    /**
+     * @return The JPEG data of this image.
+     */
+    ByteBuffer getBuffer();
+
+    /**
+     * @return The sensor timestamp of this image, in nanoseconds.
+     */
+    long getTimestamp();
+
+    /**
+     * Releases the image back to its producer.
+     */
+    void close();
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads the device temperature from the kernel thermal zones in {@code /sys/class/thermal}, for
+ * platforms that don't have {@code PowerManager.getCurrentThermalStatus()}.
+ *
+ * <p>Only the zones that measure the case or the board are read, since the CPU and GPU zones run
+ * far hotter than what the user feels and swing with every burst of work. Their names differ
+ * between vendors, so a zone counts if its {@code type} contains one of {@link #CASE_ZONE_TYPES}.
+ * The zones are looked up once; devices whose zones can't be read report NaN.</p>
+ *
+ * <p>The mapping to a thermal status in {@link #toThermalStatus(float)} uses fixed thresholds that
+ * approximate those of the platform on common devices; it is a heuristic, not the platform's
+ * own status.</p>
+ */
+public class ThermalZones {
+
+    /**
+     * Substrings of the {@code type} of the zones that measure the case or the board.
+     */
+    private static final String[] CASE_ZONE_TYPES = {"skin", "back_therm", "case_therm",
+            "quiet_therm", "xo_therm", "battery"};
+
+    /**
+     * Case temperatures from which {@link DeviceConditions#THERMAL_STATUS_LIGHT},
+     * {@link DeviceConditions#THERMAL_STATUS_MODERATE} and
+     * {@link DeviceConditions#THERMAL_STATUS_SEVERE} are reported.
+     */
+    private static final float[] STATUS_STEPS_CELSIUS = {39f, 42f, 45f};
+
+    private final File mRoot;
+
+    private List<File> mTemperatureFiles;
+
+    /**
+     * @param root The thermal class directory, normally {@code /sys/class/thermal}.
+     */
+    public ThermalZones(File root) {
+        mRoot = root;
+    }
+
+    /**
+     * @return The highest temperature of the case zones, or NaN if there is none that can be read.
+     */
+    public float readCaseTemperatureCelsius() {
+        if (null == mTemperatureFiles) {
+            mTemperatureFiles = findCaseZones();
+        }
+        float hottest = Float.NaN;
+        for (File file : mTemperatureFiles) {
+            float celsius = readCelsius(file);
+            if (Float.isNaN(hottest) || celsius > hottest) {
+                hottest = celsius;
+            }
+        }
+        return hottest;
+    }
+
+    /**
+     * @return The thermal status that corresponds to a case temperature, or
+     * {@link DeviceConditions#THERMAL_STATUS_UNKNOWN} for NaN.
+     */
+    public static int toThermalStatus(float celsius) {
+        if (Float.isNaN(celsius)) {
+            return DeviceConditions.THERMAL_STATUS_UNKNOWN;
+        }
+        int status = 0;
+        for (int i = 0; i < STATUS_STEPS_CELSIUS.length; i++) {
+            if (celsius >= STATUS_STEPS_CELSIUS[i]) {
+                status = DeviceConditions.THERMAL_STATUS_LIGHT + i;
+            }
+        }
+        return status;
+    }
+
+    private List<File> findCaseZones() {
+        List<File> files = new ArrayList<>();
+        File[] zones = mRoot.listFiles();
+        if (null == zones) {
+            return files;
+        }
+        for (File zone : zones) {
+            if (!zone.getName().startsWith("thermal_zone")) {
+                continue;
+            }
+            String type = readLine(new File(zone, "type"));
+            if (null == type) {
+                continue;
+            }
+            type = type.toLowerCase(Locale.US);
+            for (String caseType : CASE_ZONE_TYPES) {
+                if (type.contains(caseType)) {
+                    files.add(new File(zone, "temp"));
+                    break;
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return The temperature in a {@code temp} file, which is in millidegrees on most kernels and
+     * in degrees on a few, or NaN if it can't be read.
+     */
+    private static float readCelsius(File file) {
+        String line = readLine(file);
+        if (null == line) {
+            return Float.NaN;
+        }
+        try {
+            long value = Long.parseLong(line.trim());
+            return Math.abs(value) >= 1000 ? value / 1000f : value;
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    private static String readLine(File file) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(file));
+            return reader.readLine();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (null != reader) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Nothing was written.
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.util.Locale;
+
+/**
+ * Measures how fast large outputs such as RAW frames are written: the throughput while writing,
+ * the throughput sustained over the whole run including the gaps between writes, and the time
+ * each write took. Thread-safe.
+ */
+public class ThroughputMeter {
+
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private final LatencyHistogram mWriteTimes = new LatencyHistogram();
+
+    private long mBytes;
+
+    private long mBusyNanos;
+
+    private long mFirstStartNanos = -1;
+
+    private long mLastEndNanos;
+
+    private int mDroppedCount;
+
+    /**
+     * Records one write.
+     *
+     * @param bytes      The bytes written.
+     * @param startNanos {@link System#nanoTime()} when the write started.
+     * @param endNanos   {@link System#nanoTime()} when it ended.
+     */
+    public synchronized void record(long bytes, long startNanos, long endNanos) {
+        mBytes += bytes;
+        mBusyNanos += endNanos - startNanos;
+        if (mFirstStartNanos < 0) {
+            mFirstStartNanos = startNanos;
+        }
+        mLastEndNanos = Math.max(mLastEndNanos, endNanos);
+        mWriteTimes.record((endNanos - startNanos) / 1000);
+    }
+
+    /**
+     * Records an output that was not written because the writer was too far behind.
+     */
+    public synchronized void recordDropped() {
+        mDroppedCount++;
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized long getCount() {
+        return mWriteTimes.getCount();
+    }
+
+    public synchronized int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return MB/s while writing.
+     */
+    public synchronized double getBusyMegabytesPerSecond() {
+        return megabytesPerSecond(mBytes, mBusyNanos);
+    }
+
+    /**
+     * @return MB/s from the start of the first write to the end of the last one.
+     */
+    public synchronized double getSustainedMegabytesPerSecond() {
+        return mFirstStartNanos < 0 ? 0
+                : megabytesPerSecond(mBytes, mLastEndNanos - mFirstStartNanos);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "writes=%d dropped=%d bytes=%d busy=%.1fMB/s"
+                        + " sustained=%.1fMB/s writeTime[%s]", mWriteTimes.getCount(),
+                mDroppedCount, mBytes, getBusyMegabytesPerSecond(),
+                getSustainedMegabytesPerSecond(), mWriteTimes);
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos <= 0 ? 0 : bytes / BYTES_PER_MEGABYTE / (nanos / 1e9);
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pairs the images of a stream with the capture results they were captured with, by sensor
+ * timestamp. Either may arrive first. Entries that find no partner, e.g. because the frame failed
+ * or the result was for a request without this stream, are evicted oldest first once more than
+ * {@code capacity} of them are waiting, and evicted images are handed back to be closed.
+ *
+ * <p>This class is not thread-safe; the camera2 callbacks of the image and the results are meant to
+ * run on the same thread.</p>
+ *
+ * @param <I> The image type.
+ * @param <R> The capture result type.
+ */
+public class TimestampMatcher<I, R> {
+
+    /**
+     * Receives the pairs and the images that will never be paired.
+     */
+    public interface Listener<I, R> {
+
+        void onMatched(long timestamp, I image, R result);
+
+        /**
+         * The image found no result and must be closed.
+         */
+        void onImageUnmatched(long timestamp, I image);
+
+    }
+
+    private final int mCapacity;
+
+    private final Listener<I, R> mListener;
+
+    private final TreeMap<Long, I> mImages = new TreeMap<>();
+
+    private final TreeMap<Long, R> mResults = new TreeMap<>();
+
+    private int mMatchedCount;
+
+    private int mUnmatchedImageCount;
+
+    private int mUnmatchedResultCount;
+
+    /**
+     * @param capacity The number of images, and of results, that may wait for their partner.
+     */
+    public TimestampMatcher(int capacity, Listener<I, R> listener) {
+        mCapacity = capacity;
+        mListener = listener;
+    }
+
+    public void addImage(long timestamp, I image) {
+        R result = mResults.remove(timestamp);
+        if (null != result) {
+            match(timestamp, image, result);
+            return;
+        }
+        mImages.put(timestamp, image);
+        while (mImages.size() > mCapacity) {
+            Map.Entry<Long, I> oldest = mImages.pollFirstEntry();
+            mUnmatchedImageCount++;
+            mListener.onImageUnmatched(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    public void addResult(long timestamp, R result) {
+        I image = mImages.remove(timestamp);
+        if (null != image) {
+            match(timestamp, image, result);
+            return;
+        }
+        mResults.put(timestamp, result);
+        while (mResults.size() > mCapacity) {
+            mResults.pollFirstEntry();
+            mUnmatchedResultCount++;
+        }
+    }
+
+    /**
+     * Hands back every waiting image and forgets the waiting results, e.g. when the session ends.
+     */
+    public void clear() {
+        while (!mImages.isEmpty()) {
+            Map.Entry<Long, I> oldest = mImages.pollFirstEntry();
+            mUnmatchedImageCount++;
+            mListener.onImageUnmatched(oldest.getKey(), oldest.getValue());
+        }
+        mUnmatchedResultCount += mResults.size();
+        mResults.clear();
+    }
+
+    public int getMatchedCount() {
+        return mMatchedCount;
+    }
+
+    public int getUnmatchedImageCount() {
+        return mUnmatchedImageCount;
+    }
+
+    public int getUnmatchedResultCount() {
+        return mUnmatchedResultCount;
+    }
+
+    @Override
+    public String toString() {
+        return "matched=" + mMatchedCount + " unmatchedImages=" + mUnmatchedImageCount
+                + " unmatchedResults=" + mUnmatchedResultCount + " waitingImages="
+                + mImages.size() + " waitingResults=" + mResults.size();
+    }
+
+    private void match(long timestamp, I image, R result) {
+        mMatchedCount++;
+        mListener.onMatched(timestamp, image, result);
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The output side of a video encoder that {@link VideoRecorder} drains. The app implements it
+ * with a {@code MediaCodec} fed from an input {@code Surface}; because this interface does not use
+ * any Android types, a stand-in encoder can replace it in JVM tests. The methods and constants
+ * mirror those of {@code MediaCodec}.
+ */
+public interface VideoEncoder {
+
+    /**
+     * Same as {@code MediaCodec.INFO_TRY_AGAIN_LATER}.
+     */
+    int INFO_TRY_AGAIN_LATER = -1;
+
+    /**
+     * Same as {@code MediaCodec.INFO_OUTPUT_FORMAT_CHANGED}.
+     */
+    int INFO_OUTPUT_FORMAT_CHANGED = -2;
+
+    /**
+     * Same as {@code MediaCodec.BUFFER_FLAG_KEY_FRAME}.
+     */
+    int FLAG_KEY_FRAME = 1;
+
+    /**
+     * Same as {@code MediaCodec.BUFFER_FLAG_CODEC_CONFIG}.
+     */
+    int FLAG_CODEC_CONFIG = 2;
+
+    /**
+     * Same as {@code MediaCodec.BUFFER_FLAG_END_OF_STREAM}.
+     */
+    int FLAG_END_OF_STREAM = 4;
+
+    /**
+     * Waits for an encoded sample.
+     *
+     * @param sample Receives the description of the sample.
+     * @return The index of the output buffer holding the sample, {@link #INFO_TRY_AGAIN_LATER}
+     * if none came in time, {@link #INFO_OUTPUT_FORMAT_CHANGED}, or another negative value to be
+     * ignored.
+     */
+    int dequeueOutputBuffer(Sample sample, long timeoutMicros);
+
+    ByteBuffer getOutputBuffer(int index);
+
+    void releaseOutputBuffer(int index);
+
+    /**
+     * Asks the encoder to finish the frames it has and to end with a sample flagged
+     * {@link #FLAG_END_OF_STREAM}. Can be called from any thread.
+     */
+    void signalEndOfInputStream();
+
+    /**
+     * The description of an encoded sample, like {@code MediaCodec.BufferInfo}.
+     */
+    final class Sample {
+
+        public int offset;
+
+        public int size;
+
+        public long presentationTimeUs;
+
+        public int flags;
+
+        public void set(int newOffset, int newSize, long newPresentationTimeUs, int newFlags) {
+            offset = newOffset;
+            size = newSize;
+            presentationTimeUs = newPresentationTimeUs;
+            flags = newFlags;
+        }
+
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the samples of a {@link VideoEncoder} into a container file, like
+ * {@code MediaMuxer} writes MP4. All methods are called on the thread of {@link VideoRecorder}.
+ */
+public interface VideoMuxer {
+
+    /**
+     * The encoder has reported its output format; the track can be added and the file started.
+     */
+    void start() throws Exception;
+
+    /**
+     * @param data The sample, from its position to its limit.
+     */
+    void writeSampleData(ByteBuffer data, VideoEncoder.Sample sample) throws Exception;
+
+    /**
+     * Finishes the file. Only called if {@link #start()} was.
+     */
+    void stop() throws Exception;
+
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drains a {@link VideoEncoder} into a {@link VideoMuxer} on a dedicated thread. The camera
+ * renders into the input surface of the encoder, so the frames never reach the Java heap; only
+ * the encoded samples pass through here, straight from the output buffers of the encoder to the
+ * muxer.
+ *
+ * <p>Counts the encoded frames and bytes, and the frames missing from the encoded timeline: a
+ * gap of more than one frame interval between the presentation times of two consecutive frames
+ * means that the camera or the encoder dropped frames in between.
+ * {@link #onCameraFrame(long)} counts the frames the camera sent, for comparison.</p>
+ *
+ * <p>Thread-safe.</p>
+ */
+public class VideoRecorder {
+
+    private static final Logger LOG = Logger.getLogger("VideoRecorder");
+
+    private static final MetricsRegistry.Counter FRAMES = MetricsRegistry.getDefault().counter(
+            "video_encoded_frames_total", "Video frames written to the muxer");
+
+    private static final MetricsRegistry.Counter DROPPED = MetricsRegistry.getDefault().counter(
+            "video_dropped_frames_total", "Video frames missing from the encoded timeline");
+
+    private static final MetricsRegistry.Counter BYTES = MetricsRegistry.getDefault().counter(
+            "video_encoded_bytes_total", "Encoded video bytes written to the muxer");
+
+    private static final MetricsRegistry.Histogram WRITE_LATENCY = MetricsRegistry.getDefault()
+            .histogram("video_sample_write_seconds", "Time to write an encoded sample");
+
+    /**
+     * How long a dequeue waits, so that the thread notices a stop that never produces the end of
+     * the stream.
+     */
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+    private final VideoEncoder mEncoder;
+
+    private final VideoMuxer mMuxer;
+
+    /**
+     * The nominal interval between two frames, in microseconds.
+     */
+    private final long mFrameIntervalUs;
+
+    private final Object mLock = new Object();
+
+    private final VideoEncoder.Sample mSample = new VideoEncoder.Sample();
+
+    private final LatencyHistogram mWriteMicros = new LatencyHistogram();
+
+    private Thread mThread;
+
+    private volatile boolean mAborted;
+
+    // Guarded by mLock.
+
+    private long mCameraFrameCount;
+
+    private long mFrameCount;
+
+    private long mKeyFrameCount;
+
+    private long mDroppedFrameCount;
+
+    private long mByteCount;
+
+    private long mFirstPresentationTimeUs = -1;
+
+    private long mLastPresentationTimeUs = -1;
+
+    private long mStartNanos;
+
+    private long mEndNanos;
+
+    private boolean mEndOfStream;
+
+    private Exception mFailure;
+
+    /**
+     * @param frameRate The frame rate the camera runs at, used to find the gaps in the timeline.
+     */
+    public VideoRecorder(VideoEncoder encoder, VideoMuxer muxer, int frameRate) {
+        mEncoder = encoder;
+        mMuxer = muxer;
+        mFrameIntervalUs = TimeUnit.SECONDS.toMicros(1) / frameRate;
+    }
+
+    /**
+     * Starts draining the encoder, which must have been started.
+     */
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "VideoRecorder");
+        synchronized (mLock) {
+            if (null != mThread) {
+                throw new IllegalStateException("Already started");
+            }
+            mStartNanos = System.nanoTime();
+            mThread = thread;
+        }
+        thread.start();
+    }
+
+    /**
+     * Counts a frame the camera sent to the encoder, e.g. from the results of the repeating
+     * request. Can be called from any thread.
+     */
+    public void onCameraFrame(long sensorTimestampNanos) {
+        synchronized (mLock) {
+            mCameraFrameCount++;
+        }
+    }
+
+    /**
+     * Ends the stream and waits for the encoder to deliver its last frames and the muxer to
+     * finish the file. If that takes longer than {@code timeoutMillis}, the frames still in the
+     * encoder are abandoned and the file is finished without them.
+     *
+     * @return Whether the encoder delivered the end of the stream in time.
+     */
+    public boolean stop(long timeoutMillis) throws InterruptedException {
+        Thread thread;
+        synchronized (mLock) {
+            thread = mThread;
+        }
+        if (null == thread) {
+            return false;
+        }
+        try {
+            mEncoder.signalEndOfInputStream();
+        } catch (RuntimeException e) {
+            // E.g. the encoder has already failed; the thread will notice.
+            LOG.log(Level.WARNING, "Couldn't end the stream", e);
+        }
+        thread.join(timeoutMillis);
+        if (thread.isAlive()) {
+            mAborted = true;
+            thread.join();
+        }
+        synchronized (mLock) {
+            return mEndOfStream;
+        }
+    }
+
+    public long getFrameCount() {
+        synchronized (mLock) {
+            return mFrameCount;
+        }
+    }
+
+    /**
+     * @return The frames missing from the encoded timeline so far.
+     */
+    public long getDroppedFrameCount() {
+        synchronized (mLock) {
+            return mDroppedFrameCount;
+        }
+    }
+
+    public long getCameraFrameCount() {
+        synchronized (mLock) {
+            return mCameraFrameCount;
+        }
+    }
+
+    public long getByteCount() {
+        synchronized (mLock) {
+            return mByteCount;
+        }
+    }
+
+    /**
+     * @return The exception that ended the recording, or null.
+     */
+    public Exception getFailure() {
+        synchronized (mLock) {
+            return mFailure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            long wallNanos = (0 == mEndNanos ? System.nanoTime() : mEndNanos) - mStartNanos;
+            long mediaUs = mLastPresentationTimeUs - mFirstPresentationTimeUs;
+            return "frames=" + mFrameCount + " keyFrames=" + mKeyFrameCount
+                    + " dropped=" + mDroppedFrameCount + " cameraFrames=" + mCameraFrameCount
+                    + " bytes=" + mByteCount
+                    + " fps=" + (mediaUs > 0 ? (mFrameCount - 1) * 1000000L / mediaUs : 0)
+                    + " kbps=" + (mediaUs > 0 ? mByteCount * 8000L / mediaUs : 0)
+                    + " encodedPerSecond=" + (wallNanos > 0
+                    ? mFrameCount * TimeUnit.SECONDS.toNanos(1) / wallNanos : 0)
+                    + " writeUs=" + mWriteMicros
+                    + (null == mFailure ? "" : " failure=" + mFailure);
+        }
+    }
+
+    private void drain() {
+        boolean muxerStarted = false;
+        try {
+            while (!mAborted) {
+                int index = mEncoder.dequeueOutputBuffer(mSample, DEQUEUE_TIMEOUT_US);
+                if (VideoEncoder.INFO_OUTPUT_FORMAT_CHANGED == index) {
+                    if (muxerStarted) {
+                        throw new IllegalStateException("Output format changed twice");
+                    }
+                    mMuxer.start();
+                    muxerStarted = true;
+                    continue;
+                }
+                if (index < 0) {
+                    continue;
+                }
+                boolean endOfStream = 0 != (mSample.flags & VideoEncoder.FLAG_END_OF_STREAM);
+                try {
+                    // The codec config is part of the output format, which the muxer already has.
+                    if (0 == (mSample.flags & VideoEncoder.FLAG_CODEC_CONFIG)
+                            && mSample.size > 0) {
+                        if (!muxerStarted) {
+                            throw new IllegalStateException("Sample before the output format");
+                        }
+                        write(mEncoder.getOutputBuffer(index));
+                    }
+                } finally {
+                    mEncoder.releaseOutputBuffer(index);
+                }
+                if (endOfStream) {
+                    synchronized (mLock) {
+                        mEndOfStream = true;
+                    }
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            LOG.log(Level.SEVERE, "Recording failed", e);
+            synchronized (mLock) {
+                mFailure = e;
+            }
+        } finally {
+            if (muxerStarted) {
+                try {
+                    mMuxer.stop();
+                } catch (Exception e) {
+                    LOG.log(Level.SEVERE, "Couldn't finish the recording", e);
+                    synchronized (mLock) {
+                        if (null == mFailure) {
+                            mFailure = e;
+                        }
+                    }
+                }
+            }
+            synchronized (mLock) {
+                mEndNanos = System.nanoTime();
+            }
+            LOG.info("Recording ended: " + this);
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws Exception {
+        VideoEncoder.Sample sample = mSample;
+        buffer.limit(sample.offset + sample.size);
+        buffer.position(sample.offset);
+        long start = System.nanoTime();
+        mMuxer.writeSampleData(buffer, sample);
+        long writeMicros = (System.nanoTime() - start) / 1000;
+        WRITE_LATENCY.record(writeMicros);
+        long dropped = 0;
+        synchronized (mLock) {
+            if (mLastPresentationTimeUs >= 0) {
+                // Half an interval of jitter is tolerated.
+                long gap = sample.presentationTimeUs - mLastPresentationTimeUs;
+                dropped = Math.max(0, (gap + mFrameIntervalUs / 2) / mFrameIntervalUs - 1);
+            } else {
+                mFirstPresentationTimeUs = sample.presentationTimeUs;
+            }
+            mLastPresentationTimeUs = sample.presentationTimeUs;
+            mFrameCount++;
+            if (0 != (sample.flags & VideoEncoder.FLAG_KEY_FRAME)) {
+                mKeyFrameCount++;
+            }
+            mDroppedFrameCount += dropped;
+            mByteCount += sample.size;
+            mWriteMicros.record(writeMicros);
+        }
+        FRAMES.increment();
+        BYTES.add(sample.size);
+        DROPPED.add(dropped);
+    }
+
+}
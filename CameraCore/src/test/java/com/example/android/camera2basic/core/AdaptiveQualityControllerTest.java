@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tier changes and hysteresis of {@link AdaptiveQualityController}.
+ */
+public class AdaptiveQualityControllerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final List<String> mChanges = new ArrayList<>();
+
+    private AdaptiveQualityController mController;
+
+    private long mNow = SECOND;
+
+    @Before
+    public void setUp() {
+        mController = new AdaptiveQualityController(QualityTier.DEFAULT_TIERS,
+                new AdaptiveQualityController.Listener() {
+                    @Override
+                    public void onTierChanged(QualityTier from, QualityTier to, String reason) {
+                        mChanges.add(from.getName() + "->" + to.getName());
+                    }
+                }).setStepUpHoldMillis(30000);
+    }
+
+    @Test
+    public void stepsDownRightAwayAndUpSlowly() {
+        sample(35);
+        assertEquals(0, mController.getTierIndex());
+        sample(44);
+        // Straight to the tier the temperature requires.
+        assertEquals(2, mController.getTierIndex());
+
+        // Cooled down, but not long enough yet.
+        for (int i = 0; i < 5; i++) {
+            sample(36);
+        }
+        assertEquals(2, mController.getTierIndex());
+        for (int i = 0; i < 2; i++) {
+            sample(36);
+        }
+        assertEquals(1, mController.getTierIndex());
+        for (int i = 0; i < 7; i++) {
+            sample(36);
+        }
+        assertEquals(0, mController.getTierIndex());
+        assertEquals("[full->low, low->reduced, reduced->full]", mChanges.toString());
+    }
+
+    @Test
+    public void doesNotFlapAroundAThreshold() {
+        sample(40);
+        assertEquals(1, mController.getTierIndex());
+        for (int i = 0; i < 60; i++) {
+            // Just below the threshold, but within the hysteresis.
+            sample(i % 2 == 0 ? 39.5f : 38);
+        }
+        assertEquals(1, mController.getTierIndex());
+        assertEquals(1, mController.getChangeCount());
+    }
+
+    @Test
+    public void stepsDownWhenFramesAreLate() {
+        // 30 fps with every fourth frame missing.
+        long timestamp = 0;
+        for (int i = 0; i < 90; i++) {
+            timestamp += (i % 4 == 3 ? 3 : 1) * SECOND / 30;
+            mController.onFrame(timestamp);
+        }
+        sample(30);
+        assertEquals(1, mController.getTierIndex());
+
+        // Steady frames at the new tier are fine.
+        for (int i = 0; i < 90; i++) {
+            timestamp += SECOND / 30;
+            mController.onFrame(timestamp);
+        }
+        sample(30);
+        assertEquals(1, mController.getTierIndex());
+    }
+
+    @Test
+    public void reactsToBatteryAndThermalStatus() {
+        mController.sample(new DeviceConditions(Float.NaN, 0, 12, false, false), mNow);
+        assertEquals(2, mController.getTierIndex());
+        mNow += 40 * SECOND;
+        // Plugged in, but the platform reports severe throttling.
+        mController.sample(new DeviceConditions(Float.NaN,
+                DeviceConditions.THERMAL_STATUS_SEVERE, 12, true, false), mNow);
+        assertEquals(3, mController.getTierIndex());
+    }
+
+    @Test
+    public void accountsTimeInTiers() {
+        // One sample every five seconds.
+        for (int i = 0; i < 4; i++) {
+            sample(30);
+        }
+        for (int i = 0; i < 3; i++) {
+            sample(45);
+        }
+        assertEquals(20000, mController.getTimeInTierMillis(0));
+        assertEquals(10000, mController.getTimeInTierMillis(2));
+        assertTrue(mController.toString(), mController.toString().contains("low=10s"));
+    }
+
+    private void sample(float temperature) {
+        mController.sample(new DeviceConditions(temperature,
+                DeviceConditions.THERMAL_STATUS_UNKNOWN, 80, false, false), mNow);
+        mNow += 5 * SECOND;
+    }
+
+}
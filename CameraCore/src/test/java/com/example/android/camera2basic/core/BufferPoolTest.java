@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reuse, bounds and leak tracking of {@link BufferPool}.
+ */
+public class BufferPoolTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void reusesReleasedBuffersOfTheSameClass() {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        BufferPool.Lease first = pool.lease(100 * 1024);
+        ByteBuffer buffer = first.getBuffer();
+        assertTrue(buffer.isDirect());
+        assertEquals(128 * 1024, buffer.capacity());
+        assertEquals(100 * 1024, buffer.limit());
+        first.release();
+        assertEquals(128 * 1024, pool.getPooledBytes());
+
+        BufferPool.Lease second = pool.lease(70 * 1024);
+        assertSame(buffer, second.getBuffer());
+        assertEquals(0, second.getBuffer().position());
+        assertEquals(70 * 1024, second.getBuffer().limit());
+        assertEquals(1, pool.getOutstandingLeases());
+        second.release();
+
+        assertEquals(2, pool.getLeaseCount());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0.5, pool.getHitRate(), 0);
+        assertEquals(0, pool.getOutstandingLeases());
+    }
+
+    @Test
+    public void keepsIdleBuffersBelowTheCap() {
+        BufferPool pool = new BufferPool(BufferPool.MIN_CLASS_BYTES * 2);
+        BufferPool.Lease[] leases = new BufferPool.Lease[3];
+        for (int i = 0; i < leases.length; i++) {
+            leases[i] = pool.lease(1000);
+        }
+        for (BufferPool.Lease lease : leases) {
+            lease.release();
+        }
+        assertEquals(BufferPool.MIN_CLASS_BYTES * 2, pool.getPooledBytes());
+        pool.trim();
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsDoubleRelease() {
+        BufferPool.Lease lease = new BufferPool(1024 * 1024).lease(10);
+        lease.release();
+        lease.release();
+    }
+
+    @Test
+    public void countsLeasesCollectedWithoutRelease() throws InterruptedException {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        pool.lease(10);
+        for (int i = 0; i < 50 && pool.getLeakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.getLeakCount());
+        assertEquals(0, pool.getOutstandingLeases());
+    }
+
+    @Test
+    public void imageSaverCopiesIntoALeasedBuffer() throws IOException {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        final byte[] jpeg = SyntheticFrames.jpeg(200 * 1024, 1);
+        final boolean[] closed = new boolean[1];
+        File file = mTemporaryFolder.newFile();
+        StillImage image = new StillImage() {
+            @Override
+            public ByteBuffer getBuffer() {
+                assertTrue(!closed[0]);
+                return ByteBuffer.wrap(jpeg);
+            }
+
+            @Override
+            public long getTimestamp() {
+                return 0;
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        new ImageSaver(image, file, pool).run();
+        assertTrue(closed[0]);
+        assertArrayEquals(jpeg, Files.readAllBytes(file.toPath()));
+        assertEquals(0, pool.getOutstandingLeases());
+        assertEquals(256 * 1024, pool.getPooledBytes());
+    }
+
+}
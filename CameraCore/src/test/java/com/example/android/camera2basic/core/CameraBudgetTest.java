@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Sharing of image buffers, threads and writer capacity between cameras.
+ */
+public class CameraBudgetTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void grantsRequestsThatFit() {
+        CameraBudget budget = new CameraBudget(16, 2, 1024);
+        assertArrayEquals(new int[]{2, 3, 2, 3},
+                budget.splitImages(new int[]{2, 3, 2, 3}, new int[]{1, 2, 1, 2}));
+    }
+
+    @Test
+    public void sharesTheRestInTurn() {
+        CameraBudget budget = new CameraBudget(9, 2, 1024);
+        // Minimums take 6, the remaining 3 go to the first outputs that want more.
+        assertArrayEquals(new int[]{2, 2, 2, 1, 1, 1},
+                budget.splitImages(new int[]{4, 4, 4, 4, 4, 4}, new int[]{1, 1, 1, 1, 1, 1}));
+        assertArrayEquals(new int[]{1, 8},
+                budget.splitImages(new int[]{1, 10}, new int[]{1, 1}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMinimumsBeyondTheBudget() {
+        new CameraBudget(4, 2, 1024).splitImages(new int[]{2, 3}, new int[]{2, 3});
+    }
+
+    @Test
+    public void spreadsCamerasOverThreads() {
+        CameraBudget budget = new CameraBudget(16, 2, 1024);
+        assertEquals(1, budget.getThreadCount(1));
+        assertEquals(2, budget.getThreadCount(3));
+        assertEquals(0, budget.getThreadIndex(0, 3));
+        assertEquals(1, budget.getThreadIndex(1, 3));
+        assertEquals(0, budget.getThreadIndex(2, 3));
+        assertEquals(5, budget.getMaxOutputs(3));
+    }
+
+    @Test
+    public void dropsPicturesBeyondTheWriterCapacity() throws IOException {
+        final List<Runnable> queued = new ArrayList<>();
+        SharedImageWriter writer = new SharedImageWriter(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        }, 250);
+        List<CountingImage> images = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            CountingImage image = new CountingImage(100);
+            images.add(image);
+            writer.submit(new ImageSaver(image, mTemporaryFolder.newFile()));
+        }
+        // The third image would exceed the capacity and is closed right away.
+        assertEquals(2, queued.size());
+        assertEquals(1, writer.getDroppedCount());
+        assertEquals(200, writer.getPendingBytes());
+        assertEquals(1, images.get(2).mCloseCount);
+
+        for (Runnable command : queued) {
+            command.run();
+        }
+        assertEquals(0, writer.getPendingBytes());
+        assertEquals(2, writer.getWrittenCount());
+        assertEquals(1, images.get(0).mCloseCount);
+
+        // A single image larger than the capacity still goes through when nothing is pending.
+        queued.clear();
+        writer.submit(new ImageSaver(new CountingImage(1000), mTemporaryFolder.newFile()));
+        assertEquals(1, queued.size());
+    }
+
+    private static class CountingImage implements StillImage {
+
+        private final ByteBuffer mBuffer;
+
+        private int mCloseCount;
+
+        CountingImage(int size) {
+            mBuffer = ByteBuffer.wrap(SyntheticFrames.jpeg(size, size));
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            mCloseCount++;
+        }
+
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The backoff, the give-up and the handling of camera availability of
+ * {@link CameraRecoverySupervisor}, against a scheduler with a manual clock.
+ */
+public class CameraRecoverySupervisorTest {
+
+    /**
+     * Same as {@code CameraDevice.StateCallback.ERROR_CAMERA_DEVICE}.
+     */
+    private static final int ERROR_CAMERA_DEVICE = 4;
+
+    private final ManualScheduler mScheduler = new ManualScheduler();
+
+    private CameraRecoverySupervisor mSupervisor;
+
+    private int mReopens;
+
+    private int mGiveUpError = -1;
+
+    @Before
+    public void setUp() {
+        mSupervisor = new CameraRecoverySupervisor(new CameraRecoverySupervisor.Callback() {
+            @Override
+            public void onReopen() {
+                mReopens++;
+            }
+
+            @Override
+            public void onGiveUp(int error) {
+                mGiveUpError = error;
+            }
+        });
+        mSupervisor.setScheduler(mScheduler);
+    }
+
+    @Test
+    public void backsOffExponentiallyUpToTheLimit() {
+        mSupervisor.onCameraLost(CameraBackend.ERROR_CAMERA_IN_USE);
+        List<Long> delays = new ArrayList<>();
+        for (int i = 0; i < CameraRecoverySupervisor.MAX_ATTEMPTS; i++) {
+            delays.add(mScheduler.mDelayMillis);
+            mScheduler.advanceTo(mScheduler.mDueMillis);
+            assertEquals(i + 1, mReopens);
+            mSupervisor.onReopenFailed();
+        }
+
+        List<Long> expected = new ArrayList<>();
+        for (long delay : new long[]{100, 200, 400, 800, 1600, 3200, 3200, 3200}) {
+            expected.add(delay);
+        }
+        assertEquals(expected, delays);
+        assertEquals(CameraBackend.ERROR_CAMERA_IN_USE, mGiveUpError);
+        assertFalse(mSupervisor.isRecovering());
+        assertFalse(mScheduler.isPending());
+    }
+
+    @Test
+    public void givesUpRightAwayWhenTheCameraIsDisabled() {
+        mSupervisor.onCameraLost(CameraBackend.ERROR_CAMERA_DISABLED);
+
+        assertEquals(CameraBackend.ERROR_CAMERA_DISABLED, mGiveUpError);
+        assertFalse(mScheduler.isPending());
+        assertEquals(0, mReopens);
+    }
+
+    @Test
+    public void recoversAndStartsOverOnTheNextLoss() {
+        mSupervisor.onCameraLost(CameraBackend.ERROR_DISCONNECTED);
+        mScheduler.advanceTo(mScheduler.mDueMillis);
+        mSupervisor.onRecovered();
+        assertFalse(mSupervisor.isRecovering());
+        assertEquals(1, mSupervisor.getRecoveryCount());
+
+        mSupervisor.onCameraLost(CameraBackend.ERROR_DISCONNECTED);
+        assertEquals(CameraRecoverySupervisor.INITIAL_BACKOFF_MS, mScheduler.mDelayMillis);
+    }
+
+    @Test
+    public void availabilityBringsForwardAnAttemptAfterEviction() {
+        mSupervisor.onCameraLost(CameraBackend.ERROR_DISCONNECTED);
+        mSupervisor.onCameraAvailable();
+
+        assertEquals(0, mScheduler.mDelayMillis);
+        mScheduler.advanceTo(0);
+        assertEquals(1, mReopens);
+    }
+
+    @Test
+    public void ignoresAvailabilityAfterOurOwnClose() {
+        // The camera service reports the camera available once we close it after the error.
+        mSupervisor.onCameraLost(ERROR_CAMERA_DEVICE);
+        mSupervisor.onCameraAvailable();
+
+        assertEquals(CameraRecoverySupervisor.INITIAL_BACKOFF_MS, mScheduler.mDelayMillis);
+    }
+
+    @Test
+    public void ignoresAvailabilityWhileAnAttemptIsInFlight() {
+        mSupervisor.onCameraLost(CameraBackend.ERROR_CAMERA_IN_USE);
+        mScheduler.advanceTo(mScheduler.mDueMillis);
+        assertEquals(1, mReopens);
+
+        mSupervisor.onCameraAvailable();
+        assertFalse(mScheduler.isPending());
+        assertEquals(1, mReopens);
+
+        // Once the attempt has failed, the next one may be brought forward.
+        mSupervisor.onCameraLost(CameraBackend.ERROR_CAMERA_IN_USE);
+        mSupervisor.onCameraAvailable();
+        assertEquals(0, mScheduler.mDelayMillis);
+    }
+
+    @Test
+    public void stopsWithTheScheduler() {
+        mSupervisor.onCameraLost(CameraBackend.ERROR_DISCONNECTED);
+        mSupervisor.setScheduler(null);
+
+        assertFalse(mScheduler.isPending());
+        assertFalse(mSupervisor.isRecovering());
+        mSupervisor.onCameraAvailable();
+        assertTrue(mGiveUpError < 0);
+        assertEquals(0, mReopens);
+    }
+
+    /**
+     * Holds the one task the supervisor schedules, and runs it when the clock passes its time.
+     */
+    private static class ManualScheduler implements CameraRecoverySupervisor.Scheduler {
+
+        long mNowMillis;
+
+        Runnable mTask;
+
+        long mDelayMillis = -1;
+
+        long mDueMillis;
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            assertFalse("already scheduled", isPending());
+            mTask = task;
+            mDelayMillis = delayMillis;
+            mDueMillis = mNowMillis + delayMillis;
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            if (task == mTask) {
+                mTask = null;
+            }
+        }
+
+        boolean isPending() {
+            return null != mTask;
+        }
+
+        void advanceTo(long millis) {
+            mNowMillis = Math.max(mNowMillis, millis);
+            if (null != mTask && mDueMillis <= mNowMillis) {
+                Runnable task = mTask;
+                mTask = null;
+                task.run();
+            }
+        }
+
+    }
+
+}
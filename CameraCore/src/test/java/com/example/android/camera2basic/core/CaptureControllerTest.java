@@ -0,0 +1,393 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the open, preview, capture and save sequence of {@link CaptureController} against a
+ * {@link SimulatedCameraBackend}, on the JVM.
+ */
+public class CaptureControllerTest {
+
+    private static final int JPEG_SIZE = 300 * 1024;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private ScheduledExecutorService mCameraThread;
+
+    private SimulatedCameraBackend mBackend;
+
+    private CaptureController mController;
+
+    private File mFile;
+
+    private volatile CountDownLatch mPreviewStarted = new CountDownLatch(1);
+
+    private volatile CountDownLatch mSaved = new CountDownLatch(1);
+
+    private volatile CountDownLatch mCameraLost = new CountDownLatch(1);
+
+    private volatile boolean mOpenFailed;
+
+    private volatile boolean mRejectSaves;
+
+    @Before
+    public void setUp() throws IOException {
+        mCameraThread = Executors.newSingleThreadScheduledExecutor();
+        mBackend = new SimulatedCameraBackend(mCameraThread).setJpegSize(JPEG_SIZE);
+        // Saves run on the camera thread, like on the background handler in the app.
+        Executor saveExecutor = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                if (mRejectSaves) {
+                    throw new RejectedExecutionException();
+                }
+                mCameraThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        command.run();
+                        mSaved.countDown();
+                    }
+                });
+            }
+        };
+        mController = new CaptureController(mBackend, saveExecutor,
+                new CaptureController.Listener() {
+
+                    @Override
+                    public int getJpegOrientation() {
+                        return 90;
+                    }
+
+                    @Override
+                    public void onPreviewStarted() {
+                        mPreviewStarted.countDown();
+                    }
+
+                    @Override
+                    public void onOpenFailed() {
+                        mOpenFailed = true;
+                    }
+
+                    @Override
+                    public void onSessionConfigureFailed() {
+                    }
+
+                    @Override
+                    public void onCameraLost(int error) {
+                        mCameraLost.countDown();
+                    }
+
+                    @Override
+                    public void onPictureTaken(File file) {
+                    }
+
+                });
+        mController.setCameraExecutor(mCameraThread);
+        mFile = mTemporaryFolder.newFile("pic.jpg");
+        mController.setOutputFile(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        mController.close();
+        mCameraThread.shutdownNow();
+    }
+
+    @Test
+    public void openPreviewCaptureSave() throws Exception {
+        startPreview();
+
+        long start = System.nanoTime();
+        mController.takePicture();
+        assertTrue("picture not saved", mSaved.await(2, TimeUnit.SECONDS));
+        long latencyMillis = (System.nanoTime() - start) / 1000000L;
+
+        // Three frames to lock the focus and the still capture latency of the simulator.
+        assertTrue("shutter-to-save latency " + latencyMillis + "ms",
+                latencyMillis >= 3 * 33 + 120 && latencyMillis < 1000);
+        assertEquals(JPEG_SIZE, mFile.length());
+        assertJpeg(mFile);
+        assertEquals(1, mBackend.getStillCount());
+        assertEquals(0, mBackend.getPrecaptureCount());
+        assertEquals(0, mBackend.getOutstandingImages());
+        awaitState(CaptureController.STATE_PREVIEW);
+    }
+
+    @Test
+    public void runsPrecaptureWhenExposureHasNotConverged() throws Exception {
+        mBackend.setPreviewAeState(SimulatedCameraBackend.AE_STATE_SEARCHING);
+        startPreview();
+
+        mController.takePicture();
+        assertTrue("picture not saved", mSaved.await(2, TimeUnit.SECONDS));
+
+        assertEquals(1, mBackend.getPrecaptureCount());
+        assertEquals(1, mBackend.getStillCount());
+    }
+
+    @Test
+    public void capturesWithoutAutoFocus() throws Exception {
+        mBackend.setFocusLockSequence(CameraBackend.STATE_UNKNOWN);
+        startPreview();
+
+        mController.takePicture();
+        assertTrue("picture not saved", mSaved.await(2, TimeUnit.SECONDS));
+        // Give stray results a chance to trigger a second capture.
+        Thread.sleep(200);
+
+        assertEquals(1, mBackend.getStillCount());
+    }
+
+    @Test
+    public void queuesRapidPressesIntoBackToBackCaptures() throws Exception {
+        startPreview();
+        mSaved = new CountDownLatch(5);
+
+        for (int i = 0; i < 5; i++) {
+            mController.takePicture();
+        }
+        assertTrue("pictures not saved", mSaved.await(5, TimeUnit.SECONDS));
+
+        assertEquals(5, mBackend.getStillCount());
+        // The presses queued behind the first one reuse its 3A lock.
+        assertEquals(1, mBackend.getFocusLockCount());
+        assertEquals(5, mController.getPressCount());
+        assertEquals(5, mController.getCaptureCount());
+        assertEquals(0, mController.getDroppedPressCount());
+        assertEquals(0, mController.getQueuedPressCount());
+        awaitState(CaptureController.STATE_PREVIEW);
+    }
+
+    @Test
+    public void dropsPressesBeyondTheBurstDepth() throws Exception {
+        startPreview();
+        mController.setMaxQueuedPresses(2);
+        mSaved = new CountDownLatch(2);
+
+        for (int i = 0; i < 6; i++) {
+            mController.takePicture();
+        }
+        assertTrue("pictures not saved", mSaved.await(5, TimeUnit.SECONDS));
+        Thread.sleep(500);
+        awaitState(CaptureController.STATE_PREVIEW);
+
+        // The first press may have started its capture before the others were queued.
+        int captures = mController.getCaptureCount();
+        assertTrue("captures=" + captures, captures >= 2 && captures <= 3);
+        assertEquals(6, captures + mController.getDroppedPressCount());
+    }
+
+    @Test
+    public void concurrentPressesDoNotOverfillTheBurst() throws Exception {
+        startPreview();
+        mController.setMaxQueuedPresses(3);
+        // Keep the camera thread busy, so that no press is taken off the queue meanwhile.
+        final CountDownLatch release = new CountDownLatch(1);
+        mCameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] pressers = new Thread[8];
+        for (int i = 0; i < pressers.length; i++) {
+            pressers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 50; j++) {
+                        mController.takePicture();
+                    }
+                }
+            });
+            pressers[i].start();
+        }
+        go.countDown();
+        for (Thread presser : pressers) {
+            presser.join();
+        }
+
+        assertEquals(3, mController.getQueuedPressCount());
+        assertEquals(8 * 50 - 3, mController.getDroppedPressCount());
+        release.countDown();
+    }
+
+    @Test
+    public void closesTheImageWhenTheSaveIsRejected() throws Exception {
+        startPreview();
+        mRejectSaves = true;
+
+        mController.takePicture();
+        awaitState(CaptureController.STATE_PICTURE_TAKEN);
+        Thread.sleep(200);
+
+        assertEquals(1, mBackend.getStillCount());
+        assertEquals(0, mBackend.getOutstandingImages());
+        awaitState(CaptureController.STATE_PREVIEW);
+    }
+
+    @Test
+    public void locksAgainForPressAfterCapture() throws Exception {
+        startPreview();
+        mSaved = new CountDownLatch(2);
+
+        mController.takePicture();
+        awaitState(CaptureController.STATE_PICTURE_TAKEN);
+        Thread.sleep(150);
+        // The first capture has completed, so this press needs a new 3A lock.
+        mController.takePicture();
+        assertTrue("pictures not saved", mSaved.await(2, TimeUnit.SECONDS));
+
+        assertEquals(2, mBackend.getStillCount());
+        assertEquals(2, mBackend.getFocusLockCount());
+    }
+
+    @Test
+    public void dropsPressesBeforeThePreviewStarts() throws Exception {
+        mController.takePicture();
+        startPreview();
+        Thread.sleep(200);
+
+        assertEquals(0, mBackend.getStillCount());
+        assertEquals(1, mController.getDroppedPressCount());
+    }
+
+    @Test
+    public void createsSessionWhenSurfaceArrivesLast() throws Exception {
+        mBackend.setOpenLatencyMillis(10);
+        mController.open();
+        Thread.sleep(100);
+        assertEquals(1, mBackend.getOpenCount());
+        assertEquals(1, mPreviewStarted.getCount());
+        assertFalse(mOpenFailed);
+
+        surfaceReady();
+        assertTrue("preview not started", mPreviewStarted.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void takesPicturesAfterReopen() throws Exception {
+        startPreview();
+        mBackend.disconnect();
+        assertTrue("camera not lost", mCameraLost.await(1, TimeUnit.SECONDS));
+
+        mPreviewStarted = new CountDownLatch(1);
+        mController.open();
+        assertTrue("preview not restarted", mPreviewStarted.await(1, TimeUnit.SECONDS));
+        mController.takePicture();
+        assertTrue("picture not saved", mSaved.await(2, TimeUnit.SECONDS));
+
+        assertEquals(2, mBackend.getOpenCount());
+        assertEquals(JPEG_SIZE, mFile.length());
+    }
+
+    @Test
+    public void closeWaitsForTheCameraThread() throws Exception {
+        startPreview();
+        final CountDownLatch release = new CountDownLatch(1);
+        // Holds up the camera thread, which the close is handed over to.
+        mCameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mController.close();
+            }
+        });
+        closer.start();
+        closer.join(200);
+        assertTrue("close returned before the camera thread ran it", closer.isAlive());
+        mController.takePicture();
+        assertEquals(1, mController.getDroppedPressCount());
+
+        release.countDown();
+        closer.join(1000);
+        assertFalse("close did not return", closer.isAlive());
+        assertEquals(0, mController.getQueuedPressCount());
+    }
+
+    private void startPreview() throws InterruptedException {
+        mController.open();
+        surfaceReady();
+        assertTrue("preview not started", mPreviewStarted.await(1, TimeUnit.SECONDS));
+    }
+
+    private void surfaceReady() {
+        mCameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                mController.onPreviewSurfaceReady();
+            }
+        });
+    }
+
+    private void awaitState(int state) throws InterruptedException {
+        for (int i = 0; i < 100 && mController.getState() != state; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(state, mController.getState());
+    }
+
+    private static void assertJpeg(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            assertEquals(0xFF, input.read());
+            assertEquals(0xD8, input.read());
+        } finally {
+            input.close();
+        }
+    }
+
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ordering, concurrency and bounds of {@link CapturePipeline}.
+ */
+public class CapturePipelineTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private ExecutorService mExecutor;
+
+    private BufferPool mPool;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(4);
+        mPool = new BufferPool(16 * 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void checksumsAndPersistsEveryCaptureInOrder() throws Exception {
+        final int count = 12;
+        final List<Long> order = Collections.synchronizedList(new ArrayList<Long>());
+        final List<Long> checksums = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch done = new CountDownLatch(count);
+        final Random random = new Random(1);
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        CapturePipeline pipeline = new CapturePipeline(mExecutor, mPool)
+                .addStage("jitter", new CapturePipeline.Stage() {
+                    @Override
+                    public void process(CapturePipeline.Capture capture) throws Exception {
+                        int running = concurrent.incrementAndGet();
+                        synchronized (maxConcurrent) {
+                            maxConcurrent.set(Math.max(maxConcurrent.get(), running));
+                        }
+                        int sleep;
+                        synchronized (random) {
+                            sleep = random.nextInt(20);
+                        }
+                        Thread.sleep(sleep);
+                        concurrent.decrementAndGet();
+                    }
+                }, 3, 4)
+                .addStage("checksum", new ChecksumStage(), 2, 4)
+                .addStage("persist", new PersistStage())
+                .setListener(new CapturePipeline.Listener() {
+                    @Override
+                    public void onCaptureProcessed(CapturePipeline.Capture capture) {
+                        order.add(capture.getSequence());
+                        checksums.add(capture.get(ChecksumStage.CRC32));
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onCaptureFailed(CapturePipeline.Capture capture, String stage,
+                            Exception e) {
+                    }
+
+                    @Override
+                    public void onCaptureDropped(CapturePipeline.Capture capture) {
+                    }
+                });
+        List<byte[]> jpegs = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        int submitted = 0;
+        while (submitted < count) {
+            byte[] jpeg = SyntheticFrames.jpeg(100 * 1024 + submitted, submitted);
+            File file = mTemporaryFolder.newFile();
+            if (pipeline.submit(new ArrayImage(jpeg), file)) {
+                jpegs.add(jpeg);
+                files.add(file);
+                submitted++;
+            } else {
+                // The camera would drop it; here we retry after a while.
+                Thread.sleep(5);
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        List<Long> processed = new ArrayList<>(order);
+        assertEquals(processed, sorted(processed));
+        assertEquals(count, processed.size());
+        assertTrue(maxConcurrent.get() > 1);
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals(jpegs.get(i), Files.readAllBytes(files.get(i).toPath()));
+            CRC32 crc = new CRC32();
+            crc.update(jpegs.get(i));
+            assertEquals(crc.getValue(), (long) checksums.get(i));
+        }
+        assertEquals(count, pipeline.getProcessedCount("persist"));
+        assertEquals(0, pipeline.getPendingCount());
+        assertEquals(0, mPool.getOutstandingLeases());
+    }
+
+    @Test
+    public void dropsCapturesWhenFullAndReportsFailures() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(4);
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        CapturePipeline pipeline = new CapturePipeline(mExecutor, mPool)
+                .addStage("blocked", new CapturePipeline.Stage() {
+                    @Override
+                    public void process(CapturePipeline.Capture capture) throws Exception {
+                        release.await();
+                        if (capture.getSequence() == 1) {
+                            throw new IOException("Broken");
+                        }
+                    }
+                }, 1, 1)
+                .setListener(new CapturePipeline.Listener() {
+                    @Override
+                    public void onCaptureProcessed(CapturePipeline.Capture capture) {
+                        finished.countDown();
+                    }
+
+                    @Override
+                    public void onCaptureFailed(CapturePipeline.Capture capture, String stage,
+                            Exception e) {
+                        failures.add(stage + ":" + capture.getSequence());
+                        finished.countDown();
+                    }
+
+                    @Override
+                    public void onCaptureDropped(CapturePipeline.Capture capture) {
+                    }
+                });
+        List<ArrayImage> images = new ArrayList<>();
+        int accepted = 0;
+        for (int i = 0; i < 8; i++) {
+            ArrayImage image = new ArrayImage(SyntheticFrames.jpeg(1000, i));
+            images.add(image);
+            if (pipeline.submit(image, mTemporaryFolder.newFile())) {
+                accepted++;
+            }
+            // Let the copy stage move the capture along before the next one arrives.
+            Thread.sleep(20);
+        }
+        // One capture is being processed, one waits for it, and the copy queue holds two more
+        // until there is room after it.
+        assertEquals(4, accepted);
+        assertEquals(4, pipeline.getDroppedCount());
+        for (ArrayImage image : images.subList(accepted, images.size())) {
+            assertEquals(1, image.mCloseCount);
+        }
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("blocked:1"), failures);
+        assertEquals(1, pipeline.getFailedCount("blocked"));
+        for (ArrayImage image : images) {
+            assertEquals(1, image.mCloseCount);
+        }
+    }
+
+    @Test
+    public void holdsNoMoreImagesThanTheReaderAllows() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        CapturePipeline pipeline = new CapturePipeline(mExecutor, mPool)
+                .setMaxImages(2)
+                .addStage("blocked", new CapturePipeline.Stage() {
+                    @Override
+                    public void process(CapturePipeline.Capture capture) throws Exception {
+                        release.await();
+                    }
+                }, 1, 1)
+                .setListener(new CountingListener());
+        List<ArrayImage> images = new ArrayList<>();
+        int accepted = 0;
+        for (int i = 0; i < 6; i++) {
+            ArrayImage image = new ArrayImage(SyntheticFrames.jpeg(1000, i));
+            images.add(image);
+            if (pipeline.submit(image, mTemporaryFolder.newFile())) {
+                accepted++;
+            }
+            Thread.sleep(20);
+        }
+        // Two captures are past the copy, so their images are closed; the copy queue holds one.
+        assertEquals(3, accepted);
+        int open = 0;
+        for (ArrayImage image : images) {
+            open += 0 == image.mCloseCount ? 1 : 0;
+        }
+        assertEquals(1, open);
+        release.countDown();
+        assertTrue(pipeline.close(5000));
+    }
+
+    @Test
+    public void closeWaitsForTheCapturesInFlight() throws Exception {
+        final AtomicInteger persisted = new AtomicInteger();
+        CapturePipeline pipeline = new CapturePipeline(mExecutor, mPool)
+                .addStage("slow", new CapturePipeline.Stage() {
+                    @Override
+                    public void process(CapturePipeline.Capture capture) throws Exception {
+                        Thread.sleep(30);
+                    }
+                })
+                .addStage("persist", new PersistStage())
+                .setListener(new CountingListener() {
+                    @Override
+                    public void onCaptureProcessed(CapturePipeline.Capture capture) {
+                        persisted.incrementAndGet();
+                    }
+                });
+        for (int i = 0; i < 3; i++) {
+            assertTrue(pipeline.submit(new ArrayImage(SyntheticFrames.jpeg(1000, i)),
+                    mTemporaryFolder.newFile()));
+        }
+
+        assertTrue(pipeline.close(5000));
+        mExecutor.shutdown();
+        assertEquals(3, persisted.get());
+        assertEquals(0, pipeline.getPendingCount());
+        assertEquals(0, mPool.getOutstandingLeases());
+        ArrayImage late = new ArrayImage(SyntheticFrames.jpeg(1000, 3));
+        assertFalse(pipeline.submit(late, mTemporaryFolder.newFile()));
+        assertEquals(1, late.mCloseCount);
+    }
+
+    @Test
+    public void failsTheCapturesInFlightWhenTheExecutorIsShutDown() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(2);
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        CapturePipeline pipeline = new CapturePipeline(mExecutor, mPool)
+                .addStage("blocked", new CapturePipeline.Stage() {
+                    @Override
+                    public void process(CapturePipeline.Capture capture) throws Exception {
+                        started.countDown();
+                        release.await();
+                    }
+                }, 1, 2)
+                .addStage("persist", new PersistStage())
+                .setListener(new CountingListener() {
+                    @Override
+                    public void onCaptureFailed(CapturePipeline.Capture capture, String stage,
+                            Exception e) {
+                        assertTrue(e instanceof RejectedExecutionException);
+                        failures.add(stage + ":" + capture.getSequence());
+                        finished.countDown();
+                    }
+                });
+        ArrayImage first = new ArrayImage(SyntheticFrames.jpeg(1000, 0));
+        ArrayImage second = new ArrayImage(SyntheticFrames.jpeg(1000, 1));
+        assertTrue(pipeline.submit(first, mTemporaryFolder.newFile()));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.submit(second, mTemporaryFolder.newFile()));
+        // Let the second capture reach the queue of the blocked stage.
+        Thread.sleep(50);
+
+        mExecutor.shutdown();
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("persist:0", "blocked:1"), failures);
+        assertEquals(0, pipeline.getPendingCount());
+        assertEquals(0, mPool.getOutstandingLeases());
+        assertEquals(1, first.mCloseCount);
+        assertEquals(1, second.mCloseCount);
+        assertTrue(pipeline.close(1000));
+    }
+
+    private static List<Long> sorted(List<Long> values) {
+        List<Long> copy = new ArrayList<>(values);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    /**
+     * Ignores every outcome, for listeners that only care about some.
+     */
+    private static class CountingListener implements CapturePipeline.Listener {
+
+        @Override
+        public void onCaptureProcessed(CapturePipeline.Capture capture) {
+        }
+
+        @Override
+        public void onCaptureFailed(CapturePipeline.Capture capture, String stage, Exception e) {
+        }
+
+        @Override
+        public void onCaptureDropped(CapturePipeline.Capture capture) {
+        }
+
+    }
+
+    private static class ArrayImage implements StillImage {
+
+        private final ByteBuffer mBuffer;
+
+        private int mCloseCount;
+
+        ArrayImage(byte[] jpeg) {
+            mBuffer = ByteBuffer.wrap(jpeg);
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return 0;
+        }
+
+        @Override
+        public synchronized void close() {
+            mCloseCount++;
+        }
+
+    }
+
+}
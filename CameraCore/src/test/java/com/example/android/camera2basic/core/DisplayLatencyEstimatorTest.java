@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The measured delivery latency and the vsync model of {@link DisplayLatencyEstimator}.
+ */
+public class DisplayLatencyEstimatorTest {
+
+    private static final long PERIOD = 16000000;
+
+    @Test
+    public void addsCompositionAfterTheNextVsync() {
+        DisplayLatencyEstimator textureView = new DisplayLatencyEstimator(2, PERIOD);
+        DisplayLatencyEstimator surfaceView = new DisplayLatencyEstimator(1, PERIOD);
+        for (DisplayLatencyEstimator estimator : new DisplayLatencyEstimator[]{
+                textureView, surfaceView}) {
+            estimator.onVsync(1000000000L);
+            // Exposed at 0.98s, available 30ms later, picked up at the vsync of 1.016s.
+            estimator.onFrameAvailable(980000000L, 1010000000L);
+        }
+        assertEquals(30000, textureView.getMeanDeliveryLatencyMicros());
+        assertEquals(36000 + 32000, textureView.getMeanModeledDisplayLatencyMicros());
+        assertEquals(36000 + 16000, surfaceView.getMeanModeledDisplayLatencyMicros());
+    }
+
+    @Test
+    public void usesVsyncsBeforeTheLastOne() {
+        DisplayLatencyEstimator estimator = new DisplayLatencyEstimator(1, PERIOD);
+        estimator.onVsync(1000000000L);
+        // Available 20ms before the last vsync: picked up at 0.984s.
+        estimator.onFrameAvailable(950000000L, 980000000L);
+        assertEquals(34000 + 16000, estimator.getMeanModeledDisplayLatencyMicros());
+    }
+
+    @Test
+    public void refinesThePeriodButIgnoresMissedVsyncs() {
+        DisplayLatencyEstimator estimator = new DisplayLatencyEstimator(1, PERIOD);
+        long vsync = 0;
+        for (int i = 0; i < 200; i++) {
+            estimator.onVsync(vsync);
+            // Every tenth frame is missed by the app.
+            vsync += i % 10 == 9 ? 2 * 16666667 : 16666667;
+        }
+        assertEquals(16666667, estimator.getVsyncPeriodNanos(), 100000);
+    }
+
+    @Test
+    public void ignoresFramesFromAnotherClock() {
+        DisplayLatencyEstimator estimator = new DisplayLatencyEstimator(1, PERIOD);
+        estimator.onFrameAvailable(2000000000L, 1000000000L);
+        assertEquals(0, estimator.getMeanDeliveryLatencyMicros());
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Inserting and updating tags with {@link ExifEditor}.
+ */
+public class ExifEditorTest {
+
+    @Test
+    public void insertsExifAfterJfif() throws IOException {
+        byte[] jpeg = TestJpegs.encode(TestJpegs.pattern(64, 48), false, 0);
+        assertEquals(0, ExifEditor.readOrientation(ByteBuffer.wrap(jpeg)));
+
+        ByteBuffer edited = apply(new ExifEditor()
+                .setOrientation(ExifEditor.ORIENTATION_ROTATE_270)
+                .setAscii(ExifEditor.IFD_EXIF, ExifEditor.TAG_DATE_TIME_ORIGINAL,
+                        "2017:03:01 12:00:00"), jpeg);
+
+        assertEquals(ExifEditor.ORIENTATION_ROTATE_270, ExifEditor.readOrientation(edited));
+        assertEquals("2017:03:01 12:00:00", ExifEditor.readAscii(edited, ExifEditor.IFD_EXIF,
+                ExifEditor.TAG_DATE_TIME_ORIGINAL));
+        // JFIF APP0 stays first, and everything after the new segment is copied as it was.
+        assertEquals((byte) 0xE0, edited.get(3));
+        int segment = 2 + 2 + ((jpeg[4] & 0xFF) << 8 | jpeg[5] & 0xFF);
+        assertEquals((byte) 0xE1, edited.get(segment + 1));
+        int inserted = edited.remaining() - jpeg.length;
+        for (int i = segment; i < jpeg.length; i++) {
+            assertEquals(jpeg[i], edited.get(i + inserted));
+        }
+        assertEquals(64, TestJpegs.decode(edited).getWidth());
+    }
+
+    @Test
+    public void updatesInPlace() throws IOException {
+        byte[] jpeg = TestJpegs.encode(TestJpegs.pattern(32, 32), false, 0);
+        ByteBuffer first = apply(new ExifEditor()
+                .setOrientation(ExifEditor.ORIENTATION_ROTATE_90)
+                .setAscii(ExifEditor.IFD_0, ExifEditor.TAG_SOFTWARE, "Camera2Basic 1.0"), jpeg);
+        ByteBuffer second = apply(new ExifEditor()
+                .setOrientation(ExifEditor.ORIENTATION_NORMAL)
+                .setAscii(ExifEditor.IFD_0, ExifEditor.TAG_SOFTWARE, "Camera2Basic"),
+                toArray(first));
+
+        assertEquals(first.remaining(), second.remaining());
+        assertEquals(ExifEditor.ORIENTATION_NORMAL, ExifEditor.readOrientation(second));
+        assertEquals("Camera2Basic",
+                ExifEditor.readAscii(second, ExifEditor.IFD_0, ExifEditor.TAG_SOFTWARE));
+    }
+
+    @Test
+    public void keepsExistingOffsets() throws IOException {
+        // A little-endian APP1 with a description stored out of line, like a maker note would be.
+        ByteBuffer app1 = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        app1.put(new byte[]{'E', 'x', 'i', 'f', 0, 0, 'I', 'I', 42, 0, 8, 0, 0, 0});
+        app1.putShort((short) 1);
+        app1.putShort((short) ExifEditor.TAG_IMAGE_DESCRIPTION).putShort((short) 2).putInt(8)
+                .putInt(26);
+        app1.putInt(0);
+        app1.put("bearing\0".getBytes("US-ASCII"));
+        byte[] jpeg = TestJpegs.encode(TestJpegs.pattern(16, 16), false, 0);
+        ByteBuffer withExif = ByteBuffer.allocate(jpeg.length + 4 + app1.position());
+        withExif.put(jpeg, 0, 2).put((byte) 0xFF).put((byte) 0xE1)
+                .putShort((short) (2 + app1.position()));
+        withExif.put(app1.array(), 0, app1.position()).put(jpeg, 2, jpeg.length - 2);
+
+        ByteBuffer edited = apply(new ExifEditor()
+                .setOrientation(ExifEditor.ORIENTATION_ROTATE_180)
+                .setAscii(ExifEditor.IFD_EXIF, ExifEditor.TAG_IMAGE_UNIQUE_ID, "0123456789abcdef"),
+                withExif.array());
+
+        assertEquals(ExifEditor.ORIENTATION_ROTATE_180, ExifEditor.readOrientation(edited));
+        assertEquals("bearing",
+                ExifEditor.readAscii(edited, ExifEditor.IFD_0, ExifEditor.TAG_IMAGE_DESCRIPTION));
+        assertEquals("0123456789abcdef", ExifEditor.readAscii(edited, ExifEditor.IFD_EXIF,
+                ExifEditor.TAG_IMAGE_UNIQUE_ID));
+        // The original value was not moved.
+        assertEquals('b', edited.get(2 + 4 + 6 + 26));
+        assertNull(ExifEditor.readAscii(edited, ExifEditor.IFD_GPS, 1));
+    }
+
+    @Test
+    public void rejectsNonJpeg() {
+        try {
+            apply(new ExifEditor().setOrientation(ExifEditor.ORIENTATION_NORMAL),
+                    new byte[]{1, 2, 3, 4, 5, 6});
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("JPEG"));
+        }
+    }
+
+    private static ByteBuffer apply(ExifEditor editor, byte[] jpeg) throws IOException {
+        ByteBuffer input = ByteBuffer.wrap(jpeg);
+        ByteBuffer output = ByteBuffer.allocate(editor.getMaxOutputSize(input));
+        editor.apply(input, output);
+        output.flip();
+        return output;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Demand, overflow policies and buffer references of {@link FrameStream}.
+ */
+public class FrameStreamTest {
+
+    /**
+     * Runs the subscribers on the publishing thread, so that the tests are deterministic.
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void deliversOnlyWhatWasRequested() {
+        FrameStream<Integer> stream = new FrameStream<>("test");
+        Recorder recorder = new Recorder();
+        stream.subscribe(recorder, DIRECT, 4, FrameStream.Overflow.DROP_NEWEST);
+        for (int i = 1; i <= 3; i++) {
+            stream.publish(i);
+        }
+        assertEquals(0, recorder.mItems.size());
+
+        recorder.mSubscription.request(2);
+        assertEquals(list(1, 2), recorder.mItems);
+        recorder.mSubscription.request(10);
+        stream.publish(4);
+        assertEquals(list(1, 2, 3, 4), recorder.mItems);
+    }
+
+    @Test
+    public void dropsOldestOrNewestWhenFull() {
+        FrameStream<Integer> stream = new FrameStream<>("test");
+        Recorder latest = new Recorder();
+        Recorder first = new Recorder();
+        stream.subscribe(latest, DIRECT, 2, FrameStream.Overflow.DROP_OLDEST);
+        stream.subscribe(first, DIRECT, 2, FrameStream.Overflow.DROP_NEWEST);
+        for (int i = 1; i <= 5; i++) {
+            stream.publish(i);
+        }
+        latest.mSubscription.request(Long.MAX_VALUE);
+        first.mSubscription.request(Long.MAX_VALUE);
+
+        assertEquals(list(4, 5), latest.mItems);
+        assertEquals(list(1, 2), first.mItems);
+        assertEquals(6, stream.getDroppedCount());
+    }
+
+    @Test
+    public void endsSubscriptionOnOverflowWithCancel() {
+        FrameStream<Integer> stream = new FrameStream<>("test");
+        Recorder recorder = new Recorder();
+        stream.subscribe(recorder, DIRECT, 2, FrameStream.Overflow.CANCEL);
+        for (int i = 1; i <= 4; i++) {
+            stream.publish(i);
+        }
+        recorder.mSubscription.request(Long.MAX_VALUE);
+
+        assertEquals(0, recorder.mItems.size());
+        assertNotNull(recorder.mError);
+        assertFalse(recorder.mCompleted);
+        assertFalse(stream.hasSubscribers());
+    }
+
+    @Test
+    public void completesAfterBufferedItems() {
+        FrameStream<Integer> stream = new FrameStream<>("test");
+        Recorder recorder = new Recorder();
+        stream.subscribe(recorder, DIRECT, 4, FrameStream.Overflow.DROP_NEWEST);
+        stream.publish(1);
+        stream.complete();
+        stream.publish(2);
+        assertFalse(recorder.mCompleted);
+
+        recorder.mSubscription.request(Long.MAX_VALUE);
+        assertEquals(list(1), recorder.mItems);
+        assertTrue(recorder.mCompleted);
+
+        Recorder late = new Recorder();
+        stream.subscribe(late, DIRECT, 1, FrameStream.Overflow.DROP_NEWEST);
+        assertTrue(late.mCompleted);
+    }
+
+    @Test
+    public void slowSubscriberDoesNotHoldUpOthers() throws Exception {
+        FrameStream<Integer> stream = new FrameStream<>("test");
+        final CountDownLatch unblock = new CountDownLatch(1);
+        ExecutorService slowThread = Executors.newSingleThreadExecutor();
+        Recorder slow = new Recorder() {
+            @Override
+            public void onNext(Object item) {
+                super.onNext(item);
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Recorder fast = new Recorder();
+        stream.subscribe(slow, slowThread, 2, FrameStream.Overflow.DROP_OLDEST)
+                .request(Long.MAX_VALUE);
+        stream.subscribe(fast, DIRECT, 2, FrameStream.Overflow.DROP_OLDEST)
+                .request(Long.MAX_VALUE);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            stream.publish(i);
+        }
+        long publishMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        unblock.countDown();
+        slowThread.shutdown();
+        assertTrue(slowThread.awaitTermination(1, TimeUnit.SECONDS));
+
+        assertTrue("publishing took " + publishMillis + "ms", publishMillis < 500);
+        assertEquals(1000, fast.mItems.size());
+        // The item being processed when publishing began, then the last two.
+        assertEquals(Integer.valueOf(999), slow.mItems.get(slow.mItems.size() - 1));
+        assertTrue(slow.mItems.size() <= 3);
+    }
+
+    @Test
+    public void releasesFramesOnceNobodyNeedsThem() {
+        FrameStream<LumaFrame> stream = new FrameStream<>("luma", LumaFrame.RECYCLER);
+        final AtomicInteger released = new AtomicInteger();
+        final AtomicInteger readers = new AtomicInteger();
+        FrameStream.Subscriber<LumaFrame> reader = new FrameStream.Subscriber<LumaFrame>() {
+            @Override
+            public void onSubscribe(FrameStream.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(LumaFrame frame) {
+                // Still held by the stream while it is being read.
+                assertEquals(0, frame.getData().get(0));
+                readers.incrementAndGet();
+            }
+
+            @Override
+            public void onError(Exception e) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+        stream.subscribe(reader, DIRECT, 1, FrameStream.Overflow.DROP_NEWEST);
+        Recorder idle = new Recorder();
+        FrameStream.Subscription idleSubscription
+                = stream.subscribe(idle, DIRECT, 1, FrameStream.Overflow.DROP_OLDEST);
+
+        for (int i = 0; i < 3; i++) {
+            LumaFrame frame = new LumaFrame(ByteBuffer.allocate(16), 4, 4, 4, i, new Runnable() {
+                @Override
+                public void run() {
+                    released.incrementAndGet();
+                }
+            });
+            stream.publish(frame);
+            frame.release();
+        }
+        assertEquals(3, readers.get());
+        // The idle subscriber holds on to the latest frame until it is cancelled.
+        assertEquals(2, released.get());
+        idleSubscription.cancel();
+        assertEquals(3, released.get());
+    }
+
+    @Test
+    public void cancelsASubscriberThatThrows() throws Exception {
+        FrameStream<Integer> stream = new FrameStream<>("test");
+        final RuntimeException failure = new IllegalStateException("Broken subscriber");
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        Recorder broken = new Recorder() {
+            @Override
+            public void onNext(Object item) {
+                super.onNext(item);
+                throw failure;
+            }
+        };
+        Recorder healthy = new Recorder();
+        stream.subscribe(broken, thread, 4, FrameStream.Overflow.DROP_NEWEST)
+                .request(Long.MAX_VALUE);
+        stream.subscribe(healthy, DIRECT, 4, FrameStream.Overflow.DROP_NEWEST)
+                .request(Long.MAX_VALUE);
+
+        for (int i = 1; i <= 3; i++) {
+            stream.publish(i);
+        }
+        thread.shutdown();
+        assertTrue(thread.awaitTermination(1, TimeUnit.SECONDS));
+
+        assertEquals(list(1), broken.mItems);
+        assertSame(failure, broken.mError);
+        assertFalse(broken.mCompleted);
+        assertEquals(list(1, 2, 3), healthy.mItems);
+        stream.complete();
+        assertTrue(healthy.mCompleted);
+        assertFalse(stream.hasSubscribers());
+    }
+
+    @Test
+    public void endsQuietlyWhenOnCompleteThrows() {
+        FrameStream<Integer> stream = new FrameStream<>("test");
+        Recorder broken = new Recorder() {
+            @Override
+            public void onComplete() {
+                super.onComplete();
+                throw new IllegalStateException("Broken subscriber");
+            }
+        };
+        stream.subscribe(broken, DIRECT, 1, FrameStream.Overflow.DROP_NEWEST);
+        // Throws on the publishing thread with a direct executor unless it is caught.
+        stream.complete();
+
+        assertTrue(broken.mCompleted);
+        assertNull(broken.mError);
+        assertFalse(stream.hasSubscribers());
+    }
+
+    private static List<Integer> list(Integer... items) {
+        List<Integer> list = new ArrayList<>();
+        for (Integer item : items) {
+            list.add(item);
+        }
+        return list;
+    }
+
+    /**
+     * Records what it receives, and leaves the demand to the test.
+     */
+    private static class Recorder implements FrameStream.Subscriber<Object> {
+
+        final List<Object> mItems = new ArrayList<>();
+
+        FrameStream.Subscription mSubscription;
+
+        Exception mError;
+
+        boolean mCompleted;
+
+        @Override
+        public void onSubscribe(FrameStream.Subscription subscription) {
+            mSubscription = subscription;
+        }
+
+        @Override
+        public void onNext(Object item) {
+            mItems.add(item);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            mError = e;
+        }
+
+        @Override
+        public void onComplete() {
+            mCompleted = true;
+        }
+
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Timing of {@link IntervalScheduler} against a camera whose frames and stills follow a sensor
+ * clock.
+ */
+public class IntervalSchedulerTest {
+
+    private static final long FRAME_NANOS = TimeUnit.MICROSECONDS.toNanos(33333);
+
+    private static final long LOW_POWER_FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    public void keepsTheIntervalWithoutDrift() {
+        SensorClockBackend backend = new SensorClockBackend(4);
+        IntervalScheduler scheduler = new IntervalScheduler(backend, INTERVAL_NANOS, backend);
+        scheduler.start();
+        backend.runUntil(scheduler, 200);
+
+        assertEquals(0, scheduler.getMissedCount());
+        assertEquals(1, backend.mLockCount);
+        // The first stills are used to learn the delay from request to exposure.
+        for (long error : backend.mErrors.subList(3, backend.mErrors.size())) {
+            assertTrue("error " + error, Math.abs(error) <= FRAME_NANOS / 2 + 1000000);
+        }
+        // Errors don't accumulate over 100 seconds.
+        assertTrue(Math.abs(scheduler.getMeanIntervalNanos() - INTERVAL_NANOS) < 500000);
+        scheduler.stop();
+        assertEquals(1, backend.mUnlockCount);
+    }
+
+    @Test
+    public void dropsToLowPowerBetweenShots() {
+        long interval = TimeUnit.SECONDS.toNanos(2);
+        SensorClockBackend backend = new SensorClockBackend(3);
+        IntervalScheduler scheduler = new IntervalScheduler(backend, interval, backend)
+                .setLowPowerBetweenShots(true);
+        scheduler.start();
+        backend.runUntil(scheduler, 50);
+
+        assertEquals(0, scheduler.getMissedCount());
+        // Most of the time is spent at the low frame rate.
+        assertTrue(backend.mLowPowerFrames * LOW_POWER_FRAME_NANOS > 50 * interval * 3 / 4);
+        for (long error : backend.mErrors.subList(3, backend.mErrors.size())) {
+            assertTrue("error " + error, Math.abs(error) <= FRAME_NANOS / 2 + 1000000);
+        }
+        scheduler.stop();
+        assertTrue(!backend.mLowPower);
+    }
+
+    @Test
+    public void skipsTargetsAfterAStall() {
+        SensorClockBackend backend = new SensorClockBackend(3);
+        IntervalScheduler scheduler = new IntervalScheduler(backend, INTERVAL_NANOS, backend);
+        scheduler.start();
+        backend.runUntil(scheduler, 10);
+        // No frames for 1.2 seconds.
+        backend.mNextFrameNanos += TimeUnit.MILLISECONDS.toNanos(1200);
+        backend.runUntil(scheduler, 20);
+
+        assertEquals(2, scheduler.getMissedCount());
+        for (long error : backend.mErrors.subList(3, backend.mErrors.size())) {
+            assertTrue("error " + error, Math.abs(error) <= FRAME_NANOS / 2 + 1000000);
+        }
+    }
+
+    /**
+     * A camera that exposes every still a fixed number of frames after it was requested, at a
+     * frame rate with a little jitter.
+     */
+    private static class SensorClockBackend
+            implements IntervalCaptureBackend, IntervalScheduler.Listener {
+
+        private final int mPipelineFrames;
+
+        private final Random mRandom = new Random(7);
+
+        private final List<Long> mErrors = new ArrayList<>();
+
+        private FrameCallback mCallback;
+
+        private long mNextFrameNanos = TimeUnit.SECONDS.toNanos(1000);
+
+        private boolean mLocked;
+
+        private boolean mLowPower;
+
+        private int mLockCount;
+
+        private int mUnlockCount;
+
+        private int mFrames;
+
+        private int mLowPowerFrames;
+
+        /**
+         * Frames left until the requested still is exposed, or -1.
+         */
+        private int mStillCountdown = -1;
+
+        SensorClockBackend(int pipelineFrames) {
+            mPipelineFrames = pipelineFrames;
+        }
+
+        void runUntil(IntervalScheduler scheduler, int shots) {
+            while (scheduler.getShotCount() < shots) {
+                long timestamp = mNextFrameNanos;
+                long jitter = mRandom.nextInt(1000000) - 500000;
+                mNextFrameNanos += (mLowPower ? LOW_POWER_FRAME_NANOS : FRAME_NANOS) + jitter;
+                mFrames++;
+                if (mLowPower) {
+                    mLowPowerFrames++;
+                }
+                if (mStillCountdown > 0 && --mStillCountdown == 0) {
+                    // The still takes the slot of this frame.
+                    mStillCountdown = -1;
+                    mCallback.onLockedStillCompleted(timestamp);
+                    continue;
+                }
+                mCallback.onFrameResult(timestamp,
+                        mLocked ? CameraBackend.AF_STATE_FOCUSED_LOCKED : 1,
+                        mLocked ? AE_STATE_LOCKED : CameraBackend.AE_STATE_CONVERGED);
+            }
+        }
+
+        @Override
+        public void setFrameCallback(FrameCallback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void lock3A() {
+            mLockCount++;
+            mLocked = true;
+        }
+
+        @Override
+        public void setLowPowerRepeating(boolean lowPower) {
+            mLowPower = lowPower;
+        }
+
+        @Override
+        public void captureLockedStill(int jpegOrientation) {
+            assertEquals(-1, mStillCountdown);
+            mStillCountdown = mPipelineFrames;
+        }
+
+        @Override
+        public void unlock3A() {
+            mUnlockCount++;
+            mLocked = false;
+        }
+
+        @Override
+        public int getJpegOrientation() {
+            return 0;
+        }
+
+        @Override
+        public void onIntervalShot(int shot, long intervalNanos, long errorNanos) {
+            mErrors.add(errorNanos);
+        }
+
+    }
+
+}
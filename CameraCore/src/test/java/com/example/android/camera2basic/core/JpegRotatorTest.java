@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Lossless rotation by {@link JpegRotator}, checked against {@link javax.imageio.ImageIO}.
+ */
+public class JpegRotatorTest {
+
+    @Test
+    public void rotatesPixels() throws IOException {
+        // 4:2:0 has 16x16 MCUs; 120 is not a multiple of 16.
+        byte[] jpeg = TestJpegs.encode(TestJpegs.pattern(200, 120), false, 0);
+        BufferedImage original = TestJpegs.decode(jpeg);
+        for (int degrees : new int[]{90, 180, 270}) {
+            BufferedImage rotated = TestJpegs.decode(rotate(jpeg, degrees));
+            int width = degrees == 90 ? 112 : degrees == 180 ? 192 : 120;
+            int height = degrees == 90 ? 200 : degrees == 180 ? 112 : 192;
+            assertEquals(width, rotated.getWidth());
+            assertEquals(height, rotated.getHeight());
+            long error = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int source;
+                    if (degrees == 90) {
+                        source = original.getRGB(y, width - 1 - x);
+                    } else if (degrees == 180) {
+                        source = original.getRGB(width - 1 - x, height - 1 - y);
+                    } else {
+                        source = original.getRGB(height - 1 - y, x);
+                    }
+                    error += difference(source, rotated.getRGB(x, y));
+                }
+            }
+            // Only chroma upsampling may differ across the moved block edges.
+            double meanError = (double) error / (width * height * 3);
+            assertTrue(degrees + ": " + meanError, meanError < 1.0);
+        }
+    }
+
+    @Test
+    public void fullTurnIsIdentical() throws IOException {
+        byte[] jpeg = TestJpegs.encode(TestJpegs.pattern(160, 96), false, 0);
+        byte[] turned = jpeg;
+        for (int i = 0; i < 4; i++) {
+            turned = rotate(turned, 90);
+        }
+        BufferedImage original = TestJpegs.decode(jpeg);
+        BufferedImage result = TestJpegs.decode(turned);
+        for (int y = 0; y < 96; y++) {
+            for (int x = 0; x < 160; x++) {
+                assertEquals(original.getRGB(x, y), result.getRGB(x, y));
+            }
+        }
+        // The optimized Huffman tables are not larger than the standard ones.
+        assertTrue(turned.length <= jpeg.length);
+    }
+
+    @Test
+    public void decodesRestartIntervals() throws IOException {
+        BufferedImage image = TestJpegs.pattern(96, 64);
+        byte[] plain = rotate(TestJpegs.encode(image, false, 0), 180);
+        byte[] restarts = rotate(TestJpegs.encode(image, false, 2), 180);
+        assertEquals(TestJpegs.decode(plain).getRGB(10, 20),
+                TestJpegs.decode(restarts).getRGB(10, 20));
+        assertEquals(plain.length, restarts.length);
+    }
+
+    @Test
+    public void keepsMetadata() throws IOException {
+        byte[] jpeg = TestJpegs.encode(TestJpegs.pattern(64, 64), false, 0);
+        ByteBuffer tagged = ByteBuffer.allocate(jpeg.length + 128 * 1024);
+        new ExifEditor().setOrientation(ExifEditor.ORIENTATION_ROTATE_90)
+                .apply(ByteBuffer.wrap(jpeg), tagged);
+        tagged.flip();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JpegRotator.rotate(tagged, JpegRotator.getDegrees(ExifEditor.readOrientation(tagged)),
+                output);
+        assertEquals(ExifEditor.ORIENTATION_ROTATE_90,
+                ExifEditor.readOrientation(ByteBuffer.wrap(output.toByteArray())));
+    }
+
+    @Test
+    public void writesIntoABuffer() throws IOException {
+        byte[] jpeg = TestJpegs.encode(TestJpegs.pattern(200, 120), false, 0);
+        byte[] expected = rotate(jpeg, 90);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length + 16);
+        JpegRotator.rotate(ByteBuffer.wrap(jpeg), 90, new ByteBufferOutputStream(buffer));
+        buffer.flip();
+        byte[] actual = new byte[buffer.remaining()];
+        buffer.get(actual);
+        assertArrayEquals(expected, actual);
+        try {
+            JpegRotator.rotate(ByteBuffer.wrap(jpeg), 90,
+                    new ByteBufferOutputStream(ByteBuffer.allocate(expected.length - 1)));
+            fail();
+        } catch (BufferOverflowException expectedException) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void rejectsProgressive() throws IOException {
+        byte[] jpeg = TestJpegs.encode(TestJpegs.pattern(64, 64), true, 0);
+        try {
+            rotate(jpeg, 90);
+            fail();
+        } catch (IOException expected) {
+            // Expected.
+        }
+    }
+
+    private static byte[] rotate(byte[] jpeg, int degrees) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JpegRotator.rotate(ByteBuffer.wrap(jpeg), degrees, output);
+        return output.toByteArray();
+    }
+
+    private static int difference(int a, int b) {
+        return Math.abs((a >> 16 & 0xFF) - (b >> 16 & 0xFF))
+                + Math.abs((a >> 8 & 0xFF) - (b >> 8 & 0xFF))
+                + Math.abs((a & 0xFF) - (b & 0xFF));
+    }
+
+}
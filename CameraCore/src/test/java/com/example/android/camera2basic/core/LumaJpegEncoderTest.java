@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Output of {@link LumaJpegEncoder}, checked against {@link javax.imageio.ImageIO}.
+ */
+public class LumaJpegEncoderTest {
+
+    @Test
+    public void encodesDecodableGrayscale() throws IOException {
+        // Neither dimension is a multiple of 8, and the rows are padded.
+        int width = 101;
+        int height = 43;
+        int rowStride = 128;
+        ByteBuffer luma = ByteBuffer.allocateDirect(rowStride * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                luma.put(y * rowStride + x, (byte) pixel(x, y));
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(LumaJpegEncoder.getMaxEncodedSize(width, height));
+        int bytes = new LumaJpegEncoder(90).encode(luma, width, height, rowStride, out);
+        assertEquals(out.position(), bytes);
+        out.flip();
+
+        BufferedImage image = TestJpegs.decode(out);
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        Raster raster = image.getRaster();
+        assertEquals(1, raster.getNumBands());
+        long error = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                error += Math.abs(raster.getSample(x, y, 0) - pixel(x, y));
+            }
+        }
+        assertTrue("Mean error " + (double) error / (width * height),
+                error < 2 * width * height);
+    }
+
+    @Test
+    public void lowerQualityIsSmaller() {
+        ByteBuffer luma = ByteBuffer.allocate(320 * 240);
+        for (int i = 0; i < luma.capacity(); i++) {
+            luma.put(i, (byte) pixel(i % 320, i / 320));
+        }
+        ByteBuffer out = ByteBuffer.allocate(LumaJpegEncoder.getMaxEncodedSize(320, 240));
+        int high = new LumaJpegEncoder(95).encode(luma, 320, 240, 320, out);
+        out.clear();
+        int low = new LumaJpegEncoder(30).encode(luma, 320, 240, 320, out);
+        assertTrue(low + " < " + high, low < high);
+    }
+
+    @Test
+    public void overflowsSmallBuffers() {
+        ByteBuffer luma = ByteBuffer.allocate(64 * 64);
+        try {
+            new LumaJpegEncoder(75).encode(luma, 64, 64, 64, ByteBuffer.allocate(100));
+            fail();
+        } catch (BufferOverflowException expected) {
+        }
+    }
+
+    private static int pixel(int x, int y) {
+        return (x * 2 + y * 3) % 256 < 128 ? 40 + x : 220 - y;
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Negotiation of stream sizes and depths by {@link MemoryGovernor}.
+ */
+public class MemoryGovernorTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private static final Resolution[] JPEG_SIZES = {
+            new Resolution(2048, 1536), new Resolution(4032, 3024), new Resolution(3264, 2448),
+            new Resolution(1600, 1200)};
+
+    private static final MemoryGovernor.Stream PREVIEW = MemoryGovernor.Stream.fixed("preview",
+            MemoryGovernor.FORMAT_PRIVATE, new Resolution(1920, 1080), 3);
+
+    @Test
+    public void keepsStreamsThatFit() {
+        MemoryGovernor.Plan plan = new MemoryGovernor(128 * MB).negotiate(PREVIEW, still(2));
+
+        assertTrue(plan.isWithinBudget());
+        assertEquals(new Resolution(4032, 3024), plan.getSize("still"));
+        assertEquals(2, plan.getDepth("still"));
+        // 1920x1080x1.5x3 + 4032x3024x1.5x2
+        assertEquals(9331200 + 36578304, plan.getTotalBytes());
+    }
+
+    @Test
+    public void reducesDepthBeforeSize() {
+        MemoryGovernor.Plan plan = new MemoryGovernor(40 * MB).negotiate(PREVIEW, still(2));
+
+        assertTrue(plan.isWithinBudget());
+        assertEquals(new Resolution(4032, 3024), plan.getSize("still"));
+        assertEquals(1, plan.getDepth("still"));
+    }
+
+    @Test
+    public void reducesSizeOfTheLargestStream() {
+        MemoryGovernor.Plan plan = new MemoryGovernor(24 * MB).negotiate(PREVIEW, still(2));
+
+        assertTrue(plan.isWithinBudget());
+        assertEquals(new Resolution(3264, 2448), plan.getSize("still"));
+        assertEquals(1, plan.getDepth("still"));
+        assertEquals(3, plan.getDepth("preview"));
+    }
+
+    @Test
+    public void reportsBudgetsThatCantBeMet() {
+        MemoryGovernor.Plan plan = new MemoryGovernor(8 * MB).negotiate(PREVIEW, still(2));
+
+        assertFalse(plan.isWithinBudget());
+        assertEquals(new Resolution(1600, 1200), plan.getSize("still"));
+        assertEquals(1, plan.getDepth("still"));
+    }
+
+    @Test
+    public void derivesBudgets() {
+        assertEquals(96 * MB, MemoryGovernor.budgetForMemoryClass(192, false));
+        assertEquals(48 * MB, MemoryGovernor.budgetForMemoryClass(192, true));
+        assertEquals(75 * MB, MemoryGovernor.budgetForTrimLevel(100 * MB,
+                MemoryGovernor.TRIM_MEMORY_RUNNING_MODERATE));
+        assertEquals(25 * MB, MemoryGovernor.budgetForTrimLevel(100 * MB,
+                MemoryGovernor.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertEquals(100 * MB, MemoryGovernor.budgetForTrimLevel(100 * MB,
+                MemoryGovernor.TRIM_MEMORY_UI_HIDDEN));
+    }
+
+    private static MemoryGovernor.Stream still(int depth) {
+        return new MemoryGovernor.Stream("still", MemoryGovernor.FORMAT_JPEG, JPEG_SIZES, depth,
+                1);
+    }
+
+}
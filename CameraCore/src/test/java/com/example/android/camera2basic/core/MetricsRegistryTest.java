@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Exposition format of {@link MetricsRegistry} and file rotation of {@link MetricsExporter}.
+ */
+public class MetricsRegistryTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void writesPrometheusText() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsRegistry.Counter saves = registry.counter("saves_total", "Saved pictures");
+        saves.add(3);
+        registry.gauge("queue_depth", "Queued pictures").set(2);
+        MetricsRegistry.Histogram latency = registry.histogram("save_seconds", "Save latency");
+        latency.record(1);
+        latency.record(3);
+        latency.record(1000);
+        assertSame(saves, registry.counter("saves_total", "Saved pictures"));
+
+        StringBuilder out = new StringBuilder();
+        registry.writeTo(out, 1234);
+        String text = out.toString();
+        assertTrue(text, text.contains("# HELP saves_total Saved pictures\n"
+                + "# TYPE saves_total counter\nsaves_total 3 1234\n"));
+        assertTrue(text, text.contains("# TYPE queue_depth gauge\nqueue_depth 2.0 1234\n"));
+        assertTrue(text, text.contains("# TYPE save_seconds histogram\n"));
+        assertTrue(text, text.contains("save_seconds_bucket{le=\"1.0E-6\"} 1 1234\n"));
+        assertTrue(text, text.contains("save_seconds_bucket{le=\"2.0E-6\"} 1 1234\n"));
+        assertTrue(text, text.contains("save_seconds_bucket{le=\"4.0E-6\"} 2 1234\n"));
+        assertTrue(text, text.contains("save_seconds_bucket{le=\"5.12E-4\"} 2 1234\n"));
+        assertTrue(text, text.contains("save_seconds_bucket{le=\"0.001024\"} 3 1234\n"));
+        assertTrue(text, text.contains("save_seconds_bucket{le=\"+Inf\"} 3 1234\n"));
+        assertTrue(text, text.contains("save_seconds_sum 0.001004 1234\n"));
+        assertTrue(text, text.contains("save_seconds_count 3 1234\n"));
+        // Sorted by name.
+        assertTrue(text, text.indexOf("queue_depth") < text.indexOf("save_seconds")
+                && text.indexOf("save_seconds") < text.indexOf("saves_total"));
+
+        assertFalse(registry.toString().contains(" 1234\n"));
+    }
+
+    @Test
+    public void rejectsATypeMismatch() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("frames_total", "Frames");
+        try {
+            registry.histogram("frames_total", "Frames");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void countsConcurrentRecords() throws InterruptedException {
+        final MetricsRegistry.Histogram histogram = new MetricsRegistry()
+                .histogram("latency_seconds", "Latency");
+        final MetricsRegistry.Gauge gauge = new MetricsRegistry().gauge("depth", "Depth");
+        int threads = 4;
+        final int records = 50000;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < records; i++) {
+                        histogram.record(i % 1000);
+                        gauge.add(1);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(threads * records, histogram.getCount());
+        assertEquals(threads * (records / 1000) * (999 * 1000 / 2), histogram.getSumMicros());
+        assertEquals(threads * records, gauge.get(), 0);
+    }
+
+    @Test
+    public void rotatesTheExportFile() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsRegistry.Counter counter = registry.counter("shots_total", "Shots");
+        File file = new File(mTemporaryFolder.getRoot(), "metrics.prom");
+        // Every snapshot is larger than the limit, so every export after the first rotates.
+        MetricsExporter exporter = new MetricsExporter(registry, file, 10, 3);
+        for (int i = 1; i <= 5; i++) {
+            counter.increment();
+            exporter.export(i);
+        }
+        assertEquals(4, exporter.getRotationCount());
+        assertTrue(read(file).contains("# snapshot 5\n"));
+        assertTrue(read(file).contains("shots_total 5 5\n"));
+        assertTrue(read(new File(file.getPath() + ".1")).contains("shots_total 4 4\n"));
+        assertTrue(read(new File(file.getPath() + ".2")).contains("shots_total 3 3\n"));
+        assertFalse(new File(file.getPath() + ".3").exists());
+        assertEquals(3, mTemporaryFolder.getRoot().list().length);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Serving, frame sharing and slow clients of {@link MjpegServer}, over real loopback sockets.
+ */
+public class MjpegServerTest {
+
+    private static final Runnable NO_OP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private BufferPool mPool;
+
+    private MjpegServer mServer;
+
+    private int mPort;
+
+    @Before
+    public void setUp() throws IOException {
+        mPool = new BufferPool(64L * 1024 * 1024);
+        mServer = new MjpegServer();
+        mPort = mServer.start(0);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+        assertEquals("Leases still out", 0, mPool.getOutstandingLeases());
+    }
+
+    @Test
+    public void streamsPublishedFrames() throws Exception {
+        Socket socket = request("/stream");
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        assertTrue(readHeaders(in).contains("multipart/x-mixed-replace; boundary=frame"));
+        waitForStreamingClient();
+
+        for (int i = 1; i <= 3; i++) {
+            byte[] frame = frame(1000 * i, i);
+            mServer.publishFrame(lease(frame));
+            assertArrayEquals(frame, readPart(in));
+        }
+        socket.close();
+        List<MjpegServer.ClientStats> stats = waitForClients(0);
+        assertTrue(stats.isEmpty());
+        assertTrue(mServer.toString().contains("frames=3 dropped=0"));
+    }
+
+    @Test
+    public void skipsFramesForSlowClients() throws Exception {
+        Socket slow = request("/stream");
+        slow.setReceiveBufferSize(4096);
+        readHeaders(new DataInputStream(slow.getInputStream()));
+        waitForStreamingClient();
+
+        // Far more than the socket buffers hold, so that the slow client falls behind.
+        for (int i = 0; i < 40; i++) {
+            mServer.publishFrame(lease(frame(512 * 1024, i)));
+            Thread.sleep(5);
+        }
+        MjpegServer.ClientStats stats = waitForClients(1).get(0);
+        assertTrue(stats.toString(), stats.getFramesDropped() > 0);
+        assertTrue(stats.toString(), stats.getFramesSent() < 40);
+        // A busy client only pins the frame it is sending and the newest one.
+        assertTrue(mPool.getOutstandingLeases() <= 2);
+
+        // A fast client that joins now still gets the newest frame right away.
+        Socket fast = request("/stream");
+        DataInputStream in = new DataInputStream(fast.getInputStream());
+        readHeaders(in);
+        assertArrayEquals(frame(512 * 1024, 39), readPart(in));
+        fast.close();
+        slow.close();
+    }
+
+    @Test
+    public void servesLatestStill() throws Exception {
+        Socket missing = request("/still.jpg");
+        assertTrue(readHeaders(new DataInputStream(missing.getInputStream()))
+                .startsWith("HTTP/1.0 404"));
+        missing.close();
+
+        byte[] jpeg = frame(300 * 1024, 7);
+        File file = File.createTempFile("still", ".jpg");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        out.write(jpeg);
+        out.close();
+        mServer.setLatestStill(file);
+
+        Socket socket = request("/still.jpg");
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        String headers = readHeaders(in);
+        assertTrue(headers, headers.startsWith("HTTP/1.0 200"));
+        assertTrue(headers, headers.contains("Content-Length: " + jpeg.length));
+        assertArrayEquals(jpeg, readAll(in));
+        socket.close();
+
+        Socket page = request("/");
+        assertTrue(new String(readAll(page.getInputStream()), "US-ASCII")
+                .contains("<img src=\"/stream\">"));
+        page.close();
+    }
+
+    @Test
+    public void releasesFramesWithoutClients() {
+        for (int i = 0; i < 10; i++) {
+            mServer.publishFrame(lease(frame(1000, i)));
+        }
+        assertFalse(mServer.hasStreamingClients());
+        assertEquals(10, mServer.getPublishedCount());
+        // The newest frame is kept for the next client; tearDown() checks it is released.
+    }
+
+    @Test
+    public void streamerReleasesItsBufferAndResubscribesWhenEncodingFails() throws Exception {
+        CameraStreams streams = new CameraStreams();
+        MjpegStreamer streamer = new MjpegStreamer(mServer, mPool, 70);
+        streamer.start(streams, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        Socket socket = request("/stream");
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        readHeaders(in);
+        waitForStreamingClient();
+
+        // Too short for its size, so the encoder runs off its end.
+        publish(streams, new LumaFrame(ByteBuffer.allocate(16), 64, 64, 64, 1, NO_OP));
+        assertEquals(0, mPool.getOutstandingLeases());
+        assertNull(streamer.getFailure());
+
+        publish(streams, new LumaFrame(ByteBuffer.allocate(64 * 64), 64, 64, 64, 2, NO_OP));
+        byte[] part = readPart(in);
+        assertEquals((byte) 0xFF, part[0]);
+        assertEquals((byte) 0xD8, part[1]);
+        assertTrue(streamer.toString(), streamer.toString().contains("resubscribes=1"));
+        streamer.stop();
+        socket.close();
+    }
+
+    private Socket request(String path) throws IOException {
+        Socket socket = new Socket("127.0.0.1", mPort);
+        socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                .getBytes("US-ASCII"));
+        return socket;
+    }
+
+    private BufferPool.Lease lease(byte[] data) {
+        BufferPool.Lease lease = mPool.lease(data.length);
+        lease.getBuffer().put(data).flip();
+        return lease;
+    }
+
+    private void waitForStreamingClient() throws InterruptedException {
+        for (int i = 0; i < 200 && !mServer.hasStreamingClients(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(mServer.hasStreamingClients());
+    }
+
+    private List<MjpegServer.ClientStats> waitForClients(int count) throws InterruptedException {
+        List<MjpegServer.ClientStats> stats = mServer.getClientStats();
+        for (int i = 0; i < 200 && stats.size() != count; i++) {
+            Thread.sleep(10);
+            stats = mServer.getClientStats();
+        }
+        assertEquals(count, stats.size());
+        return stats;
+    }
+
+    private static void publish(CameraStreams streams, LumaFrame frame) {
+        streams.getAnalysisFrames().publish(frame);
+        frame.release();
+    }
+
+    private static byte[] frame(int size, int seed) {
+        byte[] frame = new byte[size];
+        Arrays.fill(frame, (byte) seed);
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xD8;
+        return frame;
+    }
+
+    private static String readHeaders(DataInputStream in) throws IOException {
+        StringBuilder headers = new StringBuilder();
+        while (!headers.toString().endsWith("\r\n\r\n")) {
+            headers.append((char) in.readUnsignedByte());
+        }
+        return headers.toString();
+    }
+
+    private static byte[] readPart(DataInputStream in) throws IOException {
+        String headers = readHeaders(in);
+        assertTrue(headers, headers.startsWith("--frame\r\n"));
+        int start = headers.indexOf("Content-Length: ") + "Content-Length: ".length();
+        byte[] part = new byte[Integer.parseInt(headers.substring(start,
+                headers.indexOf("\r\n", start)))];
+        in.readFully(part);
+        assertEquals('\r', in.readUnsignedByte());
+        assertEquals('\n', in.readUnsignedByte());
+        return part;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link MotionDetector} on synthetic noisy scenes.
+ */
+public class MotionDetectorTest {
+
+    private static final int WIDTH = 160;
+
+    private static final int HEIGHT = 120;
+
+    /**
+     * Rows are padded, like the planes of camera images.
+     */
+    private static final int ROW_STRIDE = 192;
+
+    private final Random mRandom = new Random(11);
+
+    private final ByteBuffer mFrame = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+
+    @Test
+    public void ignoresNoiseAndSlowLightChanges() {
+        MotionDetector detector = new MotionDetector(8, 2);
+        for (int i = 0; i < 300; i++) {
+            // The scene gets brighter by 60 levels over 10 seconds.
+            render(80 + i / 5, -1, -1);
+            assertFalse("frame " + i, detect(detector));
+        }
+        assertEquals(300, detector.getBlockCount());
+        assertEquals(0, detector.getMotionFrameCount());
+    }
+
+    @Test
+    public void findsAMovingObject() {
+        MotionDetector detector = new MotionDetector(8, 2);
+        for (int i = 0; i < 30; i++) {
+            render(80, -1, -1);
+            assertFalse(detect(detector));
+        }
+        // A bright 24x24 square crosses the frame.
+        for (int x = 0; x + 24 <= WIDTH; x += 8) {
+            render(80, x, 48);
+            assertTrue("x " + x, detect(detector));
+            assertTrue(detector.getChangedBlockCount() >= 9);
+        }
+        assertEquals(0, mFrame.position());
+    }
+
+    @Test
+    public void learnsAnObjectThatStopped() {
+        MotionDetector detector = new MotionDetector(8, 2);
+        for (int i = 0; i < 30; i++) {
+            render(80, -1, -1);
+            detect(detector);
+        }
+        render(80, 64, 48);
+        assertTrue(detect(detector));
+        int frames = 1;
+        while (detect(detector)) {
+            render(80, 64, 48);
+            frames++;
+            assertTrue("still moving after " + frames + " frames", frames < 2000);
+        }
+        // Gone from the background now, so leaving is motion again.
+        render(80, -1, -1);
+        assertTrue(detect(detector));
+    }
+
+    private boolean detect(MotionDetector detector) {
+        return detector.detect(mFrame, WIDTH, HEIGHT, ROW_STRIDE);
+    }
+
+    /**
+     * Fills {@link #mFrame} with a flat scene plus noise, and a white square at
+     * ({@code squareX}, {@code squareY}) unless they are negative.
+     */
+    private void render(int level, int squareX, int squareY) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean square = squareX >= 0 && x >= squareX && x < squareX + 24
+                        && y >= squareY && y < squareY + 24;
+                int value = square ? 240 : level + mRandom.nextInt(17) - 8;
+                mFrame.put(y * ROW_STRIDE + x, (byte) value);
+            }
+        }
+    }
+
+}
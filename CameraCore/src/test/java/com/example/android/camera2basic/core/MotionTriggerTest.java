@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link MotionTrigger} against a camera whose frames and stills follow a sensor clock.
+ */
+public class MotionTriggerTest {
+
+    private static final long FRAME_NANOS = TimeUnit.MICROSECONDS.toNanos(33333);
+
+    private static final long COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Frames from a still request to its exposure.
+     */
+    private static final int PIPELINE_FRAMES = 3;
+
+    @Test
+    public void capturesRightAwayWithThe3ALocked() {
+        SensorClockBackend backend = new SensorClockBackend();
+        MotionTrigger trigger = new MotionTrigger(backend, COOLDOWN_NANOS, backend);
+        trigger.start();
+        assertFalse(trigger.onMotion(backend.mNowNanos));
+        backend.runFrames(2);
+        assertTrue(trigger.isArmed());
+
+        // The analysis frame that showed the motion was exposed two frames ago.
+        assertTrue(trigger.onMotion(backend.mNowNanos - 2 * FRAME_NANOS));
+        backend.runFrames(PIPELINE_FRAMES + 1);
+
+        assertEquals(1, trigger.getShotCount());
+        assertEquals(1, backend.mLockCount);
+        assertEquals((long) (2 + PIPELINE_FRAMES) * FRAME_NANOS, (long) backend.mLatencies.get(0));
+        trigger.stop();
+        assertEquals(1, backend.mUnlockCount);
+    }
+
+    @Test
+    public void ignoresEventsDuringTheCooldown() {
+        SensorClockBackend backend = new SensorClockBackend();
+        MotionTrigger trigger = new MotionTrigger(backend, COOLDOWN_NANOS, backend);
+        trigger.start();
+        backend.runFrames(2);
+        // Motion on every frame for 3 seconds.
+        for (int i = 0; i < 90; i++) {
+            trigger.onMotion(backend.mNowNanos);
+            backend.runFrames(1);
+        }
+
+        assertEquals(3, trigger.getShotCount());
+        assertEquals(90, trigger.getEventCount());
+        assertEquals(87, trigger.getSuppressedCount());
+        for (long latency : backend.mLatencies) {
+            assertEquals(PIPELINE_FRAMES * FRAME_NANOS, latency);
+        }
+    }
+
+    @Test
+    public void givesUpOnALostStill() {
+        SensorClockBackend backend = new SensorClockBackend();
+        MotionTrigger trigger = new MotionTrigger(backend, 0, backend);
+        trigger.start();
+        backend.runFrames(2);
+        backend.mLoseStills = true;
+        assertTrue(trigger.onMotion(backend.mNowNanos));
+        backend.runFrames(10);
+        assertFalse(trigger.onMotion(backend.mNowNanos));
+
+        backend.mLoseStills = false;
+        backend.runFrames(60);
+        assertTrue(trigger.onMotion(backend.mNowNanos));
+        backend.runFrames(PIPELINE_FRAMES);
+        assertEquals(1, trigger.getShotCount());
+    }
+
+    /**
+     * A camera that locks the 3A on the next frame and exposes every still a fixed number of
+     * frames after it was requested.
+     */
+    private static class SensorClockBackend
+            implements IntervalCaptureBackend, MotionTrigger.Listener {
+
+        private final List<Long> mLatencies = new ArrayList<>();
+
+        private FrameCallback mCallback;
+
+        private long mNowNanos = TimeUnit.SECONDS.toNanos(1000);
+
+        private boolean mLocked;
+
+        private boolean mLoseStills;
+
+        private int mLockCount;
+
+        private int mUnlockCount;
+
+        /**
+         * Frames left until the requested still is exposed, or -1.
+         */
+        private int mStillCountdown = -1;
+
+        void runFrames(int frames) {
+            for (int i = 0; i < frames; i++) {
+                mNowNanos += FRAME_NANOS;
+                if (mStillCountdown > 0 && --mStillCountdown == 0) {
+                    mStillCountdown = -1;
+                    if (!mLoseStills) {
+                        mCallback.onLockedStillCompleted(mNowNanos);
+                    }
+                    continue;
+                }
+                mCallback.onFrameResult(mNowNanos,
+                        mLocked ? CameraBackend.AF_STATE_FOCUSED_LOCKED : 1,
+                        mLocked ? AE_STATE_LOCKED : CameraBackend.AE_STATE_CONVERGED);
+            }
+        }
+
+        @Override
+        public void setFrameCallback(FrameCallback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void lock3A() {
+            mLockCount++;
+            mLocked = true;
+        }
+
+        @Override
+        public void setLowPowerRepeating(boolean lowPower) {
+        }
+
+        @Override
+        public void captureLockedStill(int jpegOrientation) {
+            assertTrue(mLocked);
+            assertEquals(-1, mStillCountdown);
+            mStillCountdown = PIPELINE_FRAMES;
+        }
+
+        @Override
+        public void unlock3A() {
+            mUnlockCount++;
+            mLocked = false;
+        }
+
+        @Override
+        public int getJpegOrientation() {
+            return 0;
+        }
+
+        @Override
+        public void onMotionShot(int shot, long latencyNanos) {
+            mLatencies.add(latencyNanos);
+        }
+
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Segments, recovery and export of {@link PackStore}.
+ */
+public class PackStoreTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void rollsSegmentsAndReopens() throws IOException {
+        File directory = mTemporaryFolder.newFolder("pack");
+        PackStore store = new PackStore(directory, 25 * 1024);
+        store.open();
+        for (int i = 0; i < 6; i++) {
+            byte[] jpeg = SyntheticFrames.jpeg(10 * 1024, i);
+            ByteBuffer data;
+            if (i % 2 == 0) {
+                data = ByteBuffer.wrap(jpeg);
+            } else {
+                data = ByteBuffer.allocateDirect(jpeg.length);
+                data.put(jpeg).flip();
+            }
+            PackStore.Record record = store.append(data, 1000 + i);
+            assertEquals(0, data.position());
+            assertEquals(jpeg.length, record.getLength());
+        }
+        // Two records of 10 kB fit in a segment of 25 kB.
+        assertEquals(3, store.getSegments().size());
+        store.close();
+
+        PackStore reopened = new PackStore(directory, 25 * 1024);
+        reopened.open();
+        assertEquals(6, reopened.getRecordCount());
+        assertEquals(0, reopened.getRecoveredSegmentCount());
+        List<File> segments = reopened.getSegments();
+        assertEquals(3, segments.size());
+        int number = 0;
+        for (File segment : segments) {
+            for (PackStore.Record record : PackStore.readRecords(segment)) {
+                assertEquals(1000 + number, record.getTimestamp());
+                assertArrayEquals(SyntheticFrames.jpeg(10 * 1024, number), read(record));
+                number++;
+            }
+        }
+        assertEquals(6, number);
+
+        // New captures never go into a sealed segment.
+        reopened.append(ByteBuffer.wrap(SyntheticFrames.jpeg(1024, 6)), 1006);
+        assertEquals(4, reopened.getSegments().size());
+        reopened.close();
+    }
+
+    @Test
+    public void recoversTheIndexAfterACrash() throws IOException {
+        File directory = mTemporaryFolder.newFolder("pack");
+        PackStore store = new PackStore(directory, 1024 * 1024);
+        store.open();
+        PackStore.Record[] records = new PackStore.Record[3];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = store.append(ByteBuffer.wrap(SyntheticFrames.jpeg(4096, i)), i);
+        }
+        // No close: the app died while a fourth record was being written, and a bit of the
+        // second one flipped.
+        File segment = records[0].getSegment();
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            long end = file.length();
+            file.seek(end);
+            file.writeInt(0x52454331);
+            file.writeInt(4096);
+            file.writeLong(3);
+            file.writeInt(0);
+            file.write(new byte[100]);
+            file.seek(records[1].getOffset() + 50);
+            int value = file.read();
+            file.seek(records[1].getOffset() + 50);
+            file.write(value ^ 0x10);
+        } finally {
+            file.close();
+        }
+
+        PackStore recovered = new PackStore(directory, 1024 * 1024);
+        recovered.open();
+        assertEquals(1, recovered.getRecoveredSegmentCount());
+        assertEquals(1, recovered.getCorruptRecordCount());
+        assertEquals(120, recovered.getTruncatedBytes());
+        assertEquals(2, recovered.getRecordCount());
+        List<PackStore.Record> listed = PackStore.readRecords(segment);
+        assertEquals(2, listed.size());
+        assertEquals(0, listed.get(0).getTimestamp());
+        assertEquals(2, listed.get(1).getTimestamp());
+        assertArrayEquals(SyntheticFrames.jpeg(4096, 2), read(listed.get(1)));
+        assertTrue(new File(directory, "seg-00000001.idx").isFile());
+
+        PackStore.Record next = recovered.append(
+                ByteBuffer.wrap(SyntheticFrames.jpeg(4096, 3)), 3);
+        assertEquals("seg-00000002.pack", next.getSegment().getName());
+        recovered.close();
+        store.close();
+    }
+
+    @Test
+    public void exportsJpegsAndSkipsCorruptRecords() throws IOException {
+        File directory = mTemporaryFolder.newFolder("pack");
+        PackStore store = new PackStore(directory, 1024 * 1024);
+        store.open();
+        PackStore.Record corrupt = null;
+        for (int i = 0; i < 4; i++) {
+            PackStore.Record record = store.append(
+                    ByteBuffer.wrap(SyntheticFrames.jpeg(8192 + i, i)), i);
+            if (2 == i) {
+                corrupt = record;
+            }
+        }
+        store.close();
+        RandomAccessFile file = new RandomAccessFile(corrupt.getSegment(), "rw");
+        try {
+            file.seek(corrupt.getOffset() + corrupt.getLength() - 1);
+            file.write(0);
+        } finally {
+            file.close();
+        }
+
+        File output = new File(mTemporaryFolder.getRoot(), "jpegs");
+        PackExporter exporter = new PackExporter();
+        List<File> files = exporter.export(corrupt.getSegment(), output);
+        assertEquals(3, exporter.getExportedCount());
+        assertEquals(1, exporter.getCorruptCount());
+        assertEquals(3, files.size());
+        assertEquals("seg-00000001-00001.jpg", files.get(0).getName());
+        assertArrayEquals(SyntheticFrames.jpeg(8192, 0), Files.readAllBytes(files.get(0).toPath()));
+        assertArrayEquals(SyntheticFrames.jpeg(8195, 3), Files.readAllBytes(files.get(2).toPath()));
+        assertEquals(3, output.list().length);
+    }
+
+    private static byte[] read(PackStore.Record record) throws IOException {
+        byte[] data = new byte[record.getLength()];
+        RandomAccessFile file = new RandomAccessFile(record.getSegment(), "r");
+        try {
+            file.seek(record.getOffset());
+            file.readFully(data);
+        } finally {
+            file.close();
+        }
+        return data;
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The bound on the pending bytes of {@link SharedImageWriter}, and what happens to the pictures it
+ * drops.
+ */
+public class SharedImageWriterTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final List<Runnable> mQueued = new ArrayList<>();
+
+    private final Executor mQueue = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mQueued.add(command);
+        }
+    };
+
+    @Test
+    public void discardsWithoutWriting() throws Exception {
+        SharedImageWriter writer = new SharedImageWriter(mQueue, 150);
+        File kept = new File(mTemporaryFolder.getRoot(), "kept.jpg");
+        File dropped = new File(mTemporaryFolder.getRoot(), "dropped.jpg");
+        ClosingImage droppedImage = new ClosingImage(100);
+
+        assertTrue(writer.submit(new ImageSaver(new ClosingImage(100), kept)));
+        assertFalse(writer.submit(new ImageSaver(droppedImage, dropped)));
+
+        // The dropped image goes back to the camera right away and is never written.
+        assertEquals(1, droppedImage.mCloseCount.get());
+        assertEquals(1, writer.getDroppedCount());
+        assertEquals(100, writer.getPendingBytes());
+        assertEquals(1, mQueued.size());
+        mQueued.get(0).run();
+        assertEquals(100, kept.length());
+        assertFalse(dropped.exists());
+        assertEquals(1, droppedImage.mCloseCount.get());
+    }
+
+    @Test
+    public void acceptsAgainOnceTheWriterCatchesUp() throws Exception {
+        SharedImageWriter writer = new SharedImageWriter(mQueue, 150);
+        writer.submit(new ImageSaver(new ClosingImage(100), mTemporaryFolder.newFile()));
+        assertFalse(writer.submit(new ImageSaver(new ClosingImage(100),
+                mTemporaryFolder.newFile())));
+
+        mQueued.remove(0).run();
+        assertEquals(0, writer.getPendingBytes());
+        assertTrue(writer.submit(new ImageSaver(new ClosingImage(100),
+                mTemporaryFolder.newFile())));
+        assertEquals(1, writer.getWrittenCount());
+        assertEquals(1, writer.getDroppedCount());
+    }
+
+    @Test
+    public void neverQueuesMoreThanTheBoundFromSeveralCameras() throws Exception {
+        final int cameras = 4;
+        final int pictures = 200;
+        final long bound = 1000;
+        final ExecutorService writerThread = Executors.newSingleThreadExecutor();
+        final AtomicLong maxPending = new AtomicLong();
+        final SharedImageWriter[] writer = new SharedImageWriter[1];
+        writer[0] = new SharedImageWriter(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                long pending = writer[0].getPendingBytes();
+                if (pending > maxPending.get()) {
+                    maxPending.set(pending);
+                }
+                writerThread.execute(command);
+            }
+        }, bound);
+        final File file = mTemporaryFolder.newFile();
+        final AtomicInteger closed = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(cameras);
+        for (int i = 0; i < cameras; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < pictures; j++) {
+                        writer[0].submit(new ImageSaver(new ClosingImage(100, closed), file));
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        writerThread.shutdown();
+        assertTrue(writerThread.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertTrue("pending " + maxPending.get(), maxPending.get() <= bound);
+        assertEquals(0, writer[0].getPendingBytes());
+        assertEquals(cameras * pictures,
+                writer[0].getWrittenCount() + writer[0].getDroppedCount());
+        // Every image is closed exactly once, written or not.
+        assertEquals(cameras * pictures, closed.get());
+    }
+
+    private static class ClosingImage implements StillImage {
+
+        private final ByteBuffer mBuffer;
+
+        private final AtomicInteger mCloseCount;
+
+        ClosingImage(int size) {
+            this(size, new AtomicInteger());
+        }
+
+        ClosingImage(int size, AtomicInteger closeCount) {
+            mBuffer = ByteBuffer.wrap(SyntheticFrames.jpeg(size, size));
+            mCloseCount = closeCount;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            mCloseCount.incrementAndGet();
+        }
+
+    }
+
+}
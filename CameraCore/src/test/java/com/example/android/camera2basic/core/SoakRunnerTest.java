@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Short soak runs of {@link CaptureController} against a {@link SimulatedCameraBackend}.
+ */
+public class SoakRunnerTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private ScheduledExecutorService mCameraThread;
+
+    private ScheduledExecutorService mDriver;
+
+    private SimulatedCameraBackend mBackend;
+
+    @Before
+    public void setUp() {
+        mCameraThread = Executors.newSingleThreadScheduledExecutor();
+        mDriver = Executors.newSingleThreadScheduledExecutor();
+        mBackend = new SimulatedCameraBackend(mCameraThread)
+                .setOpenLatencyMillis(20)
+                .setSessionLatencyMillis(20)
+                .setFrameIntervalMillis(10)
+                .setStillLatencyMillis(30)
+                .setJpegSize(64 * 1024);
+    }
+
+    @After
+    public void tearDown() {
+        mDriver.shutdownNow();
+        mCameraThread.shutdownNow();
+    }
+
+    @Test
+    public void steadyRunPasses() throws Exception {
+        SoakConfig config = new SoakConfig()
+                .setPattern(ShutterPattern.steady(100))
+                .setDurationMillis(2000)
+                .setSampleIntervalMillis(250);
+        SoakReport report = run(config, mCameraThread);
+
+        StringWriter text = new StringWriter();
+        report.writeTo(text);
+        assertTrue(text.toString(), report.passed());
+        assertTrue(report.getCaptures() >= 10);
+        assertEquals(report.getCaptures(), report.getLatency(SoakRunner.PHASE_CAPTURE).getCount());
+        assertEquals(0, report.getStalls());
+        assertTrue(text.toString().endsWith("RESULT PASS\n"));
+    }
+
+    @Test
+    public void burstsDropPressesWhileCapturing() throws Exception {
+        SoakConfig config = new SoakConfig()
+                .setPattern(ShutterPattern.bursty(5, 10, 300))
+                .setDurationMillis(1500)
+                .setSampleIntervalMillis(250);
+        SoakReport report = run(config, mCameraThread);
+
+        assertTrue(report.getDropped() > 0);
+        assertTrue(report.getCaptures() > 0);
+        assertTrue(report.getPresses() >= report.getCaptures() + report.getDropped());
+    }
+
+    @Test
+    public void leakedImagesFail() throws Exception {
+        SoakConfig config = new SoakConfig()
+                .setPattern(ShutterPattern.steady(100))
+                .setDurationMillis(1000)
+                .setSampleIntervalMillis(250);
+        // Never runs the ImageSaver, so the images are never closed.
+        Executor leakingExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+            }
+        };
+        SoakReport report = run(config, leakingExecutor);
+
+        assertFalse(report.passed());
+        for (SoakReport.Check check : report.getChecks()) {
+            assertEquals(check.toString(), !"outstanding_images".equals(check.getName()),
+                    check.isPassed());
+        }
+    }
+
+    @Test
+    public void parsesPatterns() {
+        assertEquals("steady:500", ShutterPattern.parse("steady:500").toString());
+        assertEquals("bursty:5:100:3000", ShutterPattern.parse("bursty:5:100:3000").toString());
+        assertEquals(2.0, ShutterPattern.parse("random:500").getRatePerSecond(), 1e-9);
+        ShutterPattern bursty = ShutterPattern.bursty(3, 100, 1000);
+        assertEquals(100, bursty.nextDelayMillis());
+        assertEquals(100, bursty.nextDelayMillis());
+        assertEquals(1000, bursty.nextDelayMillis());
+        assertEquals(100, bursty.nextDelayMillis());
+    }
+
+    private SoakReport run(SoakConfig config, Executor saveExecutor)
+            throws IOException, InterruptedException {
+        SoakRunner runner = new SoakRunner(config, mDriver);
+        final CaptureController controller = new CaptureController(runner.instrument(mBackend),
+                runner.instrument(saveExecutor), new CaptureController.Listener() {
+
+                    @Override
+                    public int getJpegOrientation() {
+                        return 90;
+                    }
+
+                    @Override
+                    public void onPreviewStarted() {
+                    }
+
+                    @Override
+                    public void onOpenFailed() {
+                    }
+
+                    @Override
+                    public void onSessionConfigureFailed() {
+                    }
+
+                    @Override
+                    public void onCameraLost(int error) {
+                    }
+
+                    @Override
+                    public void onPictureTaken(File file) {
+                    }
+
+                });
+        controller.setCameraExecutor(mCameraThread);
+        controller.setOutputFile(mTemporaryFolder.newFile("soak.jpg"));
+        controller.open();
+        mCameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                controller.onPreviewSurfaceReady();
+            }
+        });
+
+        final SoakReport[] report = new SoakReport[1];
+        final CountDownLatch finished = new CountDownLatch(1);
+        runner.start(controller, new SoakRunner.Listener() {
+            @Override
+            public void onSoakFinished(SoakReport result) {
+                report[0] = result;
+                finished.countDown();
+            }
+        });
+        assertTrue(finished.await(config.getDurationMillis() + 5000, TimeUnit.MILLISECONDS));
+        controller.close();
+        return report[0];
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Real, decodable JPEGs for the tests, encoded with {@link ImageIO}.
+ */
+final class TestJpegs {
+
+    private TestJpegs() {
+    }
+
+    /**
+     * @return A smooth color pattern that survives JPEG compression well.
+     */
+    static BufferedImage pattern(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = 255 * x / width;
+                int g = 255 * y / height;
+                int b = (int) (127.5 + 127.5 * Math.sin((x + 2 * y) / 9.0));
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @param restartInterval MCUs between restart markers, or 0 for none.
+     */
+    static byte[] encode(BufferedImage image, boolean progressive, int restartInterval)
+            throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.9f);
+        if (progressive) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        IIOMetadata metadata = writer.getDefaultImageMetadata(
+                ImageTypeSpecifier.createFromRenderedImage(image), param);
+        if (restartInterval > 0) {
+            String format = metadata.getNativeMetadataFormatName();
+            Node root = metadata.getAsTree(format);
+            Node markers = ((Element) root).getElementsByTagName("markerSequence").item(0);
+            IIOMetadataNode dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", Integer.toString(restartInterval));
+            markers.insertBefore(dri, markers.getFirstChild());
+            metadata.setFromTree(format, root);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageOutputStream stream = ImageIO.createImageOutputStream(output);
+        writer.setOutput(stream);
+        writer.write(null, new IIOImage(image, null, metadata), param);
+        stream.close();
+        writer.dispose();
+        return output.toByteArray();
+    }
+
+    static BufferedImage decode(byte[] jpeg) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+
+    static BufferedImage decode(ByteBuffer jpeg) throws IOException {
+        byte[] bytes = new byte[jpeg.remaining()];
+        jpeg.duplicate().get(bytes);
+        return decode(bytes);
+    }
+
+}
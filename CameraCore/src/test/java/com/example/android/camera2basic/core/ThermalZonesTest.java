@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ThermalZones} on a fake {@code /sys/class/thermal}.
+ */
+public class ThermalZonesTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readsTheHottestCaseZone() throws IOException {
+        File root = mFolder.getRoot();
+        zone(root, 0, "cpu0-silver-usr", "78000");
+        zone(root, 1, "skin-therm", "41500");
+        zone(root, 2, "xo_therm", "38");
+        zone(root, 3, "quiet_therm", "not a number");
+        new File(root, "cooling_device0").mkdir();
+
+        ThermalZones zones = new ThermalZones(root);
+        assertEquals(41.5f, zones.readCaseTemperatureCelsius(), 0.001f);
+        assertEquals(DeviceConditions.THERMAL_STATUS_LIGHT,
+                ThermalZones.toThermalStatus(zones.readCaseTemperatureCelsius()));
+    }
+
+    @Test
+    public void reportsUnknownWithoutCaseZones() throws IOException {
+        File root = mFolder.getRoot();
+        zone(root, 0, "gpu", "65000");
+        float celsius = new ThermalZones(root).readCaseTemperatureCelsius();
+        assertTrue(Float.isNaN(celsius));
+        assertEquals(DeviceConditions.THERMAL_STATUS_UNKNOWN,
+                ThermalZones.toThermalStatus(celsius));
+        assertTrue(Float.isNaN(new ThermalZones(new File(root, "missing"))
+                .readCaseTemperatureCelsius()));
+    }
+
+    @Test
+    public void mapsTemperaturesToStatuses() {
+        assertEquals(0, ThermalZones.toThermalStatus(35f));
+        assertEquals(DeviceConditions.THERMAL_STATUS_LIGHT, ThermalZones.toThermalStatus(40f));
+        assertEquals(DeviceConditions.THERMAL_STATUS_MODERATE, ThermalZones.toThermalStatus(43f));
+        assertEquals(DeviceConditions.THERMAL_STATUS_SEVERE, ThermalZones.toThermalStatus(50f));
+    }
+
+    private static void zone(File root, int number, String type, String temp) throws IOException {
+        File zone = new File(root, "thermal_zone" + number);
+        assertTrue(zone.mkdir());
+        write(new File(zone, "type"), type + "\n");
+        write(new File(zone, "temp"), temp + "\n");
+    }
+
+    private static void write(File file, String text) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(text);
+        } finally {
+            writer.close();
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Busy and sustained throughput of {@link ThroughputMeter}.
+ */
+public class ThroughputMeterTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void separatesBusyFromSustainedThroughput() {
+        ThroughputMeter meter = new ThroughputMeter();
+        long second = TimeUnit.SECONDS.toNanos(1);
+        // Two 50MB writes of half a second each, one second apart.
+        meter.record(50 * MB, 0, second / 2);
+        meter.record(50 * MB, second, second + second / 2);
+        meter.recordDropped();
+
+        assertEquals(2, meter.getCount());
+        assertEquals(1, meter.getDroppedCount());
+        assertEquals(100 * MB, meter.getBytes());
+        assertEquals(100.0, meter.getBusyMegabytesPerSecond(), 0.01);
+        assertEquals(100.0 / 1.5, meter.getSustainedMegabytesPerSecond(), 0.01);
+    }
+
+    @Test
+    public void reportsNothingBeforeTheFirstWrite() {
+        ThroughputMeter meter = new ThroughputMeter();
+        assertEquals(0.0, meter.getBusyMegabytesPerSecond(), 0);
+        assertEquals(0.0, meter.getSustainedMegabytesPerSecond(), 0);
+    }
+
+}
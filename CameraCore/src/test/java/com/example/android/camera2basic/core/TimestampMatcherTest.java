@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Pairing and eviction in {@link TimestampMatcher}.
+ */
+public class TimestampMatcherTest {
+
+    private final List<String> mMatched = new ArrayList<>();
+
+    private final List<String> mClosed = new ArrayList<>();
+
+    private final TimestampMatcher<String, String> mMatcher = new TimestampMatcher<>(2,
+            new TimestampMatcher.Listener<String, String>() {
+                @Override
+                public void onMatched(long timestamp, String image, String result) {
+                    mMatched.add(timestamp + ":" + image + "+" + result);
+                }
+
+                @Override
+                public void onImageUnmatched(long timestamp, String image) {
+                    mClosed.add(image);
+                }
+            });
+
+    @Test
+    public void pairsInEitherOrder() {
+        mMatcher.addImage(100, "image1");
+        mMatcher.addResult(200, "result2");
+        mMatcher.addResult(100, "result1");
+        mMatcher.addImage(200, "image2");
+
+        assertEquals(2, mMatched.size());
+        assertEquals("100:image1+result1", mMatched.get(0));
+        assertEquals("200:image2+result2", mMatched.get(1));
+        assertEquals(2, mMatcher.getMatchedCount());
+    }
+
+    @Test
+    public void evictsOldestBeyondCapacity() {
+        mMatcher.addImage(100, "image1");
+        mMatcher.addImage(200, "image2");
+        mMatcher.addImage(300, "image3");
+        mMatcher.addResult(10, "a");
+        mMatcher.addResult(20, "b");
+        mMatcher.addResult(30, "c");
+
+        assertEquals(1, mClosed.size());
+        assertEquals("image1", mClosed.get(0));
+        assertEquals(1, mMatcher.getUnmatchedImageCount());
+        assertEquals(1, mMatcher.getUnmatchedResultCount());
+
+        mMatcher.addResult(100, "late");
+        assertEquals(0, mMatched.size());
+
+        mMatcher.clear();
+        assertEquals(3, mClosed.size());
+        assertEquals(3, mMatcher.getUnmatchedImageCount());
+        assertEquals(4, mMatcher.getUnmatchedResultCount());
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link VideoRecorder} with a stand-in encoder that plays back scripted output buffers.
+ */
+public class VideoRecorderTest {
+
+    private static final long FRAME_US = 33333;
+
+    @Test
+    public void muxesFramesAndCountsGaps() throws InterruptedException {
+        FakeEncoder encoder = new FakeEncoder(true);
+        FakeMuxer muxer = new FakeMuxer();
+        VideoRecorder recorder = new VideoRecorder(encoder, muxer, 30);
+        encoder.formatChanged();
+        encoder.output(0, 30, VideoEncoder.FLAG_CODEC_CONFIG);
+        encoder.output(1000, 5000, VideoEncoder.FLAG_KEY_FRAME);
+        encoder.output(1000 + FRAME_US, 800, 0);
+        // Two frames are missing here.
+        encoder.output(1000 + 4 * FRAME_US, 900, 0);
+        encoder.output(1000 + 5 * FRAME_US + 2000, 700, 0);
+        for (int i = 0; i < 6; i++) {
+            recorder.onCameraFrame(i);
+        }
+        recorder.start();
+
+        assertTrue(recorder.stop(5000));
+        assertEquals(4, recorder.getFrameCount());
+        assertEquals(2, recorder.getDroppedFrameCount());
+        assertEquals(6, recorder.getCameraFrameCount());
+        assertEquals(5000 + 800 + 900 + 700, recorder.getByteCount());
+        assertNull(recorder.getFailure());
+        assertTrue(muxer.mStarted);
+        assertTrue(muxer.mStopped);
+        // The codec config went to the muxer with the format, not as a sample.
+        assertEquals(4, muxer.mSizes.size());
+        assertEquals(5000, (int) muxer.mSizes.get(0));
+        assertEquals(6, encoder.mReleased.size());
+    }
+
+    @Test
+    public void finishesTheFileWhenTheEncoderHangs() throws InterruptedException {
+        FakeEncoder encoder = new FakeEncoder(false);
+        FakeMuxer muxer = new FakeMuxer();
+        VideoRecorder recorder = new VideoRecorder(encoder, muxer, 30);
+        encoder.formatChanged();
+        encoder.output(0, 100, VideoEncoder.FLAG_KEY_FRAME);
+        recorder.start();
+
+        long start = System.nanoTime();
+        assertFalse(recorder.stop(100));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        assertEquals(1, recorder.getFrameCount());
+        assertTrue(muxer.mStopped);
+    }
+
+    @Test
+    public void reportsAMuxerFailure() throws InterruptedException {
+        FakeEncoder encoder = new FakeEncoder(true);
+        FakeMuxer muxer = new FakeMuxer();
+        muxer.mFailAfter = 1;
+        VideoRecorder recorder = new VideoRecorder(encoder, muxer, 30);
+        encoder.formatChanged();
+        encoder.output(0, 100, VideoEncoder.FLAG_KEY_FRAME);
+        encoder.output(FRAME_US, 100, 0);
+        recorder.start();
+
+        recorder.stop(5000);
+        assertTrue(recorder.getFailure() instanceof IllegalStateException);
+        assertEquals(1, recorder.getFrameCount());
+        assertTrue(muxer.mStopped);
+        // The buffer of the failed sample went back to the encoder anyway.
+        assertEquals(2, encoder.mReleased.size());
+    }
+
+    /**
+     * Hands out the scripted buffers in order, then the end of the stream once it was signalled
+     * if {@code endsStream} is set.
+     */
+    private static class FakeEncoder implements VideoEncoder {
+
+        private final LinkedBlockingQueue<Object[]> mOutputs = new LinkedBlockingQueue<>();
+
+        private final List<ByteBuffer> mBuffers = new ArrayList<>();
+
+        private final List<Integer> mReleased = new ArrayList<>();
+
+        private final boolean mEndsStream;
+
+        FakeEncoder(boolean endsStream) {
+            mEndsStream = endsStream;
+        }
+
+        void formatChanged() {
+            mOutputs.add(new Object[]{INFO_OUTPUT_FORMAT_CHANGED});
+        }
+
+        void output(long presentationTimeUs, int size, int flags) {
+            // Samples start past an offset, like in a shared codec buffer.
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size + 16);
+            synchronized (mBuffers) {
+                mBuffers.add(buffer);
+                mOutputs.add(new Object[]{mBuffers.size() - 1, presentationTimeUs, size, flags});
+            }
+        }
+
+        @Override
+        public int dequeueOutputBuffer(Sample sample, long timeoutMicros) {
+            Object[] output;
+            try {
+                output = mOutputs.poll(timeoutMicros, TimeUnit.MICROSECONDS);
+            } catch (InterruptedException e) {
+                return INFO_TRY_AGAIN_LATER;
+            }
+            if (null == output) {
+                return INFO_TRY_AGAIN_LATER;
+            }
+            int index = (Integer) output[0];
+            if (index >= 0) {
+                sample.set(16, (Integer) output[2], (Long) output[1], (Integer) output[3]);
+            }
+            return index;
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            synchronized (mBuffers) {
+                return mBuffers.get(index);
+            }
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index) {
+            synchronized (mReleased) {
+                mReleased.add(index);
+            }
+        }
+
+        @Override
+        public void signalEndOfInputStream() {
+            if (mEndsStream) {
+                output(Long.MAX_VALUE, 0, FLAG_END_OF_STREAM);
+            }
+        }
+
+    }
+
+    private static class FakeMuxer implements VideoMuxer {
+
+        final List<Integer> mSizes = new ArrayList<>();
+
+        volatile boolean mStarted;
+
+        volatile boolean mStopped;
+
+        int mFailAfter = Integer.MAX_VALUE;
+
+        @Override
+        public void start() {
+            mStarted = true;
+        }
+
+        @Override
+        public void writeSampleData(ByteBuffer data, VideoEncoder.Sample sample) {
+            if (mSizes.size() == mFailAfter) {
+                throw new IllegalStateException("Disk full");
+            }
+            assertEquals(16, data.position());
+            mSizes.add(data.remaining());
+        }
+
+        @Override
+        public void stop() {
+            mStopped = true;
+        }
+
+    }
+
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link CameraBackend} that simulates a camera, so that {@link CaptureController} can be run on
+ * a machine without camera hardware. The preview produces a capture result every frame interval,
+ * the 3A triggers play back scripted auto-focus and auto-exposure state sequences one frame at a
+ * time, and still captures produce synthetic JPEG images after a configurable latency.
+ *
+ * <p>Every operation and every callback runs on the given camera thread, just like the camera2
+ * callbacks run on the camera background thread in the app.</p>
+ */
+public class SimulatedCameraBackend implements CameraBackend {
+
+    /**
+     * Same as {@code CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED}.
+     */
+    public static final int AF_STATE_PASSIVE_FOCUSED = 2;
+
+    /**
+     * Same as {@code CaptureResult.CONTROL_AF_STATE_ACTIVE_SCAN}.
+     */
+    public static final int AF_STATE_ACTIVE_SCAN = 3;
+
+    /**
+     * Same as {@code CaptureResult.CONTROL_AE_STATE_SEARCHING}.
+     */
+    public static final int AE_STATE_SEARCHING = 1;
+
+    private final ScheduledExecutorService mCameraThread;
+
+    private long mOpenLatencyMillis = 150;
+
+    private long mSessionLatencyMillis = 80;
+
+    private long mFrameIntervalMillis = 33;
+
+    private long mStillLatencyMillis = 120;
+
+    private int mJpegSize = 256 * 1024;
+
+    private int[] mFocusLockSequence = {AF_STATE_ACTIVE_SCAN, AF_STATE_ACTIVE_SCAN,
+            AF_STATE_FOCUSED_LOCKED};
+
+    private int mPreviewAeState = AE_STATE_CONVERGED;
+
+    private int[] mPrecaptureSequence = {AE_STATE_PRECAPTURE, AE_STATE_PRECAPTURE,
+            AE_STATE_CONVERGED};
+
+    private final AtomicInteger mOpenCount = new AtomicInteger();
+
+    private final AtomicInteger mFocusLockCount = new AtomicInteger();
+
+    private final AtomicInteger mPrecaptureCount = new AtomicInteger();
+
+    private final AtomicInteger mStillCount = new AtomicInteger();
+
+    private final AtomicInteger mOutstandingImages = new AtomicInteger();
+
+    // The fields below are only accessed on the camera thread.
+
+    private Callback mCallback;
+
+    private boolean mOpen;
+
+    private ScheduledFuture<?> mFrames;
+
+    private int mAfState;
+
+    private int mAeState;
+
+    private int[] mAfScript;
+
+    private int mAfScriptIndex;
+
+    private int[] mAeScript;
+
+    private int mAeScriptIndex;
+
+    public SimulatedCameraBackend(ScheduledExecutorService cameraThread) {
+        mCameraThread = cameraThread;
+    }
+
+    public SimulatedCameraBackend setOpenLatencyMillis(long millis) {
+        mOpenLatencyMillis = millis;
+        return this;
+    }
+
+    public SimulatedCameraBackend setSessionLatencyMillis(long millis) {
+        mSessionLatencyMillis = millis;
+        return this;
+    }
+
+    public SimulatedCameraBackend setFrameIntervalMillis(long millis) {
+        mFrameIntervalMillis = millis;
+        return this;
+    }
+
+    public SimulatedCameraBackend setStillLatencyMillis(long millis) {
+        mStillLatencyMillis = millis;
+        return this;
+    }
+
+    public SimulatedCameraBackend setJpegSize(int bytes) {
+        mJpegSize = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the auto-focus states reported on the frames after {@link #lockFocus()}, one per
+     * frame. The last state is repeated until the focus is unlocked.
+     */
+    public SimulatedCameraBackend setFocusLockSequence(int... afStates) {
+        mFocusLockSequence = afStates;
+        return this;
+    }
+
+    /**
+     * Sets the auto-exposure state reported during the preview and the focus lock.
+     */
+    public SimulatedCameraBackend setPreviewAeState(int aeState) {
+        mPreviewAeState = aeState;
+        return this;
+    }
+
+    /**
+     * Sets the auto-exposure states reported on the frames after {@link #runPrecaptureSequence()},
+     * one per frame. The last state is repeated until the focus is unlocked.
+     */
+    public SimulatedCameraBackend setPrecaptureSequence(int... aeStates) {
+        mPrecaptureSequence = aeStates;
+        return this;
+    }
+
+    public int getOpenCount() {
+        return mOpenCount.get();
+    }
+
+    public int getFocusLockCount() {
+        return mFocusLockCount.get();
+    }
+
+    public int getPrecaptureCount() {
+        return mPrecaptureCount.get();
+    }
+
+    public int getStillCount() {
+        return mStillCount.get();
+    }
+
+    /**
+     * @return The number of images delivered and not closed yet.
+     */
+    public int getOutstandingImages() {
+        return mOutstandingImages.get();
+    }
+
+    /**
+     * Simulates the camera being taken away, e.g. by another app.
+     */
+    public void disconnect() {
+        mCameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mOpen) {
+                    return;
+                }
+                mOpen = false;
+                stopFrames();
+                mCallback.onCameraLost(ERROR_DISCONNECTED);
+            }
+        });
+    }
+
+    @Override
+    public boolean open(final Callback callback) {
+        mCameraThread.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mCallback = callback;
+                mOpen = true;
+                mOpenCount.incrementAndGet();
+                callback.onOpened();
+            }
+        }, mOpenLatencyMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    @Override
+    public void createSession() {
+        mCameraThread.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mOpen) {
+                    mCallback.onSessionConfigured();
+                }
+            }
+        }, mSessionLatencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void startPreview() {
+        mCameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                resetPreviewState();
+                startFrames();
+            }
+        });
+    }
+
+    @Override
+    public void lockFocus() {
+        mFocusLockCount.incrementAndGet();
+        mCameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                mAfScript = mFocusLockSequence;
+                mAfScriptIndex = 0;
+            }
+        });
+    }
+
+    @Override
+    public void runPrecaptureSequence() {
+        mPrecaptureCount.incrementAndGet();
+        mCameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                mAeScript = mPrecaptureSequence;
+                mAeScriptIndex = 0;
+            }
+        });
+    }
+
+    @Override
+    public void captureStillPicture(int jpegOrientation) {
+        mCameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Like stopRepeating(): no more preview results until the focus is unlocked.
+                stopFrames();
+            }
+        });
+        mCameraThread.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!mOpen) {
+                    return;
+                }
+                int number = mStillCount.incrementAndGet();
+                mCallback.onStillCaptureCompleted();
+                mOutstandingImages.incrementAndGet();
+                mCallback.onStillImageAvailable(new SimulatedImage(
+                        SyntheticFrames.jpeg(mJpegSize, number), System.nanoTime()));
+            }
+        }, mStillLatencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void unlockFocus() {
+        mCameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                resetPreviewState();
+                if (mOpen) {
+                    startFrames();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        mCameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                mOpen = false;
+                stopFrames();
+            }
+        });
+    }
+
+    private void resetPreviewState() {
+        mAfState = AF_STATE_PASSIVE_FOCUSED;
+        mAeState = mPreviewAeState;
+        mAfScript = null;
+        mAeScript = null;
+    }
+
+    private void startFrames() {
+        stopFrames();
+        mFrames = mCameraThread.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                onFrame();
+            }
+        }, mFrameIntervalMillis, mFrameIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopFrames() {
+        if (null != mFrames) {
+            mFrames.cancel(false);
+            mFrames = null;
+        }
+    }
+
+    private void onFrame() {
+        if (!mOpen) {
+            return;
+        }
+        if (null != mAfScript) {
+            mAfState = mAfScript[Math.min(mAfScriptIndex++, mAfScript.length - 1)];
+        }
+        if (null != mAeScript) {
+            mAeState = mAeScript[Math.min(mAeScriptIndex++, mAeScript.length - 1)];
+        }
+        mCallback.onCaptureResult(mAfState, mAeState);
+    }
+
+    /**
+     * A {@link StillImage} over a synthetic JPEG.
+     */
+    private class SimulatedImage implements StillImage {
+
+        private final ByteBuffer mBuffer;
+
+        private final long mTimestamp;
+
+        SimulatedImage(byte[] jpeg, long timestamp) {
+            mBuffer = ByteBuffer.wrap(jpeg);
+            mTimestamp = timestamp;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return mBuffer;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public void close() {
+            mOutstandingImages.decrementAndGet();
+        }
+
+    }
+
+}
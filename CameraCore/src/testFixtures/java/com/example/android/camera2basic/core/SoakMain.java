@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Runs a soak against {@link SimulatedCameraBackend}, without a device. Arguments are
+ * {@code key=value} pairs:
+ * <ul>
+ * <li>{@code pattern}: a {@link ShutterPattern}, {@code steady:250} by default</li>
+ * <li>{@code duration} and {@code sample}: in milliseconds</li>
+ * <li>{@code jpeg}: the size of the simulated JPEGs in bytes</li>
+ * <li>{@code still}: the simulated still capture latency in milliseconds</li>
+ * <li>{@code report}: the report file; the report goes to stdout by default</li>
+ * </ul>
+ * The exit status is 0 if all checks passed.
+ */
+public final class SoakMain {
+
+    private SoakMain() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        SoakConfig config = new SoakConfig().setPattern(ShutterPattern.steady(250));
+        ScheduledExecutorService cameraThread = Executors.newSingleThreadScheduledExecutor();
+        SimulatedCameraBackend backend = new SimulatedCameraBackend(cameraThread);
+        File reportFile = null;
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value: " + arg);
+            }
+            String value = arg.substring(separator + 1);
+            switch (arg.substring(0, separator)) {
+                case "pattern":
+                    config.setPattern(ShutterPattern.parse(value));
+                    break;
+                case "duration":
+                    config.setDurationMillis(Long.parseLong(value));
+                    break;
+                case "sample":
+                    config.setSampleIntervalMillis(Long.parseLong(value));
+                    break;
+                case "jpeg":
+                    backend.setJpegSize(Integer.parseInt(value));
+                    break;
+                case "still":
+                    backend.setStillLatencyMillis(Long.parseLong(value));
+                    break;
+                case "report":
+                    reportFile = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        ScheduledExecutorService driver = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService saveThread = Executors.newSingleThreadExecutor();
+        File output = File.createTempFile("soak", ".jpg");
+        output.deleteOnExit();
+        SoakRunner runner = new SoakRunner(config, driver);
+        final CaptureController controller = new CaptureController(runner.instrument(backend),
+                runner.instrument(saveThread), new CaptureController.Listener() {
+            @Override
+            public int getJpegOrientation() {
+                return 90;
+            }
+
+            @Override
+            public void onPreviewStarted() {
+            }
+
+            @Override
+            public void onOpenFailed() {
+            }
+
+            @Override
+            public void onSessionConfigureFailed() {
+            }
+
+            @Override
+            public void onCameraLost(int error) {
+            }
+
+            @Override
+            public void onPictureTaken(File file) {
+            }
+        });
+        controller.setCameraExecutor(cameraThread);
+        controller.setOutputFile(output);
+        controller.open();
+        cameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                controller.onPreviewSurfaceReady();
+            }
+        });
+
+        final SoakReport[] report = new SoakReport[1];
+        final CountDownLatch finished = new CountDownLatch(1);
+        runner.start(controller, new SoakRunner.Listener() {
+            @Override
+            public void onSoakFinished(SoakReport result) {
+                report[0] = result;
+                finished.countDown();
+            }
+        });
+        finished.await();
+        controller.close();
+        driver.shutdown();
+        saveThread.shutdown();
+        cameraThread.shutdown();
+
+        Writer writer = new OutputStreamWriter(null == reportFile
+                ? System.out : new FileOutputStream(reportFile), "UTF-8");
+        try {
+            report[0].writeTo(writer);
+        } finally {
+            writer.flush();
+            if (null != reportFile) {
+                writer.close();
+            }
+        }
+        System.exit(report[0].passed() ? 0 : 1);
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.camera2basic.core;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Synthetic image buffers for tests that run without a camera.
+ */
+public final class SyntheticFrames {
+
+    private SyntheticFrames() {
+    }
+
+    /**
+     * Creates a structurally valid JPEG stream: SOI, a JFIF APP0 segment, a start-of-scan header,
+     * pseudo-random entropy-coded data without markers, and EOI. Segment parsers accept it, but it
+     * does not decode to a picture.
+     *
+     * @param size The total size in bytes; at least 64.
+     * @param seed Seed for the entropy-coded data, so that different frames differ.
+     */
+    public static byte[] jpeg(int size, long seed) {
+        if (size < 64) {
+            throw new IllegalArgumentException("JPEG must be at least 64 bytes: " + size);
+        }
+        byte[] data = new byte[size];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        // SOI
+        buffer.putShort((short) 0xFFD8);
+        // APP0 "JFIF", version 1.1, no density, no thumbnail
+        buffer.putShort((short) 0xFFE0).putShort((short) 16);
+        buffer.put(new byte[]{'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+        // SOS with a single component
+        buffer.putShort((short) 0xFFDA).putShort((short) 8);
+        buffer.put(new byte[]{1, 1, 0, 0, 63, 0});
+        Random random = new Random(seed);
+        byte[] entropy = new byte[size - buffer.position() - 2];
+        random.nextBytes(entropy);
+        for (int i = 0; i < entropy.length; i++) {
+            if (entropy[i] == (byte) 0xFF) {
+                // Keep the data free of markers.
+                entropy[i] = (byte) 0xFE;
+            }
+        }
+        buffer.put(entropy);
+        // EOI
+        buffer.putShort((short) 0xFFD9);
+        return data;
+    }
+
+    /**
+     * Creates a planar YUV 4:2:0 frame (Y, then U, then V) whose luma is a diagonal gradient that
+     * moves by one pixel per frame, with neutral chroma.
+     *
+     * @param width  The width of the frame; must be even.
+     * @param height The height of the frame; must be even.
+     * @param frame  The frame number.
+     */
+    public static ByteBuffer yuv420(int width, int height, int frame) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(width * height * 3 / 2);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                buffer.put((byte) (x + y + frame));
+            }
+        }
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 128);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}